@@ -0,0 +1,45 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.common.http.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the JMH command-line options, always adding the GC profiler so that the allocation
+ * rate per operation is reported next to the time.
+ *
+ * <p>
+ * Usage: {@code java -jar common-http-benchmarks/target/benchmarks.jar [JMH options] [benchmark regexp]}, after
+ * {@code mvn package -Pbenchmarks}. For example, {@code -f 1 -wi 3 -i 5 HttpRequestsBenchmark.smallGet} runs a
+ * single benchmark quickly, and {@code -p transport=socket} a single transport.
+ * </p>
+ */
+public final class BenchmarkRunner {
+
+  private BenchmarkRunner() { }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder()
+      .parent(new CommandLineOptions(args))
+      .addProfiler(GCProfiler.class)
+      .build();
+    new Runner(options).run();
+  }
+}
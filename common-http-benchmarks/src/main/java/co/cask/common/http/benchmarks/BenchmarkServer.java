@@ -0,0 +1,153 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.common.http.benchmarks;
+
+import co.cask.http.AbstractHttpHandler;
+import co.cask.http.HttpResponder;
+import co.cask.http.NettyHttpService;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimap;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+
+/**
+ * A netty-http server on localhost with fixed responses for the benchmarks, built once so that serving them
+ * costs as little as possible.
+ *
+ * <ul>
+ *   <li>{@code /small}: a 16 byte body</li>
+ *   <li>{@code /bytes/{size}}: a body of the given size, up to 16MB</li>
+ *   <li>{@code /json}: a JSON array of {@value #JSON_RECORDS} {@link Record}s</li>
+ *   <li>{@code /headers}: a small body with {@value #HEADERS} headers</li>
+ * </ul>
+ */
+final class BenchmarkServer {
+
+  static final int JSON_RECORDS = 1000;
+  static final int HEADERS = 64;
+
+  private final NettyHttpService service;
+
+  private BenchmarkServer() {
+    this.service = NettyHttpService.builder()
+      .setHost("localhost")
+      .addHttpHandlers(ImmutableSet.of(new Handler()))
+      .setWorkerThreadPoolSize(Runtime.getRuntime().availableProcessors())
+      .setExecThreadPoolSize(0)
+      .setConnectionBacklog(20000)
+      .build();
+  }
+
+  static BenchmarkServer start() {
+    BenchmarkServer server = new BenchmarkServer();
+    server.service.startAndWait();
+    return server;
+  }
+
+  void stop() {
+    service.stopAndWait();
+  }
+
+  URL getURL(String path) throws MalformedURLException {
+    InetSocketAddress address = service.getBindAddress();
+    return new URL("http", address.getHostName(), address.getPort(), path);
+  }
+
+  /**
+   * A record of the JSON response.
+   */
+  static final class Record {
+    private final long id;
+    private final String name;
+    private final double score;
+    private final List<String> tags;
+
+    Record(long id, String name, double score, List<String> tags) {
+      this.id = id;
+      this.name = name;
+      this.score = score;
+      this.tags = tags;
+    }
+  }
+
+  /**
+   * Serves the benchmark responses.
+   */
+  @Path("/")
+  public static final class Handler extends AbstractHttpHandler {
+    private static final int MAX_SIZE = 16 * 1024 * 1024;
+
+    private final byte[] small = new byte[16];
+    private final byte[] large = new byte[MAX_SIZE];
+    private final List<Record> records;
+    private final Multimap<String, String> headers;
+
+    Handler() {
+      new Random(0).nextBytes(large);
+      ImmutableList.Builder<Record> records = ImmutableList.builder();
+      for (int i = 0; i < JSON_RECORDS; i++) {
+        records.add(new Record(i, "record-" + i, i / 7d, Arrays.asList("tag-" + (i % 10), "tag-" + (i % 3))));
+      }
+      this.records = records.build();
+      ImmutableMultimap.Builder<String, String> headers = ImmutableMultimap.builder();
+      for (int i = 0; i < HEADERS; i++) {
+        headers.put("X-Benchmark-Header-" + i, "value-" + i + "-0123456789abcdef0123456789abcdef");
+      }
+      this.headers = headers.build();
+    }
+
+    @GET
+    @Path("/small")
+    public void small(HttpRequest request, HttpResponder responder) {
+      responder.sendByteArray(HttpResponseStatus.OK, small, ImmutableMultimap.<String, String>of());
+    }
+
+    @GET
+    @Path("/bytes/{size}")
+    public void bytes(HttpRequest request, HttpResponder responder, @PathParam("size") int size) {
+      if (size < 0 || size > MAX_SIZE) {
+        responder.sendError(HttpResponseStatus.BAD_REQUEST, "Size must be in [0, " + MAX_SIZE + "]");
+        return;
+      }
+      responder.sendByteArray(HttpResponseStatus.OK, Arrays.copyOf(large, size),
+                              ImmutableMultimap.<String, String>of());
+    }
+
+    @GET
+    @Path("/json")
+    public void json(HttpRequest request, HttpResponder responder) {
+      responder.sendJson(HttpResponseStatus.OK, records);
+    }
+
+    @GET
+    @Path("/headers")
+    public void headers(HttpRequest request, HttpResponder responder) {
+      responder.sendByteArray(HttpResponseStatus.OK, small, headers);
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.common.http.benchmarks;
+
+import co.cask.common.http.HttpRequest;
+import co.cask.common.http.HttpRequestConfig;
+import co.cask.common.http.HttpRequests;
+import co.cask.common.http.HttpResponse;
+import co.cask.common.http.ObjectResponse;
+import co.cask.common.http.StreamingResponse;
+import com.google.common.collect.Multimap;
+import com.google.common.reflect.TypeToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of single callers of {@link HttpRequests} against a local server: the latency of small requests, the
+ * throughput of large bodies, JSON decoding with {@link ObjectResponse} and responses with many headers.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class HttpRequestsBenchmark {
+
+  private static final TypeToken<List<BenchmarkServer.Record>> RECORDS_TYPE =
+    new TypeToken<List<BenchmarkServer.Record>>() { };
+
+  @Param({ Transports.DEFAULT, Transports.SOCKET })
+  public String transport;
+
+  @Param({ "1048576" })
+  public int largeBodySize;
+
+  private BenchmarkServer server;
+  private HttpRequestConfig requestConfig;
+  private HttpRequest smallRequest;
+  private HttpRequest largeRequest;
+  private HttpRequest jsonRequest;
+  private HttpRequest headersRequest;
+  private HttpResponse jsonResponse;
+  private final byte[] buffer = new byte[64 * 1024];
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    server = BenchmarkServer.start();
+    requestConfig = Transports.getRequestConfig(transport);
+    smallRequest = HttpRequest.get(server.getURL("/small")).build();
+    largeRequest = HttpRequest.get(server.getURL("/bytes/" + largeBodySize)).build();
+    jsonRequest = HttpRequest.get(server.getURL("/json")).build();
+    headersRequest = HttpRequest.get(server.getURL("/headers")).build();
+    jsonResponse = HttpRequests.execute(jsonRequest, requestConfig);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    server.stop();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public HttpResponse smallGet() throws IOException {
+    return HttpRequests.execute(smallRequest, requestConfig);
+  }
+
+  /**
+   * Reads a large body into memory, as {@link HttpRequests#execute} does.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public byte[] largeBody() throws IOException {
+    return HttpRequests.execute(largeRequest, requestConfig).getResponseBody();
+  }
+
+  /**
+   * Streams a large body through a fixed buffer, with {@link HttpRequests#executeStreaming}.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public long largeBodyStreaming() throws IOException {
+    StreamingResponse response = HttpRequests.executeStreaming(largeRequest, requestConfig);
+    try {
+      InputStream body = response.getBody();
+      long total = 0;
+      for (int len = body.read(buffer); len >= 0; len = body.read(buffer)) {
+        total += len;
+      }
+      return total;
+    } finally {
+      response.close();
+    }
+  }
+
+  /**
+   * Decodes a JSON body already in memory, which isolates {@link ObjectResponse} from the transport.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public List<BenchmarkServer.Record> jsonDecode() {
+    return ObjectResponse.fromJsonBody(jsonResponse, RECORDS_TYPE).getResponseObject();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public List<BenchmarkServer.Record> jsonGet() throws IOException {
+    HttpResponse response = HttpRequests.execute(jsonRequest, requestConfig);
+    return ObjectResponse.fromJsonBody(response, RECORDS_TYPE).getResponseObject();
+  }
+
+  /**
+   * Requests a response with many headers, and reads them as a {@link Multimap} as most callers do.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Multimap<String, String> headerHeavy() throws IOException {
+    return HttpRequests.execute(headersRequest, requestConfig).getHeaders();
+  }
+}
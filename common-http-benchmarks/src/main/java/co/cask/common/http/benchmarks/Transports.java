@@ -0,0 +1,40 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.common.http.benchmarks;
+
+import co.cask.common.http.HttpRequestConfig;
+import co.cask.common.http.SocketTransport;
+
+/**
+ * The transports the benchmarks compare, selected with the {@code transport} parameter.
+ */
+final class Transports {
+
+  static final String DEFAULT = "default";
+  static final String SOCKET = "socket";
+
+  private Transports() { }
+
+  static HttpRequestConfig getRequestConfig(String transport) {
+    if (DEFAULT.equals(transport)) {
+      return HttpRequestConfig.DEFAULT;
+    }
+    if (SOCKET.equals(transport)) {
+      return HttpRequestConfig.DEFAULT.withTransport(SocketTransport.builder().setMaxIdleConnections(64).build());
+    }
+    throw new IllegalArgumentException("Unknown transport " + transport);
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.common.http.benchmarks;
+
+import co.cask.common.http.ChannelHttpServer;
+import co.cask.common.http.HttpRequest;
+import co.cask.common.http.HttpRequestConfig;
+import co.cask.common.http.HttpRequests;
+import co.cask.common.http.HttpResponse;
+import co.cask.common.http.SocketTransport;
+import co.cask.common.http.UnixSocketTransport;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link UnixSocketTransport} against {@link SocketTransport} over loopback TCP, with the same server
+ * behind both. The {@code unix} transport requires Java 16 or later.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(4)
+public class UnixSocketTransportBenchmark {
+
+  private static final String UNIX = "unix";
+  private static final String TCP = "tcp";
+
+  @Param({ UNIX, TCP })
+  public String transport;
+
+  @Param({ "128" })
+  public int responseSize;
+
+  private File dir;
+  private ChannelHttpServer server;
+  private Closeable pooledTransport;
+  private HttpRequestConfig requestConfig;
+  private HttpRequest request;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    if (UNIX.equals(transport)) {
+      if (!UnixSocketTransport.isSupported()) {
+        throw new IllegalStateException("Unix domain sockets require Java 16 or later");
+      }
+      dir = Files.createTempDir();
+      File socketFile = new File(dir, "bench.sock");
+      server = ChannelHttpServer.unix(socketFile);
+      UnixSocketTransport unixTransport = UnixSocketTransport.builder(socketFile).setMaxIdleConnections(64).build();
+      pooledTransport = unixTransport;
+      requestConfig = HttpRequestConfig.DEFAULT.withTransport(unixTransport);
+      request = HttpRequest.get(new URL("http://localhost/bytes?size=" + responseSize)).build();
+    } else if (TCP.equals(transport)) {
+      server = ChannelHttpServer.tcp();
+      SocketTransport socketTransport = SocketTransport.builder().setMaxIdleConnections(64).build();
+      pooledTransport = socketTransport;
+      requestConfig = HttpRequestConfig.DEFAULT.withTransport(socketTransport);
+      request = HttpRequest.get(new URL("http://127.0.0.1:" + server.getPort() + "/bytes?size=" + responseSize))
+        .build();
+    } else {
+      throw new IllegalArgumentException("Unknown transport " + transport);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Closeables.closeQuietly(pooledTransport);
+    Closeables.closeQuietly(server);
+    if (dir != null) {
+      for (File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public HttpResponse get() throws IOException {
+    HttpResponse response = HttpRequests.execute(request, requestConfig);
+    if (response.getResponseCode() != 200) {
+      throw new IllegalStateException("Unexpected response " + response);
+    }
+    return response;
+  }
+}
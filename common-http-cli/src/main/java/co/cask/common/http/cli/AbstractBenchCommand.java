@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.common.http.cli;
+
+import co.cask.common.cli.Arguments;
+import co.cask.common.cli.Command;
+import co.cask.common.http.HttpRequest;
+import co.cask.common.http.HttpRequestConfig;
+import co.cask.common.http.LatencyHistogram;
+import co.cask.common.http.LoadResult;
+import com.google.common.base.Preconditions;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base class of the commands that benchmark a URL with a {@link LoadGenerator}, taking the optional arguments
+ * {@code [<rate>]}, in requests per second, with {@code 0} to send as fast as possible, {@code [<duration>]}, in
+ * seconds, and {@code [<concurrency>]}.
+ */
+public abstract class AbstractBenchCommand implements Command {
+
+  private static final double[] PERCENTILES = { 50, 75, 90, 99, 99.9, 99.99, 100 };
+
+  private final HttpRequestConfig requestConfig;
+
+  protected AbstractBenchCommand(HttpRequestConfig requestConfig) {
+    this.requestConfig = requestConfig;
+  }
+
+  /**
+   * @return the request to send repeatedly
+   */
+  protected abstract HttpRequest createRequest(Arguments arguments) throws Exception;
+
+  @Override
+  public void execute(Arguments arguments, PrintStream output) throws Exception {
+    HttpRequest request = createRequest(arguments);
+    double rate = Double.parseDouble(arguments.get("rate", "0"));
+    int duration = arguments.getInt("duration", 10);
+    int concurrency = arguments.getInt("concurrency", 16);
+    Preconditions.checkArgument(rate >= 0, "Rate cannot be negative: %s", rate);
+    Preconditions.checkArgument(duration > 0, "Duration must be positive: %s", duration);
+    Preconditions.checkArgument(concurrency > 0, "Concurrency must be positive: %s", concurrency);
+
+    output.printf("Sending %s %s for %ds %s with %d connections\n", request.getMethod(), request.getURL(), duration,
+                  rate > 0 ? String.format("at %.1f requests/s", rate) : "as fast as possible", concurrency);
+    LoadGenerator generator = LoadGenerator.builder(request)
+      .setRate(rate)
+      .setDuration(duration, TimeUnit.SECONDS)
+      .setConcurrency(concurrency)
+      .setRequestConfig(requestConfig)
+      .build();
+    LoadResult result = generator.run(new ProgressPrinter(output));
+    output.println();
+    printResult(result, output);
+  }
+
+  private void printResult(LoadResult result, PrintStream output) {
+    output.printf("%d requests in %.2fs, %.1f requests/s, %d error responses, %d failures, %d bytes received\n",
+                  result.getRequests(), result.getElapsedMillis() / 1000d, result.getThroughput(),
+                  result.getErrorResponses(), result.getFailures(), result.getBytesReceived());
+    output.println("Latency (ms)         latency    service time");
+    for (double percentile : PERCENTILES) {
+      output.printf("  %8.3f%%  %12s  %14s\n", percentile,
+                    toMillis(result.getLatency(), percentile), toMillis(result.getServiceTime(), percentile));
+    }
+  }
+
+  private static String toMillis(LatencyHistogram histogram, double percentile) {
+    return String.format("%.3f", histogram.getValueAtPercentile(percentile) / 1000d);
+  }
+
+  /**
+   * Prints the progress on a single line, which is rewritten every second.
+   */
+  private static final class ProgressPrinter implements LoadGenerator.ProgressListener {
+    private final PrintStream output;
+
+    ProgressPrinter(PrintStream output) {
+      this.output = output;
+    }
+
+    @Override
+    public void progress(LoadResult result) {
+      output.printf("\r[%4ds] %d requests, %.1f requests/s, %d errors, p50 %sms, p99 %sms, max %sms   ",
+                    result.getElapsedMillis() / 1000, result.getRequests(), result.getThroughput(),
+                    result.getErrorResponses() + result.getFailures(), toMillis(result.getLatency(), 50),
+                    toMillis(result.getLatency(), 99), toMillis(result.getLatency(), 100));
+      output.flush();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.common.http.cli;
+
+import co.cask.common.cli.CLI;
+import co.cask.common.cli.Command;
+import co.cask.common.cli.CommandSet;
+import co.cask.common.cli.command.ExitCommand;
+import co.cask.common.cli.command.HelpCommand;
+import co.cask.common.cli.command.QuitCommand;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import jline.console.completer.Completer;
+
+import java.util.List;
+
+/**
+ * Command-line load generator for HTTP services. Runs the command given as arguments, such as
+ * {@code bench get http://localhost:8080/ping 1000 30 32}, or starts an interactive shell without arguments.
+ */
+public class BenchCLI {
+
+  public static void main(String[] args) throws Exception {
+    List<Command> commands = ImmutableList.of(
+      new BenchGetCommand(),
+      new BenchPostCommand(),
+      new ExitCommand(),
+      new QuitCommand());
+    Command help = new HelpCommand(new CommandSet<Command>(commands));
+    CLI<Command> cli = new CLI<Command>(ImmutableList.<Command>builder().add(help).addAll(commands).build(),
+                                        ImmutableMap.<String, Completer>of());
+
+    if (args.length > 0) {
+      cli.execute(Joiner.on(' ').join(args), System.out);
+    } else {
+      cli.startInteractiveMode(System.out);
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.common.http.cli;
+
+import co.cask.common.cli.Arguments;
+import co.cask.common.http.HttpRequest;
+import co.cask.common.http.HttpRequestConfig;
+import co.cask.common.http.RequestBody;
+import com.google.common.base.Preconditions;
+
+import java.io.File;
+import java.net.URL;
+
+/**
+ * Benchmarks {@code POST} requests to a URL, with the contents of a file as the body.
+ */
+public class BenchPostCommand extends AbstractBenchCommand {
+
+  public BenchPostCommand() {
+    this(HttpRequestConfig.DEFAULT);
+  }
+
+  public BenchPostCommand(HttpRequestConfig requestConfig) {
+    super(requestConfig);
+  }
+
+  @Override
+  protected HttpRequest createRequest(Arguments arguments) throws Exception {
+    File body = new File(arguments.get("body-file"));
+    Preconditions.checkArgument(body.isFile(), "Body file %s does not exist", body);
+    return HttpRequest.post(new URL(arguments.get("url"))).withBody(RequestBody.of(body)).build();
+  }
+
+  @Override
+  public String getPattern() {
+    return "bench post <url> <body-file> [<rate>] [<duration>] [<concurrency>]";
+  }
+
+  @Override
+  public String getDescription() {
+    return "Sends POST requests with the contents of a file to a URL for a duration in seconds, at a rate in "
+      + "requests per second or as fast as possible if the rate is 0, and prints the latency percentiles";
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http.cli;
+
+import co.cask.common.http.HttpRequest;
+import co.cask.common.http.HttpRequestConfig;
+import co.cask.common.http.LoadExecutor;
+import co.cask.common.http.LoadResult;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Sends a request repeatedly for a fixed duration and measures the latency of the responses.
+ *
+ * <p>
+ * The requests are executed by a {@link LoadExecutor}. With a rate, the generator runs open loop: requests are due
+ * at a constant rate whether or not earlier requests have completed. Without a rate, the generator runs closed
+ * loop: each thread sends the next request as soon as the previous one completes, which measures the maximum
+ * throughput.
+ * </p>
+ */
+public final class LoadGenerator {
+
+  private final HttpRequest request;
+  private final double rate;
+  private final long durationNanos;
+  private final int concurrency;
+  private final HttpRequestConfig requestConfig;
+
+  private LoadGenerator(HttpRequest request, double rate, long durationNanos, int concurrency,
+                        HttpRequestConfig requestConfig) {
+    this.request = request;
+    this.rate = rate;
+    this.durationNanos = durationNanos;
+    this.concurrency = concurrency;
+    this.requestConfig = requestConfig;
+  }
+
+  /**
+   * @param request the request to send, whose body must be repeatable
+   */
+  public static Builder builder(HttpRequest request) {
+    return new Builder(request);
+  }
+
+  /**
+   * Runs the load, and waits for all requests to complete.
+   *
+   * @param listener listener to report the progress to about once a second, or {@code null}
+   * @return latencies and counts of the requests sent
+   */
+  public LoadResult run(@Nullable ProgressListener listener) throws InterruptedException {
+    LoadExecutor executor = new LoadExecutor(concurrency, "load-generator-%d", requestConfig);
+    long startTime = System.nanoTime();
+    long endTime = startTime + durationNanos;
+    long nextProgress = startTime + TimeUnit.SECONDS.toNanos(1);
+    try {
+      if (rate > 0) {
+        long interval = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+        for (long dueTime = startTime; dueTime < endTime; dueTime += interval) {
+          nextProgress = sleepUntil(dueTime, nextProgress, executor.getResult(), listener);
+          executor.executeWhenDue(request, dueTime);
+        }
+      } else {
+        executor.executeClosedLoop(request, endTime);
+      }
+      sleepUntil(endTime, nextProgress, executor.getResult(), listener);
+      return executor.finish();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Sleeps until the given time, reporting progress whenever it is due on the way.
+   *
+   * @return the time the next progress is due
+   */
+  private long sleepUntil(long time, long nextProgress, LoadResult result,
+                          @Nullable ProgressListener listener) throws InterruptedException {
+    long now = System.nanoTime();
+    while (now < time) {
+      if (listener != null && now >= nextProgress) {
+        listener.progress(result);
+        nextProgress += TimeUnit.SECONDS.toNanos(1);
+      }
+      long wake = listener == null ? time : Math.min(time, nextProgress);
+      TimeUnit.NANOSECONDS.sleep(Math.max(0L, wake - now));
+      now = System.nanoTime();
+    }
+    return nextProgress;
+  }
+
+  /**
+   * Receives the progress of a run.
+   */
+  public interface ProgressListener {
+
+    /**
+     * @param result the counts and latencies so far, which continue to change after the call
+     */
+    void progress(LoadResult result);
+  }
+
+  /**
+   * Builder for {@link LoadGenerator}.
+   */
+  public static final class Builder {
+    private final HttpRequest request;
+    private double rate;
+    private long durationNanos = TimeUnit.SECONDS.toNanos(10);
+    private int concurrency = 16;
+    private HttpRequestConfig requestConfig = HttpRequestConfig.DEFAULT;
+
+    Builder(HttpRequest request) {
+      Preconditions.checkNotNull(request, "Request cannot be null");
+      this.request = request;
+    }
+
+    /**
+     * @param rate requests to send per second, or {@code 0} to run closed loop. Defaults to {@code 0}.
+     */
+    public Builder setRate(double rate) {
+      Preconditions.checkArgument(rate >= 0, "Rate cannot be negative: %s", rate);
+      this.rate = rate;
+      return this;
+    }
+
+    /**
+     * @param duration time to send requests for. Defaults to 10 seconds.
+     */
+    public Builder setDuration(long duration, TimeUnit unit) {
+      Preconditions.checkArgument(duration > 0, "Duration must be positive: %s", duration);
+      this.durationNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * @param concurrency maximum number of requests in flight. Defaults to 16.
+     */
+    public Builder setConcurrency(int concurrency) {
+      Preconditions.checkArgument(concurrency > 0, "Concurrency must be positive: %s", concurrency);
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    /**
+     * @param requestConfig configuration to execute the requests with. Defaults to
+     *                      {@link HttpRequestConfig#DEFAULT}.
+     */
+    public Builder setRequestConfig(HttpRequestConfig requestConfig) {
+      this.requestConfig = Preconditions.checkNotNull(requestConfig, "Request config cannot be null");
+      return this;
+    }
+
+    public LoadGenerator build() {
+      return new LoadGenerator(request, rate, durationNanos, concurrency, requestConfig);
+    }
+  }
+}
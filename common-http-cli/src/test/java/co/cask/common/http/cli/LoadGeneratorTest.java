@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http.cli;
+
+import co.cask.common.cli.Command;
+import co.cask.common.cli.CommandMatch;
+import co.cask.common.cli.CommandSet;
+import co.cask.common.http.HttpRequest;
+import co.cask.common.http.HttpRequestsTest;
+import co.cask.common.http.LoadResult;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for {@link LoadGenerator} and the bench commands.
+ */
+public class LoadGeneratorTest {
+
+  @ClassRule
+  public static final TemporaryFolder TMP_FOLDER = new TemporaryFolder();
+
+  private static HttpRequestsTest.TestHttpService httpService;
+
+  @BeforeClass
+  public static void setUp() {
+    httpService = new HttpRequestsTest.TestHttpService();
+    httpService.startAndWait();
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    httpService.stopAndWait();
+  }
+
+  @Test
+  public void testOpenLoop() throws Exception {
+    LoadResult result = LoadGenerator.builder(HttpRequest.get(getURL("/api/testOkWithResponse")).build())
+      .setRate(100)
+      .setDuration(1, TimeUnit.SECONDS)
+      .setConcurrency(4)
+      .build()
+      .run(null);
+
+    // Requests are due every 10ms for a second, however long they take
+    Assert.assertEquals(100, result.getRequests());
+    Assert.assertEquals(0, result.getFailures());
+    Assert.assertEquals(0, result.getErrorResponses());
+    Assert.assertEquals(100 * "Great response".length(), result.getBytesReceived());
+    Assert.assertEquals(100, result.getLatency().getCount());
+    Assert.assertTrue(result.getLatency().getValueAtPercentile(100)
+                        >= result.getServiceTime().getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testClosedLoop() throws Exception {
+    final int[] progressCalls = new int[1];
+    LoadResult result = LoadGenerator.builder(HttpRequest.get(getURL("/api/testBadRequest")).build())
+      .setDuration(1500, TimeUnit.MILLISECONDS)
+      .setConcurrency(2)
+      .build()
+      .run(new LoadGenerator.ProgressListener() {
+        @Override
+        public void progress(LoadResult result) {
+          progressCalls[0]++;
+        }
+      });
+
+    Assert.assertTrue(result.getRequests() > 0);
+    Assert.assertEquals(result.getRequests(), result.getErrorResponses());
+    Assert.assertTrue(result.getElapsedMillis() >= 1500);
+    Assert.assertEquals(1, progressCalls[0]);
+  }
+
+  @Test
+  public void testCommands() throws Exception {
+    File body = TMP_FOLDER.newFile();
+    Files.write("body", body, Charsets.UTF_8);
+
+    CommandSet<Command> commands = new CommandSet<Command>(ImmutableList.<Command>of(
+      new BenchGetCommand(), new BenchPostCommand()));
+    String output = execute(commands, "bench get " + getURL("/api/testOkWithResponse") + " 50 1 2");
+    Assert.assertTrue(output, output.contains("Sending GET"));
+    Assert.assertTrue(output, output.contains("50 requests in"));
+    Assert.assertTrue(output, output.contains("99.990%"));
+
+    output = execute(commands, "bench post " + getURL("/api/testHttpStatus") + " " + body.getPath() + " 20 1");
+    Assert.assertTrue(output, output.contains("Sending POST"));
+    Assert.assertTrue(output, output.contains("20 requests in"));
+    Assert.assertTrue(output, output.contains("0 error responses, 0 failures"));
+  }
+
+  private String execute(CommandSet<Command> commands, String input) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream output = new PrintStream(bytes, true, "UTF-8");
+    CommandMatch match = commands.findMatch(input);
+    match.getCommand().execute(match.getArguments(), output);
+    return new String(bytes.toByteArray(), Charsets.UTF_8);
+  }
+
+  private URL getURL(String path) throws Exception {
+    InetSocketAddress address = httpService.getBindAddress();
+    return new URL("http://" + address.getHostName() + ":" + address.getPort() + path);
+  }
+}
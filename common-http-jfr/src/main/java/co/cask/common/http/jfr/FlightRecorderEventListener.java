@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http.jfr;
+
+import co.cask.common.http.HttpEventListener;
+import co.cask.common.http.HttpRequest;
+import co.cask.common.http.HttpRequestConfig;
+import co.cask.common.http.RequestBody;
+import com.google.common.collect.MapMaker;
+import jdk.jfr.FlightRecorder;
+
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An {@link HttpEventListener} that emits a JDK Flight Recorder event for each request, with its method, host,
+ * status, bytes sent and received, whether its connection was reused, and the time spent in each phase. Set it
+ * with {@link HttpRequestConfig#withEventListener(HttpEventListener)}.
+ *
+ * <p>
+ * The event is named {@value HttpRequestEvent#NAME}. It is only recorded for requests slower than its threshold,
+ * 20 milliseconds by default, which a recording can change like that of any other event, for example with
+ * {@code -XX:StartFlightRecording:settings=profile,+co.cask.common.http.HttpRequest#threshold=100ms} or in a
+ * {@code .jfc} file. Requests are not tracked at all while no recording enables the event.
+ * </p>
+ *
+ * <p>
+ * Requires a Java version with the {@code jdk.jfr} API, see {@link #isSupported()}. The events of a request are
+ * matched by its {@link HttpRequest} instance, so an instance must not be executed concurrently.
+ * </p>
+ */
+@ThreadSafe
+public final class FlightRecorderEventListener extends HttpEventListener {
+
+  // Keys are compared by identity, and requests whose responses are never closed are dropped once unreachable
+  private final ConcurrentMap<HttpRequest, State> inFlight = new MapMaker().weakKeys().makeMap();
+
+  private FlightRecorderEventListener() {
+    FlightRecorder.register(HttpRequestEvent.class);
+  }
+
+  /**
+   * @return true if the running Java version has the {@code jdk.jfr} API
+   */
+  public static boolean isSupported() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @throws UnsupportedOperationException if the running Java version does not have the {@code jdk.jfr} API
+   */
+  public static FlightRecorderEventListener create() {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException("JDK Flight Recorder events are not supported by this Java version");
+    }
+    return new FlightRecorderEventListener();
+  }
+
+  @Override
+  public void requestStart(HttpRequest request, long nanoTime) {
+    HttpRequestEvent event = new HttpRequestEvent();
+    if (!event.isEnabled()) {
+      return;
+    }
+    event.begin();
+    event.method = request.getMethod().name();
+    event.url = request.getURL().toString();
+    event.host = request.getURL().getHost();
+    RequestBody body = request.getRequestBody();
+    event.bytesSent = body == null ? 0L : Math.max(0L, body.getContentLength());
+    inFlight.put(request, new State(event));
+  }
+
+  @Override
+  public void dnsStart(HttpRequest request, String host, long nanoTime) {
+    State state = inFlight.get(request);
+    if (state != null) {
+      state.phaseStart = nanoTime;
+    }
+  }
+
+  @Override
+  public void dnsEnd(HttpRequest request, String host, List<InetAddress> addresses, long nanoTime) {
+    State state = inFlight.get(request);
+    if (state != null) {
+      state.event.dnsDuration += nanoTime - state.phaseStart;
+    }
+  }
+
+  @Override
+  public void connectStart(HttpRequest request, long nanoTime) {
+    State state = inFlight.get(request);
+    if (state != null) {
+      state.phaseStart = nanoTime;
+    }
+  }
+
+  @Override
+  public void connectEnd(HttpRequest request, @Nullable SocketAddress address, long nanoTime) {
+    State state = inFlight.get(request);
+    if (state != null) {
+      state.event.connectDuration += nanoTime - state.phaseStart;
+    }
+  }
+
+  @Override
+  public void tlsStart(HttpRequest request, long nanoTime) {
+    State state = inFlight.get(request);
+    if (state != null) {
+      state.phaseStart = nanoTime;
+    }
+  }
+
+  @Override
+  public void tlsEnd(HttpRequest request, long nanoTime) {
+    State state = inFlight.get(request);
+    if (state != null) {
+      state.event.tlsDuration += nanoTime - state.phaseStart;
+    }
+  }
+
+  @Override
+  public void connectionAcquired(HttpRequest request, boolean reused, long nanoTime) {
+    State state = inFlight.get(request);
+    if (state != null) {
+      state.event.connectionReused = reused;
+      state.phaseStart = nanoTime;
+    }
+  }
+
+  @Override
+  public void requestWritten(HttpRequest request, long nanoTime) {
+    State state = inFlight.get(request);
+    if (state != null) {
+      // Without a connectionAcquired event, the write is not timed separately from connecting
+      if (state.phaseStart != 0) {
+        state.event.writeDuration += nanoTime - state.phaseStart;
+      }
+      state.written = nanoTime;
+    }
+  }
+
+  @Override
+  public void responseStart(HttpRequest request, int responseCode, long nanoTime) {
+    State state = inFlight.get(request);
+    if (state != null) {
+      state.event.status = responseCode;
+      if (state.written != 0) {
+        state.event.waitDuration = nanoTime - state.written;
+      }
+      state.responseStart = nanoTime;
+    }
+  }
+
+  @Override
+  public void responseEnd(HttpRequest request, long bodyBytes, boolean complete, long nanoTime) {
+    State state = inFlight.remove(request);
+    if (state != null) {
+      state.event.bytesReceived = bodyBytes;
+      state.event.bodyDuration = nanoTime - state.responseStart;
+      commit(state.event);
+    }
+  }
+
+  @Override
+  public void requestFailed(HttpRequest request, Exception failure, long nanoTime) {
+    State state = inFlight.get(request);
+    if (state == null) {
+      return;
+    }
+    state.event.failure = failure.toString();
+    // A failure to read the body is followed by the end of the response, which commits the event
+    if (state.responseStart == 0 && inFlight.remove(request, state)) {
+      commit(state.event);
+    }
+  }
+
+  private static void commit(HttpRequestEvent event) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.commit();
+    }
+  }
+
+  /**
+   * An event being recorded, with the start of the current phase.
+   */
+  private static final class State {
+    private final HttpRequestEvent event;
+    private long phaseStart;
+    private long written;
+    private long responseStart;
+
+    State(HttpRequestEvent event) {
+      this.event = event;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http.jfr;
+
+import co.cask.common.http.HttpRequests;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder event of a request executed by {@link HttpRequests}, reported by
+ * {@link FlightRecorderEventListener}. The event lasts from the start of the request until its response body is
+ * read or the request fails, and is only recorded for requests that take longer than the threshold of the event,
+ * 20 milliseconds unless the recording sets another.
+ */
+@Name(HttpRequestEvent.NAME)
+@Label("HTTP Request")
+@Description("A request executed by HttpRequests, with the time spent in each phase")
+@Category({ "Cask", "HTTP" })
+@Threshold("20 ms")
+@StackTrace(false)
+final class HttpRequestEvent extends Event {
+
+  static final String NAME = "co.cask.common.http.HttpRequest";
+
+  @Label("Method")
+  String method;
+
+  @Label("URL")
+  String url;
+
+  @Label("Host")
+  String host;
+
+  @Label("Status")
+  @Description("Status code of the response, or 0 if there is none")
+  int status;
+
+  @Label("Bytes Sent")
+  @DataAmount
+  long bytesSent;
+
+  @Label("Bytes Received")
+  @DataAmount
+  long bytesReceived;
+
+  @Label("Connection Reused")
+  boolean connectionReused;
+
+  @Label("DNS")
+  @Timespan
+  long dnsDuration;
+
+  @Label("Connect")
+  @Timespan
+  long connectDuration;
+
+  @Label("TLS Handshake")
+  @Timespan
+  long tlsDuration;
+
+  @Label("Request Write")
+  @Description("Time from the connection being acquired until the request is written")
+  @Timespan
+  long writeDuration;
+
+  @Label("Time to First Byte")
+  @Description("Time from the request being written until the response starts")
+  @Timespan
+  long waitDuration;
+
+  @Label("Response Body")
+  @Description("Time from the response starting until its body is read")
+  @Timespan
+  long bodyDuration;
+
+  @Label("Failure")
+  String failure;
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http.jfr;
+
+import co.cask.common.http.HttpRequest;
+import co.cask.common.http.HttpRequestConfig;
+import co.cask.common.http.HttpRequests;
+import co.cask.common.http.LoopbackTransport;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Test for {@link FlightRecorderEventListener}.
+ */
+public class FlightRecorderEventListenerTest {
+
+  @ClassRule
+  public static final TemporaryFolder TMP_FOLDER = new TemporaryFolder();
+
+  @BeforeClass
+  public static void checkSupported() {
+    Assume.assumeTrue(FlightRecorderEventListener.isSupported() && FlightRecorder.isAvailable());
+  }
+
+  @Test
+  public void testEvents() throws Exception {
+    LoopbackTransport transport = LoopbackTransport.builder()
+      .addHandler("service", 8080, new LoopbackTransport.Handler() {
+        @Override
+        public void handle(LoopbackTransport.Exchange exchange) throws Exception {
+          if (exchange.getURL().getPath().equals("/slow")) {
+            Thread.sleep(50);
+          }
+          exchange.respond(200, "response");
+        }
+      })
+      .build();
+    HttpRequestConfig config = HttpRequestConfig.DEFAULT.withTransport(transport)
+      .withEventListener(FlightRecorderEventListener.create());
+
+    // Loads the classes used before recording, so that the fast request is not slowed down by it
+    HttpRequests.execute(HttpRequest.get(new URL("http://service:8080/fast")).build(), config);
+
+    File file = TMP_FOLDER.newFile();
+    Recording recording = new Recording();
+    try {
+      // Enabled with the default threshold of 20 milliseconds
+      recording.enable(HttpRequestEvent.NAME);
+      recording.start();
+      HttpRequests.execute(HttpRequest.get(new URL("http://service:8080/fast")).build(), config);
+      HttpRequests.execute(HttpRequest.post(new URL("http://service:8080/slow")).withBody("body").build(), config);
+      try {
+        HttpRequests.execute(HttpRequest.get(new URL("http://unknown:8080/slow")).build(), config);
+        Assert.fail("Expected connection failure");
+      } catch (IOException e) {
+        // Expected, and faster than the threshold
+      }
+      recording.stop();
+      recording.dump(file.toPath());
+    } finally {
+      recording.close();
+    }
+
+    // Only requests slower than the threshold are recorded
+    RecordedEvent event = null;
+    for (RecordedEvent recorded : RecordingFile.readAllEvents(file.toPath())) {
+      Assert.assertTrue(recorded.getDuration().toMillis() >= 20);
+      if ("/slow".equals(new URL(recorded.getString("url")).getPath()) && recorded.getInt("status") != 0) {
+        Assert.assertNull(event);
+        event = recorded;
+      }
+    }
+    Assert.assertNotNull(event);
+    Assert.assertEquals("POST", event.getString("method"));
+    Assert.assertEquals("service", event.getString("host"));
+    Assert.assertEquals(200, event.getInt("status"));
+    Assert.assertEquals(4, event.getLong("bytesSent"));
+    Assert.assertEquals(8, event.getLong("bytesReceived"));
+    Assert.assertTrue(event.getDuration().toMillis() >= 50);
+    Assert.assertTrue(event.getDuration("waitDuration").toMillis() >= 50);
+  }
+}
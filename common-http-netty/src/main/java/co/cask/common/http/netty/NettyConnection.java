@@ -0,0 +1,473 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http.netty;
+
+import co.cask.common.http.HttpMethod;
+import co.cask.common.http.HttpRequest;
+import co.cask.common.http.RequestBody;
+import com.google.common.base.Throwables;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.http.DefaultHttpChunk;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpChunk;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+
+/**
+ * A Netty channel used for one HTTP/1.1 exchange at a time, and kept alive between exchanges.
+ *
+ * <p>
+ * The response is received on the I/O thread and queued until it is read by the caller. Once more than
+ * {@link #HIGH_WATERMARK} bytes are queued, the channel stops reading from the socket, so that a slow reader
+ * applies backpressure to the server instead of buffering the whole body.
+ * </p>
+ */
+final class NettyConnection extends SimpleChannelUpstreamHandler {
+
+  private static final int HIGH_WATERMARK = 256 * 1024;
+  private static final int LOW_WATERMARK = 64 * 1024;
+
+  // Request bodies up to this size, and bodies backed by buffers, are sent in one message, larger ones in chunks
+  static final int MAX_AGGREGATED_BODY_SIZE = 64 * 1024;
+  private static final int CHUNK_SIZE = 8192;
+
+  private final String route;
+  private final Lock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  private final Deque<ChannelBuffer> chunks = new ArrayDeque<ChannelBuffer>();
+  private final InputStream body = new BodyInputStream();
+
+  private Channel channel;
+  private HttpResponse response;
+  private boolean complete;
+  private Throwable failure;
+  private int queuedBytes;
+  private boolean paused;
+  private boolean responseStarted;
+  private boolean reused;
+  private volatile boolean headRequest;
+  private int readTimeout;
+  private long idleSince;
+
+  NettyConnection(String route) {
+    this.route = route;
+  }
+
+  String getRoute() {
+    return route;
+  }
+
+  void setChannel(Channel channel) {
+    this.channel = channel;
+  }
+
+  Channel getChannel() {
+    return channel;
+  }
+
+  boolean isReused() {
+    return reused;
+  }
+
+  long getIdleSince() {
+    return idleSince;
+  }
+
+  /**
+   * @return true if the current request is a {@code HEAD} request, whose response has no body
+   */
+  boolean isHeadRequest() {
+    return headRequest;
+  }
+
+  /**
+   * @return true if any part of the response to the current request was received
+   */
+  boolean isResponseStarted() {
+    lock.lock();
+    try {
+      return responseStarted;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Marks the connection as idle, after the body of a response was read.
+   */
+  void setIdle() {
+    reused = true;
+    idleSince = System.nanoTime();
+  }
+
+  /**
+   * @return true if the connection can be used for another request
+   */
+  boolean isUsable() {
+    lock.lock();
+    try {
+      return channel.isConnected() && failure == null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Sends a request, with its body as {@link RequestBody#prepare() prepared} for this execution, and waits until
+   * it is written.
+   */
+  void writeRequest(HttpRequest request, @Nullable RequestBody body, int readTimeout) throws IOException {
+    lock.lock();
+    try {
+      this.readTimeout = readTimeout;
+      response = null;
+      complete = false;
+      responseStarted = false;
+      chunks.clear();
+      queuedBytes = 0;
+      paused = false;
+    } finally {
+      lock.unlock();
+    }
+    headRequest = request.getMethod() == HttpMethod.HEAD;
+
+    URL url = request.getURL();
+    String target = url.getFile().isEmpty() ? "/" : url.getFile();
+    DefaultHttpRequest message = new DefaultHttpRequest(HttpVersion.HTTP_1_1,
+                                                        org.jboss.netty.handler.codec.http.HttpMethod.valueOf(
+                                                          request.getMethod().name()), target);
+    co.cask.common.http.HttpHeaders headers = request.getHttpHeaders();
+    for (int i = 0; i < headers.size(); i++) {
+      message.addHeader(headers.getName(i), headers.getValue(i));
+    }
+    if (!message.containsHeader(HttpHeaders.Names.HOST)) {
+      String host = url.getHost();
+      if (url.getPort() >= 0 && url.getPort() != url.getDefaultPort()) {
+        host += ":" + url.getPort();
+      }
+      message.setHeader(HttpHeaders.Names.HOST, host);
+    }
+
+    boolean lengthSet = message.containsHeader(HttpHeaders.Names.CONTENT_LENGTH)
+      || message.containsHeader(HttpHeaders.Names.TRANSFER_ENCODING);
+    long contentLength = body == null ? 0L : body.getContentLength();
+    // A body backed by buffers is sent in one message of any size, since wrapping the buffers copies nothing
+    ByteBuffer[] buffers = body == null ? null : body.getBuffers();
+    if (body == null || buffers != null || (contentLength >= 0 && contentLength <= MAX_AGGREGATED_BODY_SIZE)) {
+      if (buffers != null) {
+        message.setContent(ChannelBuffers.wrappedBuffer(buffers));
+      } else if (body != null) {
+        ChannelBufferOutputStream content = new ChannelBufferOutputStream(
+          ChannelBuffers.dynamicBuffer((int) contentLength));
+        body.writeTo(content);
+        message.setContent(content.buffer());
+      }
+      if (!lengthSet && (body != null || request.getMethod() == HttpMethod.POST
+        || request.getMethod() == HttpMethod.PUT)) {
+        message.setHeader(HttpHeaders.Names.CONTENT_LENGTH, message.getContent().readableBytes());
+      }
+      await(channel.write(message));
+      return;
+    }
+
+    // Large bodies and bodies of unknown length are streamed in chunks, with chunked encoding for the latter
+    if (!lengthSet && contentLength >= 0) {
+      message.setHeader(HttpHeaders.Names.CONTENT_LENGTH, contentLength);
+    }
+    message.setChunked(true);
+    channel.write(message);
+    ChunkOutputStream out = new ChunkOutputStream();
+    body.writeTo(out);
+    out.finish();
+  }
+
+  /**
+   * Waits for the status and headers of the response, skipping interim responses.
+   */
+  HttpResponse awaitResponse() throws IOException {
+    lock.lock();
+    try {
+      await(new Predicate() {
+        @Override
+        public boolean apply() {
+          return response != null;
+        }
+      });
+      return response;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the body of the current response, which ends where the response ends
+   */
+  InputStream getBody() {
+    return body;
+  }
+
+  /**
+   * @return true if the whole response was received and the server keeps the connection open
+   */
+  boolean isReusable(HttpRequest request) {
+    lock.lock();
+    try {
+      return complete && failure == null && HttpHeaders.isKeepAlive(response)
+        && !"close".equalsIgnoreCase(request.getHttpHeaders().getFirst(HttpHeaders.Names.CONNECTION));
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void close() {
+    channel.close();
+  }
+
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    Object message = e.getMessage();
+    lock.lock();
+    try {
+      responseStarted = true;
+      if (message instanceof HttpResponse) {
+        HttpResponse received = (HttpResponse) message;
+        int code = received.getStatus().getCode();
+        if (code >= 100 && code < 200 && code != 101) {
+          // Interim response, such as 100 Continue
+          return;
+        }
+        response = received;
+        if (!received.isChunked()) {
+          enqueue(received.getContent());
+          complete = true;
+        }
+      } else if (message instanceof HttpChunk) {
+        HttpChunk chunk = (HttpChunk) message;
+        enqueue(chunk.getContent());
+        complete = chunk.isLast();
+      }
+      if (!paused && queuedBytes > HIGH_WATERMARK) {
+        paused = true;
+        ctx.getChannel().setReadable(false);
+      }
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+    fail(new EOFException("Connection closed before the response was complete"));
+    super.channelClosed(ctx, e);
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+    fail(e.getCause());
+    ctx.getChannel().close();
+  }
+
+  private void fail(Throwable cause) {
+    lock.lock();
+    try {
+      if (failure == null) {
+        failure = cause;
+      }
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void enqueue(ChannelBuffer content) {
+    if (content.readable()) {
+      chunks.add(content);
+      queuedBytes += content.readableBytes();
+    }
+  }
+
+  /**
+   * Waits until the condition holds, with the lock held, up to the read timeout.
+   */
+  private void await(Predicate predicate) throws IOException {
+    long timeout = readTimeout > 0 ? TimeUnit.MILLISECONDS.toNanos(readTimeout) : Long.MAX_VALUE;
+    try {
+      while (!predicate.apply()) {
+        if (failure != null && !complete) {
+          Throwables.propagateIfInstanceOf(failure, IOException.class);
+          throw new IOException(failure);
+        }
+        if (readTimeout <= 0) {
+          changed.await();
+        } else {
+          if (timeout <= 0) {
+            throw new SocketTimeoutException("Read timed out after " + readTimeout + " ms");
+          }
+          timeout = changed.awaitNanos(timeout);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the response");
+    }
+  }
+
+  private void await(ChannelFuture future) throws IOException {
+    future.awaitUninterruptibly();
+    if (!future.isSuccess()) {
+      Throwables.propagateIfInstanceOf(future.getCause(), IOException.class);
+      throw new IOException("Failed to send request", future.getCause());
+    }
+  }
+
+  private interface Predicate {
+    boolean apply();
+  }
+
+  /**
+   * Reads the queued body, resuming reads from the socket once enough of it was consumed.
+   */
+  private final class BodyInputStream extends InputStream {
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      lock.lock();
+      try {
+        await(new Predicate() {
+          @Override
+          public boolean apply() {
+            return !chunks.isEmpty() || complete;
+          }
+        });
+        ChannelBuffer chunk = chunks.peek();
+        if (chunk == null) {
+          return -1;
+        }
+        int n = Math.min(len, chunk.readableBytes());
+        chunk.readBytes(b, off, n);
+        if (!chunk.readable()) {
+          chunks.poll();
+        }
+        queuedBytes -= n;
+        if (paused && queuedBytes < LOW_WATERMARK) {
+          paused = false;
+          channel.setReadable(true);
+        }
+        return n;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public int available() {
+      lock.lock();
+      try {
+        ChannelBuffer chunk = chunks.peek();
+        return chunk == null ? 0 : chunk.readableBytes();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Writes a body in chunks, waiting for the channel to drain whenever it is not writable.
+   */
+  private final class ChunkOutputStream extends OutputStream {
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+    private int count;
+    @Nullable
+    private ChannelFuture lastWrite;
+
+    @Override
+    public void write(int b) throws IOException {
+      if (count == buffer.length) {
+        flushChunk();
+      }
+      buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (count == buffer.length) {
+          flushChunk();
+        }
+        int n = Math.min(len, buffer.length - count);
+        System.arraycopy(b, off, buffer, count, n);
+        count += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    void finish() throws IOException {
+      flushChunk();
+      await(channel.write(HttpChunk.LAST_CHUNK));
+    }
+
+    private void flushChunk() throws IOException {
+      if (count == 0) {
+        return;
+      }
+      byte[] chunk = new byte[count];
+      System.arraycopy(buffer, 0, chunk, 0, count);
+      count = 0;
+      if (lastWrite != null && !channel.isWritable()) {
+        await(lastWrite);
+      }
+      lastWrite = channel.write(new DefaultHttpChunk(ChannelBuffers.wrappedBuffer(chunk)));
+    }
+  }
+}
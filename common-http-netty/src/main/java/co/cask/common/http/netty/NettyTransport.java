@@ -0,0 +1,443 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http.netty;
+
+import co.cask.common.http.AdaptiveTimeout;
+import co.cask.common.http.HttpEventListener;
+import co.cask.common.http.HttpHeaders;
+import co.cask.common.http.HttpRequest;
+import co.cask.common.http.HttpRequestConfig;
+import co.cask.common.http.HttpTransport;
+import co.cask.common.http.RequestBody;
+import co.cask.common.http.StreamingResponse;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.handler.codec.http.HttpRequestEncoder;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.ssl.SslHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * An {@link HttpTransport} over Netty channels, which serves many concurrent requests with a small, fixed number
+ * of I/O threads instead of a blocked thread per connection read.
+ *
+ * <p>
+ * Requests are sent through {@link co.cask.common.http.HttpRequests} once the transport is set with
+ * {@link HttpRequestConfig#withTransport(HttpTransport)}. Connections are kept alive per scheme, host and port,
+ * and reused once the body of a response has been read. The response body is queued by the I/O thread as it
+ * arrives, and reading from the channel is suspended while the caller falls behind. Proxies are not supported.
+ * </p>
+ *
+ * <p>
+ * The transport owns its I/O threads, so it must be closed once it is no longer used.
+ * </p>
+ */
+@ThreadSafe
+public final class NettyTransport implements HttpTransport, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(NettyTransport.class);
+
+  // Request bodies up to this size are sent again when a pooled connection turns out to be closed
+  private static final int MAX_REPEATABLE_BODY_SIZE = NettyConnection.MAX_AGGREGATED_BODY_SIZE;
+
+  private static final AtomicReference<SSLContext> TRUST_ALL_SSL_CONTEXT = new AtomicReference<SSLContext>();
+
+  private final ExecutorService bossExecutor;
+  private final ExecutorService workerExecutor;
+  private final NioClientSocketChannelFactory channelFactory;
+  private final ChannelGroup channels = new DefaultChannelGroup("netty-transport");
+  private final int maxIdleConnections;
+  private final long keepAliveNanos;
+  private final Map<String, Deque<NettyConnection>> idle = Maps.newHashMap();
+  private boolean closed;
+
+  private NettyTransport(int workerThreads, int maxIdleConnections, long keepAlive) {
+    this.bossExecutor = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("netty-transport-boss-%d").build());
+    this.workerExecutor = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("netty-transport-worker-%d").build());
+    this.channelFactory = new NioClientSocketChannelFactory(bossExecutor, workerExecutor, 1, workerThreads);
+    this.maxIdleConnections = maxIdleConnections;
+    this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAlive);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  @Override
+  public StreamingResponse executeStreaming(HttpRequest request,
+                                            HttpRequestConfig requestConfig) throws IOException {
+    URL url = request.getURL();
+    Preconditions.checkArgument("http".equals(url.getProtocol()) || "https".equals(url.getProtocol()),
+                                "Only http and https are supported: %s", url);
+    int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+    String route = url.getProtocol() + "://" + url.getHost() + ":" + port
+      + (requestConfig.isVerifySSLCert() ? "" : "/!");
+
+    HttpEventListener eventListener = requestConfig.getEventListener();
+    int readTimeout = AdaptiveTimeout.getReadTimeout(request, requestConfig);
+    RequestBody body = request.getRequestBody() == null ? null : request.getRequestBody().prepare();
+
+    while (true) {
+      NettyConnection connection = acquire(route);
+      if (connection == null) {
+        connection = connect(request, port, route, requestConfig);
+      }
+      if (eventListener != null) {
+        eventListener.connectionAcquired(request, connection.isReused(), System.nanoTime());
+      }
+
+      HttpResponse response;
+      try {
+        connection.writeRequest(request, body, readTimeout);
+        long startTime = System.nanoTime();
+        if (eventListener != null) {
+          eventListener.requestWritten(request, startTime);
+        }
+        try {
+          response = connection.awaitResponse();
+        } catch (SocketTimeoutException e) {
+          AdaptiveTimeout.recordWait(request, requestConfig, readTimeout, startTime);
+          throw e;
+        }
+        AdaptiveTimeout.recordWait(request, requestConfig, readTimeout, startTime);
+      } catch (IOException e) {
+        connection.close();
+        // A pooled connection may have been closed by the server just as it was reused. The request is sent
+        // again on a new connection if nothing was received and its body can be written again.
+        if (connection.isReused() && !connection.isResponseStarted() && isRepeatable(body)) {
+          LOG.debug("Retrying {} on a new connection", url, e);
+          continue;
+        }
+        throw e;
+      } catch (RuntimeException e) {
+        // Thrown by the request body, which may have stopped halfway through
+        connection.close();
+        throw e;
+      }
+
+      HttpHeaders.Builder headers = HttpHeaders.builder();
+      for (Map.Entry<String, String> header : response.getHeaders()) {
+        headers.add(header.getKey(), header.getValue());
+      }
+      int code = response.getStatus().getCode();
+      // Bodies larger than a chunk are received in chunks even if their length is known
+      long contentLength = response.isChunked()
+        ? org.jboss.netty.handler.codec.http.HttpHeaders.getContentLength(response, -1L)
+        : response.getContent().readableBytes();
+      return new StreamingResponse(code, response.getStatus().getReasonPhrase(), headers.build(),
+                                   connection.getBody(), contentLength, requestConfig,
+                                   new ConnectionReleaser(connection, request));
+    }
+  }
+
+  /**
+   * Closes all connections and stops the I/O threads. Responses still being read fail.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      idle.clear();
+    }
+    channels.close().awaitUninterruptibly();
+    channelFactory.releaseExternalResources();
+  }
+
+  /**
+   * @return number of idle connections kept for the scheme, host and port of the given URL
+   */
+  synchronized int getIdleConnections(URL url, HttpRequestConfig requestConfig) {
+    int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+    Deque<NettyConnection> connections = idle.get(url.getProtocol() + "://" + url.getHost() + ":" + port
+                                                    + (requestConfig.isVerifySSLCert() ? "" : "/!"));
+    return connections == null ? 0 : connections.size();
+  }
+
+  private static boolean isRepeatable(@Nullable RequestBody body) {
+    return body == null || (body.getContentLength() >= 0 && body.getContentLength() <= MAX_REPEATABLE_BODY_SIZE);
+  }
+
+  /**
+   * @return the most recently used idle connection to the route, or {@code null} if there is none
+   */
+  @Nullable
+  private NettyConnection acquire(String route) {
+    List<NettyConnection> discarded = Lists.newArrayList();
+    NettyConnection connection = null;
+    synchronized (this) {
+      Deque<NettyConnection> connections = idle.get(route);
+      if (connections != null) {
+        long now = System.nanoTime();
+        connection = connections.pollFirst();
+        while (connection != null && (now - connection.getIdleSince() > keepAliveNanos || !connection.isUsable())) {
+          discarded.add(connection);
+          connection = connections.pollFirst();
+        }
+        if (connections.isEmpty()) {
+          idle.remove(route);
+        }
+      }
+    }
+    for (NettyConnection discardedConnection : discarded) {
+      discardedConnection.close();
+    }
+    return connection;
+  }
+
+  private void release(NettyConnection connection) {
+    connection.setIdle();
+    NettyConnection evicted = connection;
+    synchronized (this) {
+      if (!closed) {
+        Deque<NettyConnection> connections = idle.get(connection.getRoute());
+        if (connections == null) {
+          connections = new ArrayDeque<NettyConnection>();
+          idle.put(connection.getRoute(), connections);
+        }
+        connections.addFirst(connection);
+        evicted = connections.size() > maxIdleConnections ? connections.pollLast() : null;
+      }
+    }
+    if (evicted != null) {
+      evicted.close();
+    }
+  }
+
+  private NettyConnection connect(HttpRequest request, int port, String route,
+                                  HttpRequestConfig requestConfig) throws IOException {
+    URL url = request.getURL();
+    HttpEventListener eventListener = requestConfig.getEventListener();
+    NettyConnection connection = new NettyConnection(route);
+    ChannelPipeline pipeline = Channels.pipeline();
+    SslHandler sslHandler = null;
+    if ("https".equals(url.getProtocol())) {
+      sslHandler = new SslHandler(createSSLEngine(url.getHost(), port, requestConfig));
+      pipeline.addLast("ssl", sslHandler);
+    }
+    pipeline.addLast("encoder", new HttpRequestEncoder());
+    pipeline.addLast("decoder", new ResponseDecoder(connection));
+    pipeline.addLast("handler", connection);
+
+    Channel channel = channelFactory.newChannel(pipeline);
+    connection.setChannel(channel);
+    channels.add(channel);
+    synchronized (this) {
+      if (closed) {
+        channel.close();
+        throw new IOException("Transport is closed");
+      }
+    }
+    channel.getConfig().setConnectTimeoutMillis(requestConfig.getConnectTimeout());
+    channel.getConfig().setOption("tcpNoDelay", true);
+
+    if (eventListener != null) {
+      eventListener.dnsStart(request, url.getHost(), System.nanoTime());
+    }
+    InetSocketAddress address = new InetSocketAddress(url.getHost(), port);
+    if (address.isUnresolved()) {
+      channel.close();
+      throw new UnknownHostException(url.getHost());
+    }
+    if (eventListener != null) {
+      eventListener.dnsEnd(request, url.getHost(), Collections.singletonList(address.getAddress()),
+                           System.nanoTime());
+      eventListener.connectStart(request, System.nanoTime());
+    }
+    ChannelFuture future = channel.connect(address).awaitUninterruptibly();
+    if (!future.isSuccess()) {
+      channel.close();
+      Throwables.propagateIfInstanceOf(future.getCause(), IOException.class);
+      throw (ConnectException) new ConnectException("Failed to connect to " + url).initCause(future.getCause());
+    }
+    if (eventListener != null) {
+      eventListener.connectEnd(request, channel.getRemoteAddress(), System.nanoTime());
+    }
+    if (sslHandler != null) {
+      if (eventListener != null) {
+        eventListener.tlsStart(request, System.nanoTime());
+      }
+      future = sslHandler.handshake().awaitUninterruptibly();
+      if (!future.isSuccess()) {
+        channel.close();
+        Throwables.propagateIfInstanceOf(future.getCause(), IOException.class);
+        throw new SSLException("TLS handshake with " + url + " failed", future.getCause());
+      }
+      if (eventListener != null) {
+        eventListener.tlsEnd(request, System.nanoTime());
+      }
+    }
+    return connection;
+  }
+
+  private SSLEngine createSSLEngine(String host, int port, HttpRequestConfig requestConfig) throws IOException {
+    SSLEngine engine;
+    try {
+      SSLContext context = requestConfig.isVerifySSLCert() ? SSLContext.getDefault() : getTrustAllSSLContext();
+      engine = context.createSSLEngine(host, port);
+    } catch (GeneralSecurityException e) {
+      throw new SSLException("Failed to create SSL context", e);
+    }
+    engine.setUseClientMode(true);
+    if (requestConfig.isVerifySSLCert()) {
+      // Makes the handshake check that the certificate matches the host, which is only available on Java 7
+      try {
+        SSLParameters parameters = engine.getSSLParameters();
+        Method method = SSLParameters.class.getMethod("setEndpointIdentificationAlgorithm", String.class);
+        method.invoke(parameters, "HTTPS");
+        engine.setSSLParameters(parameters);
+      } catch (Exception e) {
+        throw new SSLException("Hostname verification is not supported by this Java version", e);
+      }
+    }
+    return engine;
+  }
+
+  private static SSLContext getTrustAllSSLContext() throws GeneralSecurityException {
+    if (TRUST_ALL_SSL_CONTEXT.get() == null) {
+      SSLContext context = SSLContext.getInstance("TLS");
+      context.init(null, new TrustManager[] {
+        new X509TrustManager() {
+          @Override
+          public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+          }
+
+          @Override
+          public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            // Trust all
+          }
+
+          @Override
+          public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            // Trust all
+          }
+        }
+      }, new SecureRandom());
+      TRUST_ALL_SSL_CONTEXT.compareAndSet(null, context);
+    }
+    return TRUST_ALL_SSL_CONTEXT.get();
+  }
+
+  /**
+   * Returns a connection to the pool once the body of its response has been read, and closes it otherwise.
+   */
+  private final class ConnectionReleaser implements StreamingResponse.Releaser {
+    private final NettyConnection connection;
+    private final HttpRequest request;
+
+    ConnectionReleaser(NettyConnection connection, HttpRequest request) {
+      this.connection = connection;
+      this.request = request;
+    }
+
+    @Override
+    public void release(boolean drained) {
+      if (drained && connection.isReusable(request)) {
+        NettyTransport.this.release(connection);
+      } else {
+        connection.close();
+      }
+    }
+  }
+
+  /**
+   * Builder for {@link NettyTransport}.
+   */
+  public static final class Builder {
+    private int workerThreads = Runtime.getRuntime().availableProcessors() * 2;
+    private int maxIdleConnections = 5;
+    private long keepAlive = 60000;
+
+    Builder() {
+    }
+
+    /**
+     * @param workerThreads number of I/O threads. Defaults to twice the number of processors.
+     */
+    public Builder setWorkerThreads(int workerThreads) {
+      Preconditions.checkArgument(workerThreads > 0, "Worker threads must be positive: %s", workerThreads);
+      this.workerThreads = workerThreads;
+      return this;
+    }
+
+    /**
+     * @param maxIdleConnections maximum number of idle connections kept per host. Defaults to 5.
+     */
+    public Builder setMaxIdleConnections(int maxIdleConnections) {
+      Preconditions.checkArgument(maxIdleConnections >= 0, "Maximum idle connections cannot be negative: %s",
+                                  maxIdleConnections);
+      this.maxIdleConnections = maxIdleConnections;
+      return this;
+    }
+
+    /**
+     * @param keepAlive maximum time a connection is kept idle, in milliseconds. Defaults to 1 minute.
+     */
+    public Builder setKeepAlive(long keepAlive) {
+      Preconditions.checkArgument(keepAlive >= 0, "Keep alive cannot be negative: %s", keepAlive);
+      this.keepAlive = keepAlive;
+      return this;
+    }
+
+    public NettyTransport build() {
+      return new NettyTransport(workerThreads, maxIdleConnections, keepAlive);
+    }
+  }
+}
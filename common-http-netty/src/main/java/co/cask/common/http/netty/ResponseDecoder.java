@@ -0,0 +1,48 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http.netty;
+
+import org.jboss.netty.handler.codec.http.HttpMessage;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseDecoder;
+
+/**
+ * Decodes the responses received by a {@link NettyConnection}.
+ *
+ * <p>
+ * Unlike {@link org.jboss.netty.handler.codec.http.HttpClientCodec}, the body of a {@code 205 Reset Content}
+ * response is read as its headers describe, the way {@link java.net.HttpURLConnection} reads it, so that a
+ * non-conforming server does not leave it to be parsed as the next response.
+ * </p>
+ */
+final class ResponseDecoder extends HttpResponseDecoder {
+
+  private final NettyConnection connection;
+
+  ResponseDecoder(NettyConnection connection) {
+    this.connection = connection;
+  }
+
+  @Override
+  protected boolean isContentAlwaysEmpty(HttpMessage message) {
+    if (connection.isHeadRequest()) {
+      return true;
+    }
+    int code = ((HttpResponse) message).getStatus().getCode();
+    return code != 205 && super.isContentAlwaysEmpty(message);
+  }
+}
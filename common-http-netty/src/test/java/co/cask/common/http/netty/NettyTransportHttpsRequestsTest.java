@@ -0,0 +1,45 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http.netty;
+
+import co.cask.common.http.HttpRequestConfig;
+import co.cask.common.http.HttpsRequestsTest;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+/**
+ * Runs the {@link co.cask.common.http.HttpRequests} tests against HTTPS with {@link NettyTransport}.
+ */
+public class NettyTransportHttpsRequestsTest extends HttpsRequestsTest {
+
+  private static NettyTransport transport;
+
+  @BeforeClass
+  public static void init() {
+    transport = NettyTransport.builder().build();
+  }
+
+  @AfterClass
+  public static void finish() {
+    transport.close();
+  }
+
+  @Override
+  protected HttpRequestConfig getHttpRequestsConfig() {
+    return super.getHttpRequestsConfig().withTransport(transport);
+  }
+}
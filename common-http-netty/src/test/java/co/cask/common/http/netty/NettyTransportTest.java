@@ -0,0 +1,162 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http.netty;
+
+import co.cask.common.http.HttpRequest;
+import co.cask.common.http.HttpRequestConfig;
+import co.cask.common.http.HttpRequests;
+import co.cask.common.http.HttpResponse;
+import co.cask.common.http.StreamingResponse;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.InputSupplier;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+/**
+ * Test for {@link NettyTransport}.
+ */
+public class NettyTransportTest {
+
+  private static final Set<Integer> CLIENT_PORTS = Collections.synchronizedSet(Sets.<Integer>newHashSet());
+
+  private static final HttpHandler ECHO_HANDLER = new HttpHandler() {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      CLIENT_PORTS.add(exchange.getRemoteAddress().getPort());
+      byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+      // Responds with chunked encoding when asked to
+      boolean chunked = exchange.getRequestURI().getQuery() != null;
+      exchange.sendResponseHeaders(200, chunked ? 0 : (body.length == 0 ? -1 : body.length));
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    }
+  };
+
+  private static HttpServer server;
+  private static NettyTransport transport;
+  private static HttpRequestConfig config;
+
+  @BeforeClass
+  public static void init() throws IOException {
+    server = startServer(new InetSocketAddress("127.0.0.1", 0));
+    transport = NettyTransport.builder().setWorkerThreads(2).build();
+    config = HttpRequestConfig.DEFAULT.withTransport(transport);
+  }
+
+  @AfterClass
+  public static void finish() {
+    transport.close();
+    server.stop(0);
+  }
+
+  @Test
+  public void testLargeBodies() throws Exception {
+    // Larger than the amount queued before reads from the socket are suspended, both ways
+    final byte[] body = new byte[3 * 1024 * 1024];
+    for (int i = 0; i < body.length; i++) {
+      body[i] = (byte) i;
+    }
+    InputSupplier<InputStream> supplier = new InputSupplier<InputStream>() {
+      @Override
+      public InputStream getInput() throws IOException {
+        return new ByteArrayInputStream(body);
+      }
+    };
+    for (String path : new String[] { "/echo", "/echo?chunked" }) {
+      StreamingResponse response = HttpRequests.executeStreaming(
+        HttpRequest.post(getURL(path)).withBody(supplier).build(), config);
+      try {
+        // Reads slowly at first, so that the response is received faster than it is consumed
+        Thread.sleep(200);
+        Assert.assertArrayEquals(body, ByteStreams.toByteArray(response.getBody()));
+      } finally {
+        response.close();
+      }
+    }
+  }
+
+  @Test
+  public void testConnectionReuse() throws Exception {
+    URL url = getURL("/echo");
+    NettyTransport transport = NettyTransport.builder().build();
+    HttpRequestConfig config = HttpRequestConfig.DEFAULT.withTransport(transport);
+    try {
+      CLIENT_PORTS.clear();
+      for (int i = 0; i < 5; i++) {
+        String body = "request " + i;
+        HttpResponse response = HttpRequests.execute(HttpRequest.post(url).withBody(body).build(), config);
+        Assert.assertEquals(body, response.getResponseBodyAsString());
+        Assert.assertEquals(1, transport.getIdleConnections(url, config));
+      }
+      Assert.assertEquals(1, CLIENT_PORTS.size());
+
+      StreamingResponse response = HttpRequests.executeStreaming(HttpRequest.post(url).withBody("body").build(),
+                                                                 config);
+      Assert.assertEquals(0, transport.getIdleConnections(url, config));
+      response.abort();
+      Assert.assertEquals(0, transport.getIdleConnections(url, config));
+    } finally {
+      transport.close();
+    }
+  }
+
+  @Test
+  public void testStaleConnection() throws Exception {
+    URL url = getURL("/echo");
+    NettyTransport transport = NettyTransport.builder().build();
+    HttpRequestConfig config = HttpRequestConfig.DEFAULT.withTransport(transport);
+    try {
+      HttpResponse response = HttpRequests.execute(HttpRequest.post(url).withBody("first").build(), config);
+      Assert.assertEquals("first", response.getResponseBodyAsString());
+
+      // Closes the connection from the server side while it is idle, which the next request has to notice
+      server.stop(0);
+      server = startServer(server.getAddress());
+      response = HttpRequests.execute(HttpRequest.post(url).withBody("second").build(), config);
+      Assert.assertEquals("second", response.getResponseBodyAsString());
+    } finally {
+      transport.close();
+    }
+  }
+
+  private static HttpServer startServer(InetSocketAddress address) throws IOException {
+    HttpServer server = HttpServer.create(address, 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/echo", ECHO_HANDLER);
+    server.start();
+    return server;
+  }
+
+  private static URL getURL(String path) throws IOException {
+    return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+  }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Derives the read timeout of each request from the latencies recently observed for the same endpoint.
+ *
+ * <p>
+ * The timeout is the configured multiple of a latency percentile, bounded by a floor and a ceiling.
+ * An endpoint is identified by the request method and the URL without its query. Until an endpoint has
+ * enough samples, or once {@link Builder#setMaxEndpoints(int) too many endpoints} are tracked, the
+ * ceiling is used. The timeout is computed again every {@link Builder#setUpdateInterval(int) few samples}, or
+ * at once when a sample reaches it, such as a request that timed out.
+ * </p>
+ */
+@ThreadSafe
+public final class AdaptiveTimeout {
+
+  private final double percentile;
+  private final double multiplier;
+  private final int floor;
+  private final int ceiling;
+  private final int minSamples;
+  private final int updateInterval;
+  private final int decayInterval;
+  private final int maxEndpoints;
+  private final ConcurrentMap<String, Endpoint> endpoints;
+
+  private AdaptiveTimeout(double percentile, double multiplier, int floor, int ceiling,
+                          int minSamples, int updateInterval, int decayInterval, int maxEndpoints) {
+    this.percentile = percentile;
+    this.multiplier = multiplier;
+    this.floor = floor;
+    this.ceiling = ceiling;
+    this.minSamples = minSamples;
+    this.updateInterval = updateInterval;
+    this.decayInterval = decayInterval;
+    this.maxEndpoints = maxEndpoints;
+    this.endpoints = Maps.newConcurrentMap();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return the smallest timeout ever returned, in milliseconds
+   */
+  public int getFloor() {
+    return floor;
+  }
+
+  /**
+   * @return the largest timeout ever returned, in milliseconds
+   */
+  public int getCeiling() {
+    return ceiling;
+  }
+
+  /**
+   * @param request the request about to be executed
+   * @return read timeout to use for the request, in milliseconds
+   */
+  public int getReadTimeout(HttpRequest request) {
+    Endpoint endpoint = endpoints.get(getEndpointKey(request));
+    return endpoint == null ? ceiling : endpoint.timeout;
+  }
+
+  /**
+   * Records how long a request waited for its response.
+   *
+   * @param request the request that was executed
+   * @param latency time between sending the request and receiving the response, in milliseconds
+   */
+  public void record(HttpRequest request, long latency) {
+    String key = getEndpointKey(request);
+    Endpoint endpoint = endpoints.get(key);
+    if (endpoint == null) {
+      if (endpoints.size() >= maxEndpoints) {
+        return;
+      }
+      Endpoint newEndpoint = new Endpoint();
+      endpoint = endpoints.putIfAbsent(key, newEndpoint);
+      if (endpoint == null) {
+        endpoint = newEndpoint;
+      }
+    }
+    endpoint.record(latency);
+  }
+
+  /**
+   * @param request the request about to be executed
+   * @param requestConfig the configuration the request is executed with
+   * @return read timeout to use for the request, in milliseconds, derived by the {@link AdaptiveTimeout} of the
+   *         configuration if it has one
+   */
+  public static int getReadTimeout(HttpRequest request, HttpRequestConfig requestConfig) {
+    AdaptiveTimeout adaptiveTimeout = requestConfig.getAdaptiveTimeout();
+    return adaptiveTimeout == null ? requestConfig.getReadTimeout() : adaptiveTimeout.getReadTimeout(request);
+  }
+
+  /**
+   * Records how long a request waited for its response with the {@link AdaptiveTimeout} of the configuration, if
+   * it has one. Transports call it once the response arrived or the wait timed out, and not for other failures.
+   * A request that timed out is recorded with its timeout, so that the timeout of a slowing endpoint grows.
+   *
+   * @param request the request that was executed
+   * @param requestConfig the configuration the request was executed with
+   * @param readTimeout read timeout the request was executed with, in milliseconds
+   * @param startTime {@link System#nanoTime()} when the request was written
+   */
+  public static void recordWait(HttpRequest request, HttpRequestConfig requestConfig,
+                                int readTimeout, long startTime) {
+    AdaptiveTimeout adaptiveTimeout = requestConfig.getAdaptiveTimeout();
+    if (adaptiveTimeout != null) {
+      long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+      adaptiveTimeout.record(request, readTimeout > 0 ? Math.min(latency, readTimeout) : latency);
+    }
+  }
+
+  private String getEndpointKey(HttpRequest request) {
+    URL url = request.getURL();
+    return request.getMethod().name() + ' ' + url.getProtocol() + "://" + url.getAuthority() + url.getPath();
+  }
+
+  /**
+   * Latency histogram and current timeout of a single endpoint.
+   */
+  private final class Endpoint {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final AtomicLong samples = new AtomicLong();
+    private volatile int timeout = ceiling;
+
+    void record(long latency) {
+      histogram.record(latency);
+      long count = samples.incrementAndGet();
+      if (count % decayInterval == 0) {
+        histogram.decay();
+      }
+      // Reading the percentile walks the histogram, so it is done once per interval, unless the endpoint slowed
+      // down past its timeout
+      if (count >= minSamples && (count == minSamples || count % updateInterval == 0 || latency >= timeout)) {
+        long scaled = (long) (histogram.getValueAtPercentile(percentile) * multiplier);
+        timeout = (int) Math.max(floor, Math.min(ceiling, scaled));
+      }
+    }
+  }
+
+  /**
+   * Builder for {@link AdaptiveTimeout}.
+   */
+  public static final class Builder {
+    private double percentile = 99;
+    private double multiplier = 2;
+    private int floor = 1000;
+    private int ceiling = 60000;
+    private int minSamples = 20;
+    private int updateInterval = 10;
+    private int decayInterval = 1000;
+    private int maxEndpoints = 1000;
+
+    Builder() {
+    }
+
+    /**
+     * @param percentile latency percentile the timeout is derived from, in the range {@code (0, 100]}.
+     *                   Defaults to 99.
+     */
+    public Builder setPercentile(double percentile) {
+      Preconditions.checkArgument(percentile > 0 && percentile <= 100, "Percentile must be in (0, 100]: %s",
+                                  percentile);
+      this.percentile = percentile;
+      return this;
+    }
+
+    /**
+     * @param multiplier factor applied to the percentile latency. Defaults to 2.
+     */
+    public Builder setMultiplier(double multiplier) {
+      Preconditions.checkArgument(multiplier > 0, "Multiplier must be positive: %s", multiplier);
+      this.multiplier = multiplier;
+      return this;
+    }
+
+    /**
+     * @param floor minimum timeout, in milliseconds. Defaults to 1 second.
+     * @param ceiling maximum timeout, in milliseconds. Defaults to 60 seconds.
+     */
+    public Builder setBounds(int floor, int ceiling) {
+      Preconditions.checkArgument(floor > 0, "Floor must be positive: %s", floor);
+      Preconditions.checkArgument(ceiling >= floor, "Ceiling %s must not be smaller than floor %s", ceiling, floor);
+      this.floor = floor;
+      this.ceiling = ceiling;
+      return this;
+    }
+
+    /**
+     * @param minSamples number of latencies to observe for an endpoint before its timeout adapts. Defaults to 20.
+     */
+    public Builder setMinSamples(int minSamples) {
+      Preconditions.checkArgument(minSamples > 0, "Minimum samples must be positive: %s", minSamples);
+      this.minSamples = minSamples;
+      return this;
+    }
+
+    /**
+     * @param updateInterval number of samples after which the timeout of an endpoint is computed again. A sample
+     *                       that reaches the current timeout updates it at once. Defaults to 10.
+     */
+    public Builder setUpdateInterval(int updateInterval) {
+      Preconditions.checkArgument(updateInterval > 0, "Update interval must be positive: %s", updateInterval);
+      this.updateInterval = updateInterval;
+      return this;
+    }
+
+    /**
+     * @param decayInterval number of samples after which the weight of older samples of an endpoint is halved.
+     *                      Defaults to 1000.
+     */
+    public Builder setDecayInterval(int decayInterval) {
+      Preconditions.checkArgument(decayInterval > 0, "Decay interval must be positive: %s", decayInterval);
+      this.decayInterval = decayInterval;
+      return this;
+    }
+
+    /**
+     * @param maxEndpoints maximum number of endpoints to track. Defaults to 1000.
+     */
+    public Builder setMaxEndpoints(int maxEndpoints) {
+      Preconditions.checkArgument(maxEndpoints > 0, "Maximum endpoints must be positive: %s", maxEndpoints);
+      this.maxEndpoints = maxEndpoints;
+      return this;
+    }
+
+    public AdaptiveTimeout build() {
+      return new AdaptiveTimeout(percentile, multiplier, floor, ceiling, minSamples, updateInterval, decayInterval,
+                                 maxEndpoints);
+    }
+  }
+}
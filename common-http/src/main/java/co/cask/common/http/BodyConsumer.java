@@ -0,0 +1,32 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the body of a successful response as it arrives, instead of it being buffered into the response.
+ */
+interface BodyConsumer {
+
+  /**
+   * @param response status and headers of the response, with an empty body
+   * @param body the body of the response. It is closed by the caller.
+   */
+  void consume(HttpResponse response, InputStream body) throws IOException;
+}
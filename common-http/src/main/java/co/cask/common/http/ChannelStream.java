@@ -0,0 +1,189 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.io.Closeables;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Input and output streams over a {@link SocketChannel} that has no {@link java.net.Socket} to set a read
+ * timeout on, such as a Unix domain socket channel. The channel is put in non-blocking mode, and reads wait for
+ * data with a selector, up to the read timeout.
+ */
+@NotThreadSafe
+final class ChannelStream implements Closeable {
+
+  private final SocketChannel channel;
+  private final Selector selector;
+  private final SelectionKey key;
+  private final InputStream in;
+  private final OutputStream out;
+  private final GatheringByteChannel writableChannel;
+  private int readTimeout;
+
+  ChannelStream(SocketChannel channel) throws IOException {
+    this.channel = channel;
+    this.selector = Selector.open();
+    try {
+      channel.configureBlocking(false);
+      this.key = channel.register(selector, 0);
+    } catch (IOException e) {
+      selector.close();
+      throw e;
+    }
+    this.in = new ChannelInputStream();
+    this.writableChannel = new BlockingWriteChannel();
+    this.out = new ChannelOutputStream();
+  }
+
+  InputStream getInputStream() {
+    return in;
+  }
+
+  OutputStream getOutputStream() {
+    return out;
+  }
+
+  /**
+   * @return a channel whose writes block until all bytes are written, as writes to a blocking channel do.
+   *         Closing it has no effect.
+   */
+  GatheringByteChannel getWritableChannel() {
+    return writableChannel;
+  }
+
+  /**
+   * @param readTimeout time to wait for data, in milliseconds, or {@code 0} to wait forever
+   */
+  void setReadTimeout(int readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
+  /**
+   * Closes the selector. The channel is left to the owner to close.
+   */
+  @Override
+  public void close() {
+    Closeables.closeQuietly(selector);
+  }
+
+  /**
+   * Waits until the channel is ready for the given operation.
+   *
+   * @param timeout time to wait, in milliseconds, or {@code 0} to wait forever
+   * @return true if the channel is ready, false if the timeout expired first
+   */
+  private boolean await(int operation, int timeout) throws IOException {
+    key.interestOps(operation);
+    try {
+      return selector.select(timeout) > 0;
+    } finally {
+      selector.selectedKeys().clear();
+      key.interestOps(0);
+    }
+  }
+
+  private final class ChannelInputStream extends InputStream {
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+      int n = channel.read(buffer);
+      while (n == 0) {
+        if (!await(SelectionKey.OP_READ, readTimeout)) {
+          throw new SocketTimeoutException("Read timed out after " + readTimeout + " ms");
+        }
+        n = channel.read(buffer);
+      }
+      return n;
+    }
+  }
+
+  private final class ChannelOutputStream extends OutputStream {
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      writableChannel.write(ByteBuffer.wrap(b, off, len));
+    }
+  }
+
+  private final class BlockingWriteChannel implements GatheringByteChannel {
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      return (int) write(new ByteBuffer[] { src }, 0, 1);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+      return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+      long written = 0;
+      while (length > 0) {
+        long n = channel.write(srcs, offset, length);
+        written += n;
+        while (length > 0 && !srcs[offset].hasRemaining()) {
+          offset++;
+          length--;
+        }
+        if (n == 0 && length > 0) {
+          // Writes block as they would on a socket, waiting for the peer to read
+          await(SelectionKey.OP_WRITE, 0);
+        }
+      }
+      return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
+    }
+
+    @Override
+    public void close() {
+      // The channel is left to the owner to close
+    }
+  }
+}
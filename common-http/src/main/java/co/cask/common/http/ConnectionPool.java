@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Keeps idle {@link HttpConnection}s for reuse, per route.
+ *
+ * <p>
+ * The most recently used connection is handed out first, which keeps the set of connections in use small and
+ * lets the others expire. At most the configured number of idle connections are kept per route, and connections
+ * idle for longer than the keep-alive time are closed when the pool next looks at them.
+ * </p>
+ */
+@ThreadSafe
+final class ConnectionPool implements Closeable {
+
+  private final int maxIdleConnections;
+  private final long keepAliveNanos;
+  private final Map<String, Deque<HttpConnection>> idle = Maps.newHashMap();
+  private boolean closed;
+
+  /**
+   * @param maxIdleConnections maximum number of idle connections kept per route
+   * @param keepAlive maximum time a connection is kept idle, in milliseconds
+   */
+  ConnectionPool(int maxIdleConnections, long keepAlive) {
+    this.maxIdleConnections = maxIdleConnections;
+    this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAlive);
+  }
+
+  /**
+   * @return an idle connection to the route, or {@code null} if there is none
+   */
+  @Nullable
+  HttpConnection acquire(String route) {
+    List<HttpConnection> expired = Lists.newArrayList();
+    HttpConnection connection = null;
+    synchronized (this) {
+      Deque<HttpConnection> connections = idle.get(route);
+      if (connections != null) {
+        long now = System.nanoTime();
+        connection = connections.pollFirst();
+        while (connection != null && now - connection.getIdleSince() > keepAliveNanos) {
+          expired.add(connection);
+          connection = connections.pollFirst();
+        }
+        if (connections.isEmpty()) {
+          idle.remove(route);
+        }
+      }
+    }
+    for (HttpConnection expiredConnection : expired) {
+      expiredConnection.close();
+    }
+    return connection;
+  }
+
+  /**
+   * Returns a connection whose response body has been read, so that it can be reused.
+   */
+  void release(HttpConnection connection) {
+    connection.setIdle();
+    HttpConnection evicted = connection;
+    synchronized (this) {
+      if (!closed) {
+        Deque<HttpConnection> connections = idle.get(connection.getRoute());
+        if (connections == null) {
+          connections = new ArrayDeque<HttpConnection>();
+          idle.put(connection.getRoute(), connections);
+        }
+        connections.addFirst(connection);
+        evicted = connections.size() > maxIdleConnections ? connections.pollLast() : null;
+      }
+    }
+    if (evicted != null) {
+      evicted.close();
+    }
+  }
+
+  /**
+   * @return number of idle connections to the route
+   */
+  synchronized int getIdleCount(String route) {
+    Deque<HttpConnection> connections = idle.get(route);
+    return connections == null ? 0 : connections.size();
+  }
+
+  /**
+   * Closes all idle connections. Connections released afterwards are closed.
+   */
+  @Override
+  public void close() {
+    List<HttpConnection> connections = Lists.newArrayList();
+    synchronized (this) {
+      closed = true;
+      for (Iterator<Deque<HttpConnection>> it = idle.values().iterator(); it.hasNext(); ) {
+        connections.addAll(it.next());
+        it.remove();
+      }
+    }
+    for (HttpConnection connection : connections) {
+      connection.close();
+    }
+  }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Opens connections to a set of hosts ahead of traffic, so that the first requests after startup do not pay for
+ * name resolution, TCP connection and TLS handshake all at once.
+ *
+ * <p>
+ * Each target is a cheap request, such as a ping endpoint. Its host is resolved, and the request is sent on the
+ * configured number of connections at the same time: every response is held until all of them have been received,
+ * so that each one needs a connection of its own, and the connections are then returned to the keep-alive pool of
+ * the JDK. The JDK keeps at most {@code http.maxConnections} idle connections per host, 5 by default, so a larger
+ * number of connections only warms up the name resolution and TLS session caches.
+ * </p>
+ *
+ * <p>
+ * The warmer is ready once warm-up has completed and at least the minimum number of connections was opened to every
+ * target, which can be used to gate health checks.
+ * </p>
+ */
+@ThreadSafe
+public final class ConnectionWarmer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ConnectionWarmer.class);
+
+  private final List<Target> targets;
+  private final HttpRequestConfig requestConfig;
+  private final int connections;
+  private final int minConnections;
+  private final long timeout;
+  private final AtomicBoolean started = new AtomicBoolean();
+  private final CountDownLatch completed = new CountDownLatch(1);
+
+  private ConnectionWarmer(List<HttpRequest> requests, HttpRequestConfig requestConfig, int connections,
+                           int minConnections, long timeout) {
+    ImmutableList.Builder<Target> targets = ImmutableList.builder();
+    for (HttpRequest request : requests) {
+      targets.add(new Target(request));
+    }
+    this.targets = targets.build();
+    this.requestConfig = requestConfig;
+    this.connections = connections;
+    this.minConnections = minConnections;
+    this.timeout = timeout;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Starts warming up connections in the background. Does nothing if already started.
+   */
+  public void start() {
+    if (!started.compareAndSet(false, true)) {
+      return;
+    }
+    Thread thread = new Thread("connection-warmer") {
+      @Override
+      public void run() {
+        try {
+          warmAll();
+        } finally {
+          completed.countDown();
+        }
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Starts warming up connections if not started yet, and waits for warm-up to complete.
+   *
+   * @return true if ready, false if warm-up did not complete in time or failed for some target
+   */
+  public boolean warmUp(long timeout, TimeUnit unit) throws InterruptedException {
+    start();
+    return awaitReady(timeout, unit);
+  }
+
+  /**
+   * Waits for warm-up to complete.
+   *
+   * @return true if ready, false if warm-up did not complete in time or failed for some target
+   */
+  public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+    return completed.await(timeout, unit) && isReady();
+  }
+
+  /**
+   * @return true if warm-up has completed and opened at least the minimum number of connections to every target
+   */
+  public boolean isReady() {
+    if (completed.getCount() > 0) {
+      return false;
+    }
+    for (Target target : targets) {
+      if (target.warmed.get() < minConnections) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return status of every target, in the order they were added
+   */
+  public List<TargetStatus> getStatus() {
+    ImmutableList.Builder<TargetStatus> status = ImmutableList.builder();
+    for (Target target : targets) {
+      status.add(new TargetStatus(target.request, connections, target.warmed.get(), target.done, target.failure));
+    }
+    return status.build();
+  }
+
+  private void warmAll() {
+    // Each connection needs a thread of its own, since it is held until all connections to its target are open
+    final ExecutorService executor = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("connection-warmer-%d").build());
+    try {
+      final CountDownLatch targetsDone = new CountDownLatch(targets.size());
+      for (final Target target : targets) {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              warm(target, executor);
+            } finally {
+              target.done = true;
+              targetsDone.countDown();
+            }
+          }
+        });
+      }
+      targetsDone.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void warm(final Target target, ExecutorService executor) {
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    try {
+      InetAddress.getAllByName(target.request.getURL().getHost());
+    } catch (Exception e) {
+      LOG.warn("Failed to resolve {}", target.request.getURL().getHost(), e);
+      target.failure = e.toString();
+      return;
+    }
+
+    final CountDownLatch opened = new CountDownLatch(connections);
+    final CountDownLatch closed = new CountDownLatch(connections);
+    for (int i = 0; i < connections; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            open(target, opened, deadline);
+          } finally {
+            closed.countDown();
+          }
+        }
+      });
+    }
+
+    try {
+      closed.await(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    LOG.debug("Warmed up {} of {} connections to {}", target.warmed.get(), connections, target.request.getURL());
+  }
+
+  /**
+   * Opens a connection and holds it until all connections to the target are open, so that the other requests
+   * cannot reuse it, and then returns it to the pool.
+   */
+  private void open(Target target, CountDownLatch opened, long deadline) {
+    StreamingResponse response;
+    try {
+      response = HttpRequests.executeStreaming(target.request, requestConfig);
+      target.warmed.incrementAndGet();
+    } catch (Exception e) {
+      LOG.debug("Failed to open connection to {}", target.request.getURL(), e);
+      target.failure = e.toString();
+      return;
+    } finally {
+      opened.countDown();
+    }
+
+    try {
+      opened.await(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      response.close();
+    }
+  }
+
+  /**
+   * Progress of the warm-up of a single target.
+   */
+  private static final class Target {
+    private final HttpRequest request;
+    private final AtomicInteger warmed = new AtomicInteger();
+    private volatile boolean done;
+    private volatile String failure;
+
+    Target(HttpRequest request) {
+      this.request = request;
+    }
+  }
+
+  /**
+   * Status of the warm-up of a single target.
+   */
+  @Immutable
+  public static final class TargetStatus {
+    private final HttpRequest request;
+    private final int connections;
+    private final int warmedConnections;
+    private final boolean done;
+    private final String failure;
+
+    TargetStatus(HttpRequest request, int connections, int warmedConnections, boolean done,
+                 @Nullable String failure) {
+      this.request = request;
+      this.connections = connections;
+      this.warmedConnections = warmedConnections;
+      this.done = done;
+      this.failure = failure;
+    }
+
+    /**
+     * @return the request used to warm up connections
+     */
+    public HttpRequest getRequest() {
+      return request;
+    }
+
+    /**
+     * @return number of connections to open
+     */
+    public int getConnections() {
+      return connections;
+    }
+
+    /**
+     * @return number of connections opened so far
+     */
+    public int getWarmedConnections() {
+      return warmedConnections;
+    }
+
+    /**
+     * @return true if warm-up of this target has completed
+     */
+    public boolean isDone() {
+      return done;
+    }
+
+    /**
+     * @return the last failure to resolve or connect, or {@code null} if there was none
+     */
+    @Nullable
+    public String getFailure() {
+      return failure;
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+        .add("url", request.getURL())
+        .add("warmed", warmedConnections + "/" + connections)
+        .add("done", done)
+        .add("failure", failure)
+        .toString();
+    }
+  }
+
+  /**
+   * Builder for {@link ConnectionWarmer}.
+   */
+  public static final class Builder {
+    private final ImmutableList.Builder<HttpRequest> targets = ImmutableList.builder();
+    private HttpRequestConfig requestConfig = HttpRequestConfig.DEFAULT;
+    private int connections = 1;
+    private int minConnections = 1;
+    private long timeout = 30000;
+
+    Builder() {
+    }
+
+    /**
+     * @param request a cheap request to the host to warm up connections to, such as a ping. Its response body
+     *                should be small, so that the connection can be reused after it.
+     */
+    public Builder addTarget(HttpRequest request) {
+      targets.add(request);
+      return this;
+    }
+
+    /**
+     * @param requestConfig configuration of the warm-up requests, which should match the one of the traffic
+     */
+    public Builder setRequestConfig(HttpRequestConfig requestConfig) {
+      this.requestConfig = requestConfig;
+      return this;
+    }
+
+    /**
+     * @param connections number of connections to open to each target. Defaults to 1.
+     */
+    public Builder setConnections(int connections) {
+      Preconditions.checkArgument(connections > 0, "Number of connections must be positive: %s", connections);
+      this.connections = connections;
+      return this;
+    }
+
+    /**
+     * @param minConnections number of connections that must be opened to each target to be ready. Defaults to 1.
+     */
+    public Builder setMinConnections(int minConnections) {
+      Preconditions.checkArgument(minConnections >= 0, "Minimum connections cannot be negative: %s", minConnections);
+      this.minConnections = minConnections;
+      return this;
+    }
+
+    /**
+     * @param timeout maximum time to warm up each target, in milliseconds. Defaults to 30 seconds.
+     */
+    public Builder setTimeout(long timeout) {
+      Preconditions.checkArgument(timeout > 0, "Timeout must be positive: %s", timeout);
+      this.timeout = timeout;
+      return this;
+    }
+
+    public ConnectionWarmer build() {
+      Preconditions.checkArgument(minConnections <= connections,
+                                  "Minimum connections %s is more than the number of connections %s",
+                                  minConnections, connections);
+      return new ConnectionWarmer(targets.build(), requestConfig, connections, minConnections, timeout);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Connects to a host that may resolve to both IPv6 and IPv4 addresses by racing connection attempts, as described
+ * in RFC 8305 (Happy Eyeballs).
+ *
+ * <p>
+ * Addresses are interleaved by family, starting with the family of the first resolved address. The first attempt
+ * starts right away, and each following attempt starts once the connection attempt delay has passed without a
+ * connection, or as soon as an attempt fails. The first attempt to connect wins, and the others are closed, so a
+ * broken address family costs the attempt delay instead of the whole connect timeout.
+ * </p>
+ */
+@ThreadSafe
+final class DualStackConnector {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DualStackConnector.class);
+
+  private final long attemptDelay;
+
+  /**
+   * @param attemptDelay time to wait for an attempt before starting the next one, in milliseconds
+   */
+  DualStackConnector(long attemptDelay) {
+    this.attemptDelay = attemptDelay;
+  }
+
+  /**
+   * Resolves a host and connects to one of its addresses.
+   *
+   * @param host the host to connect to
+   * @param port the port to connect to
+   * @param timeout connect timeout, in milliseconds, or {@code 0} for none
+   * @return a connected channel, in blocking mode
+   */
+  SocketChannel connect(String host, int port, int timeout) throws IOException {
+    return connect(sort(Arrays.asList(InetAddress.getAllByName(host))), port, timeout);
+  }
+
+  /**
+   * Connects to the first address of the given ones to accept a connection.
+   *
+   * @param addresses the addresses to try, in order
+   * @param port the port to connect to
+   * @param timeout connect timeout, in milliseconds, or {@code 0} for none
+   * @return a connected channel, in blocking mode
+   */
+  SocketChannel connect(List<InetAddress> addresses, int port, int timeout) throws IOException {
+    long now = System.nanoTime();
+    long deadline = timeout > 0 ? now + TimeUnit.MILLISECONDS.toNanos(timeout) : Long.MAX_VALUE;
+    long delay = TimeUnit.MILLISECONDS.toNanos(attemptDelay);
+
+    List<SocketChannel> attempts = Lists.newArrayList();
+    SocketChannel connected = null;
+    Selector selector = Selector.open();
+    try {
+      IOException failure = null;
+      int next = 0;
+      long nextAttempt = now;
+      while (connected == null) {
+        now = System.nanoTime();
+        if (next < addresses.size() && (now >= nextAttempt || selector.keys().isEmpty())) {
+          InetSocketAddress address = new InetSocketAddress(addresses.get(next++), port);
+          nextAttempt = now + delay;
+          SocketChannel channel = SocketChannel.open();
+          attempts.add(channel);
+          try {
+            channel.configureBlocking(false);
+            if (channel.connect(address)) {
+              connected = channel;
+            } else {
+              channel.register(selector, SelectionKey.OP_CONNECT, address);
+            }
+          } catch (IOException e) {
+            LOG.debug("Failed to connect to {}", address, e);
+            failure = e;
+            channel.close();
+          }
+          continue;
+        }
+
+        if (selector.keys().isEmpty()) {
+          ConnectException e = new ConnectException("Failed to connect to any of " + addresses + " on port " + port);
+          if (failure != null) {
+            e.initCause(failure);
+          }
+          throw e;
+        }
+        if (now >= deadline) {
+          throw new SocketTimeoutException("Timed out connecting to " + addresses + " on port " + port);
+        }
+
+        // Waits for an attempt to complete, until the next attempt is due or the timeout expires
+        long wakeup = Math.min(deadline, next < addresses.size() ? nextAttempt : Long.MAX_VALUE);
+        selector.select(wakeup == Long.MAX_VALUE ? 0L : Math.max(1L, TimeUnit.NANOSECONDS.toMillis(wakeup - now)));
+        for (SelectionKey key : selector.selectedKeys()) {
+          SocketChannel channel = (SocketChannel) key.channel();
+          try {
+            if (channel.finishConnect()) {
+              key.cancel();
+              connected = channel;
+              break;
+            }
+          } catch (IOException e) {
+            LOG.debug("Failed to connect to {}", key.attachment(), e);
+            failure = e;
+            key.cancel();
+            channel.close();
+            // The next attempt starts right away
+            nextAttempt = now;
+          }
+        }
+        selector.selectedKeys().clear();
+        // Removes the cancelled keys from the selector
+        selector.selectNow();
+      }
+    } finally {
+      for (SocketChannel channel : attempts) {
+        if (channel != connected) {
+          channel.close();
+        }
+      }
+      selector.close();
+    }
+
+    connected.configureBlocking(true);
+    return connected;
+  }
+
+  /**
+   * Interleaves addresses by family, starting with the family of the first address.
+   */
+  static List<InetAddress> sort(List<InetAddress> addresses) {
+    if (addresses.isEmpty()) {
+      return addresses;
+    }
+    boolean firstIPv6 = addresses.get(0) instanceof Inet6Address;
+    List<InetAddress> preferred = Lists.newArrayList();
+    List<InetAddress> other = Lists.newArrayList();
+    for (InetAddress address : addresses) {
+      if ((address instanceof Inet6Address) == firstIPv6) {
+        preferred.add(address);
+      } else {
+        other.add(address);
+      }
+    }
+
+    List<InetAddress> sorted = Lists.newArrayListWithCapacity(addresses.size());
+    for (int i = 0; i < Math.max(preferred.size(), other.size()); i++) {
+      if (i < preferred.size()) {
+        sorted.add(preferred.get(i));
+      }
+      if (i < other.size()) {
+        sorted.add(other.get(i));
+      }
+    }
+    return sorted;
+  }
+}
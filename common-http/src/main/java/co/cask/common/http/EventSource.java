@@ -0,0 +1,331 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Consumes a long-lived streaming response, delivering events as they arrive instead of buffering the body.
+ *
+ * <p>
+ * The response is parsed either as a {@code text/event-stream} of server-sent events, or as newline-delimited
+ * text where each line is an event. When the stream ends or the connection fails, the request is sent again
+ * after the reconnection delay, with a {@code Last-Event-ID} header if the server set event ids. A {@code 204}
+ * response ends the stream for good, and other non-2xx responses fail it.
+ * </p>
+ *
+ * <p>
+ * {@link #close()} stops consuming once the next line arrives or the read times out, since a blocked read on the
+ * connection cannot be interrupted.
+ * </p>
+ */
+@ThreadSafe
+public final class EventSource implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(EventSource.class);
+
+  /**
+   * Format of the response body.
+   */
+  public enum Format {
+    /**
+     * A {@code text/event-stream} of server-sent events.
+     */
+    EVENT_STREAM,
+
+    /**
+     * Newline-delimited text, such as newline-delimited JSON. Empty lines are skipped.
+     */
+    LINES
+  }
+
+  private final HttpRequest request;
+  private final HttpRequestConfig requestConfig;
+  private final Format format;
+  private final long reconnectDelay;
+  private final int maxReconnects;
+  private final int maxEventSize;
+  private final int bufferSize;
+  private final List<ProducerIterator<?>> iterators = new CopyOnWriteArrayList<ProducerIterator<?>>();
+  private volatile boolean closed;
+
+  private EventSource(HttpRequest request, HttpRequestConfig requestConfig, Format format, long reconnectDelay,
+                      int maxReconnects, int maxEventSize, int bufferSize) {
+    this.request = request;
+    this.requestConfig = requestConfig;
+    this.format = format;
+    this.reconnectDelay = reconnectDelay;
+    this.maxReconnects = maxReconnects;
+    this.maxEventSize = maxEventSize;
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * @param request the request that opens the stream
+   */
+  public static Builder builder(HttpRequest request) {
+    return new Builder(request);
+  }
+
+  /**
+   * Consumes the stream on the calling thread, reconnecting as needed, until the handler returns false, this
+   * event source is closed, the stream ends for good, or the reconnection attempts are exhausted.
+   *
+   * @param handler the handler to deliver events to
+   * @throws IOException if the stream fails and cannot be reconnected
+   */
+  public void consume(EventStreamHandler handler) throws IOException {
+    String lastEventId = null;
+    long delay = reconnectDelay;
+    int reconnects = 0;
+
+    while (!closed) {
+      HttpRequest.Builder builder = HttpRequest.builder(request);
+      if (format == Format.EVENT_STREAM) {
+        builder.addHeader("Accept", "text/event-stream").addHeader("Cache-Control", "no-cache");
+        if (lastEventId != null) {
+          builder.addHeader("Last-Event-ID", lastEventId);
+        }
+      }
+
+      StreamConsumer consumer = new StreamConsumer(handler, lastEventId);
+      IOException failure = null;
+      try {
+        HttpResponse response = HttpRequests.execute(builder.build(), requestConfig, consumer);
+        if (response.getResponseCode() == 204) {
+          return;
+        }
+        if (response.getResponseCode() < 200 || response.getResponseCode() >= 300) {
+          throw new StreamFailedException("Failed to open stream " + request.getURL() + ": "
+                                            + response.getResponseCode() + " " + response.getResponseMessage());
+        }
+      } catch (StreamFailedException e) {
+        throw e;
+      } catch (EventStreamParser.SizeLimitException e) {
+        throw e;
+      } catch (IOException e) {
+        failure = e;
+      }
+
+      if (consumer.stopped || closed) {
+        return;
+      }
+      lastEventId = consumer.parser == null ? lastEventId : consumer.parser.getLastEventId();
+      if (consumer.parser != null && consumer.parser.getRetry() >= 0) {
+        delay = consumer.parser.getRetry();
+      }
+      if (consumer.events > 0) {
+        reconnects = 0;
+      }
+      if (++reconnects > maxReconnects) {
+        if (failure != null) {
+          throw failure;
+        }
+        return;
+      }
+
+      LOG.debug("Reconnecting to {} in {} ms", request.getURL(), delay, failure);
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while reconnecting to " + request.getURL());
+      }
+    }
+  }
+
+  /**
+   * Consumes the stream on a background thread, returning an iterator over its events. The thread stops reading
+   * from the connection while the buffer of the event source is full.
+   *
+   * <p>
+   * The iterator ends when {@link #consume(EventStreamHandler)} would return. If the stream fails, the iterator
+   * throws the failure, wrapped in a {@link RuntimeException}. Closing this event source ends the iterator.
+   * </p>
+   */
+  public Iterator<ServerSentEvent> iterator() {
+    ProducerIterator<ServerSentEvent> iterator = new ProducerIterator<ServerSentEvent>(
+      "event-source-" + request.getURL(), bufferSize) {
+      @Override
+      void produce(final RecordQueue<ServerSentEvent> queue) throws IOException {
+        consume(new EventStreamHandler() {
+          @Override
+          public boolean onEvent(ServerSentEvent event) {
+            try {
+              queue.put(event);
+              return true;
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              return false;
+            } catch (IllegalStateException e) {
+              // The iterator was closed
+              return false;
+            }
+          }
+        });
+      }
+
+      @Override
+      void finished() {
+        iterators.remove(this);
+      }
+    };
+    iterators.add(iterator);
+    if (closed) {
+      // The event source was closed before it knew of the iterator
+      iterator.close();
+    }
+    iterator.start();
+    return iterator;
+  }
+
+  /**
+   * Stops consuming the stream. No more events are delivered after the one being delivered, if any.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    // Releases iterator threads waiting for room in their buffer
+    for (ProducerIterator<?> iterator : iterators) {
+      iterator.close();
+    }
+  }
+
+  /**
+   * Parses one response and delivers its events.
+   */
+  private final class StreamConsumer implements BodyConsumer {
+    private final EventStreamHandler handler;
+    private final String lastEventId;
+    private EventStreamParser parser;
+    private boolean stopped;
+    private int events;
+
+    StreamConsumer(EventStreamHandler handler, @Nullable String lastEventId) {
+      this.handler = handler;
+      this.lastEventId = lastEventId;
+    }
+
+    @Override
+    public void consume(HttpResponse response, InputStream body) throws IOException {
+      parser = new EventStreamParser(body, format == Format.LINES, maxEventSize, lastEventId);
+      ServerSentEvent event = parser.next();
+      while (event != null && !closed) {
+        events++;
+        if (!handler.onEvent(event)) {
+          stopped = true;
+          return;
+        }
+        event = parser.next();
+      }
+    }
+  }
+
+  /**
+   * Thrown when the server refuses the stream, which is not retried.
+   */
+  private static final class StreamFailedException extends IOException {
+    StreamFailedException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Builder for {@link EventSource}.
+   */
+  public static final class Builder {
+    private final HttpRequest request;
+    private HttpRequestConfig requestConfig = HttpRequestConfig.DEFAULT;
+    private Format format = Format.EVENT_STREAM;
+    private long reconnectDelay = 3000;
+    private int maxReconnects = Integer.MAX_VALUE;
+    private int maxEventSize = 1024 * 1024;
+    private int bufferSize = 64;
+
+    Builder(HttpRequest request) {
+      this.request = request;
+    }
+
+    /**
+     * @param requestConfig configuration of the requests. Its read timeout bounds how long the stream can be idle.
+     */
+    public Builder setRequestConfig(HttpRequestConfig requestConfig) {
+      this.requestConfig = requestConfig;
+      return this;
+    }
+
+    public Builder setFormat(Format format) {
+      this.format = format;
+      return this;
+    }
+
+    /**
+     * @param reconnectDelay time to wait before reconnecting, in milliseconds, unless the server sets one.
+     *                       Defaults to 3 seconds.
+     */
+    public Builder setReconnectDelay(long reconnectDelay) {
+      Preconditions.checkArgument(reconnectDelay >= 0, "Reconnect delay cannot be negative: %s", reconnectDelay);
+      this.reconnectDelay = reconnectDelay;
+      return this;
+    }
+
+    /**
+     * @param maxReconnects maximum number of consecutive reconnections without receiving an event.
+     *                      Unlimited by default.
+     */
+    public Builder setMaxReconnects(int maxReconnects) {
+      Preconditions.checkArgument(maxReconnects >= 0, "Maximum reconnects cannot be negative: %s", maxReconnects);
+      this.maxReconnects = maxReconnects;
+      return this;
+    }
+
+    /**
+     * @param maxEventSize maximum size of a line, and of the data of an event. Defaults to 1MB.
+     */
+    public Builder setMaxEventSize(int maxEventSize) {
+      Preconditions.checkArgument(maxEventSize > 0, "Maximum event size must be positive: %s", maxEventSize);
+      this.maxEventSize = maxEventSize;
+      return this;
+    }
+
+    /**
+     * @param bufferSize maximum number of events buffered by {@link EventSource#iterator()}. Defaults to 64.
+     */
+    public Builder setBufferSize(int bufferSize) {
+      Preconditions.checkArgument(bufferSize > 0, "Buffer size must be positive: %s", bufferSize);
+      this.bufferSize = bufferSize;
+      return this;
+    }
+
+    public EventSource build() {
+      return new EventSource(request, requestConfig, format, reconnectDelay, maxReconnects, maxEventSize,
+                             bufferSize);
+    }
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+/**
+ * Receives the events of an {@link EventSource} as they arrive.
+ */
+public interface EventStreamHandler {
+
+  /**
+   * Called for each event, on the thread consuming the stream.
+   *
+   * @param event the event
+   * @return true to keep consuming, false to stop
+   */
+  boolean onEvent(ServerSentEvent event);
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Incrementally parses a {@code text/event-stream} or newline-delimited body into {@link ServerSentEvent}s,
+ * reading only as much of the stream as the next event needs.
+ *
+ * <p>
+ * Lines may end with CRLF, LF or CR. No line, and no event, may be longer than the maximum size, so that a
+ * misbehaving server cannot make the parser buffer without bound.
+ * </p>
+ */
+@NotThreadSafe
+final class EventStreamParser {
+
+  private static final String DEFAULT_TYPE = "message";
+
+  private final InputStream is;
+  private final boolean lines;
+  private final int maxSize;
+  private final byte[] buffer = new byte[8192];
+  private int position;
+  private int limit;
+  private byte[] line = new byte[256];
+  private int lineLength;
+  private boolean skipLF;
+  private boolean firstLine = true;
+  private String lastEventId;
+  private long retry = -1L;
+
+  /**
+   * @param is the stream to parse
+   * @param lines true to parse a newline-delimited stream, false to parse an event stream
+   * @param maxSize maximum size of a line or of the data of an event, in bytes
+   * @param lastEventId last event id to start from
+   */
+  EventStreamParser(InputStream is, boolean lines, int maxSize, @Nullable String lastEventId) {
+    this.is = is;
+    this.lines = lines;
+    this.maxSize = maxSize;
+    this.lastEventId = lastEventId;
+  }
+
+  /**
+   * @return the last event id set by the stream, or the one the parser started from
+   */
+  @Nullable
+  String getLastEventId() {
+    return lastEventId;
+  }
+
+  /**
+   * @return reconnection time the stream asked for, in milliseconds, or {@code -1} if it did not
+   */
+  long getRetry() {
+    return retry;
+  }
+
+  /**
+   * @return the next event, or {@code null} at the end of the stream. An event not terminated by an empty line
+   *         before the end of the stream is discarded.
+   */
+  @Nullable
+  ServerSentEvent next() throws IOException {
+    if (lines) {
+      String value = readLine();
+      while (value != null && value.isEmpty()) {
+        value = readLine();
+      }
+      return value == null ? null : new ServerSentEvent(null, DEFAULT_TYPE, value);
+    }
+
+    String type = null;
+    StringBuilder data = null;
+    String value = readLine();
+    while (value != null) {
+      if (value.isEmpty()) {
+        if (data != null) {
+          // Drops the newline added after the last data line
+          data.setLength(data.length() - 1);
+          return new ServerSentEvent(lastEventId, type == null ? DEFAULT_TYPE : type, data.toString());
+        }
+        type = null;
+      } else if (value.charAt(0) != ':') {
+        int colon = value.indexOf(':');
+        String field = colon < 0 ? value : value.substring(0, colon);
+        String fieldValue = "";
+        if (colon >= 0) {
+          int start = (colon + 1 < value.length() && value.charAt(colon + 1) == ' ') ? colon + 2 : colon + 1;
+          fieldValue = value.substring(start);
+        }
+
+        if ("data".equals(field)) {
+          if (data == null) {
+            data = new StringBuilder();
+          }
+          data.append(fieldValue).append('\n');
+          if (data.length() > maxSize) {
+            throw new SizeLimitException("Event data exceeds " + maxSize + " characters");
+          }
+        } else if ("event".equals(field)) {
+          type = fieldValue;
+        } else if ("id".equals(field)) {
+          if (fieldValue.indexOf('\0') < 0) {
+            lastEventId = fieldValue;
+          }
+        } else if ("retry".equals(field)) {
+          if (!fieldValue.isEmpty() && fieldValue.length() < 19 && isDigits(fieldValue)) {
+            retry = Long.parseLong(fieldValue);
+          }
+        }
+      }
+      value = readLine();
+    }
+    return null;
+  }
+
+  /**
+   * @return the next line without its terminator, or {@code null} at the end of the stream. A last line
+   *         without terminator is returned as well.
+   */
+  @Nullable
+  private String readLine() throws IOException {
+    lineLength = 0;
+    while (true) {
+      if (position == limit) {
+        limit = is.read(buffer);
+        position = 0;
+        if (limit < 0) {
+          limit = 0;
+          return lineLength == 0 ? null : decodeLine();
+        }
+      }
+
+      if (skipLF) {
+        skipLF = false;
+        if (buffer[position] == '\n') {
+          position++;
+          continue;
+        }
+      }
+
+      int start = position;
+      while (position < limit && buffer[position] != '\n' && buffer[position] != '\r') {
+        position++;
+      }
+      appendToLine(start, position - start);
+      if (position < limit) {
+        skipLF = buffer[position] == '\r';
+        position++;
+        return decodeLine();
+      }
+    }
+  }
+
+  private void appendToLine(int offset, int length) throws IOException {
+    if (lineLength + length > maxSize) {
+      throw new SizeLimitException("Line exceeds " + maxSize + " bytes");
+    }
+    if (lineLength + length > line.length) {
+      line = Arrays.copyOf(line, Math.min(maxSize, Math.max(line.length * 2, lineLength + length)));
+    }
+    System.arraycopy(buffer, offset, line, lineLength, length);
+    lineLength += length;
+  }
+
+  private String decodeLine() {
+    int offset = 0;
+    if (firstLine) {
+      firstLine = false;
+      // Skips the byte order mark
+      if (lineLength >= 3 && line[0] == (byte) 0xEF && line[1] == (byte) 0xBB && line[2] == (byte) 0xBF) {
+        offset = 3;
+      }
+    }
+    return new String(line, offset, lineLength - offset, Charsets.UTF_8);
+  }
+
+  private static boolean isDigits(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Thrown when a line or an event is larger than the maximum size.
+   */
+  static final class SizeLimitException extends IOException {
+    SizeLimitException(String message) {
+      super(message);
+    }
+  }
+}
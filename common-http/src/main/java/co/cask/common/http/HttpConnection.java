@@ -0,0 +1,565 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An HTTP/1.1 client connection over a stream, which sends one request at a time and can be reused for
+ * further requests once the body of a response has been read.
+ */
+@NotThreadSafe
+final class HttpConnection implements Closeable {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final int MAX_LINE_LENGTH = 64 * 1024;
+  private static final int MAX_HEADERS = 512;
+
+  private final String route;
+  private final SocketChannel channel;
+  private final Socket socket;
+  private final ChannelStream channelStream;
+  private final InputStream in;
+  private final OutputStream out;
+  private final WritableByteChannel bodyChannel;
+  private final ByteBuffer probe = ByteBuffer.allocate(1);
+  private boolean reused;
+  private boolean responseStarted;
+  private long idleSince;
+
+  /**
+   * @param route identifies the destination of the connection, connections to the same route are interchangeable
+   * @param channel the channel the connection is made of
+   * @param socket the socket to set read timeouts on, or {@code null} if the connection has no read timeout. If
+   *               it is the socket of the channel, rather than a TLS socket layered over it, request bodies are
+   *               written to the channel directly.
+   * @param in the stream to read responses from
+   * @param out the stream to write requests to
+   */
+  HttpConnection(String route, SocketChannel channel, @Nullable Socket socket, InputStream in, OutputStream out) {
+    this(route, channel, socket, null, in, out, socket == channel.socket() ? channel : null);
+  }
+
+  /**
+   * @param route identifies the destination of the connection, connections to the same route are interchangeable
+   * @param channel the channel the connection is made of
+   * @param channelStream streams over the channel, which has no socket
+   */
+  HttpConnection(String route, SocketChannel channel, ChannelStream channelStream) {
+    this(route, channel, null, channelStream, channelStream.getInputStream(), channelStream.getOutputStream(),
+         channelStream.getWritableChannel());
+  }
+
+  private HttpConnection(String route, SocketChannel channel, @Nullable Socket socket,
+                         @Nullable ChannelStream channelStream, InputStream in, OutputStream out,
+                         @Nullable WritableByteChannel bodyChannel) {
+    this.route = route;
+    this.channel = channel;
+    this.socket = socket;
+    this.channelStream = channelStream;
+    this.in = new BufferedInputStream(in, BUFFER_SIZE);
+    this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+    this.bodyChannel = bodyChannel;
+  }
+
+  String getRoute() {
+    return route;
+  }
+
+  /**
+   * @return true if the connection was used for an earlier request
+   */
+  boolean isReused() {
+    return reused;
+  }
+
+  /**
+   * @return true if any byte of the response to the current request was received
+   */
+  boolean isResponseStarted() {
+    return responseStarted;
+  }
+
+  long getIdleSince() {
+    return idleSince;
+  }
+
+  /**
+   * Marks the connection as idle, after the body of a response was read.
+   */
+  void setIdle() {
+    reused = true;
+    idleSince = System.nanoTime();
+  }
+
+  void setReadTimeout(int readTimeout) throws IOException {
+    if (socket != null) {
+      socket.setSoTimeout(readTimeout);
+    } else if (channelStream != null) {
+      channelStream.setReadTimeout(readTimeout);
+    }
+  }
+
+  /**
+   * Checks, without blocking, whether the peer closed an idle connection or sent data nobody asked for.
+   *
+   * @return true if the connection cannot be reused
+   */
+  boolean isStale() {
+    try {
+      if (in.available() > 0) {
+        return true;
+      }
+      boolean blocking = channel.isBlocking();
+      if (blocking) {
+        channel.configureBlocking(false);
+      }
+      try {
+        probe.clear();
+        return channel.read(probe) != 0;
+      } finally {
+        if (blocking) {
+          channel.configureBlocking(true);
+        }
+      }
+    } catch (IOException e) {
+      return true;
+    }
+  }
+
+  /**
+   * Sends a request, with its body as {@link RequestBody#prepare() prepared} for this execution.
+   */
+  void writeRequest(HttpRequest request, @Nullable RequestBody body) throws IOException {
+    responseStarted = false;
+    URL url = request.getURL();
+    HttpMethod method = request.getMethod();
+    HttpHeaders headers = request.getHttpHeaders();
+
+    String target = url.getFile().isEmpty() ? "/" : url.getFile();
+    StringBuilder head = new StringBuilder(256);
+    head.append(method.name()).append(' ').append(target).append(" HTTP/1.1\r\n");
+    if (!headers.contains("Host")) {
+      head.append("Host: ").append(url.getHost());
+      if (url.getPort() >= 0 && url.getPort() != url.getDefaultPort()) {
+        head.append(':').append(url.getPort());
+      }
+      head.append("\r\n");
+    }
+    for (int i = 0; i < headers.size(); i++) {
+      head.append(headers.getName(i)).append(": ").append(headers.getValue(i)).append("\r\n");
+    }
+
+    boolean chunked = false;
+    if (!headers.contains("Content-Length") && !headers.contains("Transfer-Encoding")) {
+      long contentLength = body == null ? 0L : body.getContentLength();
+      if (contentLength < 0) {
+        chunked = true;
+        head.append("Transfer-Encoding: chunked\r\n");
+      } else if (body != null || method == HttpMethod.POST || method == HttpMethod.PUT) {
+        head.append("Content-Length: ").append(contentLength).append("\r\n");
+      }
+    }
+    head.append("\r\n");
+
+    out.write(head.toString().getBytes(Charsets.ISO_8859_1));
+    if (body != null) {
+      if (chunked) {
+        ChunkedOutputStream chunkedOut = new ChunkedOutputStream(out);
+        body.writeTo(chunkedOut);
+        chunkedOut.finish();
+      } else if (bodyChannel != null && body.getContentLength() > BUFFER_SIZE) {
+        // A body larger than the buffer is handed to the channel, which takes buffers with gathering writes and
+        // files with transferTo, instead of being copied through the stream. Smaller bodies share a write with
+        // the head.
+        out.flush();
+        body.writeTo(bodyChannel);
+      } else {
+        body.writeTo(out);
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Receives the status line and headers of the response to the request sent last, skipping interim responses.
+   *
+   * @param request the request sent last
+   */
+  Response readResponse(HttpRequest request) throws IOException {
+    while (true) {
+      String statusLine = readLine();
+      if (statusLine == null) {
+        throw new EOFException("Connection closed before the response to " + request.getURL() + " was received");
+      }
+      // HTTP-version SP status-code SP [ reason-phrase ]
+      int codeStart = statusLine.indexOf(' ');
+      if (!statusLine.startsWith("HTTP/") || codeStart < 0 || statusLine.length() < codeStart + 4) {
+        throw new ProtocolException("Malformed status line: " + statusLine);
+      }
+      int code;
+      try {
+        code = Integer.parseInt(statusLine.substring(codeStart + 1, codeStart + 4));
+      } catch (NumberFormatException e) {
+        throw new ProtocolException("Malformed status line: " + statusLine);
+      }
+      String message = statusLine.length() > codeStart + 5 ? statusLine.substring(codeStart + 5) : "";
+      boolean http10 = statusLine.startsWith("HTTP/1.0");
+      HttpHeaders headers = readHeaders();
+
+      if (code >= 100 && code < 200 && code != 101) {
+        // Interim response, such as 100 Continue
+        continue;
+      }
+      return openBody(request, code, message, http10, headers);
+    }
+  }
+
+  private Response openBody(HttpRequest request, int code, String message, boolean http10, HttpHeaders headers)
+    throws IOException {
+    boolean reusable = http10 ? hasToken(headers.getFirst("Connection"), "keep-alive")
+                              : !hasToken(headers.getFirst("Connection"), "close");
+    reusable = reusable && !hasToken(request.getHttpHeaders().getFirst("Connection"), "close");
+
+    if (request.getMethod() == HttpMethod.HEAD || code == 204 || code == 304 || code == 101) {
+      return new Response(code, message, headers, new ByteArrayInputStream(new byte[0]), 0L,
+                          reusable && code != 101);
+    }
+
+    String transferEncoding = headers.getFirst("Transfer-Encoding");
+    if (transferEncoding != null) {
+      if (!transferEncoding.trim().toLowerCase().endsWith("chunked")) {
+        // The body ends when the connection is closed
+        return new Response(code, message, headers, in, -1L, false);
+      }
+      return new Response(code, message, headers, new ChunkedInputStream(), -1L, reusable);
+    }
+
+    String contentLength = headers.getFirst("Content-Length");
+    if (contentLength != null) {
+      long length;
+      try {
+        length = Long.parseLong(contentLength.trim());
+      } catch (NumberFormatException e) {
+        throw new ProtocolException("Malformed Content-Length: " + contentLength);
+      }
+      if (length < 0) {
+        throw new ProtocolException("Negative Content-Length: " + contentLength);
+      }
+      return new Response(code, message, headers, new FixedLengthInputStream(length), length, reusable);
+    }
+    return new Response(code, message, headers, in, -1L, false);
+  }
+
+  @Override
+  public void close() {
+    try {
+      if (socket != null) {
+        socket.close();
+      }
+    } catch (IOException e) {
+      // Nothing to do, the connection is discarded
+    } finally {
+      Closeables.closeQuietly(channelStream);
+      Closeables.closeQuietly(channel);
+    }
+  }
+
+  private HttpHeaders readHeaders() throws IOException {
+    HttpHeaders.Builder headers = HttpHeaders.builder();
+    String name = null;
+    String value = null;
+    for (int count = 0; count <= MAX_HEADERS; count++) {
+      String line = readLine();
+      if (line == null) {
+        throw new EOFException("Connection closed while receiving response headers");
+      }
+      if (!line.isEmpty() && (line.charAt(0) == ' ' || line.charAt(0) == '\t') && name != null) {
+        // Obsolete line folding continues the previous value
+        value = value + ' ' + line.trim();
+        continue;
+      }
+      if (name != null) {
+        headers.add(name, value);
+      }
+      if (line.isEmpty()) {
+        return headers.build();
+      }
+      int colon = line.indexOf(':');
+      if (colon <= 0) {
+        throw new ProtocolException("Malformed header line: " + line);
+      }
+      name = line.substring(0, colon).trim();
+      value = line.substring(colon + 1).trim();
+    }
+    throw new ProtocolException("Response has more than " + MAX_HEADERS + " headers");
+  }
+
+  /**
+   * @return the next line, without its line terminator, or {@code null} if the stream ended before any byte
+   */
+  @Nullable
+  private String readLine() throws IOException {
+    StringBuilder line = new StringBuilder(64);
+    int b = in.read();
+    if (b < 0) {
+      return null;
+    }
+    responseStarted = true;
+    while (b != '\n') {
+      if (b < 0) {
+        throw new EOFException("Connection closed in the middle of a line");
+      }
+      if (line.length() >= MAX_LINE_LENGTH) {
+        throw new ProtocolException("Line is longer than " + MAX_LINE_LENGTH + " bytes");
+      }
+      line.append((char) b);
+      b = in.read();
+    }
+    int length = line.length();
+    if (length > 0 && line.charAt(length - 1) == '\r') {
+      line.setLength(length - 1);
+    }
+    return line.toString();
+  }
+
+  private static boolean hasToken(@Nullable String value, String token) {
+    if (value == null) {
+      return false;
+    }
+    for (String part : value.split(",")) {
+      if (part.trim().equalsIgnoreCase(token)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Status, headers and body of a response.
+   */
+  static final class Response {
+    private final int code;
+    private final String message;
+    private final HttpHeaders headers;
+    private final InputStream body;
+    private final long contentLength;
+    private final boolean reusable;
+
+    Response(int code, String message, HttpHeaders headers, InputStream body, long contentLength,
+             boolean reusable) {
+      this.code = code;
+      this.message = message;
+      this.headers = headers;
+      this.body = body;
+      this.contentLength = contentLength;
+      this.reusable = reusable;
+    }
+
+    int getCode() {
+      return code;
+    }
+
+    String getMessage() {
+      return message;
+    }
+
+    HttpHeaders getHeaders() {
+      return headers;
+    }
+
+    /**
+     * @return the body, which ends where the response ends. Closing it does not close the connection.
+     */
+    InputStream getBody() {
+      return body;
+    }
+
+    long getContentLength() {
+      return contentLength;
+    }
+
+    /**
+     * @return true if the connection can be reused once the body has been read
+     */
+    boolean isReusable() {
+      return reusable;
+    }
+  }
+
+  /**
+   * Body with a {@code Content-Length}.
+   */
+  private final class FixedLengthInputStream extends InputStream {
+    private long remaining;
+
+    FixedLengthInputStream(long length) {
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining == 0) {
+        return -1;
+      }
+      int n = in.read(b, off, (int) Math.min(len, remaining));
+      if (n < 0) {
+        throw new EOFException("Connection closed with " + remaining + " bytes of the body left");
+      }
+      remaining -= n;
+      return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(in.available(), remaining);
+    }
+  }
+
+  /**
+   * Body with chunked transfer coding.
+   */
+  private final class ChunkedInputStream extends InputStream {
+    private long remaining;
+    private boolean first = true;
+    private boolean eof;
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining == 0 && !nextChunk()) {
+        return -1;
+      }
+      int n = in.read(b, off, (int) Math.min(len, remaining));
+      if (n < 0) {
+        throw new EOFException("Connection closed in the middle of a chunk");
+      }
+      remaining -= n;
+      return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return eof ? 0 : (int) Math.min(in.available(), remaining);
+    }
+
+    /**
+     * @return false if the last chunk was reached
+     */
+    private boolean nextChunk() throws IOException {
+      if (eof) {
+        return false;
+      }
+      if (!first && !"".equals(readLine())) {
+        throw new ProtocolException("Chunk is not followed by a line terminator");
+      }
+      first = false;
+
+      String line = readLine();
+      if (line == null) {
+        throw new EOFException("Connection closed before the last chunk");
+      }
+      int extension = line.indexOf(';');
+      String size = (extension < 0 ? line : line.substring(0, extension)).trim();
+      try {
+        remaining = Long.parseLong(size, 16);
+      } catch (NumberFormatException e) {
+        throw new ProtocolException("Malformed chunk size: " + line);
+      }
+      if (remaining < 0) {
+        throw new ProtocolException("Malformed chunk size: " + line);
+      }
+      if (remaining == 0) {
+        // Skips the trailer
+        readHeaders();
+        eof = true;
+        return false;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Writes a request body of unknown length with chunked transfer coding. Each write is sent as a chunk.
+   */
+  private static final class ChunkedOutputStream extends FilterOutputStream {
+
+    ChunkedOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return;
+      }
+      out.write((Integer.toHexString(len) + "\r\n").getBytes(Charsets.ISO_8859_1));
+      out.write(b, off, len);
+      out.write('\r');
+      out.write('\n');
+    }
+
+    /**
+     * Writes the last chunk.
+     */
+    void finish() throws IOException {
+      out.write('0');
+      out.write("\r\n\r\n".getBytes(Charsets.ISO_8859_1));
+    }
+
+    @Override
+    public void close() throws IOException {
+      // The connection stays open, and the body is finished by finish()
+      flush();
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Preconditions;
+
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Receives the phases of the requests executed by {@link HttpRequests}, to find out where the time of a slow
+ * request goes. A listener is set with {@link HttpRequestConfig#withEventListener(HttpEventListener)}; requests
+ * executed without one do not report any events. Several listeners are set together by
+ * {@link #compose(HttpEventListener...) composing} them into one.
+ *
+ * <p>
+ * Each event carries the {@link System#nanoTime()} it happened at. The events of a request are reported in this
+ * order, all with the same {@link HttpRequest} instance:
+ * </p>
+ * <ol>
+ *   <li>{@link #requestStart}</li>
+ *   <li>{@link #dnsStart} and {@link #dnsEnd}, {@link #connectStart} and {@link #connectEnd}, and
+ *       {@link #tlsStart} and {@link #tlsEnd}, when a new connection is opened</li>
+ *   <li>{@link #connectionAcquired}, with whether the connection was reused</li>
+ *   <li>{@link #requestWritten} and {@link #responseStart}, once the first byte of the response is received</li>
+ *   <li>{@link #responseEnd}, once the body is read or the response is closed</li>
+ * </ol>
+ * <p>
+ * A request that fails reports {@link #requestFailed} instead of the events it did not reach. A request retried on
+ * a new connection reports the connection events again. Events are reported on the thread executing the request,
+ * except {@link #responseEnd}, which is reported on the thread reading or closing the response.
+ * </p>
+ *
+ * <p>
+ * Transports report the phases they can observe: {@link URLConnectionTransport} reports DNS, TCP and TLS as a
+ * single connect phase and cannot tell whether a connection was reused, so it reports neither
+ * {@link #connectionAcquired} nor the DNS and TLS events.
+ * </p>
+ *
+ * <p>
+ * Methods do nothing by default. They are called while the request is executed, so they must be fast and must not
+ * throw.
+ * </p>
+ */
+public abstract class HttpEventListener {
+
+  /**
+   * Creates a listener that reports every event to each of the given listeners, in order.
+   */
+  public static HttpEventListener compose(HttpEventListener... listeners) {
+    for (HttpEventListener listener : listeners) {
+      Preconditions.checkNotNull(listener, "Event listener cannot be null");
+    }
+    return listeners.length == 1 ? listeners[0] : new CompositeEventListener(listeners.clone());
+  }
+
+  public void requestStart(HttpRequest request, long nanoTime) {
+  }
+
+  public void dnsStart(HttpRequest request, String host, long nanoTime) {
+  }
+
+  public void dnsEnd(HttpRequest request, String host, List<InetAddress> addresses, long nanoTime) {
+  }
+
+  public void connectStart(HttpRequest request, long nanoTime) {
+  }
+
+  /**
+   * @param address address connected to, or {@code null} if it is not known
+   */
+  public void connectEnd(HttpRequest request, @Nullable SocketAddress address, long nanoTime) {
+  }
+
+  public void tlsStart(HttpRequest request, long nanoTime) {
+  }
+
+  public void tlsEnd(HttpRequest request, long nanoTime) {
+  }
+
+  /**
+   * @param reused true if the connection was kept alive from an earlier request
+   */
+  public void connectionAcquired(HttpRequest request, boolean reused, long nanoTime) {
+  }
+
+  public void requestWritten(HttpRequest request, long nanoTime) {
+  }
+
+  /**
+   * Reports the first byte of the response, with its status code.
+   */
+  public void responseStart(HttpRequest request, int responseCode, long nanoTime) {
+  }
+
+  /**
+   * @param bodyBytes number of bytes of the body read by the caller
+   * @param complete true if the whole body was read, false if the response was closed before its end
+   */
+  public void responseEnd(HttpRequest request, long bodyBytes, boolean complete, long nanoTime) {
+  }
+
+  public void requestFailed(HttpRequest request, Exception failure, long nanoTime) {
+  }
+
+  /**
+   * Reports events to several listeners.
+   */
+  private static final class CompositeEventListener extends HttpEventListener {
+    private final HttpEventListener[] listeners;
+
+    CompositeEventListener(HttpEventListener[] listeners) {
+      this.listeners = listeners;
+    }
+
+    @Override
+    public void requestStart(HttpRequest request, long nanoTime) {
+      for (HttpEventListener listener : listeners) {
+        listener.requestStart(request, nanoTime);
+      }
+    }
+
+    @Override
+    public void dnsStart(HttpRequest request, String host, long nanoTime) {
+      for (HttpEventListener listener : listeners) {
+        listener.dnsStart(request, host, nanoTime);
+      }
+    }
+
+    @Override
+    public void dnsEnd(HttpRequest request, String host, List<InetAddress> addresses, long nanoTime) {
+      for (HttpEventListener listener : listeners) {
+        listener.dnsEnd(request, host, addresses, nanoTime);
+      }
+    }
+
+    @Override
+    public void connectStart(HttpRequest request, long nanoTime) {
+      for (HttpEventListener listener : listeners) {
+        listener.connectStart(request, nanoTime);
+      }
+    }
+
+    @Override
+    public void connectEnd(HttpRequest request, @Nullable SocketAddress address, long nanoTime) {
+      for (HttpEventListener listener : listeners) {
+        listener.connectEnd(request, address, nanoTime);
+      }
+    }
+
+    @Override
+    public void tlsStart(HttpRequest request, long nanoTime) {
+      for (HttpEventListener listener : listeners) {
+        listener.tlsStart(request, nanoTime);
+      }
+    }
+
+    @Override
+    public void tlsEnd(HttpRequest request, long nanoTime) {
+      for (HttpEventListener listener : listeners) {
+        listener.tlsEnd(request, nanoTime);
+      }
+    }
+
+    @Override
+    public void connectionAcquired(HttpRequest request, boolean reused, long nanoTime) {
+      for (HttpEventListener listener : listeners) {
+        listener.connectionAcquired(request, reused, nanoTime);
+      }
+    }
+
+    @Override
+    public void requestWritten(HttpRequest request, long nanoTime) {
+      for (HttpEventListener listener : listeners) {
+        listener.requestWritten(request, nanoTime);
+      }
+    }
+
+    @Override
+    public void responseStart(HttpRequest request, int responseCode, long nanoTime) {
+      for (HttpEventListener listener : listeners) {
+        listener.responseStart(request, responseCode, nanoTime);
+      }
+    }
+
+    @Override
+    public void responseEnd(HttpRequest request, long bodyBytes, boolean complete, long nanoTime) {
+      for (HttpEventListener listener : listeners) {
+        listener.responseEnd(request, bodyBytes, complete, nanoTime);
+      }
+    }
+
+    @Override
+    public void requestFailed(HttpRequest request, Exception failure, long nanoTime) {
+      for (HttpEventListener listener : listeners) {
+        listener.requestFailed(request, failure, nanoTime);
+      }
+    }
+  }
+}
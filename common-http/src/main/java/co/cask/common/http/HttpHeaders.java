@@ -0,0 +1,284 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multimap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Immutable list of HTTP headers, stored as a flat array of alternating names and values.
+ *
+ * <p>
+ * Names keep the case they were added with, but lookups by name are case-insensitive. Common header names are
+ * replaced by shared instances, so that headers retained by many requests or responses do not each keep a copy
+ * of the names.
+ * </p>
+ */
+@Immutable
+public final class HttpHeaders {
+
+  public static final HttpHeaders EMPTY = new HttpHeaders(new String[0], 0);
+
+  private static final Map<String, String> COMMON_NAMES;
+
+  static {
+    ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+    for (String name : new String[] {
+      "Accept", "Accept-Encoding", "Accept-Language", "Accept-Ranges", "Age", "Allow", "Authorization",
+      "Cache-Control", "Connection", "Content-Disposition", "Content-Encoding", "Content-Language",
+      "Content-Length", "Content-Location", "Content-Range", "Content-Type", "Cookie", "Date", "ETag", "Expect",
+      "Expires", "Host", "If-Match", "If-Modified-Since", "If-None-Match", "Keep-Alive", "Last-Event-ID",
+      "Last-Modified", "Location", "Pragma", "Range", "Retry-After", "Server", "Set-Cookie", "Transfer-Encoding",
+      "User-Agent", "Vary", "Via", "WWW-Authenticate"
+    }) {
+      builder.put(name, name);
+    }
+    COMMON_NAMES = builder.build();
+  }
+
+  private final String[] namesAndValues;
+  private final int size;
+  private volatile Multimap<String, String> multimap;
+
+  private HttpHeaders(String[] namesAndValues, int size) {
+    this.namesAndValues = namesAndValues;
+    this.size = size;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Creates headers containing all entries of a {@link Multimap}, in iteration order.
+   */
+  public static HttpHeaders of(@Nullable Multimap<String, String> headers) {
+    if (headers == null || headers.isEmpty()) {
+      return EMPTY;
+    }
+    return builder().addAll(headers).build();
+  }
+
+  /**
+   * Creates headers from the header fields of a {@link java.net.URLConnection}. The {@code null} key, under
+   * which {@link java.net.HttpURLConnection} keeps the status line, is skipped.
+   */
+  public static HttpHeaders fromHeaderFields(Map<String, List<String>> headerFields) {
+    Builder builder = builder();
+    for (Map.Entry<String, List<String>> entry : headerFields.entrySet()) {
+      if (entry.getKey() != null) {
+        for (String value : entry.getValue()) {
+          builder.add(entry.getKey(), value);
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return number of header entries
+   */
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @param index index of the header entry, in {@code [0, size())}
+   * @return name of the entry
+   */
+  public String getName(int index) {
+    checkIndex(index);
+    return namesAndValues[index << 1];
+  }
+
+  /**
+   * @param index index of the header entry, in {@code [0, size())}
+   * @return value of the entry
+   */
+  public String getValue(int index) {
+    checkIndex(index);
+    return namesAndValues[(index << 1) + 1];
+  }
+
+  /**
+   * @param name header name, matched case-insensitively
+   * @return true if there is at least one entry with the name
+   */
+  public boolean contains(String name) {
+    return indexOf(name, 0) >= 0;
+  }
+
+  /**
+   * @param name header name, matched case-insensitively
+   * @return value of the first entry with the name, or {@code null} if there is none
+   */
+  @Nullable
+  public String getFirst(String name) {
+    int index = indexOf(name, 0);
+    return index < 0 ? null : namesAndValues[(index << 1) + 1];
+  }
+
+  /**
+   * @param name header name, matched case-insensitively
+   * @return values of all entries with the name, in order
+   */
+  public List<String> getAll(String name) {
+    int index = indexOf(name, 0);
+    if (index < 0) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<String> values = ImmutableList.builder();
+    while (index >= 0) {
+      values.add(namesAndValues[(index << 1) + 1]);
+      index = indexOf(name, index + 1);
+    }
+    return values.build();
+  }
+
+  /**
+   * @return the headers as a {@link Multimap}, keyed by the names as they were added. It is created on first use.
+   */
+  public Multimap<String, String> asMultimap() {
+    Multimap<String, String> result = multimap;
+    if (result == null) {
+      ImmutableListMultimap.Builder<String, String> builder = ImmutableListMultimap.builder();
+      for (int i = 0; i < size; i++) {
+        builder.put(namesAndValues[i << 1], namesAndValues[(i << 1) + 1]);
+      }
+      result = builder.build();
+      multimap = result;
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return asMultimap().toString();
+  }
+
+  private int indexOf(String name, int from) {
+    for (int i = from; i < size; i++) {
+      String entryName = namesAndValues[i << 1];
+      if (entryName == name || entryName.equalsIgnoreCase(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + size + " headers");
+    }
+  }
+
+  /**
+   * Builder for {@link HttpHeaders}.
+   */
+  public static final class Builder {
+    private String[] namesAndValues = new String[16];
+    private int size;
+
+    Builder() {
+    }
+
+    /**
+     * Adds an entry.
+     *
+     * @throws IllegalArgumentException if the name or the value contains a line break, which would let it end the
+     *         header and start another one when the request is written
+     */
+    public Builder add(String name, String value) {
+      checkNoLineBreak(name, "name");
+      checkNoLineBreak(value, "value");
+      return append(name, value);
+    }
+
+    private Builder append(String name, String value) {
+      if (namesAndValues.length == size << 1) {
+        namesAndValues = Arrays.copyOf(namesAndValues, size << 2);
+      }
+      String commonName = COMMON_NAMES.get(name);
+      namesAndValues[size << 1] = commonName == null ? name : commonName;
+      namesAndValues[(size << 1) + 1] = value;
+      size++;
+      return this;
+    }
+
+    /**
+     * Replaces all entries with the given name, matched case-insensitively, with one entry with the given value.
+     */
+    public Builder set(String name, String value) {
+      int kept = 0;
+      for (int i = 0; i < size; i++) {
+        String entryName = namesAndValues[i << 1];
+        if (entryName == name || entryName.equalsIgnoreCase(name)) {
+          continue;
+        }
+        namesAndValues[kept << 1] = entryName;
+        namesAndValues[(kept << 1) + 1] = namesAndValues[(i << 1) + 1];
+        kept++;
+      }
+      Arrays.fill(namesAndValues, kept << 1, size << 1, null);
+      size = kept;
+      return add(name, value);
+    }
+
+    public Builder addAll(HttpHeaders headers) {
+      // Entries of built headers were checked when they were added
+      for (int i = 0; i < headers.size; i++) {
+        append(headers.namesAndValues[i << 1], headers.namesAndValues[(i << 1) + 1]);
+      }
+      return this;
+    }
+
+    public Builder addAll(Multimap<String, String> headers) {
+      for (Map.Entry<String, String> entry : headers.entries()) {
+        add(entry.getKey(), entry.getValue());
+      }
+      return this;
+    }
+
+    public HttpHeaders build() {
+      if (size == 0) {
+        return EMPTY;
+      }
+      return new HttpHeaders(Arrays.copyOf(namesAndValues, size << 1), size);
+    }
+
+    private static void checkNoLineBreak(String s, String kind) {
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        if (c == '\r' || c == '\n') {
+          throw new IllegalArgumentException("Header " + kind + " contains a line break: " + s);
+        }
+      }
+    }
+  }
+}
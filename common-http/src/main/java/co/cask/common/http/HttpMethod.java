@@ -19,5 +19,5 @@ package co.cask.common.http;
  * Represents HTTP methods.
  */
 public enum HttpMethod {
-  GET, POST, PUT, DELETE;
+  GET, POST, PUT, DELETE, HEAD;
 }
@@ -0,0 +1,294 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Latency histograms and throughput counters of the requests executed by {@link HttpRequests}, per host, method
+ * and status class. Metrics are collected for the requests of a configuration set with
+ * {@link HttpRequestConfig#withMetrics(HttpMetrics)}, and exported with {@link #snapshot()} or
+ * {@link #snapshotAndReset()}.
+ *
+ * <p>
+ * The latency of a request is the time until the status and headers of its response are received, kept in a
+ * {@link LatencyHistogram} in microseconds. Requests that fail without a response are counted under the
+ * {@value #FAILED} status class. Bytes sent are counted for request bodies of known length, and bytes received
+ * once the body of the response is read or the response is closed.
+ * </p>
+ *
+ * <p>
+ * Recording takes no locks and allocates nothing once a host, method and status class has been seen. Hosts beyond
+ * the maximum number of hosts are counted under {@value #OTHER_HOSTS}, to bound the memory used.
+ * </p>
+ */
+@ThreadSafe
+public final class HttpMetrics {
+
+  /**
+   * Status class of requests that failed without a response.
+   */
+  public static final String FAILED = "failed";
+
+  /**
+   * Host of the requests to hosts beyond the maximum number of hosts.
+   */
+  public static final String OTHER_HOSTS = "other";
+
+  private static final HttpMethod[] METHODS = HttpMethod.values();
+  private static final String[] STATUS_CLASSES = { FAILED, "1xx", "2xx", "3xx", "4xx", "5xx" };
+
+  private final int maxHosts;
+  private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+
+  private HttpMetrics(int maxHosts) {
+    this.maxHosts = maxHosts;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return the metrics recorded so far, of every host, method and status class with at least one request
+   */
+  public ImmutableList<Snapshot> snapshot() {
+    return snapshot(false);
+  }
+
+  /**
+   * Returns the metrics recorded since the last reset, and resets them, so that each request is exported in
+   * exactly one snapshot.
+   *
+   * @return the metrics recorded since the last reset, of every host, method and status class with at least
+   *         one request
+   */
+  public ImmutableList<Snapshot> snapshotAndReset() {
+    return snapshot(true);
+  }
+
+  /**
+   * Records a request that received a response.
+   *
+   * @return the series the bytes received with the response are to be added to
+   */
+  Series recordResponse(HttpRequest request, int responseCode, long latencyNanos) {
+    int statusClass = responseCode / 100;
+    Series series = getSeries(request, statusClass >= 1 && statusClass <= 5 ? statusClass : 0);
+    series.record(request, latencyNanos);
+    return series;
+  }
+
+  /**
+   * Records a request that failed without a response.
+   */
+  void recordFailure(HttpRequest request, long latencyNanos) {
+    getSeries(request, 0).record(request, latencyNanos);
+  }
+
+  private Series getSeries(HttpRequest request, int statusClass) {
+    String host = request.getURL().getHost();
+    Endpoint endpoint = endpoints.get(host);
+    if (endpoint == null) {
+      if (endpoints.size() >= maxHosts) {
+        host = OTHER_HOSTS;
+        endpoint = endpoints.get(host);
+      }
+      if (endpoint == null) {
+        endpoint = new Endpoint();
+        Endpoint existing = endpoints.putIfAbsent(host, endpoint);
+        endpoint = existing == null ? endpoint : existing;
+      }
+    }
+    return endpoint.getSeries(request.getMethod().ordinal() * STATUS_CLASSES.length + statusClass);
+  }
+
+  private ImmutableList<Snapshot> snapshot(boolean reset) {
+    ImmutableList.Builder<Snapshot> snapshots = ImmutableList.builder();
+    for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+      AtomicReferenceArray<Series> series = entry.getValue().series;
+      for (int i = 0; i < series.length(); i++) {
+        Series s = series.get(i);
+        if (s == null) {
+          continue;
+        }
+        Snapshot snapshot = s.snapshot(entry.getKey(), METHODS[i / STATUS_CLASSES.length],
+                                       STATUS_CLASSES[i % STATUS_CLASSES.length], reset);
+        if (snapshot.getRequests() > 0) {
+          snapshots.add(snapshot);
+        }
+      }
+    }
+    return snapshots.build();
+  }
+
+  /**
+   * The series of a host, created on first use.
+   */
+  private static final class Endpoint {
+    private final AtomicReferenceArray<Series> series =
+      new AtomicReferenceArray<Series>(METHODS.length * STATUS_CLASSES.length);
+
+    Series getSeries(int index) {
+      Series s = series.get(index);
+      if (s == null) {
+        series.compareAndSet(index, null, new Series());
+        s = series.get(index);
+      }
+      return s;
+    }
+  }
+
+  /**
+   * Metrics of the requests of a host, method and status class.
+   */
+  static final class Series {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    void record(HttpRequest request, long latencyNanos) {
+      latency.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+      requests.incrementAndGet();
+      RequestBody body = request.getRequestBody();
+      if (body != null && body.getContentLength() > 0) {
+        bytesSent.addAndGet(body.getContentLength());
+      }
+    }
+
+    void addBytesReceived(long bytes) {
+      if (bytes > 0) {
+        bytesReceived.addAndGet(bytes);
+      }
+    }
+
+    Snapshot snapshot(String host, HttpMethod method, String statusClass, boolean reset) {
+      if (reset) {
+        return new Snapshot(host, method, statusClass, requests.getAndSet(0L), bytesSent.getAndSet(0L),
+                            bytesReceived.getAndSet(0L), latency.getAndReset());
+      }
+      return new Snapshot(host, method, statusClass, requests.get(), bytesSent.get(), bytesReceived.get(),
+                          latency.copy());
+    }
+  }
+
+  /**
+   * Metrics of the requests of a host, method and status class at the time of a snapshot.
+   */
+  public static final class Snapshot {
+    private final String host;
+    private final HttpMethod method;
+    private final String statusClass;
+    private final long requests;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final LatencyHistogram latency;
+
+    Snapshot(String host, HttpMethod method, String statusClass, long requests, long bytesSent,
+             long bytesReceived, LatencyHistogram latency) {
+      this.host = host;
+      this.method = method;
+      this.statusClass = statusClass;
+      this.requests = requests;
+      this.bytesSent = bytesSent;
+      this.bytesReceived = bytesReceived;
+      this.latency = latency;
+    }
+
+    public String getHost() {
+      return host;
+    }
+
+    public HttpMethod getMethod() {
+      return method;
+    }
+
+    /**
+     * @return {@code 1xx} to {@code 5xx}, or {@link HttpMetrics#FAILED} for requests without a response
+     */
+    public String getStatusClass() {
+      return statusClass;
+    }
+
+    public long getRequests() {
+      return requests;
+    }
+
+    public long getBytesSent() {
+      return bytesSent;
+    }
+
+    public long getBytesReceived() {
+      return bytesReceived;
+    }
+
+    /**
+     * @return histogram of the latencies of the requests, in microseconds
+     */
+    public LatencyHistogram getLatency() {
+      return latency;
+    }
+
+    /**
+     * @param percentile percentile in the range {@code [0, 100]}
+     * @return an upper bound of the latency at the percentile, in microseconds
+     */
+    public long getLatencyAtPercentile(double percentile) {
+      return latency.getValueAtPercentile(percentile);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s %s %s: requests=%d, sent=%d, received=%d, p50=%dus, p99=%dus, max=%dus",
+                           method, host, statusClass, requests, bytesSent, bytesReceived,
+                           getLatencyAtPercentile(50), getLatencyAtPercentile(99), getLatencyAtPercentile(100));
+    }
+  }
+
+  /**
+   * Builder for {@link HttpMetrics}.
+   */
+  public static final class Builder {
+    private int maxHosts = 1000;
+
+    Builder() {
+    }
+
+    /**
+     * @param maxHosts maximum number of hosts metrics are kept for separately. Defaults to 1000.
+     */
+    public Builder setMaxHosts(int maxHosts) {
+      Preconditions.checkArgument(maxHosts > 0, "Maximum hosts must be positive: %s", maxHosts);
+      this.maxHosts = maxHosts;
+      return this;
+    }
+
+    public HttpMetrics build() {
+      return new HttpMetrics(maxHosts);
+    }
+  }
+}
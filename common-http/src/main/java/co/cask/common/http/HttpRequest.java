@@ -15,20 +15,18 @@
  */
 package co.cask.common.http;
 
-import co.cask.common.io.ByteBufferInputStream;
 import com.google.common.base.Charsets;
-import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Multimap;
-import com.google.common.io.ByteStreams;
-import com.google.common.io.Files;
 import com.google.common.io.InputSupplier;
+import com.google.gson.Gson;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Type;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Iterator;
 import java.util.Map;
 import javax.annotation.Nullable;
 
@@ -37,13 +35,19 @@ import javax.annotation.Nullable;
  */
 public class HttpRequest {
 
+  private static final Gson GSON = new Gson();
+
   private final HttpMethod method;
   private final URL url;
-  private final Multimap<String, String> headers;
-  private final InputSupplier<? extends InputStream> body;
+  private final HttpHeaders headers;
+  private final RequestBody body;
 
   public HttpRequest(HttpMethod method, URL url, @Nullable Multimap<String, String> headers,
                      @Nullable InputSupplier<? extends InputStream> body) {
+    this(method, url, HttpHeaders.of(headers), body == null ? null : RequestBody.of(body));
+  }
+
+  HttpRequest(HttpMethod method, URL url, HttpHeaders headers, @Nullable RequestBody body) {
     this.method = method;
     this.url = url;
     this.headers = headers;
@@ -66,12 +70,16 @@ public class HttpRequest {
     return builder(HttpMethod.PUT, url);
   }
 
+  public static Builder head(URL url) {
+    return builder(HttpMethod.HEAD, url);
+  }
+
   public static Builder builder(HttpMethod method, URL url) {
     return new Builder(method, url);
   }
 
   public static Builder builder(HttpRequest request) {
-    return new Builder(request.method, request.url).addHeaders(request.getHeaders()).withBody(request.getBody());
+    return new Builder(request.method, request.url).addHeaders(request.headers).withBody(request.body);
   }
 
   public HttpMethod getMethod() {
@@ -84,11 +92,23 @@ public class HttpRequest {
 
   @Nullable
   public Multimap<String, String> getHeaders() {
+    return headers.asMultimap();
+  }
+
+  /**
+   * @return the request headers, with case-insensitive lookup by name
+   */
+  public HttpHeaders getHttpHeaders() {
     return headers;
   }
 
   @Nullable
   public InputSupplier<? extends InputStream> getBody() {
+    return body == null ? null : body.toInputSupplier();
+  }
+
+  @Nullable
+  public RequestBody getRequestBody() {
     return body;
   }
 
@@ -98,8 +118,8 @@ public class HttpRequest {
   public static final class Builder {
     private final HttpMethod method;
     private final URL url;
-    private final Multimap<String, String> headers = LinkedListMultimap.create();
-    private InputSupplier<? extends InputStream> body;
+    private final HttpHeaders.Builder headers = HttpHeaders.builder();
+    private RequestBody body;
 
     Builder(HttpMethod method, URL url) {
       this.method = method;
@@ -107,13 +127,13 @@ public class HttpRequest {
     }
 
     public Builder addHeader(String key, String value) {
-      this.headers.put(key, value);
+      this.headers.add(key, value);
       return this;
     }
 
     public Builder addHeaders(@Nullable Multimap<String, String> headers) {
       if (headers != null) {
-        this.headers.putAll(headers);
+        this.headers.addAll(headers);
       }
       return this;
     }
@@ -121,44 +141,118 @@ public class HttpRequest {
     public Builder addHeaders(@Nullable Map<String, String> headers) {
       if (headers != null) {
         for (Map.Entry<String, String> entry : headers.entrySet()) {
-          this.headers.put(entry.getKey(), entry.getValue());
+          this.headers.add(entry.getKey(), entry.getValue());
         }
       }
       return this;
     }
 
-    public Builder withBody(InputSupplier<? extends InputStream> body) {
+    public Builder addHeaders(HttpHeaders headers) {
+      this.headers.addAll(headers);
+      return this;
+    }
+
+    public Builder withBody(@Nullable RequestBody body) {
+      this.body = body;
+      return this;
+    }
+
+    /**
+     * Sets the body to a multipart body, and the {@code Content-Type} header to match it, replacing any
+     * {@code Content-Type} added before.
+     */
+    public Builder withBody(MultipartBody body) {
+      this.headers.set("Content-Type", body.getContentType());
       this.body = body;
       return this;
     }
 
+    public Builder withBody(InputSupplier<? extends InputStream> body) {
+      this.body = RequestBody.of(body);
+      return this;
+    }
+
     public Builder withBody(File body) {
-      this.body = Files.newInputStreamSupplier(body);
+      this.body = RequestBody.of(body);
       return this;
     }
 
     public Builder withBody(String body) {
-      this.body = ByteStreams.newInputStreamSupplier(body.getBytes(Charsets.UTF_8));
+      this.body = RequestBody.of(body.getBytes(Charsets.UTF_8));
       return this;
     }
 
     public Builder withBody(String body, Charset charset) {
-      this.body = ByteStreams.newInputStreamSupplier(body.getBytes(charset));
+      this.body = RequestBody.of(body.getBytes(charset));
       return this;
     }
 
-    public Builder withBody(final ByteBuffer body) {
-      this.body = new InputSupplier<InputStream>() {
-        @Override
-        public InputStream getInput() throws IOException {
-          return new ByteBufferInputStream(body.duplicate());
-        }
-      };
+    public Builder withBody(ByteBuffer body) {
+      this.body = RequestBody.of(body);
+      return this;
+    }
+
+    /**
+     * Sets the body to the remaining content of the given buffers, which are written with gathering writes
+     * where the connection allows it.
+     */
+    public Builder withBody(ByteBuffer... body) {
+      this.body = RequestBody.of(body);
+      return this;
+    }
+
+    /**
+     * Sets the body to the JSON serialization of an object, which is written directly to the connection while
+     * the request is executed.
+     *
+     * @param object the object to serialize
+     * @param type type of the object
+     * @param gson the {@link Gson} to serialize with
+     */
+    public Builder withJsonBody(Object object, Type type, Gson gson) {
+      this.body = RequestBody.ofJson(object, type, gson);
+      return this;
+    }
+
+    /**
+     * Sets the body to the JSON serialization of an object, which is written directly to the connection while
+     * the request is executed.
+     *
+     * @param object the object to serialize
+     * @param type type of the object
+     */
+    public Builder withJsonBody(Object object, Type type) {
+      return withJsonBody(object, type, GSON);
+    }
+
+    /**
+     * Sets the body to the records of an iterator as newline-delimited JSON, serialized while the request is
+     * executed.
+     *
+     * @param records the records to serialize
+     * @param type type of the records
+     * @param gson the {@link Gson} to serialize with
+     */
+    public Builder withJsonLinesBody(Iterator<?> records, Type type, Gson gson) {
+      this.body = RequestBody.ofJsonLines(records, type, gson);
+      return this;
+    }
+
+    /**
+     * Sets the body to the records put to a queue as newline-delimited JSON, serialized while the request is
+     * executed. The body ends when the queue is closed.
+     *
+     * @param records the queue producers put records to
+     * @param type type of the records
+     * @param gson the {@link Gson} to serialize with
+     */
+    public Builder withJsonLinesBody(RecordQueue<?> records, Type type, Gson gson) {
+      this.body = RequestBody.ofJsonLines(records, type, gson);
       return this;
     }
 
     public HttpRequest build() {
-      return new HttpRequest(method, url, headers, body);
+      return new HttpRequest(method, url, headers.build(), body);
     }
   }
 }
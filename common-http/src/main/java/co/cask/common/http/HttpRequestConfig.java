@@ -15,6 +15,10 @@
  */
 package co.cask.common.http;
 
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+
 /**
  * Configuration per HTTP request executed by {@link HttpRequests}.
  */
@@ -25,15 +29,18 @@ public class HttpRequestConfig {
   private final int connectTimeout;
   private final int readTimeout;
   private final boolean verifySSLCert;
+  private final AdaptiveTimeout adaptiveTimeout;
+  private final ResponseMemoryBudget memoryBudget;
+  private final HttpTransport transport;
+  private final HttpEventListener eventListener;
+  private final HttpMetrics metrics;
 
   /**
    * @param connectTimeout Connect timeout, in milliseconds. See {@link java.net.URLConnection#getConnectTimeout()}.
    * @param readTimeout Read timeout, in milliseconds. See {@link java.net.URLConnection#getReadTimeout()}.
    */
   public HttpRequestConfig(int connectTimeout, int readTimeout) {
-    this.connectTimeout = connectTimeout;
-    this.readTimeout = readTimeout;
-    this.verifySSLCert = true;
+    this(connectTimeout, readTimeout, true);
   }
 
   /**
@@ -46,6 +53,79 @@ public class HttpRequestConfig {
     this.connectTimeout = connectTimeout;
     this.readTimeout = readTimeout;
     this.verifySSLCert = verifySSLCert;
+    this.adaptiveTimeout = null;
+    this.memoryBudget = null;
+    this.transport = URLConnectionTransport.INSTANCE;
+    this.eventListener = null;
+    this.metrics = null;
+  }
+
+  /**
+   * @param connectTimeout Connect timeout, in milliseconds. See {@link java.net.URLConnection#getConnectTimeout()}.
+   * @param readTimeout Derives the read timeout of each request from observed latencies.
+   *                    {@link #getReadTimeout()} returns its ceiling.
+   * @param verifySSLCert false, to disable certificate verifying in SSL connections. By default SSL certificate is
+   *                      verified.
+   */
+  public HttpRequestConfig(int connectTimeout, AdaptiveTimeout readTimeout, boolean verifySSLCert) {
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout.getCeiling();
+    this.verifySSLCert = verifySSLCert;
+    this.adaptiveTimeout = readTimeout;
+    this.memoryBudget = null;
+    this.transport = URLConnectionTransport.INSTANCE;
+    this.eventListener = null;
+    this.metrics = null;
+  }
+
+  private HttpRequestConfig(HttpRequestConfig config, @Nullable ResponseMemoryBudget memoryBudget,
+                            HttpTransport transport, @Nullable HttpEventListener eventListener,
+                            @Nullable HttpMetrics metrics) {
+    this.connectTimeout = config.connectTimeout;
+    this.readTimeout = config.readTimeout;
+    this.verifySSLCert = config.verifySSLCert;
+    this.adaptiveTimeout = config.adaptiveTimeout;
+    this.memoryBudget = memoryBudget;
+    this.transport = transport;
+    this.eventListener = eventListener;
+    this.metrics = metrics;
+  }
+
+  /**
+   * @param memoryBudget budget shared by the response bodies buffered with the returned configuration
+   * @return a copy of this configuration that buffers response bodies within the given budget
+   */
+  public HttpRequestConfig withMemoryBudget(ResponseMemoryBudget memoryBudget) {
+    Preconditions.checkNotNull(memoryBudget, "Memory budget cannot be null");
+    return new HttpRequestConfig(this, memoryBudget, transport, eventListener, metrics);
+  }
+
+  /**
+   * @param transport transport to send requests with, instead of {@link URLConnectionTransport}
+   * @return a copy of this configuration that sends requests with the given transport
+   */
+  public HttpRequestConfig withTransport(HttpTransport transport) {
+    Preconditions.checkNotNull(transport, "Transport cannot be null");
+    return new HttpRequestConfig(this, memoryBudget, transport, eventListener, metrics);
+  }
+
+  /**
+   * @param eventListener listener to report the phases of each request to. It replaces the listener set before;
+   *        use {@link HttpEventListener#compose(HttpEventListener...)} to report to several listeners.
+   * @return a copy of this configuration that reports the phases of its requests to the given listener
+   */
+  public HttpRequestConfig withEventListener(HttpEventListener eventListener) {
+    Preconditions.checkNotNull(eventListener, "Event listener cannot be null");
+    return new HttpRequestConfig(this, memoryBudget, transport, eventListener, metrics);
+  }
+
+  /**
+   * @param metrics metrics to record the requests in
+   * @return a copy of this configuration that records its requests in the given metrics
+   */
+  public HttpRequestConfig withMetrics(HttpMetrics metrics) {
+    Preconditions.checkNotNull(metrics, "Metrics cannot be null");
+    return new HttpRequestConfig(this, memoryBudget, transport, eventListener, metrics);
   }
 
   public int getConnectTimeout() {
@@ -59,4 +139,43 @@ public class HttpRequestConfig {
   public boolean isVerifySSLCert() {
     return verifySSLCert;
   }
+
+  /**
+   * @return the {@link AdaptiveTimeout} deriving read timeouts, or {@code null} if the read timeout is static
+   */
+  @Nullable
+  public AdaptiveTimeout getAdaptiveTimeout() {
+    return adaptiveTimeout;
+  }
+
+  /**
+   * @return the budget response bodies are buffered within, or {@code null} if buffering is unbounded
+   */
+  @Nullable
+  public ResponseMemoryBudget getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /**
+   * @return the transport requests are sent with
+   */
+  public HttpTransport getTransport() {
+    return transport;
+  }
+
+  /**
+   * @return the listener the phases of requests are reported to, or {@code null} if they are not reported
+   */
+  @Nullable
+  public HttpEventListener getEventListener() {
+    return eventListener;
+  }
+
+  /**
+   * @return the metrics requests are recorded in, or {@code null} if they are not recorded
+   */
+  @Nullable
+  public HttpMetrics getMetrics() {
+    return metrics;
+  }
 }
@@ -15,25 +15,14 @@
  */
 package co.cask.common.http;
 
-import com.google.common.collect.Multimap;
-import com.google.common.io.ByteStreams;
-import com.google.common.io.InputSupplier;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
@@ -46,8 +35,6 @@ import javax.net.ssl.X509TrustManager;
  * Executes {@link HttpRequest}s and returns an {@link HttpResponse}.
  */
 public final class HttpRequests {
-  private static final Logger LOG = LoggerFactory.getLogger(HttpRequests.class);
-
   private static final AtomicReference<SSLSocketFactory> TRUST_ALL_SSL_FACTORY =
     new AtomicReference<SSLSocketFactory>();
 
@@ -61,63 +48,87 @@ public final class HttpRequests {
    * @return HTTP response
    */
   public static HttpResponse execute(HttpRequest request, HttpRequestConfig requestConfig) throws IOException {
-    String requestMethod = request.getMethod().name();
-    URL url = request.getURL();
-
-    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-    conn.setRequestMethod(requestMethod);
-    conn.setReadTimeout(requestConfig.getReadTimeout());
-    conn.setConnectTimeout(requestConfig.getConnectTimeout());
-
-    Multimap<String, String> headers = request.getHeaders();
-    if (headers != null) {
-      for (Map.Entry<String, String> header : headers.entries()) {
-        conn.setRequestProperty(header.getKey(), header.getValue());
+    return execute(request, requestConfig, null);
+  }
+
+  /**
+   * Executes an HTTP request. If a {@link BodyConsumer} is given, the body of a successful response is handed to
+   * it as it is read from the connection, and the returned response has an empty body.
+   */
+  static HttpResponse execute(HttpRequest request, HttpRequestConfig requestConfig,
+                              @Nullable BodyConsumer bodyConsumer) throws IOException {
+    StreamingResponse response = executeStreaming(request, requestConfig);
+    try {
+      if (bodyConsumer != null && isSuccessful(response.getResponseCode())) {
+        try {
+          bodyConsumer.consume(response.getHead(), response.getBody());
+        } finally {
+          // A consumer that stopped before the end may be reading a stream that never ends, such as an event stream
+          if (!response.isBodyRead()) {
+            response.abort();
+          }
+        }
+        return response.getHead();
       }
+      return response.toHttpResponse();
+    } finally {
+      response.close();
     }
+  }
 
-    InputSupplier<? extends InputStream> bodySrc = request.getBody();
-    if (bodySrc != null) {
-      conn.setDoOutput(true);
+  /**
+   * Executes an HTTP request, returning as soon as the status and headers of the response are received.
+   * The body is read from the connection as it is read from the returned response, which must be closed.
+   * The request is sent with the {@link HttpTransport} of the configuration, and its phases are reported to the
+   * {@link HttpEventListener} and recorded in the {@link HttpMetrics} of the configuration, if there are any.
+   *
+   * @param request HTTP request to execute
+   * @param requestConfig configuration for the HTTP request to execute
+   * @return HTTP response with a body that is yet to be read
+   */
+  public static StreamingResponse executeStreaming(HttpRequest request,
+                                                   HttpRequestConfig requestConfig) throws IOException {
+    HttpEventListener eventListener = requestConfig.getEventListener();
+    HttpMetrics metrics = requestConfig.getMetrics();
+    if (eventListener == null && metrics == null) {
+      return requestConfig.getTransport().executeStreaming(request, requestConfig);
     }
 
-    if (conn instanceof HttpsURLConnection && !requestConfig.isVerifySSLCert()) {
-      // Certificate checks are disabled for HTTPS connection.
-      LOG.debug("Disabling SSL certificate check for {}", request.getURL());
-      try {
-        disableCertCheck((HttpsURLConnection) conn);
-      } catch (Exception e) {
-        LOG.error("Got exception while disabling SSL certificate check for {}", request.getURL());
-      }
+    long startTime = System.nanoTime();
+    if (eventListener != null) {
+      eventListener.requestStart(request, startTime);
     }
-
-    conn.connect();
-
+    StreamingResponse response;
     try {
-      if (bodySrc != null) {
-        OutputStream os = conn.getOutputStream();
-        try {
-          ByteStreams.copy(bodySrc, os);
-        } finally {
-          os.close();
-        }
-      }
+      response = requestConfig.getTransport().executeStreaming(request, requestConfig);
+    } catch (IOException e) {
+      reportFailure(request, e, eventListener, metrics, startTime);
+      throw e;
+    } catch (RuntimeException e) {
+      reportFailure(request, e, eventListener, metrics, startTime);
+      throw e;
+    }
 
-      try {
-        if (isSuccessful(conn.getResponseCode())) {
-          return new HttpResponse(conn.getResponseCode(), conn.getResponseMessage(),
-                                  ByteStreams.toByteArray(conn.getInputStream()), conn.getHeaderFields());
-        }
-      } catch (FileNotFoundException e) {
-        // Server returns 404. Hence handle as error flow below. Intentional having empty catch block.
-      }
+    long responseTime = System.nanoTime();
+    if (eventListener != null) {
+      eventListener.responseStart(request, response.getResponseCode(), responseTime);
+    }
+    HttpMetrics.Series series = null;
+    if (metrics != null) {
+      series = metrics.recordResponse(request, response.getResponseCode(), responseTime - startTime);
+    }
+    response.observe(request, eventListener, series);
+    return response;
+  }
 
-      // Non 2xx response
-      InputStream es = conn.getErrorStream();
-      byte[] content = (es == null) ? new byte[0] : ByteStreams.toByteArray(es);
-      return new HttpResponse(conn.getResponseCode(), conn.getResponseMessage(), content, conn.getHeaderFields());
-    } finally {
-      conn.disconnect();
+  private static void reportFailure(HttpRequest request, Exception failure, @Nullable HttpEventListener eventListener,
+                                    @Nullable HttpMetrics metrics, long startTime) {
+    long failureTime = System.nanoTime();
+    if (eventListener != null) {
+      eventListener.requestFailed(request, failure, failureTime);
+    }
+    if (metrics != null) {
+      metrics.recordFailure(request, failureTime - startTime);
     }
   }
 
@@ -132,12 +143,20 @@ public final class HttpRequests {
     return execute(request, HttpRequestConfig.DEFAULT);
   }
 
-  private static boolean isSuccessful(int responseCode) {
+  static boolean isSuccessful(int responseCode) {
     return 200 <= responseCode && responseCode < 300;
   }
 
   public static void disableCertCheck(HttpsURLConnection conn)
     throws NoSuchAlgorithmException, KeyManagementException {
+    conn.setSSLSocketFactory(getTrustAllSocketFactory());
+    conn.setHostnameVerifier(TRUST_ALL_HOSTNAME_VERIFIER);
+  }
+
+  /**
+   * @return a socket factory that trusts every certificate
+   */
+  static SSLSocketFactory getTrustAllSocketFactory() throws NoSuchAlgorithmException, KeyManagementException {
     if (TRUST_ALL_SSL_FACTORY.get() == null) {
       SSLContext sslContext = SSLContext.getInstance("SSL");
       sslContext.init(null, new TrustManager[]{
@@ -163,9 +182,7 @@ public final class HttpRequests {
 
       TRUST_ALL_SSL_FACTORY.compareAndSet(null, sslContext.getSocketFactory());
     }
-
-    conn.setSSLSocketFactory(TRUST_ALL_SSL_FACTORY.get());
-    conn.setHostnameVerifier(TRUST_ALL_HOSTNAME_VERIFIER);
+    return TRUST_ALL_SSL_FACTORY.get();
   }
 
   private static final HostnameVerifier TRUST_ALL_HOSTNAME_VERIFIER =
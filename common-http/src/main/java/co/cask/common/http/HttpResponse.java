@@ -16,12 +16,13 @@
 package co.cask.common.http;
 
 import com.google.common.base.Charsets;
-import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.Multimap;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * Return type for http requests executed by {@link HttpResponse}
@@ -30,21 +31,50 @@ public class HttpResponse {
   private final int responseCode;
   private final String responseMessage;
   private final byte[] responseBody;
-  private final Multimap<String, String> headers;
+
+  // Raw header fields of the connection, which are only parsed when the headers are first accessed
+  private final Map<String, List<String>> headerFields;
+  private volatile HttpHeaders headers;
 
   HttpResponse(int responseCode, String responseMessage,
                byte[] responseBody, Map<String, List<String>> headers) {
-    this(responseCode, responseMessage, responseBody, parseHeaders(headers));
+    this.responseCode = responseCode;
+    this.responseMessage = responseMessage;
+    this.responseBody = responseBody;
+    this.headerFields = headers;
   }
 
   HttpResponse(int responseCode, String responseMessage,
                byte[] responseBody, Multimap<String, String> headers) {
+    this(responseCode, responseMessage, responseBody, HttpHeaders.of(headers));
+  }
+
+  HttpResponse(int responseCode, String responseMessage, byte[] responseBody, HttpHeaders headers) {
     this.responseCode = responseCode;
     this.responseMessage = responseMessage;
     this.responseBody = responseBody;
+    this.headerFields = null;
     this.headers = headers;
   }
 
+  /**
+   * Creates a copy of the given response, without parsing its headers.
+   */
+  HttpResponse(HttpResponse response) {
+    this(response, response.responseBody);
+  }
+
+  /**
+   * Creates a copy of the given response with another body, without parsing its headers.
+   */
+  HttpResponse(HttpResponse response, byte[] responseBody) {
+    this.responseCode = response.responseCode;
+    this.responseMessage = response.responseMessage;
+    this.responseBody = responseBody;
+    this.headerFields = response.headerFields;
+    this.headers = response.headers;
+  }
+
   public int getResponseCode() {
     return responseCode;
   }
@@ -57,6 +87,15 @@ public class HttpResponse {
     return responseBody;
   }
 
+  /**
+   * @return a read-only {@link ByteBuffer} view of the array returned by {@link #getResponseBody()}. The body is
+   *         read into that array in any case, so the view only saves callers that need a {@link ByteBuffer} from
+   *         copying it.
+   */
+  public ByteBuffer getResponseBodyAsByteBuffer() {
+    return ByteBuffer.wrap(responseBody).asReadOnlyBuffer();
+  }
+
   public String getResponseBodyAsString() {
     return new String(responseBody, Charsets.UTF_8);
   }
@@ -66,17 +105,27 @@ public class HttpResponse {
   }
 
   public Multimap<String, String> getHeaders() {
-    return headers;
+    return getHttpHeaders().asMultimap();
   }
 
-  private static Multimap<String, String> parseHeaders(Map<String, List<String>> headers) {
-    ImmutableListMultimap.Builder<String, String> builder = new ImmutableListMultimap.Builder<String, String>();
-    for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
-      // By default, headers created by URLConnection contain an entry from null -> HTTP Response message
-      if (entry.getKey() != null) {
-        builder.putAll(entry.getKey(), entry.getValue());
-      }
+  /**
+   * @return the response headers, with case-insensitive lookup by name
+   */
+  public HttpHeaders getHttpHeaders() {
+    HttpHeaders result = headers;
+    if (result == null) {
+      result = HttpHeaders.fromHeaderFields(headerFields);
+      headers = result;
     }
-    return builder.build();
+    return result;
+  }
+
+  /**
+   * @param name header name, matched case-insensitively
+   * @return value of the first header with the name, or {@code null} if there is none
+   */
+  @Nullable
+  public String getHeader(String name) {
+    return getHttpHeaders().getFirst(name);
   }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import java.io.IOException;
+
+/**
+ * Sends {@link HttpRequest}s and receives their responses. The transport of a request is chosen with
+ * {@link HttpRequestConfig#withTransport(HttpTransport)}, so that {@link HttpRequests} call sites do not change
+ * when the transport does. {@link URLConnectionTransport} is used by default.
+ *
+ * <p>
+ * Implementations must be thread safe. They honour the timeouts, certificate verification and memory budget of
+ * the {@link HttpRequestConfig}, and hand the response over as a {@link StreamingResponse} as soon as its status
+ * and headers are received.
+ * </p>
+ */
+public interface HttpTransport {
+
+  /**
+   * Executes an HTTP request, returning as soon as the status and headers of the response are received.
+   * The body is read from the connection as it is read from the returned response, which must be closed.
+   *
+   * @param request HTTP request to execute
+   * @param requestConfig configuration for the HTTP request to execute
+   * @return HTTP response with a body that is yet to be read
+   */
+  StreamingResponse executeStreaming(HttpRequest request, HttpRequestConfig requestConfig) throws IOException;
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Lock-free histogram of non-negative latency values with log-linear buckets.
+ *
+ * <p>
+ * Each power of two is split into {@value #SUB_BUCKETS} linear buckets, which keeps the relative error of
+ * reported percentiles below about 6% over the whole {@code long} range, using a fixed array of counters.
+ * </p>
+ */
+@ThreadSafe
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong totalCount = new AtomicLong();
+
+  /**
+   * Records a single value. Negative values are recorded as zero.
+   *
+   * @param value the value to record
+   */
+  public void record(long value) {
+    counts.incrementAndGet(bucketIndex(Math.max(0L, value)));
+    totalCount.incrementAndGet();
+  }
+
+  /**
+   * @return number of values currently in this histogram
+   */
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  /**
+   * Returns an upper bound of the value below which the given percentage of recorded values fall.
+   *
+   * @param percentile percentile in the range {@code [0, 100]}
+   * @return the value at the percentile, or {@code 0} if nothing has been recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    Preconditions.checkArgument(percentile >= 0 && percentile <= 100, "Percentile must be in [0, 100]: %s", percentile);
+
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += counts.get(i);
+    }
+    if (total == 0) {
+      return 0L;
+    }
+
+    long target = Math.max(1L, (long) Math.ceil(total * percentile / 100d));
+    long seen = 0;
+    int lastNonEmpty = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      long count = counts.get(i);
+      if (count == 0) {
+        continue;
+      }
+      lastNonEmpty = i;
+      seen += count;
+      if (seen >= target) {
+        return bucketUpperBound(i);
+      }
+    }
+    // Buckets were concurrently modified while scanning
+    return bucketUpperBound(lastNonEmpty);
+  }
+
+  /**
+   * Halves every bucket, so that older values gradually lose weight against newly recorded ones.
+   */
+  public void decay() {
+    long removed = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      long count;
+      long halved;
+      do {
+        count = counts.get(i);
+        halved = count >>> 1;
+      } while (count != 0 && !counts.compareAndSet(i, count, halved));
+      removed += count - halved;
+    }
+    totalCount.addAndGet(-removed);
+  }
+
+  /**
+   * @return a copy of this histogram
+   */
+  public LatencyHistogram copy() {
+    LatencyHistogram copy = new LatencyHistogram();
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      long count = counts.get(i);
+      copy.counts.set(i, count);
+      total += count;
+    }
+    copy.totalCount.set(total);
+    return copy;
+  }
+
+  /**
+   * Moves the values of this histogram to a new one, leaving this one empty. A value recorded concurrently ends up
+   * in exactly one of the two histograms.
+   *
+   * @return a histogram with the values moved out of this one
+   */
+  public LatencyHistogram getAndReset() {
+    LatencyHistogram moved = new LatencyHistogram();
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      long count = counts.getAndSet(i, 0L);
+      moved.counts.set(i, count);
+      total += count;
+    }
+    moved.totalCount.set(total);
+    totalCount.addAndGet(-total);
+    return moved;
+  }
+
+  private static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+  }
+
+  private static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    return lowerBound + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Executes requests through {@link HttpRequests} on a fixed number of threads, and records their latencies in a
+ * {@link LoadResult}. It runs the requests of {@link TrafficReplayer} and of load generators.
+ *
+ * <p>
+ * Requests given to {@link #executeWhenDue} run open loop: each is due at a given time, whether or not earlier
+ * requests have completed, and waits for a free thread if all are busy. Latency is measured from the time a
+ * request was due rather than from the time it was sent, so that a slow server delaying the requests behind it
+ * shows in the percentiles instead of hiding behind a lower send rate (coordinated omission). The time from
+ * sending a request to its response is recorded separately as the service time. Requests given to
+ * {@link #executeClosedLoop} are sent by each thread as soon as its previous request completes.
+ * </p>
+ */
+@ThreadSafe
+public final class LoadExecutor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LoadExecutor.class);
+
+  private final int threads;
+  private final HttpRequestConfig requestConfig;
+  private final ExecutorService executor;
+  private final LoadResult result = new LoadResult();
+
+  /**
+   * @param threads maximum number of requests in flight
+   * @param threadNameFormat format of the names of the threads, with a {@code %d} for their index
+   * @param requestConfig configuration to execute the requests with
+   */
+  public LoadExecutor(int threads, String threadNameFormat, HttpRequestConfig requestConfig) {
+    Preconditions.checkArgument(threads > 0, "Threads must be positive: %s", threads);
+    this.threads = threads;
+    this.requestConfig = Preconditions.checkNotNull(requestConfig, "Request config cannot be null");
+    this.executor = Executors.newFixedThreadPool(
+      threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat(threadNameFormat).build());
+  }
+
+  /**
+   * @return the latencies and counts of the requests so far, which keep changing until {@link #finish()}
+   */
+  public LoadResult getResult() {
+    return result;
+  }
+
+  /**
+   * Waits until a request is due, then hands it to a free thread.
+   *
+   * @param dueTime {@link System#nanoTime()} at which the request is due
+   */
+  public void executeWhenDue(final HttpRequest request, final long dueTime) throws InterruptedException {
+    long wait = dueTime - System.nanoTime();
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        execute(request, dueTime);
+      }
+    });
+  }
+
+  /**
+   * Sends a request repeatedly from every thread, each sending the next request once the previous one completed,
+   * until the given time.
+   *
+   * @param endTime {@link System#nanoTime()} after which no more requests are sent
+   */
+  public void executeClosedLoop(final HttpRequest request, final long endTime) {
+    for (int i = 0; i < threads; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          long sendTime = System.nanoTime();
+          while (sendTime < endTime && !Thread.currentThread().isInterrupted()) {
+            execute(request, sendTime);
+            sendTime = System.nanoTime();
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Waits for all requests to complete. No more requests can be executed afterwards.
+   *
+   * @return the latencies and counts of all requests
+   */
+  public LoadResult finish() throws InterruptedException {
+    executor.shutdown();
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    result.finish();
+    return result;
+  }
+
+  /**
+   * Stops without waiting for the requests in flight, which are interrupted. Does nothing once finished.
+   */
+  public void shutdownNow() {
+    executor.shutdownNow();
+  }
+
+  private void execute(HttpRequest request, long dueTime) {
+    long sendTime = System.nanoTime();
+    try {
+      HttpResponse response = HttpRequests.execute(request, requestConfig);
+      if (response.getResponseCode() >= 400) {
+        result.errorResponses.incrementAndGet();
+      }
+      result.bytesReceived.addAndGet(response.getResponseBody().length);
+    } catch (Exception e) {
+      LOG.debug("Request {} {} failed", request.getMethod(), request.getURL(), e);
+      result.failures.incrementAndGet();
+    }
+    long endTime = System.nanoTime();
+    result.latency.record(TimeUnit.NANOSECONDS.toMicros(endTime - dueTime));
+    result.serviceTime.record(TimeUnit.NANOSECONDS.toMicros(endTime - sendTime));
+    result.requests.incrementAndGet();
+  }
+}
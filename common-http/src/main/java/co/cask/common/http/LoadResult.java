@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Latencies and counts of the requests executed by a {@link LoadExecutor}. The counts keep changing until the
+ * executor is {@link LoadExecutor#finish() finished}, and can be read while it runs to report progress.
+ */
+@ThreadSafe
+public final class LoadResult {
+
+  final LatencyHistogram latency = new LatencyHistogram();
+  final LatencyHistogram serviceTime = new LatencyHistogram();
+  final AtomicLong requests = new AtomicLong();
+  final AtomicLong failures = new AtomicLong();
+  final AtomicLong errorResponses = new AtomicLong();
+  final AtomicLong bytesReceived = new AtomicLong();
+  private final long startTime = System.nanoTime();
+  // Set once all requests completed
+  private volatile long elapsedNanos = -1L;
+
+  LoadResult() {
+  }
+
+  void finish() {
+    elapsedNanos = System.nanoTime() - startTime;
+  }
+
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * @return number of requests that failed without a response
+   */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /**
+   * @return number of requests with a {@code 4xx} or {@code 5xx} response
+   */
+  public long getErrorResponses() {
+    return errorResponses.get();
+  }
+
+  /**
+   * @return number of bytes of the response bodies
+   */
+  public long getBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  /**
+   * @return histogram of the times from requests being due until their responses were read, in microseconds.
+   *         In closed loop, requests are due when they are sent.
+   */
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  /**
+   * @return histogram of the times from requests being sent until their responses were read, in microseconds
+   */
+  public LatencyHistogram getServiceTime() {
+    return serviceTime;
+  }
+
+  /**
+   * @return time from the start of the executor until all requests completed, or until now if some are still
+   *         running, in milliseconds
+   */
+  public long getElapsedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(getElapsedNanos());
+  }
+
+  /**
+   * @return requests completed per second
+   */
+  public double getThroughput() {
+    long elapsed = getElapsedNanos();
+    return elapsed <= 0 ? 0d : getRequests() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+  }
+
+  private long getElapsedNanos() {
+    long elapsed = elapsedNanos;
+    return elapsed < 0 ? System.nanoTime() - startTime : elapsed;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("requests=%d, failures=%d, errors=%d, elapsed=%dms, latency p50=%dus p90=%dus "
+                           + "p99=%dus p99.9=%dus max=%dus",
+                         getRequests(), getFailures(), getErrorResponses(), getElapsedMillis(),
+                         latency.getValueAtPercentile(50), latency.getValueAtPercentile(90),
+                         latency.getValueAtPercentile(99), latency.getValueAtPercentile(99.9),
+                         latency.getValueAtPercentile(100));
+  }
+}
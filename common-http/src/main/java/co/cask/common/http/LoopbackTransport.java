@@ -0,0 +1,374 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An {@link HttpTransport} that hands requests to {@link Handler}s in the same JVM instead of sending them over a
+ * socket, so that tests run without a server and benchmarks measure the client alone.
+ *
+ * <p>
+ * Handlers are registered for a host and port, and a path prefix. A request to a host and port without handlers
+ * fails with a {@link ConnectException}, as it would without a server, and one to a path without a handler gets a
+ * {@code 404}. Handlers run on the calling thread, so the read timeout of the request does not apply to them.
+ * The request body is buffered before the handler runs, while the response body is read from the stream the
+ * handler responds with as the caller reads it. The {@code Host} and {@code Content-Length} headers, and the
+ * empty bodies of {@code HEAD}, {@code 204} and {@code 304} responses, follow HTTP/1.1. A handler that fails
+ * produces a {@code 500} response.
+ * </p>
+ *
+ * <pre>
+ *   LoopbackTransport transport = LoopbackTransport.builder()
+ *     .addHandler("service", 8080, "/ping", new LoopbackTransport.Handler() {
+ *       public void handle(LoopbackTransport.Exchange exchange) {
+ *         exchange.respond(200, "pong");
+ *       }
+ *     })
+ *     .build();
+ *   HttpRequests.execute(HttpRequest.get(new URL("http://service:8080/ping")).build(),
+ *                        HttpRequestConfig.DEFAULT.withTransport(transport));
+ * </pre>
+ */
+@ThreadSafe
+public final class LoopbackTransport implements HttpTransport {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LoopbackTransport.class);
+
+  private static final Comparator<Route> LONGEST_PREFIX_FIRST = new Comparator<Route>() {
+    @Override
+    public int compare(Route first, Route second) {
+      return second.pathPrefix.length() - first.pathPrefix.length();
+    }
+  };
+
+  private static final Map<Integer, String> REASON_PHRASES = ImmutableMap.<Integer, String>builder()
+    .put(200, "OK").put(201, "Created").put(202, "Accepted").put(204, "No Content").put(206, "Partial Content")
+    .put(301, "Moved Permanently").put(302, "Found").put(304, "Not Modified")
+    .put(400, "Bad Request").put(401, "Unauthorized").put(403, "Forbidden").put(404, "Not Found")
+    .put(405, "Method Not Allowed").put(409, "Conflict").put(429, "Too Many Requests")
+    .put(500, "Internal Server Error").put(502, "Bad Gateway").put(503, "Service Unavailable")
+    .build();
+
+  private final Map<String, List<Route>> routes;
+
+  private LoopbackTransport(Map<String, List<Route>> routes) {
+    this.routes = routes;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  @Override
+  public StreamingResponse executeStreaming(HttpRequest request,
+                                            HttpRequestConfig requestConfig) throws IOException {
+    URL url = request.getURL();
+    int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+    List<Route> hostRoutes = routes.get(getAuthority(url.getHost(), port));
+    if (hostRoutes == null) {
+      throw new ConnectException("Connection refused: no loopback handler for " + url.getHost() + ":" + port);
+    }
+
+    Exchange exchange = new Exchange(request, port);
+    HttpEventListener eventListener = requestConfig.getEventListener();
+    if (eventListener != null) {
+      eventListener.requestWritten(request, System.nanoTime());
+    }
+    Handler handler = null;
+    String path = url.getPath().isEmpty() ? "/" : url.getPath();
+    for (Route route : hostRoutes) {
+      if (route.matches(path)) {
+        handler = route.handler;
+        break;
+      }
+    }
+
+    if (handler == null) {
+      exchange.respond(404, "No handler for " + path);
+    } else {
+      try {
+        handler.handle(exchange);
+      } catch (Exception e) {
+        LOG.debug("Loopback handler failed for {} {}", request.getMethod(), url, e);
+        exchange.reset();
+        exchange.respond(500, String.valueOf(e.getMessage()));
+      }
+      if (!exchange.isResponded()) {
+        exchange.respond(500, "Handler did not respond");
+      }
+    }
+    return exchange.toResponse(requestConfig);
+  }
+
+  private static String getAuthority(String host, int port) {
+    return host.toLowerCase() + ":" + port;
+  }
+
+  /**
+   * Handles requests for a {@link LoopbackTransport}.
+   */
+  public interface Handler {
+
+    /**
+     * Handles a request, responding with one of the {@code respond} methods of the exchange.
+     */
+    void handle(Exchange exchange) throws Exception;
+  }
+
+  /**
+   * A request received by a {@link Handler}, and the response to it.
+   */
+  @NotThreadSafe
+  public static final class Exchange {
+    private final HttpRequest request;
+    private final HttpHeaders requestHeaders;
+    private final byte[] requestBody;
+    private HttpHeaders.Builder responseHeaders = HttpHeaders.builder();
+    private int responseCode;
+    private String responseMessage;
+    private InputStream responseBody;
+    private long responseLength;
+
+    Exchange(HttpRequest request, int port) throws IOException {
+      this.request = request;
+
+      RequestBody body = request.getRequestBody();
+      if (body == null) {
+        requestBody = new byte[0];
+      } else {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(body.getContentLength() > 0
+                                                               ? (int) body.getContentLength() : 32);
+        body.writeTo(os);
+        requestBody = os.toByteArray();
+      }
+
+      // The headers a server would receive
+      HttpHeaders headers = request.getHttpHeaders();
+      HttpHeaders.Builder builder = HttpHeaders.builder().addAll(headers);
+      URL url = request.getURL();
+      if (!headers.contains("Host")) {
+        builder.add("Host", port == url.getDefaultPort() ? url.getHost() : url.getHost() + ":" + port);
+      }
+      if (!headers.contains("Content-Length") && (body != null || request.getMethod() == HttpMethod.POST
+        || request.getMethod() == HttpMethod.PUT)) {
+        builder.add("Content-Length", Integer.toString(requestBody.length));
+      }
+      this.requestHeaders = builder.build();
+    }
+
+    public HttpRequest getRequest() {
+      return request;
+    }
+
+    public HttpMethod getMethod() {
+      return request.getMethod();
+    }
+
+    public URL getURL() {
+      return request.getURL();
+    }
+
+    /**
+     * @return headers of the request, including the {@code Host} and {@code Content-Length} headers a client sends
+     */
+    public HttpHeaders getRequestHeaders() {
+      return requestHeaders;
+    }
+
+    public byte[] getRequestBody() {
+      return requestBody;
+    }
+
+    public String getRequestBodyAsString() {
+      return new String(requestBody, Charsets.UTF_8);
+    }
+
+    /**
+     * Adds a response header. {@code Content-Length} is added by the exchange if the length of the body is known.
+     */
+    public Exchange addResponseHeader(String name, String value) {
+      responseHeaders.add(name, value);
+      return this;
+    }
+
+    /**
+     * Sets the reason phrase of the response, which defaults to the standard one of the status code.
+     */
+    public Exchange setResponseMessage(String responseMessage) {
+      this.responseMessage = responseMessage;
+      return this;
+    }
+
+    /**
+     * Responds without a body.
+     */
+    public void respond(int responseCode) {
+      respond(responseCode, new byte[0]);
+    }
+
+    /**
+     * Responds with a body encoded in UTF-8.
+     */
+    public void respond(int responseCode, String body) {
+      respond(responseCode, body.getBytes(Charsets.UTF_8));
+    }
+
+    public void respond(int responseCode, byte[] body) {
+      respond(responseCode, new ByteArrayInputStream(body), body.length);
+    }
+
+    /**
+     * Responds with a body that is read by the client as it reads the response, and closed with the response.
+     *
+     * @param length length of the body, or {@code -1} if unknown
+     */
+    public void respond(int responseCode, InputStream body, long length) {
+      Preconditions.checkState(!isResponded(), "Response already sent");
+      Preconditions.checkArgument(responseCode >= 100 && responseCode < 1000, "Invalid status code: %s",
+                                  responseCode);
+      this.responseCode = responseCode;
+      this.responseBody = body;
+      this.responseLength = length;
+    }
+
+    boolean isResponded() {
+      return responseBody != null;
+    }
+
+    void reset() {
+      if (responseBody != null) {
+        Closeables.closeQuietly(responseBody);
+      }
+      responseBody = null;
+      responseMessage = null;
+      responseHeaders = HttpHeaders.builder();
+    }
+
+    StreamingResponse toResponse(HttpRequestConfig requestConfig) {
+      HttpHeaders headers = responseHeaders.build();
+      final InputStream body = responseBody;
+      InputStream clientBody = body;
+      long contentLength = responseLength;
+      if (!headers.contains("Content-Length") && !headers.contains("Transfer-Encoding") && responseLength >= 0) {
+        headers = HttpHeaders.builder().addAll(headers)
+          .add("Content-Length", Long.toString(responseLength)).build();
+      }
+      if (request.getMethod() == HttpMethod.HEAD || responseCode == 204 || responseCode == 304) {
+        clientBody = new ByteArrayInputStream(new byte[0]);
+        contentLength = 0;
+      }
+      String message = responseMessage == null ? REASON_PHRASES.get(responseCode) : responseMessage;
+      return new StreamingResponse(responseCode, message, headers, clientBody, contentLength, requestConfig,
+                                   new StreamingResponse.Releaser() {
+        @Override
+        public void release(boolean drained) {
+          Closeables.closeQuietly(body);
+        }
+      });
+    }
+  }
+
+  /**
+   * Builder for {@link LoopbackTransport}.
+   */
+  public static final class Builder {
+    private final Map<String, List<Route>> routes = Maps.newHashMap();
+
+    Builder() {
+    }
+
+    /**
+     * Registers a handler for every request to a host and port.
+     */
+    public Builder addHandler(String host, int port, Handler handler) {
+      return addHandler(host, port, "/", handler);
+    }
+
+    /**
+     * Registers a handler for the requests to a host and port whose path starts with the given prefix, which
+     * matches whole path segments: {@code /api} matches {@code /api} and {@code /api/v1} but not {@code /apis}.
+     * The handler with the longest matching prefix handles a request.
+     */
+    public Builder addHandler(String host, int port, String pathPrefix, Handler handler) {
+      Preconditions.checkNotNull(host, "Host cannot be null");
+      Preconditions.checkArgument(port > 0 && port < 65536, "Invalid port: %s", port);
+      Preconditions.checkArgument(pathPrefix.startsWith("/"), "Path prefix must start with '/': %s", pathPrefix);
+      Preconditions.checkNotNull(handler, "Handler cannot be null");
+
+      String authority = getAuthority(host, port);
+      List<Route> hostRoutes = routes.get(authority);
+      if (hostRoutes == null) {
+        hostRoutes = Lists.newArrayList();
+        routes.put(authority, hostRoutes);
+      }
+      hostRoutes.add(new Route(pathPrefix, handler));
+      return this;
+    }
+
+    public LoopbackTransport build() {
+      ImmutableMap.Builder<String, List<Route>> builder = ImmutableMap.builder();
+      for (Map.Entry<String, List<Route>> entry : routes.entrySet()) {
+        List<Route> hostRoutes = Lists.newArrayList(entry.getValue());
+        Collections.sort(hostRoutes, LONGEST_PREFIX_FIRST);
+        builder.put(entry.getKey(), Collections.unmodifiableList(hostRoutes));
+      }
+      return new LoopbackTransport(builder.build());
+    }
+  }
+
+  private static final class Route {
+    private final String pathPrefix;
+    private final Handler handler;
+
+    Route(String pathPrefix, Handler handler) {
+      this.pathPrefix = pathPrefix;
+      this.handler = handler;
+    }
+
+    /**
+     * Matches whole path segments only, so that {@code /ping} does not handle {@code /pingpong}.
+     */
+    boolean matches(String path) {
+      if (!path.startsWith(pathPrefix)) {
+        return false;
+      }
+      int end = pathPrefix.length();
+      return path.length() == end || pathPrefix.endsWith("/") || path.charAt(end) == '/';
+    }
+  }
+}
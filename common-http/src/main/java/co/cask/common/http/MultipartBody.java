@@ -0,0 +1,242 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.InputSupplier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Random;
+import javax.annotation.Nullable;
+
+/**
+ * A {@code multipart/form-data} request body, whose parts are written one after another while the request is
+ * executed.
+ *
+ * <p>
+ * The content of the parts is never buffered: files, buffers and streams are written to the connection as the
+ * boundaries and part headers between them are generated. If the length of every part is known, so is the length
+ * of the body, and the request is sent with a {@code Content-Length}; otherwise it is sent in chunks.
+ * </p>
+ */
+public final class MultipartBody extends RequestBody {
+
+  private static final Random RANDOM = new SecureRandom();
+  private static final char[] BOUNDARY_CHARS =
+    "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+  private static final byte[] CRLF = { '\r', '\n' };
+
+  private final String boundary;
+  private final List<Part> parts;
+  private final byte[] closeDelimiter;
+
+  private MultipartBody(String boundary, List<Part> parts) {
+    this.boundary = boundary;
+    this.parts = parts;
+    this.closeDelimiter = ("--" + boundary + "--\r\n").getBytes(Charsets.US_ASCII);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return value of the {@code Content-Type} header for this body, which includes the boundary
+   */
+  public String getContentType() {
+    return "multipart/form-data; boundary=" + boundary;
+  }
+
+  public String getBoundary() {
+    return boundary;
+  }
+
+  @Override
+  public long getContentLength() {
+    long length = closeDelimiter.length;
+    for (Part part : parts) {
+      long partLength = part.body.getContentLength();
+      if (partLength < 0) {
+        return -1L;
+      }
+      length += part.header.length + partLength + CRLF.length;
+    }
+    return length;
+  }
+
+  @Override
+  public void writeTo(OutputStream os) throws IOException {
+    for (Part part : parts) {
+      os.write(part.header);
+      part.body.writeTo(os);
+      os.write(CRLF);
+    }
+    os.write(closeDelimiter);
+  }
+
+  @Override
+  public void writeTo(WritableByteChannel channel) throws IOException {
+    for (Part part : parts) {
+      writeFully(channel, ByteBuffer.wrap(part.header));
+      part.body.writeTo(channel);
+      writeFully(channel, ByteBuffer.wrap(CRLF));
+    }
+    writeFully(channel, ByteBuffer.wrap(closeDelimiter));
+  }
+
+  private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * A part, with its delimiter and headers already encoded.
+   */
+  private static final class Part {
+    private final byte[] header;
+    private final RequestBody body;
+
+    Part(byte[] header, RequestBody body) {
+      this.header = header;
+      this.body = body;
+    }
+  }
+
+  /**
+   * A part as it was added to the {@link Builder}.
+   */
+  private static final class PartDefinition {
+    private final String name;
+    private final String fileName;
+    private final String contentType;
+    private final RequestBody body;
+
+    PartDefinition(String name, @Nullable String fileName, @Nullable String contentType, RequestBody body) {
+      this.name = name;
+      this.fileName = fileName;
+      this.contentType = contentType;
+      this.body = body;
+    }
+  }
+
+  /**
+   * Builder for {@link MultipartBody}.
+   */
+  public static final class Builder {
+    private final List<PartDefinition> parts = Lists.newArrayList();
+    private String boundary;
+
+    Builder() {
+      char[] chars = new char[32];
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = BOUNDARY_CHARS[RANDOM.nextInt(BOUNDARY_CHARS.length)];
+      }
+      this.boundary = new String(chars);
+    }
+
+    /**
+     * Sets the boundary between parts, instead of a random one. It must not occur in the content of any part. It
+     * applies to all parts, including those added before.
+     */
+    public Builder setBoundary(String boundary) {
+      Preconditions.checkArgument(!boundary.isEmpty() && boundary.length() <= 70,
+                                  "Boundary must have 1 to 70 characters: %s", boundary);
+      this.boundary = boundary;
+      return this;
+    }
+
+    /**
+     * Adds a form field with a UTF-8 value.
+     */
+    public Builder addFormField(String name, String value) {
+      return addPart(name, null, null, RequestBody.of(value.getBytes(Charsets.UTF_8)));
+    }
+
+    /**
+     * Adds a file, named after the file itself.
+     */
+    public Builder addFile(String name, File file, @Nullable String contentType) {
+      return addPart(name, file.getName(), contentType, RequestBody.of(file));
+    }
+
+    /**
+     * Adds a part with the remaining content of a buffer, which is not copied.
+     */
+    public Builder addPart(String name, @Nullable String fileName, @Nullable String contentType, ByteBuffer content) {
+      return addPart(name, fileName, contentType, RequestBody.of(content));
+    }
+
+    /**
+     * Adds a part read from an {@link InputSupplier}. Its length is unknown, so the body is sent in chunks.
+     */
+    public Builder addPart(String name, @Nullable String fileName, @Nullable String contentType,
+                           InputSupplier<? extends InputStream> content) {
+      return addPart(name, fileName, contentType, RequestBody.ofChunked(content));
+    }
+
+    /**
+     * Adds a part with any {@link RequestBody} as content.
+     *
+     * @param name name of the form field
+     * @param fileName file name of the part, or {@code null} for none
+     * @param contentType content type of the part, or {@code null} for none
+     * @param content content of the part
+     */
+    public Builder addPart(String name, @Nullable String fileName, @Nullable String contentType,
+                           RequestBody content) {
+      parts.add(new PartDefinition(name, fileName, contentType, content));
+      return this;
+    }
+
+    public MultipartBody build() {
+      // The delimiters and headers are encoded last, so that they use the boundary set at any time
+      ImmutableList.Builder<Part> encoded = ImmutableList.builder();
+      for (PartDefinition part : parts) {
+        StringBuilder header = new StringBuilder("--").append(boundary).append("\r\n")
+          .append("Content-Disposition: form-data; name=\"").append(escape(part.name)).append('"');
+        if (part.fileName != null) {
+          header.append("; filename=\"").append(escape(part.fileName)).append('"');
+        }
+        header.append("\r\n");
+        if (part.contentType != null) {
+          header.append("Content-Type: ").append(part.contentType).append("\r\n");
+        }
+        header.append("\r\n");
+        encoded.add(new Part(header.toString().getBytes(Charsets.UTF_8), part.body));
+      }
+      return new MultipartBody(boundary, encoded.build());
+    }
+
+    /**
+     * Escapes a quoted parameter value the way browsers do.
+     */
+    private static String escape(String value) {
+      return value.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+    }
+  }
+}
@@ -19,6 +19,8 @@ import com.google.common.base.Charsets;
 import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
 import java.lang.reflect.Type;
 
 /**
@@ -34,8 +36,9 @@ public final class ObjectResponse<T> extends HttpResponse {
 
   @SuppressWarnings("unchecked")
   public static <T> ObjectResponse<T> fromJsonBody(HttpResponse response, Type typeOfObject, Gson gson) {
-    T object = response.getResponseBody() == null ?
-      null : (T) gson.fromJson(new String(response.getResponseBody(), Charsets.UTF_8), typeOfObject);
+    // Decode directly from the body bytes instead of creating a String copy of the body first
+    T object = response.getResponseBody() == null ? null : (T) gson.fromJson(
+      new InputStreamReader(new ByteArrayInputStream(response.getResponseBody()), Charsets.UTF_8), typeOfObject);
     return new ObjectResponse<T>(response, object);
   }
 
@@ -61,7 +64,7 @@ public final class ObjectResponse<T> extends HttpResponse {
   }
 
   private ObjectResponse(HttpResponse response, T object) {
-    super(response.getResponseCode(), response.getResponseMessage(), response.getResponseBody(), response.getHeaders());
+    super(response);
     this.object = object;
   }
 
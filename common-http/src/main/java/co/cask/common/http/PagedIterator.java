@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Lazy iterator over the items of a paginated API, where each page carries a continuation token for the next one.
+ * Pages are fetched by a {@link PageFetcher}, in a background thread that runs ahead of the caller, so that the
+ * next pages are downloaded while the current one is consumed.
+ *
+ * <p>
+ * Nothing is fetched until the iterator is first used. The background thread then fetches pages one after the
+ * other, and waits while the read-ahead number of pages are fetched and not yet consumed, which bounds the memory
+ * used when the caller is slower than the server. A failed fetch is thrown from {@link #hasNext()} or
+ * {@link #next()}, wrapped in a {@link RuntimeException}, once the pages fetched before it are consumed.
+ * </p>
+ *
+ * <p>
+ * An iterator that is not consumed to the end must be closed, which stops the background thread.
+ * </p>
+ *
+ * <pre>
+ * PagedIterator&lt;Item&gt; items = PagedIterator.builder(new PagedIterator.PageFetcher&lt;Item&gt;() {
+ *   public PagedIterator.Page&lt;Item&gt; fetch(String continuationToken) throws IOException {
+ *     HttpResponse response = HttpRequests.execute(HttpRequest.get(getURL(continuationToken)).build());
+ *     ObjectResponse&lt;List&lt;Item&gt;&gt; items = ObjectResponse.fromJsonBody(response, ITEMS_TYPE);
+ *     return PagedIterator.Page.of(items, response.getHttpHeaders().getFirst("X-Continuation-Token"));
+ *   }
+ * }).build();
+ * </pre>
+ *
+ * @param <T> type of the items
+ */
+public final class PagedIterator<T> extends AbstractIterator<T> implements Closeable {
+
+  private final ProducerIterator<Page<T>> pages;
+  private Iterator<? extends T> items = ImmutableList.<T>of().iterator();
+
+  private PagedIterator(final PageFetcher<T> fetcher, int readAhead) {
+    this.pages = new ProducerIterator<Page<T>>("paged-iterator", readAhead) {
+      @Override
+      void produce(RecordQueue<Page<T>> queue) throws Exception {
+        String continuationToken = null;
+        do {
+          Page<T> page = fetcher.fetch(continuationToken);
+          queue.put(page);
+          continuationToken = page.getContinuationToken();
+        } while (continuationToken != null && !isClosed());
+      }
+    };
+  }
+
+  /**
+   * @param fetcher fetches the pages
+   */
+  public static <T> Builder<T> builder(PageFetcher<T> fetcher) {
+    return new Builder<T>(fetcher);
+  }
+
+  @Override
+  protected T computeNext() {
+    while (!items.hasNext()) {
+      if (!pages.hasNext()) {
+        return endOfData();
+      }
+      items = pages.next().getItems().iterator();
+    }
+    return items.next();
+  }
+
+  /**
+   * Stops fetching pages. The iterator ends after the items of the current page.
+   */
+  @Override
+  public void close() {
+    pages.close();
+  }
+
+  /**
+   * Fetches the pages of a paginated API.
+   *
+   * @param <T> type of the items
+   */
+  public interface PageFetcher<T> {
+
+    /**
+     * Fetches one page. Called from the background thread of the iterator, one page at a time.
+     *
+     * @param continuationToken the token of the previous page, or {@code null} for the first page
+     * @return the page
+     * @throws IOException if the page could not be fetched, which ends the iteration
+     */
+    Page<T> fetch(@Nullable String continuationToken) throws IOException;
+  }
+
+  /**
+   * A page of items, with the token to fetch the next page.
+   *
+   * @param <T> type of the items
+   */
+  public static final class Page<T> {
+    private final List<? extends T> items;
+    private final String continuationToken;
+
+    private Page(List<? extends T> items, @Nullable String continuationToken) {
+      this.items = items;
+      this.continuationToken = continuationToken;
+    }
+
+    /**
+     * @param items the items of the page
+     * @param continuationToken the token of the next page, or {@code null} if this is the last page
+     */
+    public static <T> Page<T> of(Iterable<? extends T> items, @Nullable String continuationToken) {
+      return new Page<T>(ImmutableList.copyOf(items), continuationToken);
+    }
+
+    /**
+     * Creates a page from a response with the items as its JSON body, such as one decoded with
+     * {@link ObjectResponse#fromJsonBody(HttpResponse, com.google.common.reflect.TypeToken)}. A response without
+     * a body has no items.
+     *
+     * @param response the response with the items
+     * @param continuationToken the token of the next page, or {@code null} if this is the last page
+     */
+    public static <T> Page<T> of(ObjectResponse<? extends Iterable<? extends T>> response,
+                                 @Nullable String continuationToken) {
+      Iterable<? extends T> items = response.getResponseObject();
+      return of(items == null ? ImmutableList.<T>of() : items, continuationToken);
+    }
+
+    public List<? extends T> getItems() {
+      return items;
+    }
+
+    /**
+     * @return the token of the next page, or {@code null} if this is the last page
+     */
+    @Nullable
+    public String getContinuationToken() {
+      return continuationToken;
+    }
+  }
+
+  /**
+   * Builder for {@link PagedIterator}.
+   *
+   * @param <T> type of the items
+   */
+  public static final class Builder<T> {
+    private final PageFetcher<T> fetcher;
+    private int readAhead = 1;
+
+    Builder(PageFetcher<T> fetcher) {
+      Preconditions.checkNotNull(fetcher, "Page fetcher cannot be null");
+      this.fetcher = fetcher;
+    }
+
+    /**
+     * @param readAhead maximum number of fetched pages waiting to be consumed. Once they are, the background
+     *                  thread fetches one more page and waits. Defaults to 1.
+     */
+    public Builder<T> setReadAhead(int readAhead) {
+      Preconditions.checkArgument(readAhead > 0, "Read-ahead must be positive: %s", readAhead);
+      this.readAhead = readAhead;
+      return this;
+    }
+
+    public PagedIterator<T> build() {
+      return new PagedIterator<T>(fetcher, readAhead);
+    }
+  }
+}
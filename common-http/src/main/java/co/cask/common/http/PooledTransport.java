@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Base for transports that execute {@link HttpRequest}s over their own pool of {@link HttpConnection}s.
+ * Subclasses decide how connections are opened.
+ */
+@ThreadSafe
+abstract class PooledTransport implements HttpTransport, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PooledTransport.class);
+
+  // Request bodies up to this size are sent again when a pooled connection turns out to be closed
+  private static final int MAX_REPEATABLE_BODY_SIZE = 64 * 1024;
+
+  private final ConnectionPool pool;
+
+  PooledTransport(int maxIdleConnections, long keepAlive) {
+    this.pool = new ConnectionPool(maxIdleConnections, keepAlive);
+  }
+
+  /**
+   * Executes an HTTP request, reading the whole response body.
+   *
+   * @param request HTTP request to execute
+   * @param requestConfig configuration for the HTTP request to execute
+   * @return HTTP response
+   */
+  public HttpResponse execute(HttpRequest request, HttpRequestConfig requestConfig) throws IOException {
+    return executeStreaming(request, requestConfig).toHttpResponse();
+  }
+
+  @Override
+  public StreamingResponse executeStreaming(HttpRequest request,
+                                            HttpRequestConfig requestConfig) throws IOException {
+    URL url = request.getURL();
+    String route = getRoute(url, requestConfig);
+
+    HttpEventListener eventListener = requestConfig.getEventListener();
+    int readTimeout = AdaptiveTimeout.getReadTimeout(request, requestConfig);
+    RequestBody body = request.getRequestBody() == null ? null : request.getRequestBody().prepare();
+
+    while (true) {
+      HttpConnection connection = pool.acquire(route);
+      while (connection != null && connection.isStale()) {
+        connection.close();
+        connection = pool.acquire(route);
+      }
+      if (connection == null) {
+        connection = connect(request, route, requestConfig, readTimeout);
+      }
+      if (eventListener != null) {
+        eventListener.connectionAcquired(request, connection.isReused(), System.nanoTime());
+      }
+
+      HttpConnection.Response response;
+      try {
+        connection.setReadTimeout(readTimeout);
+        connection.writeRequest(request, body);
+        long startTime = System.nanoTime();
+        if (eventListener != null) {
+          eventListener.requestWritten(request, startTime);
+        }
+        try {
+          response = connection.readResponse(request);
+        } catch (SocketTimeoutException e) {
+          AdaptiveTimeout.recordWait(request, requestConfig, readTimeout, startTime);
+          throw e;
+        }
+        AdaptiveTimeout.recordWait(request, requestConfig, readTimeout, startTime);
+      } catch (IOException e) {
+        connection.close();
+        // A pooled connection may have been closed by the server just as it was reused. The request is sent
+        // again on a new connection if nothing was received and its body can be written again.
+        if (connection.isReused() && !connection.isResponseStarted() && isRepeatable(body)) {
+          LOG.debug("Retrying {} on a new connection", url, e);
+          continue;
+        }
+        throw e;
+      } catch (RuntimeException e) {
+        // Thrown by the request body, which may have stopped halfway through
+        connection.close();
+        throw e;
+      }
+
+      HttpResponse head = new HttpResponse(response.getCode(), response.getMessage(), new byte[0],
+                                           response.getHeaders());
+      return new StreamingResponse(head, response.getBody(), response.getContentLength(),
+                                   requestConfig.getMemoryBudget(), new PoolReleaser(connection, response));
+    }
+  }
+
+  /**
+   * Small bodies of known length are written again, like {@link java.net.HttpURLConnection} does for the bodies it
+   * buffers. Bodies of unknown length may be backed by an iterator, which can only be written once.
+   */
+  private static boolean isRepeatable(@Nullable RequestBody body) {
+    return body == null || (body.getContentLength() >= 0 && body.getContentLength() <= MAX_REPEATABLE_BODY_SIZE);
+  }
+
+  /**
+   * Closes all idle connections. Connections in use are closed once their responses are closed.
+   */
+  @Override
+  public void close() {
+    pool.close();
+  }
+
+  /**
+   * @return number of idle connections kept for the route of the given URL
+   */
+  int getIdleConnections(URL url, HttpRequestConfig requestConfig) {
+    return pool.getIdleCount(getRoute(url, requestConfig));
+  }
+
+  /**
+   * @return the route of connections a request to the given URL can be sent on
+   */
+  abstract String getRoute(URL url, HttpRequestConfig requestConfig);
+
+  /**
+   * Opens a new connection for a request, reporting the phases of connecting to the event listener of the
+   * configuration, if there is one.
+   */
+  abstract HttpConnection connect(HttpRequest request, String route, HttpRequestConfig requestConfig,
+                                  int readTimeout) throws IOException;
+
+  /**
+   * Returns a connection to the pool once the body of its response has been read, and closes it otherwise.
+   */
+  private final class PoolReleaser implements StreamingResponse.Releaser {
+    private final HttpConnection connection;
+    private final HttpConnection.Response response;
+
+    PoolReleaser(HttpConnection connection, HttpConnection.Response response) {
+      this.connection = connection;
+      this.response = response;
+    }
+
+    @Override
+    public void release(boolean drained) {
+      if (drained && response.isReusable()) {
+        pool.release(connection);
+      } else {
+        connection.close();
+      }
+    }
+  }
+}
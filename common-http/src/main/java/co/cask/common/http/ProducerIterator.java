@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+
+import java.io.Closeable;
+
+/**
+ * Iterator over the records that a producer puts in a {@link RecordQueue} from a background thread, which runs
+ * ahead of the caller until the queue is full.
+ *
+ * <p>
+ * A failure of the producer is thrown from {@link #hasNext()} or {@link #next()}, wrapped in a
+ * {@link RuntimeException}, once the records produced before it are consumed. Closing the iterator ends it, and
+ * releases the producer if it is waiting for room in the queue. The queue then rejects records with an
+ * {@link IllegalStateException}, which is not a failure.
+ * </p>
+ *
+ * @param <T> type of the records
+ */
+abstract class ProducerIterator<T> extends AbstractIterator<T> implements Closeable {
+
+  private final String threadName;
+  private final RecordQueue<T> queue;
+  private Thread thread;
+  private volatile Throwable failure;
+  private volatile boolean closed;
+
+  /**
+   * @param threadName name of the background thread
+   * @param capacity number of records the producer can run ahead of the caller
+   */
+  ProducerIterator(String threadName, int capacity) {
+    this.threadName = threadName;
+    this.queue = new RecordQueue<T>(capacity);
+  }
+
+  /**
+   * Produces the records on the background thread, putting them in the queue.
+   */
+  abstract void produce(RecordQueue<T> queue) throws Exception;
+
+  /**
+   * Called on the background thread once the producer returned or failed, after the queue is closed.
+   */
+  void finished() {
+  }
+
+  /**
+   * @return true if the iterator was closed, after which the producer should stop
+   */
+  final boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Starts the background thread, unless it is started already. Otherwise, it starts when the iterator is first
+   * used.
+   */
+  final void start() {
+    if (thread != null) {
+      return;
+    }
+    thread = new Thread(threadName) {
+      @Override
+      public void run() {
+        try {
+          produce(queue);
+        } catch (Throwable t) {
+          if (!closed || !(t instanceof IllegalStateException)) {
+            failure = t;
+          }
+        } finally {
+          queue.close();
+          finished();
+        }
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  protected final T computeNext() {
+    start();
+    T record;
+    try {
+      record = closed ? null : queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      queue.abort();
+      throw Throwables.propagate(e);
+    }
+    if (record != null) {
+      return record;
+    }
+    queue.abort();
+    Throwable t = failure;
+    if (t != null) {
+      throw Throwables.propagate(t);
+    }
+    return endOfData();
+  }
+
+  /**
+   * Stops the producer. The iterator ends at once.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    queue.abort();
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Bounded queue that hands records from producer threads to a request body, which writes them while the
+ * request is executed. See {@link RequestBody#ofJsonLines(RecordQueue, java.lang.reflect.Type,
+ * com.google.gson.Gson)}.
+ *
+ * <p>
+ * {@link #put(Object)} blocks while the queue is full, so producers are held back by the speed at which the
+ * server reads the request. Producers call {@link #close()} after the last record. If the body stops before
+ * reaching the end, for example because the request failed, pending and later calls to {@link #put(Object)}
+ * fail instead of blocking forever.
+ * </p>
+ *
+ * @param <T> type of the records
+ */
+@ThreadSafe
+public final class RecordQueue<T> {
+
+  private final Object[] records;
+  private final Lock lock = new ReentrantLock();
+  private final Condition notFull = lock.newCondition();
+  private final Condition notEmpty = lock.newCondition();
+  private int head;
+  private int count;
+  private boolean closed;
+  private boolean aborted;
+
+  /**
+   * @param capacity maximum number of records buffered between the producers and the request body
+   */
+  public RecordQueue(int capacity) {
+    Preconditions.checkArgument(capacity > 0, "Capacity must be positive: %s", capacity);
+    this.records = new Object[capacity];
+  }
+
+  /**
+   * Adds a record, waiting while the queue is full.
+   *
+   * @throws IllegalStateException if the queue is closed, or the request body stopped consuming it
+   */
+  public void put(T record) throws InterruptedException {
+    Preconditions.checkNotNull(record, "Record cannot be null");
+    lock.lockInterruptibly();
+    try {
+      Preconditions.checkState(!closed, "Queue is closed");
+      while (count == records.length && !aborted) {
+        notFull.await();
+      }
+      Preconditions.checkState(!aborted, "Request consuming the queue has stopped");
+      records[(head + count) % records.length] = record;
+      count++;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Marks the end of the records. Records already in the queue are still written.
+   */
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the next record, waiting for one if the queue is empty, or {@code null} once the queue is closed
+   *         and empty
+   */
+  @Nullable
+  T take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (count == 0 && !closed) {
+        notEmpty.await();
+      }
+      return count == 0 ? null : dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the next record, or {@code null} if the queue is empty
+   */
+  @Nullable
+  T poll() {
+    lock.lock();
+    try {
+      return count == 0 ? null : dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Called when the consumer stops before the end of the records. Buffered records are dropped and producers
+   * are released.
+   */
+  void abort() {
+    lock.lock();
+    try {
+      aborted = true;
+      Arrays.fill(records, null);
+      count = 0;
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private T dequeue() {
+    T record = (T) records[head];
+    records[head] = null;
+    head = (head + 1) % records.length;
+    count--;
+    notFull.signal();
+    return record;
+  }
+}
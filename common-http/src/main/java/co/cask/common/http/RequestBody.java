@@ -0,0 +1,466 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import co.cask.common.io.ByteBufferInputStream;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import com.google.common.io.InputSupplier;
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import javax.annotation.Nullable;
+
+/**
+ * Body of an {@link HttpRequest}, which is written to the connection while the request is executed.
+ *
+ * <p>
+ * A body can be written either to an {@link OutputStream} or to a {@link WritableByteChannel}. Bodies backed by
+ * {@link ByteBuffer}s or files write to channels without copying their content through the heap.
+ * </p>
+ */
+public abstract class RequestBody {
+
+  /**
+   * @return length of the body in bytes, or {@code -1} if it is unknown. A body of unknown length is sent with
+   *         chunked transfer encoding.
+   */
+  public abstract long getContentLength();
+
+  /**
+   * Writes the body to the given stream. The stream is not closed.
+   */
+  public abstract void writeTo(OutputStream os) throws IOException;
+
+  /**
+   * Writes the body to the given blocking channel. The channel is not closed.
+   */
+  public void writeTo(WritableByteChannel channel) throws IOException {
+    writeTo(Channels.newOutputStream(channel));
+  }
+
+  /**
+   * @return the content of the body as buffers that can be handed to a transport without copying, or
+   *         {@code null} if the body is not backed by buffers. The buffers are duplicates, so their positions
+   *         can be changed, but their content must not be.
+   */
+  @Nullable
+  public ByteBuffer[] getBuffers() {
+    return null;
+  }
+
+  /**
+   * Returns the body to send for one execution of a request. Transports call it before anything else, and send the
+   * body it returns. Most bodies return themselves. A body that has to be sent with a {@code Content-Length} it
+   * cannot know up front, such as one created by {@link #of(InputSupplier)}, reads its content into memory.
+   */
+  public RequestBody prepare() throws IOException {
+    return this;
+  }
+
+  /**
+   * @return an {@link InputSupplier} of the body content
+   */
+  InputSupplier<? extends InputStream> toInputSupplier() {
+    return new InputSupplier<InputStream>() {
+      @Override
+      public InputStream getInput() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeTo(os);
+        return new ByteBufferInputStream(ByteBuffer.wrap(os.toByteArray()));
+      }
+    };
+  }
+
+  /**
+   * Creates a body that is read from the given {@link InputSupplier} into memory each time the request is
+   * executed, so that it is sent with a {@code Content-Length}, as {@link HttpRequests} always sent such bodies.
+   * Use {@link #ofChunked(InputSupplier)} to stream a large body instead.
+   */
+  public static RequestBody of(final InputSupplier<? extends InputStream> supplier) {
+    return new SupplierBody(supplier) {
+      @Override
+      public RequestBody prepare() throws IOException {
+        return of(ByteStreams.toByteArray(supplier));
+      }
+    };
+  }
+
+  /**
+   * Creates a body of unknown length that is read from the given {@link InputSupplier} while it is written, and
+   * sent with chunked transfer encoding. Servers and proxies that require a {@code Content-Length} reject it, and
+   * a request with such a body is not sent again when a kept alive connection turns out to be closed.
+   */
+  public static RequestBody ofChunked(InputSupplier<? extends InputStream> supplier) {
+    return new SupplierBody(supplier);
+  }
+
+  /**
+   * Creates a body with the content of the given array. The array is not copied.
+   */
+  public static RequestBody of(byte[] bytes) {
+    return of(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Creates a body with the content of the given file. The length of the body is the length of the file at the
+   * time the request is executed.
+   */
+  public static RequestBody of(File file) {
+    return new FileBody(file, 0L, -1L);
+  }
+
+  /**
+   * Creates a body with a region of the given file.
+   *
+   * @param file the file to read from
+   * @param offset offset of the region in the file
+   * @param length length of the region, in bytes
+   */
+  public static RequestBody of(File file, long offset, long length) {
+    Preconditions.checkArgument(offset >= 0 && length >= 0, "Invalid file region: offset %s, length %s",
+                                offset, length);
+    return new FileBody(file, offset, length);
+  }
+
+  /**
+   * Creates a body with the remaining content of the given buffers, in order. The buffers are not copied and
+   * their positions are not modified, so the body can be written any number of times.
+   */
+  public static RequestBody of(ByteBuffer... buffers) {
+    return new ByteBufferBody(buffers);
+  }
+
+  /**
+   * Creates a body of unknown length with the JSON serialization of the given object. The object is serialized
+   * directly to the connection each time the body is written, without creating a String or array of the JSON.
+   *
+   * @param object the object to serialize
+   * @param type type of the object
+   * @param gson the {@link Gson} to serialize with
+   */
+  public static RequestBody ofJson(final Object object, final Type type, final Gson gson) {
+    return new RequestBody() {
+      @Override
+      public long getContentLength() {
+        return -1L;
+      }
+
+      @Override
+      public void writeTo(OutputStream os) throws IOException {
+        Writer writer = newWriter(os);
+        toJson(gson, object, type, writer);
+        // Not closing the writer, which would close the stream
+        writer.flush();
+      }
+    };
+  }
+
+  /**
+   * Creates a body of unknown length with the records of the given iterator as newline-delimited JSON. Records
+   * are pulled from the iterator and serialized while the body is written, so the connection applies
+   * backpressure to the iterator. The body can only be written once.
+   *
+   * @param records the records to serialize
+   * @param type type of the records
+   * @param gson the {@link Gson} to serialize with
+   */
+  public static RequestBody ofJsonLines(final Iterator<?> records, final Type type, final Gson gson) {
+    return new RequestBody() {
+      @Override
+      public long getContentLength() {
+        return -1L;
+      }
+
+      @Override
+      public void writeTo(OutputStream os) throws IOException {
+        Writer writer = newWriter(os);
+        while (records.hasNext()) {
+          toJson(gson, records.next(), type, writer);
+          writer.write('\n');
+        }
+        writer.flush();
+      }
+    };
+  }
+
+  /**
+   * Creates a body of unknown length with the records put to the given queue as newline-delimited JSON. The body
+   * ends when the queue is closed. If writing stops before that, the queue stops accepting records. The body can
+   * only be written once.
+   *
+   * @param records the queue producers put records to
+   * @param type type of the records
+   * @param gson the {@link Gson} to serialize with
+   */
+  public static RequestBody ofJsonLines(final RecordQueue<?> records, final Type type, final Gson gson) {
+    return new RequestBody() {
+      @Override
+      public long getContentLength() {
+        return -1L;
+      }
+
+      @Override
+      public void writeTo(OutputStream os) throws IOException {
+        boolean completed = false;
+        try {
+          Writer writer = newWriter(os);
+          while (true) {
+            Object record = records.poll();
+            if (record == null) {
+              // Send what is buffered before waiting for producers
+              writer.flush();
+              record = records.take();
+              if (record == null) {
+                break;
+              }
+            }
+            toJson(gson, record, type, writer);
+            writer.write('\n');
+          }
+          completed = true;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for records");
+        } finally {
+          if (!completed) {
+            records.abort();
+          }
+        }
+      }
+    };
+  }
+
+  private static Writer newWriter(OutputStream os) {
+    return new BufferedWriter(new OutputStreamWriter(os, Charsets.UTF_8));
+  }
+
+  /**
+   * Serializes an object to a writer, rethrowing the {@link IOException} of the writer if there is one.
+   */
+  private static void toJson(Gson gson, Object object, Type type, Writer writer) throws IOException {
+    try {
+      gson.toJson(object, type, new JsonWriter(writer));
+    } catch (JsonIOException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw e;
+    }
+  }
+
+  /**
+   * Body of unknown length read from an {@link InputSupplier}.
+   */
+  private static class SupplierBody extends RequestBody {
+
+    private final InputSupplier<? extends InputStream> supplier;
+
+    SupplierBody(InputSupplier<? extends InputStream> supplier) {
+      this.supplier = supplier;
+    }
+
+    @Override
+    public long getContentLength() {
+      return -1L;
+    }
+
+    @Override
+    public void writeTo(OutputStream os) throws IOException {
+      ByteStreams.copy(supplier, os);
+    }
+
+    @Override
+    InputSupplier<? extends InputStream> toInputSupplier() {
+      return supplier;
+    }
+  }
+
+  /**
+   * Body backed by {@link ByteBuffer}s, which are handed to channels with gathering writes.
+   */
+  private static final class ByteBufferBody extends RequestBody {
+
+    private static final int MAX_COPY_CHUNK_SIZE = 64 * 1024;
+
+    private final ByteBuffer[] buffers;
+    private final long contentLength;
+
+    ByteBufferBody(ByteBuffer[] buffers) {
+      this.buffers = buffers.clone();
+      long length = 0;
+      for (ByteBuffer buffer : buffers) {
+        length += buffer.remaining();
+      }
+      this.contentLength = length;
+    }
+
+    @Override
+    public long getContentLength() {
+      return contentLength;
+    }
+
+    @Override
+    public void writeTo(OutputStream os) throws IOException {
+      byte[] chunk = null;
+      for (ByteBuffer buffer : buffers) {
+        if (buffer.hasArray()) {
+          os.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+          continue;
+        }
+        // A direct buffer can only reach a stream through a heap array
+        if (chunk == null) {
+          chunk = new byte[(int) Math.min(MAX_COPY_CHUNK_SIZE, contentLength)];
+        }
+        ByteBuffer src = buffer.duplicate();
+        while (src.hasRemaining()) {
+          int len = Math.min(chunk.length, src.remaining());
+          src.get(chunk, 0, len);
+          os.write(chunk, 0, len);
+        }
+      }
+    }
+
+    @Override
+    public ByteBuffer[] getBuffers() {
+      ByteBuffer[] duplicates = new ByteBuffer[buffers.length];
+      for (int i = 0; i < buffers.length; i++) {
+        duplicates[i] = buffers[i].duplicate();
+      }
+      return duplicates;
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel channel) throws IOException {
+      ByteBuffer[] srcs = getBuffers();
+
+      if (channel instanceof GatheringByteChannel) {
+        GatheringByteChannel gatheringChannel = (GatheringByteChannel) channel;
+        long remaining = contentLength;
+        int offset = 0;
+        while (remaining > 0) {
+          remaining -= gatheringChannel.write(srcs, offset, srcs.length - offset);
+          while (offset < srcs.length && !srcs[offset].hasRemaining()) {
+            offset++;
+          }
+        }
+        return;
+      }
+
+      for (ByteBuffer src : srcs) {
+        while (src.hasRemaining()) {
+          channel.write(src);
+        }
+      }
+    }
+
+    @Override
+    InputSupplier<? extends InputStream> toInputSupplier() {
+      if (buffers.length != 1) {
+        return super.toInputSupplier();
+      }
+      return new InputSupplier<InputStream>() {
+        @Override
+        public InputStream getInput() throws IOException {
+          return new ByteBufferInputStream(buffers[0].duplicate());
+        }
+      };
+    }
+  }
+
+  /**
+   * Body backed by a file or a region of a file, which is transferred to channels by the file system where possible.
+   */
+  private static final class FileBody extends RequestBody {
+
+    private final File file;
+    private final long offset;
+    private final long length;
+
+    /**
+     * @param length length of the region, or {@code -1} for the rest of the file at the time it is written
+     */
+    FileBody(File file, long offset, long length) {
+      this.file = file;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public long getContentLength() {
+      return length < 0 ? Math.max(0L, file.length() - offset) : length;
+    }
+
+    @Override
+    public void writeTo(OutputStream os) throws IOException {
+      if (offset == 0 && length < 0) {
+        Files.copy(file, os);
+        return;
+      }
+      ByteStreams.copy(toInputSupplier(), os);
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel channel) throws IOException {
+      FileInputStream is = new FileInputStream(file);
+      try {
+        FileChannel fileChannel = is.getChannel();
+        long end = length < 0 ? fileChannel.size() : offset + length;
+        long position = offset;
+        while (position < end) {
+          long transferred = fileChannel.transferTo(position, end - position, channel);
+          if (transferred <= 0 && position >= fileChannel.size()) {
+            throw new EOFException("File " + file + " ended at byte " + position + " before " + end);
+          }
+          position += transferred;
+        }
+      } finally {
+        Closeables.closeQuietly(is);
+      }
+    }
+
+    @Override
+    InputSupplier<? extends InputStream> toInputSupplier() {
+      InputSupplier<FileInputStream> supplier = Files.newInputStreamSupplier(file);
+      if (offset == 0 && length < 0) {
+        return supplier;
+      }
+      return ByteStreams.slice(supplier, offset, length < 0 ? Long.MAX_VALUE : length);
+    }
+  }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Immutable template of an {@link HttpRequest}, parsed once and expanded cheaply into many requests.
+ *
+ * <p>
+ * The template URI may contain placeholders such as {@code {name}} in its path, query and fragment, but not in
+ * its scheme or authority, which are parsed only once. Values are percent-encoded as UTF-8 for the part of the URI
+ * they appear in. User information in the authority, such as {@code user:password@}, is kept. The headers of the
+ * template are shared by every request expanded from it rather than copied.
+ * </p>
+ *
+ * <pre>
+ *   RequestTemplate template = RequestTemplate.builder(HttpMethod.GET, "http://host/v2/apps/{app}?limit={limit}")
+ *     .addHeader("Authorization", token)
+ *     .build();
+ *   HttpResponse response = HttpRequests.execute(template.expand("purchase", 10));
+ * </pre>
+ *
+ * <p>
+ * Since {@link URL#equals(Object)} and {@link URL#hashCode()} may resolve the host, expanded URLs should not be
+ * used as map keys; key on the template and its values instead.
+ * </p>
+ */
+@Immutable
+public final class RequestTemplate {
+
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+  private static final boolean[] PATH_SAFE = safeChars("!$&'()*+,;=:@");
+  private static final boolean[] QUERY_SAFE = safeChars("!$'()*,;:@/?");
+  private static final boolean[] FRAGMENT_SAFE = safeChars("!$&'()*+,;=:@/?");
+
+  private final HttpMethod method;
+  private final URL base;
+  private final String protocol;
+  private final String host;
+  private final int port;
+  private final HttpHeaders headers;
+  // The file part of the URI, split around placeholders: literals[i] precedes placeholder i
+  private final String[] literals;
+  private final int[] slots;
+  // The characters left unencoded in the part of the URI each placeholder is in
+  private final boolean[][] safeChars;
+  private final List<String> names;
+  private final int literalsLength;
+  private final URL url;
+
+  private RequestTemplate(HttpMethod method, URL base, HttpHeaders headers, String[] literals, int[] slots,
+                          boolean[][] safeChars, List<String> names) {
+    this.method = method;
+    this.base = base;
+    this.protocol = base.getProtocol();
+    this.host = base.getHost();
+    this.port = base.getPort();
+    this.headers = headers;
+    this.literals = literals;
+    this.slots = slots;
+    this.safeChars = safeChars;
+    this.names = names;
+
+    int length = 0;
+    for (String literal : literals) {
+      length += literal.length();
+    }
+    this.literalsLength = length;
+    this.url = slots.length == 0 ? base : null;
+  }
+
+  /**
+   * @param method method of the requests
+   * @param uriTemplate absolute URI of the requests, with {@code {name}} placeholders in its path, query and
+   *                    fragment
+   * @throws IllegalArgumentException if the template is malformed or has placeholders before its path
+   */
+  public static Builder builder(HttpMethod method, String uriTemplate) {
+    return new Builder(method, uriTemplate);
+  }
+
+  public HttpMethod getMethod() {
+    return method;
+  }
+
+  /**
+   * @return headers sent with every request expanded from this template
+   */
+  public HttpHeaders getHttpHeaders() {
+    return headers;
+  }
+
+  /**
+   * @return names of the placeholders, in the order their values are given to {@link #expand(Object...)}
+   */
+  public List<String> getPlaceholders() {
+    return names;
+  }
+
+  /**
+   * Expands this template into a request without body.
+   *
+   * @param values values of the placeholders, in the order of their first appearance in the URI
+   */
+  public HttpRequest expand(Object... values) {
+    return new HttpRequest(method, toURL(values), headers, null);
+  }
+
+  /**
+   * Expands this template into a request without body.
+   *
+   * @param values values of the placeholders, by name
+   */
+  public HttpRequest expand(Map<String, ?> values) {
+    return expand(toArray(values));
+  }
+
+  /**
+   * Expands this template into a builder, to add a body or headers specific to a request.
+   *
+   * @param values values of the placeholders, in the order of their first appearance in the URI
+   */
+  public HttpRequest.Builder builder(Object... values) {
+    return HttpRequest.builder(method, toURL(values)).addHeaders(headers);
+  }
+
+  /**
+   * Expands the URI of this template.
+   *
+   * @param values values of the placeholders, in the order of their first appearance in the URI
+   */
+  public URL toURL(Object... values) {
+    Preconditions.checkArgument(values.length == names.size(), "Expected %s values for placeholders %s, got %s",
+                                names.size(), names, values.length);
+    if (url != null) {
+      return url;
+    }
+
+    String[] strings = new String[values.length];
+    int length = literalsLength;
+    for (int i = 0; i < values.length; i++) {
+      Preconditions.checkArgument(values[i] != null, "No value for placeholder %s", names.get(i));
+      strings[i] = values[i].toString();
+      length += strings[i].length();
+    }
+
+    StringBuilder file = new StringBuilder(length + 16);
+    for (int i = 0; i < slots.length; i++) {
+      file.append(literals[i]);
+      encode(strings[slots[i]], safeChars[i], file);
+    }
+    file.append(literals[slots.length]);
+
+    try {
+      // Builds the URL from its parsed parts, so that only the file part is looked at again. That constructor has
+      // no user information, which is taken from the base URL instead.
+      if (base.getUserInfo() != null) {
+        return new URL(base, file.toString());
+      }
+      return new URL(protocol, host, port, file.toString());
+    } catch (MalformedURLException e) {
+      // Cannot happen, since the protocol was accepted when the template was parsed
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder uri = new StringBuilder(protocol).append("://").append(host);
+    if (port >= 0) {
+      uri.append(':').append(port);
+    }
+    for (int i = 0; i < slots.length; i++) {
+      uri.append(literals[i]).append('{').append(names.get(slots[i])).append('}');
+    }
+    uri.append(literals[slots.length]);
+    return Objects.toStringHelper(this)
+      .add("method", method)
+      .add("uri", uri)
+      .add("headers", headers)
+      .toString();
+  }
+
+  private Object[] toArray(Map<String, ?> values) {
+    Object[] array = new Object[names.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = values.get(names.get(i));
+    }
+    return array;
+  }
+
+  /**
+   * Appends a value, percent-encoding every UTF-8 byte that is not safe in its part of the URI.
+   */
+  private static void encode(String value, boolean[] safe, StringBuilder builder) {
+    int i = 0;
+    while (i < value.length() && value.charAt(i) < 128 && safe[value.charAt(i)]) {
+      i++;
+    }
+    if (i == value.length()) {
+      builder.append(value);
+      return;
+    }
+
+    builder.append(value, 0, i);
+    for (byte b : value.substring(i).getBytes(Charsets.UTF_8)) {
+      if (b >= 0 && safe[b]) {
+        builder.append((char) b);
+      } else {
+        builder.append('%').append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+      }
+    }
+  }
+
+  private static boolean[] safeChars(String delimiters) {
+    boolean[] safe = new boolean[128];
+    for (char c = 'a'; c <= 'z'; c++) {
+      safe[c] = true;
+      safe[Character.toUpperCase(c)] = true;
+    }
+    for (char c = '0'; c <= '9'; c++) {
+      safe[c] = true;
+    }
+    for (char c : "-._~".toCharArray()) {
+      safe[c] = true;
+    }
+    for (char c : delimiters.toCharArray()) {
+      safe[c] = true;
+    }
+    return safe;
+  }
+
+  /**
+   * Builder for {@link RequestTemplate}.
+   */
+  public static final class Builder {
+    private final HttpMethod method;
+    private final String uriTemplate;
+    private final HttpHeaders.Builder headers = HttpHeaders.builder();
+
+    Builder(HttpMethod method, String uriTemplate) {
+      this.method = method;
+      this.uriTemplate = uriTemplate;
+    }
+
+    public Builder addHeader(String name, String value) {
+      headers.add(name, value);
+      return this;
+    }
+
+    public Builder addHeaders(@Nullable Multimap<String, String> headers) {
+      if (headers != null) {
+        this.headers.addAll(headers);
+      }
+      return this;
+    }
+
+    public Builder addHeaders(HttpHeaders headers) {
+      this.headers.addAll(headers);
+      return this;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the template is malformed or has placeholders before its path
+     */
+    public RequestTemplate build() {
+      int schemeEnd = uriTemplate.indexOf("://");
+      Preconditions.checkArgument(schemeEnd > 0, "Template is not an absolute URI: %s", uriTemplate);
+      int fileStart = schemeEnd + 3;
+      while (fileStart < uriTemplate.length() && "/?#".indexOf(uriTemplate.charAt(fileStart)) < 0) {
+        fileStart++;
+      }
+      String authority = uriTemplate.substring(0, fileStart);
+      Preconditions.checkArgument(authority.indexOf('{') < 0,
+                                  "Placeholders are only allowed in the path, query and fragment: %s", uriTemplate);
+
+      URL base;
+      try {
+        base = new URL(authority);
+      } catch (MalformedURLException e) {
+        throw new IllegalArgumentException("Malformed template " + uriTemplate, e);
+      }
+
+      List<String> literals = Lists.newArrayList();
+      List<Integer> slots = Lists.newArrayList();
+      List<boolean[]> safeChars = Lists.newArrayList();
+      List<String> names = Lists.newArrayList();
+
+      // A '?' in the fragment does not start the query
+      int fragment = uriTemplate.indexOf('#', fileStart);
+      int query = uriTemplate.indexOf('?', fileStart);
+      if (fragment >= 0 && query > fragment) {
+        query = -1;
+      }
+      int start = fileStart;
+      int open = uriTemplate.indexOf('{', start);
+      while (open >= 0) {
+        int close = uriTemplate.indexOf('}', open);
+        Preconditions.checkArgument(close > open + 1, "Unterminated or empty placeholder at %s in %s",
+                                    open, uriTemplate);
+        String name = uriTemplate.substring(open + 1, close);
+        int slot = names.indexOf(name);
+        if (slot < 0) {
+          slot = names.size();
+          names.add(name);
+        }
+        literals.add(uriTemplate.substring(start, open));
+        slots.add(slot);
+        if (fragment >= 0 && fragment < open) {
+          safeChars.add(FRAGMENT_SAFE);
+        } else {
+          safeChars.add(query >= 0 && query < open ? QUERY_SAFE : PATH_SAFE);
+        }
+
+        start = close + 1;
+        open = uriTemplate.indexOf('{', start);
+      }
+      literals.add(uriTemplate.substring(start));
+
+      if (slots.isEmpty()) {
+        try {
+          base = new URL(uriTemplate);
+        } catch (MalformedURLException e) {
+          throw new IllegalArgumentException("Malformed template " + uriTemplate, e);
+        }
+      }
+
+      int[] slotArray = new int[slots.size()];
+      for (int i = 0; i < slotArray.length; i++) {
+        slotArray[i] = slots.get(i);
+      }
+      return new RequestTemplate(method, base, headers.build(), literals.toArray(new String[literals.size()]),
+                                 slotArray, safeChars.toArray(new boolean[safeChars.size()][]),
+                                 ImmutableList.copyOf(names));
+    }
+  }
+}
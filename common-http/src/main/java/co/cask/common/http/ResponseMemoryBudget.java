@@ -0,0 +1,246 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import co.cask.common.http.exception.ResponseMemoryException;
+import com.google.common.base.Preconditions;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Bounds the memory used by response bodies being buffered, across all requests that share the budget.
+ * See {@link HttpRequestConfig#withMemoryBudget(ResponseMemoryBudget)}.
+ *
+ * <p>
+ * Memory is reserved before it is allocated: a body with a {@code Content-Length} reserves its whole length up
+ * front, while a body of unknown length reserves each chunk as it is read, and the exactly sized copy of the
+ * body once its length is known. When the budget is exhausted, the read waits for memory to be released, up to
+ * the maximum wait, and then fails with a {@link ResponseMemoryException}. A body larger than the maximum
+ * response size fails right away, without reading it.
+ * </p>
+ *
+ * <p>
+ * Reserved memory is released once the {@link HttpResponse} holding the body is returned, so the budget bounds
+ * the memory of bodies in flight, not of responses kept by the caller.
+ * </p>
+ */
+@ThreadSafe
+public final class ResponseMemoryBudget {
+
+  private final long capacity;
+  private final long maxResponseSize;
+  private final long maxWait;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition released = lock.newCondition();
+  private final AtomicLong rejected = new AtomicLong();
+
+  // Guarded by lock
+  private long reserved;
+  private long waiting;
+  private int waiters;
+
+  private ResponseMemoryBudget(long capacity, long maxResponseSize, long maxWait) {
+    this.capacity = capacity;
+    this.maxResponseSize = maxResponseSize;
+    this.maxWait = maxWait;
+  }
+
+  /**
+   * @param capacity maximum number of bytes reserved at any time
+   */
+  public static Builder builder(long capacity) {
+    return new Builder(capacity);
+  }
+
+  /**
+   * @return maximum number of bytes reserved at any time
+   */
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return maximum size of a single response body, in bytes
+   */
+  public long getMaxResponseSize() {
+    return maxResponseSize;
+  }
+
+  /**
+   * @return number of bytes currently reserved by bodies being read
+   */
+  public long getReservedBytes() {
+    lock.lock();
+    try {
+      return reserved;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return number of bytes that reads are currently waiting to reserve
+   */
+  public long getWaitingBytes() {
+    lock.lock();
+    try {
+      return waiting;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return number of reads currently waiting for memory
+   */
+  public int getWaitingReads() {
+    lock.lock();
+    try {
+      return waiters;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return number of bodies that failed because they were too large or because the budget stayed exhausted
+   */
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  /**
+   * Fails if a body of the given size is larger than the maximum response size.
+   */
+  void checkSize(long size) throws ResponseMemoryException {
+    if (size > maxResponseSize) {
+      rejected.incrementAndGet();
+      throw new ResponseMemoryException("Response body of " + size + " bytes exceeds the maximum of "
+                                          + maxResponseSize + " bytes");
+    }
+  }
+
+  /**
+   * Reserves memory, waiting for it to be released if the budget is exhausted.
+   *
+   * @param bytes number of bytes to reserve
+   * @throws ResponseMemoryException if the memory cannot be reserved within the maximum wait
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  void reserve(long bytes) throws ResponseMemoryException, InterruptedIOException {
+    lock.lock();
+    try {
+      if (reserved + bytes <= capacity) {
+        reserved += bytes;
+        return;
+      }
+      if (bytes > capacity || maxWait == 0) {
+        rejected.incrementAndGet();
+        throw exhausted(bytes);
+      }
+
+      waiting += bytes;
+      waiters++;
+      try {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+        while (reserved + bytes > capacity) {
+          if (nanos <= 0) {
+            rejected.incrementAndGet();
+            throw exhausted(bytes);
+          }
+          nanos = released.awaitNanos(nanos);
+        }
+        reserved += bytes;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting to reserve " + bytes + " bytes");
+      } finally {
+        waiting -= bytes;
+        waiters--;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Releases memory reserved by {@link #reserve(long)}.
+   */
+  void release(long bytes) {
+    if (bytes == 0) {
+      return;
+    }
+    lock.lock();
+    try {
+      reserved -= bytes;
+      released.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private ResponseMemoryException exhausted(long bytes) {
+    return new ResponseMemoryException("Cannot reserve " + bytes + " bytes for a response body, " + reserved
+                                         + " of " + capacity + " bytes are reserved");
+  }
+
+  /**
+   * Builder for {@link ResponseMemoryBudget}.
+   */
+  public static final class Builder {
+    private final long capacity;
+    private long maxResponseSize;
+    private long maxWait = 10000;
+
+    Builder(long capacity) {
+      Preconditions.checkArgument(capacity > 0, "Capacity must be positive: %s", capacity);
+      this.capacity = capacity;
+      this.maxResponseSize = capacity;
+    }
+
+    /**
+     * @param maxResponseSize maximum size of a single response body, in bytes. Defaults to the capacity.
+     */
+    public Builder setMaxResponseSize(long maxResponseSize) {
+      Preconditions.checkArgument(maxResponseSize > 0 && maxResponseSize <= capacity,
+                                  "Maximum response size must be positive and at most the capacity: %s",
+                                  maxResponseSize);
+      this.maxResponseSize = maxResponseSize;
+      return this;
+    }
+
+    /**
+     * @param maxWait maximum time to wait for memory, in milliseconds. {@code 0} fails right away when the
+     *                budget is exhausted. Defaults to 10 seconds. Waits are bounded, so that reads that each
+     *                hold part of the budget while waiting for more cannot wait for each other forever.
+     */
+    public Builder setMaxWait(long maxWait) {
+      Preconditions.checkArgument(maxWait >= 0, "Maximum wait cannot be negative: %s", maxWait);
+      this.maxWait = maxWait;
+      return this;
+    }
+
+    public ResponseMemoryBudget build() {
+      return new ResponseMemoryBudget(capacity, maxResponseSize, maxWait);
+    }
+  }
+}
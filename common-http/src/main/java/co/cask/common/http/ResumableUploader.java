@@ -0,0 +1,356 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Uploads a file in chunks, each sent as a separate request with a {@code Content-Range} header, so that a failed
+ * upload resumes from the last acknowledged byte instead of from the start.
+ *
+ * <p>
+ * A chunk is acknowledged by a 2xx response, or by a {@code 308 Resume Incomplete} response with a
+ * {@code Range: bytes=0-N} header, which acknowledges the bytes up to {@code N}. The upload continues from
+ * {@code N + 1}, sending again whatever the server did not keep. A {@code 308} response without a {@code Range}
+ * header means that the server kept no bytes at all. A chunk that fails is retried; once all retries
+ * fail, the upload fails, and the {@link UploadCheckpoint} holds the offset up to which every chunk was
+ * acknowledged. Uploading the same file with the same checkpoint again starts from that offset.
+ * </p>
+ *
+ * <p>
+ * Chunks can be sent in parallel if the server accepts them in any order. Chunks after the checkpointed offset
+ * may then have been received already when an upload resumes, so the server must accept them being sent again.
+ * </p>
+ */
+@ThreadSafe
+public final class ResumableUploader {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResumableUploader.class);
+  private static final int RESUME_INCOMPLETE = 308;
+  private static final Pattern RANGE = Pattern.compile("bytes=0-(\\d+)");
+
+  private final HttpRequestConfig requestConfig;
+  private final long chunkSize;
+  private final int parallelism;
+  private final int maxRetries;
+  private final ExecutorService executor;
+
+  private ResumableUploader(HttpRequestConfig requestConfig, long chunkSize, int parallelism, int maxRetries,
+                            @Nullable ExecutorService executor) {
+    this.requestConfig = requestConfig;
+    this.chunkSize = chunkSize;
+    this.parallelism = parallelism;
+    this.maxRetries = maxRetries;
+    this.executor = executor;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Uploads a file, starting from the offset of the checkpoint.
+   *
+   * @param request the {@code PUT} or {@code POST} request the chunks are sent with. Its headers are sent with
+   *                every chunk, and its body is ignored.
+   * @param file the file to upload
+   * @param checkpoint the checkpoint to resume from and to update as chunks are acknowledged
+   * @return number of bytes sent by this call
+   * @throws IOException if a chunk cannot be uploaded, after retries
+   */
+  public long upload(HttpRequest request, File file, UploadCheckpoint checkpoint) throws IOException {
+    Preconditions.checkArgument(request.getMethod() == HttpMethod.PUT || request.getMethod() == HttpMethod.POST,
+                                "Only PUT and POST requests can upload chunks: %s", request.getMethod());
+
+    long length = file.length();
+    long offset = checkpoint.getOffset();
+    Preconditions.checkState(offset <= length, "Checkpoint offset %s is beyond the end of %s", offset, file);
+
+    if (length == 0) {
+      send(request, RequestBody.of(new byte[0]), "bytes */0", 0L, 0L);
+      return 0L;
+    }
+
+    if (parallelism == 1 || length - offset <= chunkSize) {
+      // The server may acknowledge less than it was sent, so the next chunk starts where it says it stopped
+      long position = offset;
+      int regressions = 0;
+      while (position < length) {
+        long acknowledged = sendRange(request, file, position, Math.min(position + chunkSize, length), length);
+        if (acknowledged < position && ++regressions > maxRetries) {
+          throw new IOException("Server dropped acknowledged bytes of " + file + " after offset " + acknowledged
+                                  + " too many times");
+        }
+        checkpoint.setOffset(acknowledged);
+        position = acknowledged;
+      }
+    } else {
+      List<Chunk> chunks = Lists.newArrayList();
+      for (long start = offset; start < length; start += chunkSize) {
+        chunks.add(new Chunk(start, Math.min(start + chunkSize, length)));
+      }
+      sendAll(request, file, chunks, length, new Acknowledgements(checkpoint, chunks));
+    }
+    return length - offset;
+  }
+
+  /**
+   * Sends chunks in parallel and waits for them. If one fails, the others are cancelled.
+   */
+  private void sendAll(final HttpRequest request, final File file, List<Chunk> chunks, final long length,
+                       final Acknowledgements acknowledgements) throws IOException {
+    ExecutorService executor = this.executor;
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(Math.min(parallelism, chunks.size()), new ThreadFactoryBuilder()
+        .setDaemon(true).setNameFormat("resumable-upload-%d").build());
+    }
+
+    List<Future<?>> futures = Lists.newArrayListWithCapacity(chunks.size());
+    try {
+      for (int i = 0; i < chunks.size(); i++) {
+        final int index = i;
+        final Chunk chunk = chunks.get(i);
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            // A range that ends before the chunk only tells that an earlier chunk is still missing
+            sendRange(request, file, chunk.start, chunk.end, length);
+            acknowledgements.acknowledge(index);
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while uploading " + file);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+      if (executor != this.executor) {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Sends a range of the file, retrying after failures that may be transient. When the server acknowledges part
+   * of the range, the rest is sent again.
+   *
+   * @param start offset of the first byte to send
+   * @param end offset after the last byte to send
+   * @return offset up to which the server acknowledged the file, which is at least {@code end} unless the server
+   *         reported having stopped before {@code start}
+   */
+  private long sendRange(HttpRequest request, File file, long start, long end, long length) throws IOException {
+    long position = start;
+    int attempt = 0;
+    while (true) {
+      String contentRange = "bytes " + position + "-" + (end - 1) + "/" + length;
+      IOException failure;
+      try {
+        long acknowledged = send(request, RequestBody.of(file, position, end - position), contentRange, end, length);
+        if (acknowledged >= end || acknowledged < start) {
+          return acknowledged;
+        }
+        if (acknowledged > position) {
+          LOG.debug("Server acknowledged {} up to {}, sending the rest", contentRange, acknowledged);
+          position = acknowledged;
+          continue;
+        }
+        failure = new IOException("Server acknowledged none of " + contentRange + " to " + request.getURL());
+      } catch (UploadFailedException e) {
+        throw e;
+      } catch (IOException e) {
+        failure = e;
+      }
+      if (++attempt > maxRetries || Thread.currentThread().isInterrupted()) {
+        throw failure;
+      }
+      LOG.debug("Retrying chunk {} of {} after failure", contentRange, request.getURL(), failure);
+    }
+  }
+
+  /**
+   * Sends one request.
+   *
+   * @param end offset after the last byte sent
+   * @return offset up to which the server acknowledged the file
+   */
+  private long send(HttpRequest request, RequestBody body, String contentRange,
+                    long end, long length) throws IOException {
+    HttpResponse response = HttpRequests.execute(HttpRequest.builder(request)
+                                                   .addHeader("Content-Range", contentRange)
+                                                   .withBody(body).build(), requestConfig);
+    int code = response.getResponseCode();
+    if (200 <= code && code < 300) {
+      return end;
+    }
+    if (code == RESUME_INCOMPLETE) {
+      String range = response.getHeader("Range");
+      if (range == null) {
+        // Nothing has been kept yet
+        return 0L;
+      }
+      Matcher matcher = RANGE.matcher(range.trim());
+      if (!matcher.matches()) {
+        throw new IOException("Invalid Range header in the response to " + contentRange + " to "
+                                + request.getURL() + ": " + range);
+      }
+      return Math.min(Long.parseLong(matcher.group(1)) + 1, length);
+    }
+    String message = "Failed to upload " + contentRange + " to " + request.getURL() + ": " + code + " "
+      + response.getResponseMessage();
+    if (code >= 500 || code == 408 || code == 429) {
+      throw new IOException(message);
+    }
+    throw new UploadFailedException(message);
+  }
+
+  /**
+   * A byte range of the file, with an exclusive end.
+   */
+  private static final class Chunk {
+    private final long start;
+    private final long end;
+
+    Chunk(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  /**
+   * Tracks which chunks sent in parallel were acknowledged, and advances the checkpoint over every chunk
+   * acknowledged without a gap before it.
+   */
+  private static final class Acknowledgements {
+    private final UploadCheckpoint checkpoint;
+    private final List<Chunk> chunks;
+    private final boolean[] acknowledged;
+    private int next;
+
+    Acknowledgements(UploadCheckpoint checkpoint, List<Chunk> chunks) {
+      this.checkpoint = checkpoint;
+      this.chunks = chunks;
+      this.acknowledged = new boolean[chunks.size()];
+    }
+
+    synchronized void acknowledge(int index) throws IOException {
+      acknowledged[index] = true;
+      int previous = next;
+      while (next < acknowledged.length && acknowledged[next]) {
+        next++;
+      }
+      if (next != previous) {
+        checkpoint.setOffset(chunks.get(next - 1).end);
+      }
+    }
+  }
+
+  /**
+   * Thrown for a response that rejects a chunk for good, which is not retried.
+   */
+  private static final class UploadFailedException extends IOException {
+    UploadFailedException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Builder for {@link ResumableUploader}.
+   */
+  public static final class Builder {
+    private HttpRequestConfig requestConfig = HttpRequestConfig.DEFAULT;
+    private long chunkSize = 8 * 1024 * 1024;
+    private int parallelism = 1;
+    private int maxRetries = 3;
+    private ExecutorService executor;
+
+    Builder() {
+    }
+
+    public Builder setRequestConfig(HttpRequestConfig requestConfig) {
+      this.requestConfig = requestConfig;
+      return this;
+    }
+
+    /**
+     * @param chunkSize size of each chunk, in bytes. Defaults to 8MB.
+     */
+    public Builder setChunkSize(long chunkSize) {
+      Preconditions.checkArgument(chunkSize > 0, "Chunk size must be positive: %s", chunkSize);
+      this.chunkSize = chunkSize;
+      return this;
+    }
+
+    /**
+     * @param parallelism maximum number of chunks sent concurrently. Defaults to 1, which sends chunks in order.
+     */
+    public Builder setParallelism(int parallelism) {
+      Preconditions.checkArgument(parallelism > 0, "Parallelism must be positive: %s", parallelism);
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    /**
+     * @param maxRetries number of times a failed chunk is retried. Defaults to 3.
+     */
+    public Builder setMaxRetries(int maxRetries) {
+      Preconditions.checkArgument(maxRetries >= 0, "Maximum retries cannot be negative: %s", maxRetries);
+      this.maxRetries = maxRetries;
+      return this;
+    }
+
+    /**
+     * @param executor executor to send parallel chunks with. By default, each upload uses its own threads.
+     */
+    public Builder setExecutor(ExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    public ResumableUploader build() {
+      return new ResumableUploader(requestConfig, chunkSize, parallelism, maxRetries, executor);
+    }
+  }
+}
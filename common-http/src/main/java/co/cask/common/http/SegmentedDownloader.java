@@ -0,0 +1,348 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Downloads a resource to a file over several connections, each fetching a byte range of the resource.
+ *
+ * <p>
+ * The resource is first probed with a {@code HEAD} request. If the server accepts byte ranges and reports the
+ * length, the file is preallocated to that length and the ranges are fetched concurrently, each written at its
+ * offset with positional writes. A segment that fails is retried on its own, starting from the last byte it wrote.
+ * Otherwise the resource is downloaded over a single connection.
+ * </p>
+ */
+@ThreadSafe
+public final class SegmentedDownloader {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SegmentedDownloader.class);
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  private final HttpRequestConfig requestConfig;
+  private final int segments;
+  private final long minSegmentSize;
+  private final int maxRetries;
+  private final ExecutorService executor;
+
+  private SegmentedDownloader(HttpRequestConfig requestConfig, int segments, long minSegmentSize,
+                              int maxRetries, @Nullable ExecutorService executor) {
+    this.requestConfig = requestConfig;
+    this.segments = segments;
+    this.minSegmentSize = minSegmentSize;
+    this.maxRetries = maxRetries;
+    this.executor = executor;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Downloads the resource of a {@code GET} request to a file, replacing the content of the file.
+   *
+   * @param request the request for the resource. Its headers are sent with every request made.
+   * @param file the file to write to
+   * @return number of bytes downloaded
+   * @throws IOException if the resource cannot be downloaded, after retries
+   */
+  public long download(HttpRequest request, File file) throws IOException {
+    Preconditions.checkArgument(request.getMethod() == HttpMethod.GET, "Only GET requests can be downloaded: %s",
+                                request.getMethod());
+
+    HttpResponse probe = HttpRequests.execute(HttpRequest.head(request.getURL())
+                                                .addHeaders(request.getHttpHeaders()).build(), requestConfig);
+    long length = getRangedLength(probe);
+    int count = length < 0 ? 1 : (int) Math.max(1, Math.min(segments, length / minSegmentSize));
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      FileChannel channel = raf.getChannel();
+      if (count == 1) {
+        raf.setLength(0);
+        Segment segment = new Segment(0, Long.MAX_VALUE);
+        fetch(request, channel, segment, null);
+        raf.setLength(segment.position);
+        return segment.position;
+      }
+
+      raf.setLength(length);
+      String validator = getValidator(probe);
+      List<Segment> parts = Lists.newArrayListWithCapacity(count);
+      long segmentSize = length / count;
+      for (int i = 0; i < count; i++) {
+        long start = i * segmentSize;
+        parts.add(new Segment(start, i == count - 1 ? length - 1 : start + segmentSize - 1));
+      }
+      fetchAll(request, channel, parts, validator);
+      return length;
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Fetches all segments concurrently and waits for them. If one fails, the others are cancelled.
+   */
+  private void fetchAll(final HttpRequest request, final FileChannel channel,
+                        List<Segment> parts, @Nullable final String validator) throws IOException {
+    ExecutorService executor = this.executor;
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(parts.size(), new ThreadFactoryBuilder()
+        .setDaemon(true).setNameFormat("segmented-download-%d").build());
+    }
+
+    List<Future<?>> futures = Lists.newArrayListWithCapacity(parts.size());
+    try {
+      for (final Segment segment : parts) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            fetch(request, channel, segment, validator);
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while downloading " + request.getURL());
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+      if (executor != this.executor) {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Fetches a segment, retrying from the last byte written when a request fails.
+   */
+  private void fetch(HttpRequest request, FileChannel channel, Segment segment,
+                     @Nullable String validator) throws IOException {
+    boolean ranged = segment.end != Long.MAX_VALUE;
+    int attempt = 0;
+    while (true) {
+      try {
+        fetchOnce(request, channel, segment, validator);
+        return;
+      } catch (IOException e) {
+        if (++attempt > maxRetries || Thread.currentThread().isInterrupted()) {
+          throw e;
+        }
+        LOG.debug("Retrying {} of {} from byte {} after failure", ranged ? segment : "download",
+                  request.getURL(), segment.position, e);
+        if (!ranged) {
+          // Without ranges, the resource can only be fetched again from the start
+          segment.position = 0;
+        }
+      }
+    }
+  }
+
+  private void fetchOnce(HttpRequest request, final FileChannel channel, final Segment segment,
+                         @Nullable String validator) throws IOException {
+    final boolean ranged = segment.end != Long.MAX_VALUE;
+    HttpRequest.Builder builder = HttpRequest.builder(request);
+    if (ranged) {
+      builder.addHeader("Range", "bytes=" + segment.position + "-" + segment.end);
+      if (validator != null) {
+        // Makes the server return the whole resource, which is rejected below, if it changed since the probe
+        builder.addHeader("If-Range", validator);
+      }
+    }
+
+    HttpResponse response = HttpRequests.execute(builder.build(), requestConfig, new BodyConsumer() {
+      @Override
+      public void consume(HttpResponse response, InputStream body) throws IOException {
+        if (ranged && response.getResponseCode() != 206) {
+          throw new IOException("Expected partial content for " + segment + " but got response code "
+                                  + response.getResponseCode());
+        }
+        copy(body, channel, segment);
+        if (ranged && segment.position <= segment.end) {
+          throw new IOException("Response ended at byte " + segment.position + " of " + segment);
+        }
+      }
+    });
+    if (!isSuccessful(response.getResponseCode())) {
+      throw new IOException("Failed to download " + request.getURL() + ": " + response.getResponseCode()
+                              + " " + response.getResponseMessage());
+    }
+  }
+
+  /**
+   * Copies a body to the file at the position of a segment, advancing the position as bytes are written.
+   */
+  private void copy(InputStream body, FileChannel channel, Segment segment) throws IOException {
+    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+    int len = body.read(buffer);
+    while (len >= 0) {
+      // Ignores anything beyond the end of the range
+      int limit = (int) Math.min(len - 1, segment.end - segment.position) + 1;
+      ByteBuffer src = ByteBuffer.wrap(buffer, 0, Math.max(limit, 0));
+      while (src.hasRemaining()) {
+        segment.position += channel.write(src, segment.position);
+      }
+      len = body.read(buffer);
+    }
+  }
+
+  /**
+   * @return length of the resource if the server accepts byte ranges for it, or {@code -1} otherwise
+   */
+  private long getRangedLength(HttpResponse probe) {
+    if (!isSuccessful(probe.getResponseCode())) {
+      return -1L;
+    }
+    HttpHeaders headers = probe.getHttpHeaders();
+    String acceptRanges = headers.getFirst("Accept-Ranges");
+    String contentLength = headers.getFirst("Content-Length");
+    if (acceptRanges == null || !"bytes".equalsIgnoreCase(acceptRanges.trim()) || contentLength == null) {
+      return -1L;
+    }
+    try {
+      return Long.parseLong(contentLength.trim());
+    } catch (NumberFormatException e) {
+      return -1L;
+    }
+  }
+
+  /**
+   * @return a strong entity tag or the last modification date of the resource, for use with {@code If-Range}
+   */
+  @Nullable
+  private String getValidator(HttpResponse probe) {
+    String etag = probe.getHttpHeaders().getFirst("ETag");
+    if (etag != null && !etag.startsWith("W/")) {
+      return etag;
+    }
+    return probe.getHttpHeaders().getFirst("Last-Modified");
+  }
+
+  private static boolean isSuccessful(int responseCode) {
+    return 200 <= responseCode && responseCode < 300;
+  }
+
+  /**
+   * Byte range of the resource, and the position up to which it was written.
+   */
+  private static final class Segment {
+    private final long start;
+    private final long end;
+    private volatile long position;
+
+    Segment(long start, long end) {
+      this.start = start;
+      this.end = end;
+      this.position = start;
+    }
+
+    @Override
+    public String toString() {
+      return "range " + start + "-" + end;
+    }
+  }
+
+  /**
+   * Builder for {@link SegmentedDownloader}.
+   */
+  public static final class Builder {
+    private HttpRequestConfig requestConfig = HttpRequestConfig.DEFAULT;
+    private int segments = 4;
+    private long minSegmentSize = 1024 * 1024;
+    private int maxRetries = 3;
+    private ExecutorService executor;
+
+    Builder() {
+    }
+
+    public Builder setRequestConfig(HttpRequestConfig requestConfig) {
+      this.requestConfig = requestConfig;
+      return this;
+    }
+
+    /**
+     * @param segments maximum number of ranges fetched concurrently. Defaults to 4.
+     */
+    public Builder setSegments(int segments) {
+      Preconditions.checkArgument(segments > 0, "Segments must be positive: %s", segments);
+      this.segments = segments;
+      return this;
+    }
+
+    /**
+     * @param minSegmentSize minimum size of a range, in bytes. Smaller resources are fetched with fewer ranges.
+     *                       Defaults to 1MB.
+     */
+    public Builder setMinSegmentSize(long minSegmentSize) {
+      Preconditions.checkArgument(minSegmentSize > 0, "Minimum segment size must be positive: %s", minSegmentSize);
+      this.minSegmentSize = minSegmentSize;
+      return this;
+    }
+
+    /**
+     * @param maxRetries number of times a failed segment is retried. Defaults to 3.
+     */
+    public Builder setMaxRetries(int maxRetries) {
+      Preconditions.checkArgument(maxRetries >= 0, "Maximum retries cannot be negative: %s", maxRetries);
+      this.maxRetries = maxRetries;
+      return this;
+    }
+
+    /**
+     * @param executor executor to fetch segments with. By default, each download uses its own threads.
+     */
+    public Builder setExecutor(ExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    public SegmentedDownloader build() {
+      return new SegmentedDownloader(requestConfig, segments, minSegmentSize, maxRetries, executor);
+    }
+  }
+}
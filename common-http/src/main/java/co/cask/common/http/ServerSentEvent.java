@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Objects;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An event received from an {@link EventSource}. For a newline-delimited stream, each line is an event of type
+ * {@code message} without an id.
+ */
+@Immutable
+public final class ServerSentEvent {
+
+  private final String id;
+  private final String type;
+  private final String data;
+
+  public ServerSentEvent(@Nullable String id, String type, String data) {
+    this.id = id;
+    this.type = type;
+    this.data = data;
+  }
+
+  /**
+   * @return the last event id the server set, or {@code null} if it did not set one
+   */
+  @Nullable
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * @return type of the event, which is {@code message} unless the server named it
+   */
+  public String getType() {
+    return type;
+  }
+
+  public String getData() {
+    return data;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    ServerSentEvent other = (ServerSentEvent) o;
+    return Objects.equal(id, other.id) && type.equals(other.type) && data.equals(other.data);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(id, type, data);
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("id", id)
+      .add("type", type)
+      .add("data", data)
+      .toString();
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Executes {@link HttpRequest}s over its own pool of HTTP/1.1 connections, instead of the connections of
+ * {@link java.net.HttpURLConnection}.
+ *
+ * <p>
+ * Hosts are connected to by racing connection attempts to their IPv6 and IPv4 addresses (RFC 8305), so that a
+ * broken address family costs the connection attempt delay, 250 milliseconds by default, instead of the whole
+ * connect timeout. Connections are kept alive and reused once the body of a response has been read, see
+ * {@link StreamingResponse#close()}. Proxies are not supported.
+ * </p>
+ *
+ * <p>
+ * Requests are sent with this transport through {@link HttpRequests} once it is set on their configuration with
+ * {@link HttpRequestConfig#withTransport(HttpTransport)}. The transport should be closed once it is no longer used.
+ * </p>
+ */
+@ThreadSafe
+public final class SocketTransport extends PooledTransport {
+
+  private final DualStackConnector connector;
+
+  private SocketTransport(long connectionAttemptDelay, int maxIdleConnections, long keepAlive) {
+    super(maxIdleConnections, keepAlive);
+    this.connector = new DualStackConnector(connectionAttemptDelay);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return the route of connections a request can be sent on. Connections that verify certificates are not
+   *         shared with those that do not.
+   */
+  @Override
+  String getRoute(URL url, HttpRequestConfig requestConfig) {
+    Preconditions.checkArgument("http".equals(url.getProtocol()) || "https".equals(url.getProtocol()),
+                                "Only http and https are supported: %s", url);
+    int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+    return url.getProtocol() + "://" + url.getHost() + ":" + port + (requestConfig.isVerifySSLCert() ? "" : "/!");
+  }
+
+  @Override
+  HttpConnection connect(HttpRequest request, String route, HttpRequestConfig requestConfig,
+                         int readTimeout) throws IOException {
+    URL url = request.getURL();
+    int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+    HttpEventListener eventListener = requestConfig.getEventListener();
+
+    if (eventListener != null) {
+      eventListener.dnsStart(request, url.getHost(), System.nanoTime());
+    }
+    List<InetAddress> addresses = Arrays.asList(InetAddress.getAllByName(url.getHost()));
+    if (eventListener != null) {
+      eventListener.dnsEnd(request, url.getHost(), addresses, System.nanoTime());
+      eventListener.connectStart(request, System.nanoTime());
+    }
+    SocketChannel channel = connector.connect(DualStackConnector.sort(addresses), port,
+                                              requestConfig.getConnectTimeout());
+    try {
+      Socket socket = channel.socket();
+      if (eventListener != null) {
+        eventListener.connectEnd(request, socket.getRemoteSocketAddress(), System.nanoTime());
+      }
+      socket.setTcpNoDelay(true);
+      socket.setSoTimeout(readTimeout);
+      if (!"https".equals(url.getProtocol())) {
+        return new HttpConnection(route, channel, socket, socket.getInputStream(), socket.getOutputStream());
+      }
+
+      if (eventListener != null) {
+        eventListener.tlsStart(request, System.nanoTime());
+      }
+      SSLSocket sslSocket = (SSLSocket) getSocketFactory(requestConfig).createSocket(socket, url.getHost(),
+                                                                                     port, true);
+      if (requestConfig.isVerifySSLCert()) {
+        enableHostnameVerification(sslSocket);
+      }
+      sslSocket.startHandshake();
+      if (eventListener != null) {
+        eventListener.tlsEnd(request, System.nanoTime());
+      }
+      return new HttpConnection(route, channel, sslSocket, sslSocket.getInputStream(), sslSocket.getOutputStream());
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private SSLSocketFactory getSocketFactory(HttpRequestConfig requestConfig) throws IOException {
+    if (requestConfig.isVerifySSLCert()) {
+      return HttpsURLConnection.getDefaultSSLSocketFactory();
+    }
+    try {
+      return HttpRequests.getTrustAllSocketFactory();
+    } catch (GeneralSecurityException e) {
+      throw new SSLException("Failed to disable SSL certificate check", e);
+    }
+  }
+
+  /**
+   * Makes the handshake check that the certificate matches the host. The check is only available on Java 7
+   * and later, so certificates cannot be verified on earlier versions.
+   */
+  private void enableHostnameVerification(SSLSocket socket) throws SSLException {
+    try {
+      SSLParameters parameters = socket.getSSLParameters();
+      Method method = SSLParameters.class.getMethod("setEndpointIdentificationAlgorithm", String.class);
+      method.invoke(parameters, "HTTPS");
+      socket.setSSLParameters(parameters);
+    } catch (Exception e) {
+      throw new SSLException("Hostname verification is not supported by this Java version", e);
+    }
+  }
+
+  /**
+   * Builder for {@link SocketTransport}.
+   */
+  public static final class Builder {
+    private long connectionAttemptDelay = 250;
+    private int maxIdleConnections = 5;
+    private long keepAlive = 60000;
+
+    Builder() {
+    }
+
+    /**
+     * @param connectionAttemptDelay time to wait for a connection attempt before also trying the next address of
+     *                               the host, in milliseconds. Defaults to 250 milliseconds.
+     */
+    public Builder setConnectionAttemptDelay(long connectionAttemptDelay) {
+      Preconditions.checkArgument(connectionAttemptDelay >= 0, "Connection attempt delay cannot be negative: %s",
+                                  connectionAttemptDelay);
+      this.connectionAttemptDelay = connectionAttemptDelay;
+      return this;
+    }
+
+    /**
+     * @param maxIdleConnections maximum number of idle connections kept per host. Defaults to 5.
+     */
+    public Builder setMaxIdleConnections(int maxIdleConnections) {
+      Preconditions.checkArgument(maxIdleConnections >= 0, "Maximum idle connections cannot be negative: %s",
+                                  maxIdleConnections);
+      this.maxIdleConnections = maxIdleConnections;
+      return this;
+    }
+
+    /**
+     * @param keepAlive maximum time a connection is kept idle, in milliseconds. Defaults to 1 minute.
+     */
+    public Builder setKeepAlive(long keepAlive) {
+      Preconditions.checkArgument(keepAlive >= 0, "Keep alive cannot be negative: %s", keepAlive);
+      this.keepAlive = keepAlive;
+      return this;
+    }
+
+    public SocketTransport build() {
+      return new SocketTransport(connectionAttemptDelay, maxIdleConnections, keepAlive);
+    }
+  }
+}
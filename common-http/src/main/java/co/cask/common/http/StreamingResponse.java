@@ -0,0 +1,439 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import co.cask.common.io.BufferPool;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A response whose status and headers have been received, and whose body is read from the connection on demand.
+ * See {@link HttpRequests#executeStreaming(HttpRequest, HttpRequestConfig)}.
+ *
+ * <p>
+ * The response must be closed. Closing it discards the unread part of the body as cheaply as possible: a small
+ * remainder is read and dropped, so that the connection can be reused, while a large or unbounded remainder is
+ * not read and the connection is not reused.
+ * </p>
+ */
+@NotThreadSafe
+public final class StreamingResponse implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StreamingResponse.class);
+
+  // Unread remainders up to this size are drained on close, so that the connection can be reused
+  private static final int MAX_DRAIN_SIZE = 64 * 1024;
+
+  // Scratch buffers for reading bodies of unknown length
+  private static final int MIN_CHUNK_SIZE = 4096;
+  private static final BufferPool BUFFER_POOL = new BufferPool(MIN_CHUNK_SIZE, 256 * 1024, 64);
+
+  private final HttpResponse head;
+  private final InputStream connectionBody;
+  private final BodyInputStream body;
+  private final long contentLength;
+  private final ResponseMemoryBudget memoryBudget;
+  private final Releaser releaser;
+  private boolean closed;
+  private HttpRequest request;
+  private HttpEventListener eventListener;
+  private HttpMetrics.Series metricsSeries;
+
+  /**
+   * Creates a response for an {@link HttpTransport}.
+   *
+   * @param responseCode status code of the response
+   * @param responseMessage reason phrase of the response
+   * @param headers headers of the response
+   * @param body the body stream of the connection
+   * @param contentLength length of the body, or {@code -1} if unknown
+   * @param requestConfig configuration of the request, whose memory budget the body is buffered within
+   * @param releaser releases the connection once the response is closed
+   */
+  public StreamingResponse(int responseCode, String responseMessage, HttpHeaders headers, InputStream body,
+                           long contentLength, HttpRequestConfig requestConfig, Releaser releaser) {
+    this(new HttpResponse(responseCode, responseMessage, new byte[0], headers), body, contentLength,
+         requestConfig.getMemoryBudget(), releaser);
+  }
+
+  /**
+   * @param head status and headers of the response, with an empty body
+   * @param body the body stream of the connection
+   * @param contentLength length of the body, or {@code -1} if unknown
+   * @param memoryBudget budget to buffer the body within, or {@code null} if buffering is unbounded
+   * @param releaser releases the connection once the response is closed
+   */
+  StreamingResponse(HttpResponse head, InputStream body, long contentLength,
+                    @Nullable ResponseMemoryBudget memoryBudget, Releaser releaser) {
+    this.head = head;
+    this.connectionBody = body;
+    this.body = new BodyInputStream(body);
+    this.contentLength = contentLength;
+    this.memoryBudget = memoryBudget;
+    this.releaser = releaser;
+  }
+
+  public int getResponseCode() {
+    return head.getResponseCode();
+  }
+
+  public String getResponseMessage() {
+    return head.getResponseMessage();
+  }
+
+  public Multimap<String, String> getHeaders() {
+    return head.getHeaders();
+  }
+
+  public HttpHeaders getHttpHeaders() {
+    return head.getHttpHeaders();
+  }
+
+  @Nullable
+  public String getHeader(String name) {
+    return head.getHeader(name);
+  }
+
+  /**
+   * @return length of the body, or {@code -1} if it is unknown
+   */
+  public long getContentLength() {
+    return contentLength;
+  }
+
+  /**
+   * @return the body, read from the connection as it is read from the stream. Closing the stream closes
+   *         this response.
+   */
+  public InputStream getBody() {
+    return body;
+  }
+
+  /**
+   * Reads the unread part of the body and closes this response. If the request was configured with a
+   * {@link ResponseMemoryBudget}, the body is read within that budget.
+   *
+   * @return a response with the unread part of the body
+   * @throws co.cask.common.http.exception.ResponseMemoryException if the body cannot be read within the budget.
+   *         The connection is then released without reading the rest of the body.
+   */
+  public HttpResponse toHttpResponse() throws IOException {
+    boolean read = false;
+    try {
+      long remaining = contentLength < 0 ? -1L : contentLength - body.count;
+      HttpResponse response = new HttpResponse(head, readBody(remaining));
+      read = true;
+      return response;
+    } finally {
+      if (read) {
+        close();
+      } else {
+        abort();
+      }
+    }
+  }
+
+  /**
+   * Closes this response, discarding the unread part of the body. A remainder of at most 64KB is read and dropped,
+   * so that the connection can be reused. Otherwise the connection is released without reading it. Of a body of
+   * unknown length, only the part already received is read, so that closing never waits for the server.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    boolean drained = false;
+    try {
+      drained = drain();
+    } catch (IOException e) {
+      LOG.debug("Failed to discard the body of the response", e);
+    } finally {
+      releaser.release(drained);
+      reportEnd(drained);
+    }
+  }
+
+  /**
+   * Closes this response without reading any more of the body.
+   */
+  public void abort() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    releaser.release(false);
+    reportEnd(false);
+  }
+
+  /**
+   * Reports the end of the body of the response to the given request to a listener, and counts the bytes of the
+   * body in metrics.
+   */
+  void observe(HttpRequest request, @Nullable HttpEventListener eventListener,
+               @Nullable HttpMetrics.Series metricsSeries) {
+    this.request = request;
+    this.eventListener = eventListener;
+    this.metricsSeries = metricsSeries;
+  }
+
+  /**
+   * @return true if the whole body has been read
+   */
+  boolean isBodyRead() {
+    return body.eof || (contentLength >= 0 && body.count >= contentLength);
+  }
+
+  /**
+   * @return status and headers of the response, with an empty body
+   */
+  HttpResponse getHead() {
+    return head;
+  }
+
+  /**
+   * Reports the end of the body to the event listener and metrics, once.
+   */
+  private void reportEnd(boolean complete) {
+    if (eventListener != null) {
+      HttpEventListener listener = eventListener;
+      eventListener = null;
+      listener.responseEnd(request, body.count, complete, System.nanoTime());
+    }
+    if (metricsSeries != null) {
+      metricsSeries.addBytesReceived(body.count);
+      metricsSeries = null;
+    }
+  }
+
+  /**
+   * Reports a failure to read the body to the event listener.
+   */
+  private void reportFailure(IOException failure) {
+    if (eventListener != null) {
+      eventListener.requestFailed(request, failure, System.nanoTime());
+    }
+  }
+
+  /**
+   * Reads and drops the rest of the body if it is small. The rest of a body of unknown length is only read as far
+   * as it can be without blocking.
+   *
+   * @return true if the end of the body was reached
+   */
+  private boolean drain() throws IOException {
+    if (body.eof) {
+      return true;
+    }
+    if (contentLength >= 0 && contentLength - body.count > MAX_DRAIN_SIZE) {
+      return false;
+    }
+    byte[] buffer = BUFFER_POOL.acquire(MIN_CHUNK_SIZE);
+    try {
+      long drained = 0;
+      while (drained <= MAX_DRAIN_SIZE) {
+        int len;
+        if (contentLength >= 0) {
+          len = connectionBody.read(buffer);
+        } else {
+          // The end of a body of unknown length may never come, as with an idle event stream, so only what has
+          // already arrived is read
+          int available = connectionBody.available();
+          if (available <= 0) {
+            return false;
+          }
+          len = connectionBody.read(buffer, 0, Math.min(available, buffer.length));
+        }
+        if (len < 0) {
+          return true;
+        }
+        drained += len;
+      }
+      return false;
+    } finally {
+      BUFFER_POOL.release(buffer);
+    }
+  }
+
+  /**
+   * Reads a body. A body of known length is read into an array of exactly that size.
+   * Otherwise it is read into pooled chunks of growing size, which are copied into an exactly sized array once.
+   * Memory is reserved from the budget before each allocation, and released once the body is read.
+   */
+  private byte[] readBody(long contentLength) throws IOException {
+    long maxSize = memoryBudget == null ? Integer.MAX_VALUE : Math.min(memoryBudget.getMaxResponseSize(),
+                                                                        Integer.MAX_VALUE);
+    long reserved = 0;
+    try {
+      if (contentLength >= 0) {
+        checkSize(contentLength, maxSize);
+        reserved = reserve(contentLength);
+        byte[] content = new byte[(int) contentLength];
+        ByteStreams.readFully(body, content);
+        return content;
+      }
+
+      List<byte[]> chunks = Lists.newArrayList();
+      try {
+        long size = 0;
+        int chunkSize = MIN_CHUNK_SIZE;
+        while (true) {
+          reserved += reserve(chunkSize);
+          byte[] chunk = BUFFER_POOL.acquire(chunkSize);
+          chunks.add(chunk);
+          int len = ByteStreams.read(body, chunk, 0, chunk.length);
+          size += len;
+          checkSize(size, maxSize);
+          if (len < chunk.length) {
+            break;
+          }
+          chunkSize = Math.min(chunkSize << 1, BUFFER_POOL.getMaxSize());
+        }
+
+        reserved += reserve(size);
+        byte[] content = new byte[(int) size];
+        int offset = 0;
+        for (byte[] chunk : chunks) {
+          int len = (int) Math.min(chunk.length, size - offset);
+          System.arraycopy(chunk, 0, content, offset, len);
+          offset += len;
+        }
+        return content;
+      } finally {
+        for (byte[] chunk : chunks) {
+          BUFFER_POOL.release(chunk);
+        }
+      }
+    } finally {
+      if (memoryBudget != null) {
+        memoryBudget.release(reserved);
+      }
+    }
+  }
+
+  private void checkSize(long size, long maxSize) throws IOException {
+    if (memoryBudget != null) {
+      memoryBudget.checkSize(size);
+    } else if (size > maxSize) {
+      throw new IOException("Response body of " + size + " bytes is too large to buffer");
+    }
+  }
+
+  /**
+   * @return number of bytes reserved
+   */
+  private long reserve(long bytes) throws IOException {
+    if (memoryBudget == null) {
+      return 0L;
+    }
+    memoryBudget.reserve(bytes);
+    return bytes;
+  }
+
+  /**
+   * Releases the connection a response is read from, for {@link HttpTransport} implementations.
+   */
+  public interface Releaser {
+
+    /**
+     * @param drained true if the whole body was read, so that the connection can be reused
+     */
+    void release(boolean drained);
+  }
+
+  /**
+   * Body stream that counts the bytes read, and closes the response when closed.
+   */
+  private final class BodyInputStream extends FilterInputStream {
+    private long count;
+    private boolean eof;
+
+    BodyInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b;
+      try {
+        b = in.read();
+      } catch (IOException e) {
+        reportFailure(e);
+        throw e;
+      }
+      if (b < 0) {
+        setEof();
+      } else {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n;
+      try {
+        n = in.read(b, off, len);
+      } catch (IOException e) {
+        reportFailure(e);
+        throw e;
+      }
+      if (n < 0) {
+        setEof();
+      } else {
+        count += n;
+      }
+      return n;
+    }
+
+    private void setEof() {
+      if (!eof) {
+        eof = true;
+        reportEnd(true);
+      }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() {
+      StreamingResponse.this.close();
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
+
+/**
+ * The binary format of the request logs written by {@link TrafficRecorder} and read by {@link TrafficReplayer}.
+ *
+ * <p>
+ * A log starts with a magic number and a version, followed by one record per request: the time of the request
+ * since the recorder was created, in nanoseconds, the method, the URL, the headers and the body. Times and lengths
+ * are written as variable-length integers, and strings as modified UTF-8.
+ * </p>
+ */
+final class TrafficLog {
+
+  private static final int MAGIC = 0x43485452;
+  private static final int VERSION = 1;
+  private static final HttpMethod[] METHODS = HttpMethod.values();
+
+  private TrafficLog() { }
+
+  static void writeHeader(OutputStream os) throws IOException {
+    DataOutputStream out = new DataOutputStream(os);
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    out.flush();
+  }
+
+  static void readHeader(InputStream is) throws IOException {
+    DataInputStream in = new DataInputStream(is);
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a traffic log");
+    }
+    int version = in.readUnsignedByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported traffic log version " + version);
+    }
+  }
+
+  /**
+   * Writes a request.
+   *
+   * @param body the content of the request body, or {@code null} if it is not recorded. The positions of the buffers
+   *        are moved to their limits.
+   */
+  static void write(DataOutputStream out, long offsetNanos, HttpRequest request,
+                    @Nullable ByteBuffer[] body) throws IOException {
+    writeVarLong(out, offsetNanos);
+    out.writeByte(request.getMethod().ordinal());
+    out.writeUTF(request.getURL().toString());
+    HttpHeaders headers = request.getHttpHeaders();
+    writeVarLong(out, headers.size());
+    for (int i = 0; i < headers.size(); i++) {
+      out.writeUTF(headers.getName(i));
+      out.writeUTF(headers.getValue(i));
+    }
+    if (body == null) {
+      writeVarLong(out, 0L);
+      return;
+    }
+    long length = 0L;
+    for (ByteBuffer buffer : body) {
+      length += buffer.remaining();
+    }
+    writeVarLong(out, length + 1L);
+    byte[] chunk = null;
+    for (ByteBuffer buffer : body) {
+      if (buffer.hasArray()) {
+        out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        buffer.position(buffer.limit());
+        continue;
+      }
+      while (buffer.hasRemaining()) {
+        if (chunk == null) {
+          chunk = new byte[8192];
+        }
+        int size = Math.min(chunk.length, buffer.remaining());
+        buffer.get(chunk, 0, size);
+        out.write(chunk, 0, size);
+      }
+    }
+  }
+
+  /**
+   * Reads the next record.
+   *
+   * @return the record, or {@code null} at the end of the log
+   */
+  @Nullable
+  static Entry read(DataInputStream in) throws IOException {
+    long offsetNanos;
+    try {
+      offsetNanos = readVarLong(in);
+    } catch (EOFException e) {
+      return null;
+    }
+    HttpMethod method = METHODS[in.readUnsignedByte()];
+    HttpRequest.Builder builder = HttpRequest.builder(method, new URL(in.readUTF()));
+    for (long headers = readVarLong(in); headers > 0; headers--) {
+      builder.addHeader(in.readUTF(), in.readUTF());
+    }
+    long bodyLength = readVarLong(in) - 1;
+    if (bodyLength >= 0) {
+      byte[] body = new byte[(int) bodyLength];
+      in.readFully(body);
+      builder.withBody(RequestBody.of(body));
+    }
+    return new Entry(offsetNanos, builder.build());
+  }
+
+  private static void writeVarLong(DataOutput out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static long readVarLong(DataInput in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable-length integer");
+  }
+
+  /**
+   * A recorded request, with its time since the recorder was created.
+   */
+  static final class Entry {
+    private final long offsetNanos;
+    private final HttpRequest request;
+
+    Entry(long offsetNanos, HttpRequest request) {
+      this.offsetNanos = offsetNanos;
+      this.request = request;
+    }
+
+    long getOffsetNanos() {
+      return offsetNanos;
+    }
+
+    HttpRequest getRequest() {
+      return request;
+    }
+  }
+}
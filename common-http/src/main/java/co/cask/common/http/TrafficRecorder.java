@@ -0,0 +1,251 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Records the requests executed by {@link HttpRequests}, with their timing, to a binary log that
+ * {@link TrafficReplayer} replays. The recorder is an {@link HttpEventListener}, set with
+ * {@link HttpRequestConfig#withEventListener(HttpEventListener)}.
+ *
+ * <p>
+ * Requests are handed to a background thread that encodes them and writes the log, so callers neither copy
+ * request bodies nor wait for the disk. When the queue of that thread is full, requests are dropped and counted,
+ * see {@link #getDropped()}. Bodies backed by arrays or buffers, see {@link RequestBody#getBuffers()}, are recorded
+ * up to the maximum body size, by keeping a reference to their content until it is written. Their content must
+ * not change after the request is executed. Larger bodies, and bodies that would have to be read or serialized to
+ * be recorded, such as files, suppliers and JSON, are not, and their requests are recorded without a body.
+ * </p>
+ *
+ * <p>
+ * The recorder must be closed, which writes the requests still queued.
+ * </p>
+ */
+@ThreadSafe
+public final class TrafficRecorder extends HttpEventListener implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TrafficRecorder.class);
+
+  // Marks the end of the queue
+  private static final Record END = new Record(0L, null, null);
+
+  private final long startTime = System.nanoTime();
+  private final int maxBodySize;
+  private final BlockingQueue<Record> queue;
+  private final DataOutputStream out;
+  private final Thread writer;
+  private final AtomicLong recorded = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  // Set when the recorder is closed or writing the log failed, after which requests are not recorded
+  private volatile boolean stopped;
+  private volatile boolean closed;
+  private volatile IOException failure;
+
+  /**
+   * @param os stream to write the log to, which is closed with the recorder
+   */
+  TrafficRecorder(OutputStream os, int queueSize, int maxBodySize) throws IOException {
+    this.maxBodySize = maxBodySize;
+    this.queue = new ArrayBlockingQueue<Record>(queueSize);
+    this.out = new DataOutputStream(new BufferedOutputStream(os, 64 * 1024));
+    try {
+      TrafficLog.writeHeader(out);
+    } catch (IOException e) {
+      Closeables.closeQuietly(out);
+      throw e;
+    }
+    this.writer = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("traffic-recorder").build()
+      .newThread(new Runnable() {
+        @Override
+        public void run() {
+          write();
+        }
+      });
+    writer.start();
+  }
+
+  /**
+   * @param file file to write the log to, which is replaced if it exists
+   */
+  public static Builder builder(File file) {
+    return new Builder(file);
+  }
+
+  @Override
+  public void requestStart(HttpRequest request, long nanoTime) {
+    if (stopped) {
+      return;
+    }
+    Record record = new Record(Math.max(0L, nanoTime - startTime), request, getBuffers(request.getRequestBody()));
+    if (queue.offer(record)) {
+      recorded.incrementAndGet();
+    } else {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * @return number of requests recorded so far
+   */
+  public long getRecorded() {
+    return recorded.get();
+  }
+
+  /**
+   * @return number of requests that could not be recorded, because the queue was full
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Stops recording, and waits for the queued requests to be written.
+   *
+   * @throws IOException if the log could not be written
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    stopped = true;
+    try {
+      // A writer that failed takes no more records, so the queue may stay full
+      while (!queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+        if (!writer.isAlive()) {
+          break;
+        }
+      }
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      writer.interrupt();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  @Nullable
+  private ByteBuffer[] getBuffers(@Nullable RequestBody body) {
+    if (body == null || body.getContentLength() < 0 || body.getContentLength() > maxBodySize) {
+      return null;
+    }
+    return body.getBuffers();
+  }
+
+  private void write() {
+    try {
+      try {
+        Record record = queue.take();
+        while (record != END) {
+          TrafficLog.write(out, record.offsetNanos, record.request, record.body);
+          // Flushes whenever the queue runs empty, so that the log is current while traffic is light
+          record = queue.poll();
+          if (record == null) {
+            out.flush();
+            record = queue.take();
+          }
+        }
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      LOG.error("Failed to write the traffic log, recording stopped", e);
+      failure = e;
+      stopped = true;
+      queue.clear();
+    } catch (InterruptedException e) {
+      Closeables.closeQuietly(out);
+    }
+  }
+
+  /**
+   * A request waiting to be written, with the content of its body if it is recorded.
+   */
+  private static final class Record {
+    private final long offsetNanos;
+    private final HttpRequest request;
+    private final ByteBuffer[] body;
+
+    Record(long offsetNanos, HttpRequest request, @Nullable ByteBuffer[] body) {
+      this.offsetNanos = offsetNanos;
+      this.request = request;
+      this.body = body;
+    }
+  }
+
+  /**
+   * Builder for {@link TrafficRecorder}.
+   */
+  public static final class Builder {
+    private final File file;
+    private int queueSize = 8192;
+    private int maxBodySize = 64 * 1024;
+
+    Builder(File file) {
+      Preconditions.checkNotNull(file, "File cannot be null");
+      this.file = file;
+    }
+
+    /**
+     * @param queueSize maximum number of requests waiting to be written. Defaults to 8192.
+     */
+    public Builder setQueueSize(int queueSize) {
+      Preconditions.checkArgument(queueSize > 0, "Queue size must be positive: %s", queueSize);
+      this.queueSize = queueSize;
+      return this;
+    }
+
+    /**
+     * @param maxBodySize maximum size of the request bodies recorded, in bytes. Defaults to 64KB.
+     */
+    public Builder setMaxBodySize(int maxBodySize) {
+      Preconditions.checkArgument(maxBodySize >= 0, "Maximum body size cannot be negative: %s", maxBodySize);
+      this.maxBodySize = maxBodySize;
+      return this;
+    }
+
+    /**
+     * Creates the log file and starts recording.
+     */
+    public TrafficRecorder build() throws IOException {
+      return new TrafficRecorder(new FileOutputStream(file), queueSize, maxBodySize);
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Preconditions;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import javax.annotation.Nullable;
+
+/**
+ * Replays a log written by {@link TrafficRecorder} through {@link HttpRequests}, at the recorded rate or a multiple
+ * of it, and reports the latency of the replayed requests.
+ *
+ * <p>
+ * Requests are sent open loop by a {@link LoadExecutor}: each is due at its recorded time, scaled by the rate
+ * multiplier, whether or not earlier requests have completed.
+ * </p>
+ */
+public final class TrafficReplayer {
+
+  private final File log;
+  private final double rateMultiplier;
+  private final int threads;
+  private final URL target;
+  private final HttpRequestConfig requestConfig;
+
+  private TrafficReplayer(File log, double rateMultiplier, int threads, @Nullable URL target,
+                          HttpRequestConfig requestConfig) {
+    this.log = log;
+    this.rateMultiplier = rateMultiplier;
+    this.threads = threads;
+    this.target = target;
+    this.requestConfig = requestConfig;
+  }
+
+  /**
+   * @param log the log to replay
+   */
+  public static Builder builder(File log) {
+    return new Builder(log);
+  }
+
+  /**
+   * Replays the whole log, and waits for all requests to complete.
+   *
+   * @return latencies and counts of the replayed requests
+   */
+  public LoadResult replay() throws IOException, InterruptedException {
+    LoadExecutor executor = new LoadExecutor(threads, "traffic-replayer-%d", requestConfig);
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+      long startTime = System.nanoTime();
+      try {
+        TrafficLog.readHeader(in);
+        long firstOffset = -1;
+        for (TrafficLog.Entry entry = TrafficLog.read(in); entry != null; entry = TrafficLog.read(in)) {
+          if (firstOffset < 0) {
+            firstOffset = entry.getOffsetNanos();
+          }
+          long dueTime = startTime + (long) ((entry.getOffsetNanos() - firstOffset) / rateMultiplier);
+          executor.executeWhenDue(retarget(entry.getRequest()), dueTime);
+        }
+      } finally {
+        in.close();
+      }
+      return executor.finish();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Sends a request to the target instead of the recorded host.
+   */
+  private HttpRequest retarget(HttpRequest request) throws MalformedURLException {
+    if (target == null) {
+      return request;
+    }
+    URL url = request.getURL();
+    URL retargeted = new URL(target.getProtocol(), target.getHost(), target.getPort(), url.getFile());
+    return HttpRequest.builder(request.getMethod(), retargeted)
+      .addHeaders(request.getHttpHeaders())
+      .withBody(request.getRequestBody())
+      .build();
+  }
+
+  /**
+   * Builder for {@link TrafficReplayer}.
+   */
+  public static final class Builder {
+    private final File log;
+    private double rateMultiplier = 1d;
+    private int threads = 64;
+    private URL target;
+    private HttpRequestConfig requestConfig = HttpRequestConfig.DEFAULT;
+
+    Builder(File log) {
+      Preconditions.checkNotNull(log, "Log cannot be null");
+      this.log = log;
+    }
+
+    /**
+     * @param rateMultiplier multiple of the recorded rate to replay at, such as {@code 2} to send requests twice
+     *                       as fast. Defaults to {@code 1}.
+     */
+    public Builder setRateMultiplier(double rateMultiplier) {
+      Preconditions.checkArgument(rateMultiplier > 0, "Rate multiplier must be positive: %s", rateMultiplier);
+      this.rateMultiplier = rateMultiplier;
+      return this;
+    }
+
+    /**
+     * @param threads maximum number of requests in flight. Defaults to 64.
+     */
+    public Builder setThreads(int threads) {
+      Preconditions.checkArgument(threads > 0, "Threads must be positive: %s", threads);
+      this.threads = threads;
+      return this;
+    }
+
+    /**
+     * @param target URL whose protocol, host and port the requests are sent to instead of the recorded ones
+     */
+    public Builder setTarget(URL target) {
+      this.target = Preconditions.checkNotNull(target, "Target cannot be null");
+      return this;
+    }
+
+    /**
+     * @param requestConfig configuration to execute the requests with. Defaults to
+     *                      {@link HttpRequestConfig#DEFAULT}.
+     */
+    public Builder setRequestConfig(HttpRequestConfig requestConfig) {
+      this.requestConfig = Preconditions.checkNotNull(requestConfig, "Request config cannot be null");
+      return this;
+    }
+
+    public TrafficReplayer build() {
+      return new TrafficReplayer(log, rateMultiplier, threads, target, requestConfig);
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * Executes {@link HttpRequest}s with {@link HttpURLConnection}, whose connections are kept alive in the
+ * process-wide pool of the JDK. This is the default {@link HttpTransport}.
+ */
+@ThreadSafe
+public final class URLConnectionTransport implements HttpTransport {
+
+  public static final URLConnectionTransport INSTANCE = new URLConnectionTransport();
+
+  private static final Logger LOG = LoggerFactory.getLogger(URLConnectionTransport.class);
+
+  // Request bodies up to this size are buffered by the connection instead of streamed
+  private static final int MAX_BUFFERED_BODY_SIZE = 64 * 1024;
+
+  private URLConnectionTransport() { }
+
+  @Override
+  public StreamingResponse executeStreaming(HttpRequest request,
+                                            HttpRequestConfig requestConfig) throws IOException {
+    String requestMethod = request.getMethod().name();
+    URL url = request.getURL();
+
+    HttpEventListener eventListener = requestConfig.getEventListener();
+    int readTimeout = AdaptiveTimeout.getReadTimeout(request, requestConfig);
+
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    conn.setRequestMethod(requestMethod);
+    conn.setReadTimeout(readTimeout);
+    conn.setConnectTimeout(requestConfig.getConnectTimeout());
+
+    HttpHeaders headers = request.getHttpHeaders();
+    for (int i = 0; i < headers.size(); i++) {
+      conn.setRequestProperty(headers.getName(i), headers.getValue(i));
+    }
+
+    RequestBody body = request.getRequestBody() == null ? null : request.getRequestBody().prepare();
+    if (body != null) {
+      conn.setDoOutput(true);
+      // Stream large bodies and bodies of unknown length, rather than letting the connection buffer all of it to
+      // compute the length. Small bodies are still buffered, which lets the connection resend them if a pooled
+      // keep-alive connection turns out to be closed.
+      long contentLength = body.getContentLength();
+      if (contentLength < 0 || contentLength > Integer.MAX_VALUE) {
+        conn.setChunkedStreamingMode(0);
+      } else if (contentLength > MAX_BUFFERED_BODY_SIZE) {
+        conn.setFixedLengthStreamingMode((int) contentLength);
+      }
+    }
+
+    if (conn instanceof HttpsURLConnection && !requestConfig.isVerifySSLCert()) {
+      // Certificate checks are disabled for HTTPS connection.
+      LOG.debug("Disabling SSL certificate check for {}", request.getURL());
+      try {
+        HttpRequests.disableCertCheck((HttpsURLConnection) conn);
+      } catch (Exception e) {
+        LOG.error("Got exception while disabling SSL certificate check for {}", request.getURL());
+      }
+    }
+
+    // Resolves the host, connects and completes the TLS handshake, unless a kept alive connection is reused
+    if (eventListener != null) {
+      eventListener.connectStart(request, System.nanoTime());
+    }
+    conn.connect();
+    if (eventListener != null) {
+      eventListener.connectEnd(request, null, System.nanoTime());
+    }
+
+    boolean opened = false;
+    try {
+      if (body != null) {
+        OutputStream os = conn.getOutputStream();
+        try {
+          body.writeTo(os);
+        } finally {
+          os.close();
+        }
+      }
+      if (eventListener != null) {
+        // Without a body, the request is only written once the response is awaited
+        eventListener.requestWritten(request, System.nanoTime());
+      }
+
+      if (requestConfig.getAdaptiveTimeout() != null) {
+        awaitResponse(conn, request, requestConfig, readTimeout);
+      }
+
+      StreamingResponse response = openResponse(conn, request, requestConfig.getMemoryBudget());
+      opened = true;
+      return response;
+    } finally {
+      if (!opened) {
+        conn.disconnect();
+      }
+    }
+  }
+
+  /**
+   * Waits for the response status and records the time spent waiting with the {@link AdaptiveTimeout}.
+   */
+  private static void awaitResponse(HttpURLConnection conn, HttpRequest request,
+                                    HttpRequestConfig requestConfig, int readTimeout) throws IOException {
+    long startTime = System.nanoTime();
+    try {
+      conn.getResponseCode();
+    } catch (SocketTimeoutException e) {
+      AdaptiveTimeout.recordWait(request, requestConfig, readTimeout, startTime);
+      throw e;
+    }
+    AdaptiveTimeout.recordWait(request, requestConfig, readTimeout, startTime);
+  }
+
+  /**
+   * Receives the status and headers of a response, and opens its body without reading it.
+   */
+  private static StreamingResponse openResponse(HttpURLConnection conn, HttpRequest request,
+                                                @Nullable ResponseMemoryBudget memoryBudget) throws IOException {
+    InputStream body = null;
+    try {
+      if (HttpRequests.isSuccessful(conn.getResponseCode())) {
+        body = conn.getInputStream();
+      }
+    } catch (FileNotFoundException e) {
+      // Server returns 404. Hence handle as error flow below. Intentional having empty catch block.
+    }
+
+    boolean errorStream = false;
+    if (body == null) {
+      // Non 2xx response
+      body = conn.getErrorStream();
+      errorStream = true;
+    }
+
+    // The Content-Length of a response to HEAD describes the body a GET would have returned
+    long contentLength = request.getMethod() == HttpMethod.HEAD ? 0 : conn.getContentLength();
+    if (body == null) {
+      body = new ByteArrayInputStream(new byte[0]);
+      contentLength = 0;
+    }
+    HttpResponse head = new HttpResponse(conn.getResponseCode(), conn.getResponseMessage(), new byte[0],
+                                         conn.getHeaderFields());
+    return new StreamingResponse(head, body, contentLength, memoryBudget,
+                                 new ConnectionReleaser(conn, body, errorStream));
+  }
+
+  /**
+   * Returns a connection to the keep-alive pool of the JDK if its body was read, and disconnects it otherwise.
+   */
+  private static final class ConnectionReleaser implements StreamingResponse.Releaser {
+    private final HttpURLConnection conn;
+    private final InputStream body;
+    private final boolean errorStream;
+
+    /**
+     * @param errorStream true if the body is the error stream of the connection, which must not be closed, since
+     *                    the connection may have been released already after buffering the error body
+     */
+    ConnectionReleaser(HttpURLConnection conn, InputStream body, boolean errorStream) {
+      this.conn = conn;
+      this.body = body;
+      this.errorStream = errorStream;
+    }
+
+    @Override
+    public void release(boolean drained) {
+      try {
+        if (drained && !errorStream) {
+          // Closing a fully read body returns the connection to the pool
+          body.close();
+        }
+      } catch (IOException e) {
+        LOG.debug("Failed to close the body of the response from {}", conn.getURL(), e);
+      } finally {
+        conn.disconnect();
+      }
+    }
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.net.URL;
+import java.nio.channels.SocketChannel;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Executes {@link HttpRequest}s over a Unix domain socket, such as one of a sidecar on the same host, which
+ * skips the TCP stack that loopback connections go through. Requires Java 16 or later.
+ *
+ * <p>
+ * Every request is sent to the server listening on the socket file, whatever the host and port of its URL, which
+ * only make the {@code Host} header and the request target. Only {@code http} URLs are supported. Connections are
+ * kept alive and reused like those of {@link SocketTransport}, and requests are sent with it through
+ * {@link HttpRequests} once it is set with {@link HttpRequestConfig#withTransport(HttpTransport)}.
+ * </p>
+ */
+@ThreadSafe
+public final class UnixSocketTransport extends PooledTransport {
+
+  // SocketChannel.open(ProtocolFamily), StandardProtocolFamily.UNIX and UnixDomainSocketAddress.of(String),
+  // which are only available on Java 16 and later
+  private static final Method OPEN_CHANNEL;
+  private static final Object UNIX_FAMILY;
+  private static final Method CREATE_ADDRESS;
+
+  static {
+    Method openChannel = null;
+    Object unixFamily = null;
+    Method createAddress = null;
+    try {
+      Class<?> protocolFamily = Class.forName("java.net.ProtocolFamily");
+      Class<?> standardProtocolFamily = Class.forName("java.net.StandardProtocolFamily");
+      unixFamily = standardProtocolFamily.getField("UNIX").get(null);
+      openChannel = SocketChannel.class.getMethod("open", protocolFamily);
+      createAddress = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+    } catch (Exception e) {
+      openChannel = null;
+    }
+    OPEN_CHANNEL = openChannel;
+    UNIX_FAMILY = unixFamily;
+    CREATE_ADDRESS = createAddress;
+  }
+
+  private final File socketFile;
+  private final String route;
+
+  private UnixSocketTransport(File socketFile, int maxIdleConnections, long keepAlive) {
+    super(maxIdleConnections, keepAlive);
+    this.socketFile = socketFile;
+    this.route = "unix:" + socketFile.getAbsolutePath();
+  }
+
+  /**
+   * @return true if the running Java version supports Unix domain sockets
+   */
+  public static boolean isSupported() {
+    return OPEN_CHANNEL != null;
+  }
+
+  /**
+   * @param socketFile the socket file the server listens on
+   */
+  public static Builder builder(File socketFile) {
+    return new Builder(socketFile);
+  }
+
+  public File getSocketFile() {
+    return socketFile;
+  }
+
+  @Override
+  String getRoute(URL url, HttpRequestConfig requestConfig) {
+    Preconditions.checkArgument("http".equals(url.getProtocol()), "Only http is supported: %s", url);
+    return route;
+  }
+
+  @Override
+  HttpConnection connect(HttpRequest request, String route, HttpRequestConfig requestConfig,
+                         int readTimeout) throws IOException {
+    HttpEventListener eventListener = requestConfig.getEventListener();
+    SocketChannel channel = openChannel();
+    try {
+      if (eventListener != null) {
+        eventListener.connectStart(request, System.nanoTime());
+      }
+      // Connecting to a local socket either succeeds or fails right away, so there is no connect timeout
+      SocketAddress address = createAddress(socketFile.getPath());
+      channel.connect(address);
+      if (eventListener != null) {
+        eventListener.connectEnd(request, address, System.nanoTime());
+      }
+      ChannelStream stream = new ChannelStream(channel);
+      stream.setReadTimeout(readTimeout);
+      return new HttpConnection(route, channel, stream);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static SocketChannel openChannel() throws IOException {
+    return (SocketChannel) invoke(OPEN_CHANNEL, UNIX_FAMILY);
+  }
+
+  /**
+   * Creates a {@code java.net.UnixDomainSocketAddress}.
+   */
+  static SocketAddress createAddress(String path) throws IOException {
+    return (SocketAddress) invoke(CREATE_ADDRESS, path);
+  }
+
+  @Nullable
+  private static Object invoke(Method method, Object argument) throws IOException {
+    try {
+      return method.invoke(null, argument);
+    } catch (InvocationTargetException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    } catch (IllegalAccessException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  /**
+   * Builder for {@link UnixSocketTransport}.
+   */
+  public static final class Builder {
+    private final File socketFile;
+    private int maxIdleConnections = 5;
+    private long keepAlive = 60000;
+
+    Builder(File socketFile) {
+      Preconditions.checkNotNull(socketFile, "Socket file cannot be null");
+      this.socketFile = socketFile;
+    }
+
+    /**
+     * @param maxIdleConnections maximum number of idle connections kept. Defaults to 5.
+     */
+    public Builder setMaxIdleConnections(int maxIdleConnections) {
+      Preconditions.checkArgument(maxIdleConnections >= 0, "Maximum idle connections cannot be negative: %s",
+                                  maxIdleConnections);
+      this.maxIdleConnections = maxIdleConnections;
+      return this;
+    }
+
+    /**
+     * @param keepAlive maximum time a connection is kept idle, in milliseconds. Defaults to 1 minute.
+     */
+    public Builder setKeepAlive(long keepAlive) {
+      Preconditions.checkArgument(keepAlive >= 0, "Keep alive cannot be negative: %s", keepAlive);
+      this.keepAlive = keepAlive;
+      return this;
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the running Java version does not support Unix domain sockets
+     */
+    public UnixSocketTransport build() {
+      if (!isSupported()) {
+        throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later");
+      }
+      return new UnixSocketTransport(socketFile, maxIdleConnections, keepAlive);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Remembers how many bytes of an upload the server has acknowledged, so that an upload can resume after a failure.
+ * See {@link ResumableUploader}.
+ */
+public abstract class UploadCheckpoint {
+
+  /**
+   * @return number of bytes from the start of the file the server has acknowledged
+   */
+  public abstract long getOffset() throws IOException;
+
+  /**
+   * Records that the server has acknowledged every byte before the given offset.
+   */
+  public abstract void setOffset(long offset) throws IOException;
+
+  /**
+   * Creates a checkpoint that starts at zero and is kept in memory, which lets a failed upload resume within
+   * the same process.
+   */
+  public static UploadCheckpoint inMemory() {
+    return new UploadCheckpoint() {
+      private volatile long offset;
+
+      @Override
+      public long getOffset() {
+        return offset;
+      }
+
+      @Override
+      public void setOffset(long offset) {
+        this.offset = offset;
+      }
+    };
+  }
+
+  /**
+   * Creates a checkpoint stored in a file, which lets a failed upload resume in another process. A missing file
+   * means nothing was acknowledged.
+   */
+  public static UploadCheckpoint inFile(final File file) {
+    return new UploadCheckpoint() {
+      @Override
+      public long getOffset() throws IOException {
+        if (!file.exists()) {
+          return 0L;
+        }
+        return Long.parseLong(Files.toString(file, Charsets.UTF_8).trim());
+      }
+
+      @Override
+      public void setOffset(long offset) throws IOException {
+        // Written to a temporary file first, so that a crash never leaves a partially written offset
+        File tmpFile = new File(file.getPath() + ".tmp");
+        Files.write(Long.toString(offset), tmpFile, Charsets.UTF_8);
+        if (!tmpFile.renameTo(file) && !(file.delete() && tmpFile.renameTo(file))) {
+          throw new IOException("Failed to rename " + tmpFile + " to " + file);
+        }
+      }
+    };
+  }
+}
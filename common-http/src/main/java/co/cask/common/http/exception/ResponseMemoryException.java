@@ -0,0 +1,30 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http.exception;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when a response body cannot be buffered within its memory budget, either because it is larger
+ * than the maximum response size or because the budget stayed exhausted.
+ */
+public class ResponseMemoryException extends IOException {
+
+  public ResponseMemoryException(String message) {
+    super(message);
+  }
+}
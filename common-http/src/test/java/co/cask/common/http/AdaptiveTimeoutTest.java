@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for {@link AdaptiveTimeout} and {@link LatencyHistogram}.
+ */
+public class AdaptiveTimeoutTest {
+
+  @Test
+  public void testHistogramPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Assert.assertEquals(0L, histogram.getValueAtPercentile(99));
+
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+    Assert.assertEquals(1000L, histogram.getCount());
+    assertWithin(500, histogram.getValueAtPercentile(50));
+    assertWithin(990, histogram.getValueAtPercentile(99));
+    assertWithin(1000, histogram.getValueAtPercentile(100));
+    Assert.assertEquals(1L, histogram.getValueAtPercentile(0));
+
+    histogram.record(Long.MAX_VALUE);
+    Assert.assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+
+    // Decay halves every bucket, rounding down
+    histogram.decay();
+    Assert.assertTrue(histogram.getCount() > 450 && histogram.getCount() <= 500);
+  }
+
+  @Test
+  public void testTimeoutFollowsLatency() throws Exception {
+    AdaptiveTimeout timeout = AdaptiveTimeout.builder()
+      .setPercentile(90)
+      .setMultiplier(3)
+      .setBounds(100, 10000)
+      .setMinSamples(10)
+      .build();
+
+    HttpRequest fast = HttpRequest.get(new URL("http://localhost/fast?q=1")).build();
+    HttpRequest fastOtherQuery = HttpRequest.get(new URL("http://localhost/fast?q=2")).build();
+    HttpRequest slow = HttpRequest.get(new URL("http://localhost/slow")).build();
+
+    // Ceiling is used until enough samples are seen
+    Assert.assertEquals(10000, timeout.getReadTimeout(fast));
+    for (int i = 0; i < 9; i++) {
+      timeout.record(fast, 10);
+    }
+    Assert.assertEquals(10000, timeout.getReadTimeout(fast));
+    timeout.record(fast, 10);
+
+    // Floor bounds fast endpoints; the query string is not part of the endpoint
+    Assert.assertEquals(100, timeout.getReadTimeout(fast));
+    Assert.assertEquals(100, timeout.getReadTimeout(fastOtherQuery));
+
+    for (int i = 0; i < 100; i++) {
+      timeout.record(slow, 1000);
+    }
+    assertWithin(3000, timeout.getReadTimeout(slow));
+
+    for (int i = 0; i < 100; i++) {
+      timeout.record(slow, 60000);
+    }
+    Assert.assertEquals(10000, timeout.getReadTimeout(slow));
+  }
+
+  @Test
+  public void testUpdateInterval() throws Exception {
+    AdaptiveTimeout timeout = AdaptiveTimeout.builder()
+      .setPercentile(100)
+      .setMultiplier(3)
+      .setBounds(1, 100000)
+      .setMinSamples(10)
+      .setUpdateInterval(5)
+      .build();
+    HttpRequest request = HttpRequest.get(new URL("http://localhost/items")).build();
+    for (int i = 0; i < 10; i++) {
+      timeout.record(request, 100);
+    }
+    assertWithin(300, timeout.getReadTimeout(request));
+
+    // Samples below the timeout only update it once the interval is reached
+    for (int i = 0; i < 4; i++) {
+      timeout.record(request, 200);
+    }
+    assertWithin(300, timeout.getReadTimeout(request));
+    timeout.record(request, 200);
+    assertWithin(600, timeout.getReadTimeout(request));
+
+    // A sample that reaches the timeout updates it at once
+    timeout.record(request, 1000);
+    assertWithin(3000, timeout.getReadTimeout(request));
+  }
+
+  @Test
+  public void testRequestConfig() throws Exception {
+    HttpRequest request = HttpRequest.get(new URL("http://localhost/items")).build();
+    HttpRequestConfig staticConfig = new HttpRequestConfig(1000, 2000);
+    Assert.assertEquals(2000, AdaptiveTimeout.getReadTimeout(request, staticConfig));
+    AdaptiveTimeout.recordWait(request, staticConfig, 2000, System.nanoTime());
+
+    AdaptiveTimeout timeout = AdaptiveTimeout.builder().setPercentile(100).setMultiplier(1).setBounds(100, 10000)
+      .setMinSamples(1).build();
+    HttpRequestConfig adaptiveConfig = new HttpRequestConfig(1000, timeout, true);
+    Assert.assertEquals(10000, AdaptiveTimeout.getReadTimeout(request, adaptiveConfig));
+
+    // A wait that outlasted the read timeout timed out, and is recorded with the timeout
+    AdaptiveTimeout.recordWait(request, adaptiveConfig, 500, System.nanoTime() - TimeUnit.SECONDS.toNanos(60));
+    assertWithin(500, AdaptiveTimeout.getReadTimeout(request, adaptiveConfig));
+  }
+
+  private void assertWithin(long expected, long actual) {
+    Assert.assertTrue("Expected about " + expected + " but got " + actual,
+                      actual >= expected && actual <= expected * 1.07);
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal HTTP/1.1 server over a {@link ServerSocketChannel}, which can listen on a Unix domain socket as well
+ * as on a TCP port, so that both transports can be compared against the same server.
+ *
+ * <p>
+ * {@code /echo} responds with the request body, {@code /bytes?size=n} with {@code n} bytes and
+ * {@code /sleep?millis=n} with an empty body after {@code n} milliseconds. It is public for the Unix domain socket
+ * benchmark in common-http-benchmarks.
+ * </p>
+ */
+public final class ChannelHttpServer implements Closeable {
+
+  private final ServerSocketChannel serverChannel;
+  private final ExecutorService executor;
+  private final AtomicInteger connections = new AtomicInteger();
+
+  /**
+   * Starts a server listening on a Unix domain socket, which requires Java 16 or later.
+   */
+  public static ChannelHttpServer unix(File socketFile) throws Exception {
+    Object unixFamily = Class.forName("java.net.StandardProtocolFamily").getField("UNIX").get(null);
+    ServerSocketChannel channel = (ServerSocketChannel) ServerSocketChannel.class
+      .getMethod("open", ProtocolFamily.class).invoke(null, unixFamily);
+    return new ChannelHttpServer(channel, UnixSocketTransport.createAddress(socketFile.getPath()));
+  }
+
+  /**
+   * Starts a server listening on a loopback TCP port.
+   */
+  public static ChannelHttpServer tcp() throws IOException {
+    return new ChannelHttpServer(ServerSocketChannel.open(),
+                                 new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+  }
+
+  private ChannelHttpServer(ServerSocketChannel serverChannel, SocketAddress address) throws IOException {
+    this.serverChannel = serverChannel;
+    this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                                                    .setDaemon(true).setNameFormat("channel-http-%d").build());
+    serverChannel.bind(address, 128);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        accept();
+      }
+    });
+  }
+
+  /**
+   * @return the TCP port the server listens on
+   */
+  public int getPort() {
+    return ((InetSocketAddress) serverChannel.socket().getLocalSocketAddress()).getPort();
+  }
+
+  /**
+   * @return number of connections accepted so far
+   */
+  public int getConnections() {
+    return connections.get();
+  }
+
+  @Override
+  public void close() {
+    Closeables.closeQuietly(serverChannel);
+    executor.shutdownNow();
+  }
+
+  private void accept() {
+    while (serverChannel.isOpen()) {
+      final SocketChannel channel;
+      try {
+        channel = serverChannel.accept();
+      } catch (IOException e) {
+        return;
+      }
+      connections.incrementAndGet();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            serve(channel);
+          } catch (Exception e) {
+            // The connection is closed
+          } finally {
+            Closeables.closeQuietly(channel);
+          }
+        }
+      });
+    }
+  }
+
+  private void serve(SocketChannel channel) throws Exception {
+    InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+    OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+    while (true) {
+      String requestLine = readLine(in);
+      if (requestLine == null) {
+        return;
+      }
+      String target = requestLine.split(" ")[1];
+      long contentLength = 0;
+      boolean close = false;
+      for (String line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+        String name = line.substring(0, line.indexOf(':')).trim();
+        String value = line.substring(line.indexOf(':') + 1).trim();
+        if ("Content-Length".equalsIgnoreCase(name)) {
+          contentLength = Long.parseLong(value);
+        } else if ("Connection".equalsIgnoreCase(name)) {
+          close = "close".equalsIgnoreCase(value);
+        }
+      }
+      byte[] requestBody = new byte[(int) contentLength];
+      ByteStreams.readFully(in, requestBody);
+
+      String status = "200 OK";
+      byte[] body;
+      if (target.startsWith("/echo")) {
+        body = requestBody;
+      } else if (target.startsWith("/bytes?size=")) {
+        body = new byte[Integer.parseInt(target.substring("/bytes?size=".length()))];
+      } else if (target.startsWith("/sleep?millis=")) {
+        Thread.sleep(Long.parseLong(target.substring("/sleep?millis=".length())));
+        body = new byte[0];
+      } else {
+        status = "404 Not Found";
+        body = new byte[0];
+      }
+      out.write(("HTTP/1.1 " + status + "\r\nContent-Length: " + body.length + "\r\n"
+        + (close ? "Connection: close\r\n" : "") + "\r\n").getBytes(Charsets.ISO_8859_1));
+      out.write(body);
+      out.flush();
+      if (close) {
+        return;
+      }
+    }
+  }
+
+  private String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b = in.read();
+    if (b < 0) {
+      return null;
+    }
+    while (b >= 0 && b != '\n') {
+      line.write(b);
+      b = in.read();
+    }
+    return new String(line.toByteArray(), Charsets.ISO_8859_1).trim();
+  }
+}
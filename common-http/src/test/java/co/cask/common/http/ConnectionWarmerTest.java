@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.collect.Sets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for {@link ConnectionWarmer}.
+ */
+public class ConnectionWarmerTest {
+
+  private static final Set<Integer> CLIENT_PORTS = Collections.synchronizedSet(Sets.<Integer>newHashSet());
+
+  private static HttpServer server;
+
+  @BeforeClass
+  public static void init() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/ping", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        CLIENT_PORTS.add(exchange.getRemoteAddress().getPort());
+        byte[] body = "pong".getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+      }
+    });
+    server.start();
+  }
+
+  @AfterClass
+  public static void finish() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testWarmUp() throws Exception {
+    URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/ping");
+    ConnectionWarmer warmer = ConnectionWarmer.builder()
+      .addTarget(HttpRequest.get(url).build())
+      .setConnections(3)
+      .build();
+    Assert.assertFalse(warmer.isReady());
+    Assert.assertTrue(warmer.warmUp(10, TimeUnit.SECONDS));
+
+    ConnectionWarmer.TargetStatus status = warmer.getStatus().get(0);
+    Assert.assertTrue(status.isDone());
+    Assert.assertEquals(3, status.getWarmedConnections());
+    Assert.assertNull(status.getFailure());
+
+    // Every request was sent on a connection of its own, and the connections are reused afterwards
+    Assert.assertEquals(3, CLIENT_PORTS.size());
+    Set<Integer> warmed = Sets.newHashSet(CLIENT_PORTS);
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals("pong", HttpRequests.execute(HttpRequest.get(url).build()).getResponseBodyAsString());
+    }
+    Assert.assertEquals(warmed, CLIENT_PORTS);
+  }
+
+  @Test
+  public void testUnreachable() throws Exception {
+    ServerSocket socket = new ServerSocket(0);
+    int port = socket.getLocalPort();
+    socket.close();
+
+    ConnectionWarmer warmer = ConnectionWarmer.builder()
+      .addTarget(HttpRequest.get(new URL("http://localhost:" + port + "/ping")).build())
+      .setConnections(2)
+      .build();
+    Assert.assertFalse(warmer.warmUp(10, TimeUnit.SECONDS));
+
+    ConnectionWarmer.TargetStatus status = warmer.getStatus().get(0);
+    Assert.assertTrue(status.isDone());
+    Assert.assertEquals(0, status.getWarmedConnections());
+    Assert.assertNotNull(status.getFailure());
+  }
+}
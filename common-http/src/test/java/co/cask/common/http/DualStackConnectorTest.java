@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/**
+ * Test for {@link DualStackConnector}, against listeners on {@code ::1} and {@code 127.0.0.1}.
+ */
+public class DualStackConnectorTest {
+
+  private InetAddress ipv6;
+  private InetAddress ipv4;
+  private ServerSocket ipv4Server;
+
+  @Before
+  public void init() throws IOException {
+    ipv6 = InetAddress.getByName("::1");
+    ipv4 = InetAddress.getByName("127.0.0.1");
+    ipv4Server = new ServerSocket(0, 50, ipv4);
+  }
+
+  @After
+  public void finish() throws IOException {
+    ipv4Server.close();
+  }
+
+  @Test
+  public void testSort() throws Exception {
+    InetAddress ipv6Other = InetAddress.getByName("::2");
+    InetAddress ipv4Other = InetAddress.getByName("127.0.0.2");
+    List<InetAddress> sorted = DualStackConnector.sort(ImmutableList.of(ipv6, ipv6Other, ipv4, ipv4Other));
+    Assert.assertEquals(ImmutableList.of(ipv6, ipv4, ipv6Other, ipv4Other), sorted);
+
+    sorted = DualStackConnector.sort(ImmutableList.of(ipv4, ipv6, ipv6Other));
+    Assert.assertEquals(ImmutableList.of(ipv4, ipv6, ipv6Other), sorted);
+  }
+
+  @Test
+  public void testPreferredFamily() throws Exception {
+    ServerSocket ipv6Server = bindIPv6(ipv4Server.getLocalPort());
+    try {
+      DualStackConnector connector = new DualStackConnector(250);
+      SocketChannel channel = connector.connect(ImmutableList.of(ipv6, ipv4), ipv4Server.getLocalPort(), 10000);
+      try {
+        Assert.assertTrue(channel.isBlocking());
+        Assert.assertEquals(ipv6, channel.socket().getInetAddress());
+      } finally {
+        channel.close();
+      }
+    } finally {
+      ipv6Server.close();
+    }
+  }
+
+  @Test
+  public void testFallback() throws Exception {
+    // Nothing listens on ::1, so the IPv4 attempt starts right away instead of after the delay
+    DualStackConnector connector = new DualStackConnector(5000);
+    long startTime = System.currentTimeMillis();
+    SocketChannel channel = connector.connect(ImmutableList.of(ipv6, ipv4), ipv4Server.getLocalPort(), 10000);
+    try {
+      Assert.assertEquals(ipv4, channel.socket().getInetAddress());
+      Assert.assertTrue(System.currentTimeMillis() - startTime < 5000);
+    } finally {
+      channel.close();
+    }
+  }
+
+  @Test
+  public void testUnresponsiveAddress() throws Exception {
+    // An address from the documentation range either never answers or fails, and either way the next
+    // address is tried well before the connect timeout
+    DualStackConnector connector = new DualStackConnector(100);
+    long startTime = System.currentTimeMillis();
+    SocketChannel channel = connector.connect(ImmutableList.of(InetAddress.getByName("192.0.2.1"), ipv4),
+                                              ipv4Server.getLocalPort(), 30000);
+    try {
+      Assert.assertEquals(ipv4, channel.socket().getInetAddress());
+      Assert.assertTrue(System.currentTimeMillis() - startTime < 10000);
+    } finally {
+      channel.close();
+    }
+  }
+
+  @Test
+  public void testAllFail() throws Exception {
+    int port = ipv4Server.getLocalPort();
+    ipv4Server.close();
+    try {
+      new DualStackConnector(250).connect(ImmutableList.of(ipv6, ipv4), port, 10000);
+      Assert.fail("Expected connection to fail");
+    } catch (ConnectException e) {
+      // Expected
+    }
+  }
+
+  private ServerSocket bindIPv6(int port) throws IOException {
+    ServerSocket server = new ServerSocket();
+    try {
+      server.bind(new InetSocketAddress(ipv6, port));
+    } catch (IOException e) {
+      server.close();
+      Assume.assumeNoException(e);
+    }
+    return server;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Charsets;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Test for {@link EventStreamParser}.
+ */
+public class EventStreamParserTest {
+
+  @Test
+  public void testEventStream() throws IOException {
+    String stream = "\uFEFF: comment\r\n"
+      + "data: first\r\n\r\n"
+      + "id: 7\revent: update\rdata:second\rdata\rdata:  third\r\r"
+      + "retry: 500\n"
+      + "event: ignored\n\n"
+      + "id\n"
+      + "data: fourth\n\n"
+      + "data: incomplete";
+    EventStreamParser parser = new EventStreamParser(new ByteByByteStream(stream), false, 1024, "3");
+
+    Assert.assertEquals(new ServerSentEvent("3", "message", "first"), parser.next());
+    Assert.assertEquals(new ServerSentEvent("7", "update", "second\n\n third"), parser.next());
+    Assert.assertEquals(new ServerSentEvent("", "message", "fourth"), parser.next());
+    Assert.assertNull(parser.next());
+    Assert.assertEquals(500L, parser.getRetry());
+    Assert.assertEquals("", parser.getLastEventId());
+  }
+
+  @Test
+  public void testLines() throws IOException {
+    String stream = "{\"a\":1}\r\n\n{\"b\":\"é\"}\n{\"c\":3}";
+    EventStreamParser parser = new EventStreamParser(new ByteByByteStream(stream), true, 1024, null);
+
+    Assert.assertEquals("{\"a\":1}", parser.next().getData());
+    Assert.assertEquals("{\"b\":\"é\"}", parser.next().getData());
+    Assert.assertEquals("{\"c\":3}", parser.next().getData());
+    Assert.assertNull(parser.next());
+  }
+
+  @Test(expected = EventStreamParser.SizeLimitException.class)
+  public void testLineLimit() throws IOException {
+    InputStream is = new ByteArrayInputStream(new byte[100000]);
+    new EventStreamParser(is, true, 1024, null).next();
+  }
+
+  @Test(expected = EventStreamParser.SizeLimitException.class)
+  public void testEventLimit() throws IOException {
+    StringBuilder stream = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      stream.append("data: 0123456789\n");
+    }
+    new EventStreamParser(new ByteByByteStream(stream.toString()), false, 1024, null).next();
+  }
+
+  /**
+   * Returns at most one byte per read, so that line terminators are split across reads.
+   */
+  private static final class ByteByByteStream extends InputStream {
+    private final InputStream delegate;
+
+    ByteByByteStream(String content) {
+      this.delegate = new ByteArrayInputStream(content.getBytes(Charsets.UTF_8));
+    }
+
+    @Override
+    public int read() throws IOException {
+      return delegate.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return delegate.read(b, off, Math.min(len, 1));
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Test for {@link HttpEventListener}.
+ */
+public class HttpEventListenerTest {
+
+  private static HttpServer server;
+
+  @BeforeClass
+  public static void init() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/echo", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+        exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+      }
+    });
+    server.start();
+  }
+
+  @AfterClass
+  public static void finish() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testSocketTransport() throws Exception {
+    URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/echo");
+    RecordingListener listener = new RecordingListener();
+    SocketTransport transport = SocketTransport.builder().build();
+    try {
+      HttpRequestConfig config = HttpRequestConfig.DEFAULT.withTransport(transport).withEventListener(listener);
+      HttpRequest request = HttpRequest.post(url).withBody("hello").build();
+      Assert.assertEquals("hello", HttpRequests.execute(request, config).getResponseBodyAsString());
+      Assert.assertEquals(ImmutableList.of("requestStart", "dnsStart 127.0.0.1", "dnsEnd 1", "connectStart",
+                                           "connectEnd", "connectionAcquired false", "requestWritten",
+                                           "responseStart 200", "responseEnd 5 true"), listener.getEvents());
+
+      // The connection is reused, and a small body left unread is drained when the response is closed
+      listener.clear();
+      StreamingResponse response = HttpRequests.executeStreaming(request, config);
+      Assert.assertEquals('h', response.getBody().read());
+      response.close();
+      Assert.assertEquals(ImmutableList.of("requestStart", "connectionAcquired true", "requestWritten",
+                                           "responseStart 200", "responseEnd 1 true"), listener.getEvents());
+      listener.assertOrdered();
+    } finally {
+      transport.close();
+    }
+  }
+
+  @Test
+  public void testURLConnectionTransport() throws Exception {
+    URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/echo");
+    RecordingListener listener = new RecordingListener();
+    HttpRequestConfig config = HttpRequestConfig.DEFAULT.withEventListener(listener);
+    HttpRequests.execute(HttpRequest.post(url).withBody("hello").build(), config);
+    Assert.assertEquals(ImmutableList.of("requestStart", "connectStart", "connectEnd", "requestWritten",
+                                         "responseStart 200", "responseEnd 5 true"), listener.getEvents());
+    listener.assertOrdered();
+  }
+
+  @Test
+  public void testCompose() throws Exception {
+    URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/echo");
+    RecordingListener first = new RecordingListener();
+    RecordingListener second = new RecordingListener();
+    Assert.assertSame(first, HttpEventListener.compose(first));
+
+    HttpRequestConfig config = HttpRequestConfig.DEFAULT.withEventListener(HttpEventListener.compose(first, second));
+    HttpRequests.execute(HttpRequest.post(url).withBody("hello").build(), config);
+    List<String> expected = ImmutableList.of("requestStart", "connectStart", "connectEnd", "requestWritten",
+                                             "responseStart 200", "responseEnd 5 true");
+    Assert.assertEquals(expected, first.getEvents());
+    Assert.assertEquals(expected, second.getEvents());
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    // A port nothing listens on
+    ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    int port = socket.getLocalPort();
+    socket.close();
+
+    RecordingListener listener = new RecordingListener();
+    SocketTransport transport = SocketTransport.builder().build();
+    try {
+      HttpRequestConfig config = HttpRequestConfig.DEFAULT.withTransport(transport).withEventListener(listener);
+      HttpRequests.execute(HttpRequest.get(new URL("http://127.0.0.1:" + port + "/echo")).build(), config);
+      Assert.fail("Expected connection failure");
+    } catch (IOException e) {
+      Assert.assertEquals(ImmutableList.of("requestStart", "dnsStart 127.0.0.1", "dnsEnd 1", "connectStart",
+                                           "requestFailed"), listener.getEvents());
+    } finally {
+      transport.close();
+    }
+  }
+
+  /**
+   * Records the events it receives, with their times.
+   */
+  private static final class RecordingListener extends HttpEventListener {
+    private final List<String> events = Lists.newArrayList();
+    private final List<Long> times = Lists.newArrayList();
+
+    List<String> getEvents() {
+      return events;
+    }
+
+    void clear() {
+      events.clear();
+      times.clear();
+    }
+
+    void assertOrdered() {
+      for (int i = 1; i < times.size(); i++) {
+        Assert.assertTrue(times.get(i - 1) <= times.get(i));
+      }
+    }
+
+    private void record(long nanoTime, Object... event) {
+      events.add(Joiner.on(' ').join(event));
+      times.add(nanoTime);
+    }
+
+    @Override
+    public void requestStart(HttpRequest request, long nanoTime) {
+      record(nanoTime, "requestStart");
+    }
+
+    @Override
+    public void dnsStart(HttpRequest request, String host, long nanoTime) {
+      record(nanoTime, "dnsStart", host);
+    }
+
+    @Override
+    public void dnsEnd(HttpRequest request, String host, List<InetAddress> addresses, long nanoTime) {
+      record(nanoTime, "dnsEnd", addresses.size());
+    }
+
+    @Override
+    public void connectStart(HttpRequest request, long nanoTime) {
+      record(nanoTime, "connectStart");
+    }
+
+    @Override
+    public void connectEnd(HttpRequest request, SocketAddress address, long nanoTime) {
+      record(nanoTime, "connectEnd");
+    }
+
+    @Override
+    public void tlsStart(HttpRequest request, long nanoTime) {
+      record(nanoTime, "tlsStart");
+    }
+
+    @Override
+    public void tlsEnd(HttpRequest request, long nanoTime) {
+      record(nanoTime, "tlsEnd");
+    }
+
+    @Override
+    public void connectionAcquired(HttpRequest request, boolean reused, long nanoTime) {
+      record(nanoTime, "connectionAcquired", reused);
+    }
+
+    @Override
+    public void requestWritten(HttpRequest request, long nanoTime) {
+      record(nanoTime, "requestWritten");
+    }
+
+    @Override
+    public void responseStart(HttpRequest request, int responseCode, long nanoTime) {
+      record(nanoTime, "responseStart", responseCode);
+    }
+
+    @Override
+    public void responseEnd(HttpRequest request, long bodyBytes, boolean complete, long nanoTime) {
+      record(nanoTime, "responseEnd", bodyBytes, complete);
+    }
+
+    @Override
+    public void requestFailed(HttpRequest request, Exception failure, long nanoTime) {
+      record(nanoTime, "requestFailed");
+    }
+  }
+}
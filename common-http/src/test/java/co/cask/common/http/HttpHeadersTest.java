@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test for {@link HttpHeaders}.
+ */
+public class HttpHeadersTest {
+
+  @Test
+  public void testLookup() {
+    HttpHeaders headers = HttpHeaders.builder()
+      .add("Content-Type", "text/plain")
+      .add("X-Key", "v1")
+      .add("x-key", "v2")
+      .build();
+
+    Assert.assertEquals(3, headers.size());
+    Assert.assertEquals("text/plain", headers.getFirst("content-type"));
+    Assert.assertEquals("v1", headers.getFirst("X-KEY"));
+    Assert.assertEquals(ImmutableList.of("v1", "v2"), headers.getAll("x-Key"));
+    Assert.assertTrue(headers.getAll("missing").isEmpty());
+    Assert.assertNull(headers.getFirst("missing"));
+    Assert.assertFalse(headers.contains("missing"));
+
+    // The multimap view keeps names as they were added
+    Assert.assertEquals(ImmutableListMultimap.of("Content-Type", "text/plain", "X-Key", "v1", "x-key", "v2"),
+                        headers.asMultimap());
+    Assert.assertSame(HttpHeaders.EMPTY, HttpHeaders.builder().build());
+  }
+
+  @Test
+  public void testSet() {
+    HttpHeaders headers = HttpHeaders.builder()
+      .add("X-Key", "v1")
+      .add("Content-Type", "text/plain")
+      .add("x-key", "v2")
+      .set("X-KEY", "v3")
+      .build();
+    Assert.assertEquals(ImmutableListMultimap.of("Content-Type", "text/plain", "X-KEY", "v3"), headers.asMultimap());
+  }
+
+  @Test
+  public void testLineBreaks() throws Exception {
+    String[][] invalid = {{"X-Key\r\nX-Injected", "v"}, {"X-Key", "v\r\nX-Injected: v"}, {"X-Key", "v\n"}};
+    for (String[] header : invalid) {
+      try {
+        HttpHeaders.builder().add(header[0], header[1]);
+        Assert.fail("Expected IllegalArgumentException for " + Arrays.toString(header));
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+    try {
+      HttpRequest.get(new URL("http://localhost/")).addHeader("X-Key", "v\r\n");
+      Assert.fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testFromHeaderFields() {
+    String name = new String("Content-Length");
+    Map<String, List<String>> fields = new LinkedHashMap<String, List<String>>();
+    fields.put(null, Collections.singletonList("HTTP/1.1 200 OK"));
+    fields.put(name, Collections.singletonList("10"));
+    fields.put("Set-Cookie", Arrays.asList("a=1", "b=2"));
+
+    HttpHeaders headers = HttpHeaders.fromHeaderFields(fields);
+    Assert.assertEquals(3, headers.size());
+    Assert.assertEquals("10", headers.getFirst("CONTENT-LENGTH"));
+    Assert.assertEquals(ImmutableList.of("a=1", "b=2"), headers.getAll("set-cookie"));
+
+    // Common header names are replaced by a shared instance
+    Assert.assertEquals(name, headers.getName(0));
+    Assert.assertNotSame(name, headers.getName(0));
+
+    HttpResponse response = new HttpResponse(200, "OK", new byte[0], fields);
+    Assert.assertEquals("10", response.getHeader("content-length"));
+    Assert.assertEquals(ImmutableMap.of("Content-Length", ImmutableList.of("10"),
+                                        "Set-Cookie", ImmutableList.of("a=1", "b=2")),
+                        response.getHeaders().asMap());
+  }
+}
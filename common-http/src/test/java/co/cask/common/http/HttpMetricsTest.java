@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.collect.Maps;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test for {@link HttpMetrics}.
+ */
+public class HttpMetricsTest {
+
+  private static final LoopbackTransport.Handler HANDLER = new LoopbackTransport.Handler() {
+    @Override
+    public void handle(LoopbackTransport.Exchange exchange) throws Exception {
+      if (exchange.getURL().getPath().equals("/missing")) {
+        exchange.respond(404);
+      } else {
+        exchange.respond(200, "response");
+      }
+    }
+  };
+
+  private final LoopbackTransport transport = LoopbackTransport.builder()
+    .addHandler("first", 80, HANDLER)
+    .addHandler("second", 80, HANDLER)
+    .addHandler("third", 80, HANDLER)
+    .build();
+
+  @Test
+  public void testMetrics() throws Exception {
+    HttpMetrics metrics = HttpMetrics.builder().build();
+    HttpRequestConfig config = HttpRequestConfig.DEFAULT.withTransport(transport).withMetrics(metrics);
+
+    for (int i = 0; i < 3; i++) {
+      HttpRequests.execute(HttpRequest.post(new URL("http://first/items")).withBody("body").build(), config);
+    }
+    HttpRequests.execute(HttpRequest.get(new URL("http://first/missing")).build(), config);
+    HttpRequests.execute(HttpRequest.get(new URL("http://second/items")).build(), config);
+    try {
+      HttpRequests.execute(HttpRequest.get(new URL("http://unknown/items")).build(), config);
+      Assert.fail("Expected connection failure");
+    } catch (IOException e) {
+      // Expected
+    }
+
+    Map<String, HttpMetrics.Snapshot> snapshots = index(metrics.snapshot());
+    Assert.assertEquals(4, snapshots.size());
+
+    HttpMetrics.Snapshot snapshot = snapshots.get("POST first 2xx");
+    Assert.assertEquals(3, snapshot.getRequests());
+    Assert.assertEquals(12, snapshot.getBytesSent());
+    Assert.assertEquals(24, snapshot.getBytesReceived());
+    Assert.assertEquals(3, snapshot.getLatency().getCount());
+    Assert.assertTrue(snapshot.getLatencyAtPercentile(50) <= snapshot.getLatencyAtPercentile(100));
+
+    Assert.assertEquals(1, snapshots.get("GET first 4xx").getRequests());
+    Assert.assertEquals(1, snapshots.get("GET second 2xx").getRequests());
+    Assert.assertEquals(1, snapshots.get("GET unknown " + HttpMetrics.FAILED).getRequests());
+
+    // Resetting moves every request to exactly one snapshot
+    Assert.assertEquals(4, metrics.snapshotAndReset().size());
+    Assert.assertTrue(metrics.snapshot().isEmpty());
+    HttpRequests.execute(HttpRequest.get(new URL("http://second/items")).build(), config);
+    snapshots = index(metrics.snapshotAndReset());
+    Assert.assertEquals(1, snapshots.size());
+    Assert.assertEquals(1, snapshots.get("GET second 2xx").getLatency().getCount());
+  }
+
+  @Test
+  public void testMaxHosts() throws Exception {
+    HttpMetrics metrics = HttpMetrics.builder().setMaxHosts(1).build();
+    HttpRequestConfig config = HttpRequestConfig.DEFAULT.withTransport(transport).withMetrics(metrics);
+    for (String host : new String[] { "first", "second", "third" }) {
+      HttpRequests.execute(HttpRequest.get(new URL("http://" + host + "/items")).build(), config);
+    }
+
+    Map<String, HttpMetrics.Snapshot> snapshots = index(metrics.snapshot());
+    Assert.assertEquals(2, snapshots.size());
+    Assert.assertEquals(1, snapshots.get("GET first 2xx").getRequests());
+    Assert.assertEquals(2, snapshots.get("GET " + HttpMetrics.OTHER_HOSTS + " 2xx").getRequests());
+  }
+
+  private Map<String, HttpMetrics.Snapshot> index(List<HttpMetrics.Snapshot> snapshots) {
+    Map<String, HttpMetrics.Snapshot> index = Maps.newHashMap();
+    for (HttpMetrics.Snapshot snapshot : snapshots) {
+      index.put(snapshot.getMethod() + " " + snapshot.getHost() + " " + snapshot.getStatusClass(), snapshot);
+    }
+    return index;
+  }
+}
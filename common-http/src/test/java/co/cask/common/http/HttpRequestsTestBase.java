@@ -16,22 +16,45 @@
 
 package co.cask.common.http;
 
+import co.cask.common.http.exception.ResponseMemoryException;
 import co.cask.http.AbstractHttpHandler;
+import co.cask.http.ChunkResponder;
 import co.cask.http.HttpResponder;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.io.ByteStreams;
+import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
 import com.google.inject.matcher.Matcher;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.multipart.Attribute;
+import org.jboss.netty.handler.codec.http.multipart.DefaultHttpDataFactory;
+import org.jboss.netty.handler.codec.http.multipart.FileUpload;
+import org.jboss.netty.handler.codec.http.multipart.HttpPostRequestDecoder;
+import org.jboss.netty.handler.codec.http.multipart.InterfaceHttpData;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -46,6 +69,14 @@ import static com.google.inject.matcher.Matchers.only;
  */
 public abstract class HttpRequestsTestBase {
 
+  private static final int BODY_SIZE = 100 * 1024 + 17;
+  private static final AtomicInteger EVENT_CONNECTIONS = new AtomicInteger();
+  // The idle stream sends one event, then stays open for this long
+  private static final long IDLE_STREAM_MILLIS = 10000;
+  private static final String IDLE_STREAM_EVENT = "id: 1\ndata: first\n\n";
+  private static final ScheduledExecutorService IDLE_STREAM_CLOSER = Executors.newSingleThreadScheduledExecutor(
+    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("idle-stream-closer").build());
+
   protected abstract URI getBaseURI() throws URISyntaxException;
 
   protected abstract HttpRequestConfig getHttpRequestsConfig();
@@ -64,8 +95,12 @@ public abstract class HttpRequestsTestBase {
 
     // Expected headers for a request
     Multimap<String, String> expectedHeaders = ArrayListMultimap.create();
-    expectedHeaders.put("headerKey", "headerValue2");
-    expectedHeaders.put("headerKey", "headerValue1");
+    if (getHttpRequestsConfig().getTransport() instanceof URLConnectionTransport) {
+      // HttpURLConnection reports the values of a repeated header in reverse order
+      expectedHeaders.putAll("headerKey", ImmutableList.of("headerValue2", "headerValue1"));
+    } else {
+      expectedHeaders.putAll("headerKey", ImmutableList.of("headerValue1", "headerValue2"));
+    }
     expectedHeaders.put("Connection", "keep-alive");
     expectedHeaders.put("Content-Length", "0");
     testGet("/api/testOkWithHeaders", only(200), only("OK"), only(""), only(expectedHeaders));
@@ -103,6 +138,266 @@ public abstract class HttpRequestsTestBase {
     testDelete("/api/testDelete", only(200), any(), any(), any());
   }
 
+  @Test
+  public void testResponseBody() throws Exception {
+    byte[] expected = createBody(BODY_SIZE);
+
+    // Body with Content-Length
+    HttpResponse response = HttpRequests.execute(HttpRequest.get(getBaseURI().resolve("/api/testBody").toURL())
+                                                   .build(), getHttpRequestsConfig());
+    Assert.assertEquals(200, response.getResponseCode());
+    Assert.assertArrayEquals(expected, response.getResponseBody());
+    Assert.assertEquals(Integer.toString(BODY_SIZE), response.getHeader("content-length"));
+
+    // Chunked body of unknown length
+    response = HttpRequests.execute(HttpRequest.get(getBaseURI().resolve("/api/testChunkedBody").toURL()).build(),
+                                    getHttpRequestsConfig());
+    Assert.assertEquals(200, response.getResponseCode());
+    Assert.assertArrayEquals(expected, response.getResponseBody());
+
+    ByteBuffer buffer = response.getResponseBodyAsByteBuffer();
+    Assert.assertTrue(buffer.isReadOnly());
+    Assert.assertEquals(ByteBuffer.wrap(expected), buffer);
+  }
+
+  @Test
+  public void testStreamingResponse() throws Exception {
+    byte[] expected = createBody(BODY_SIZE);
+    URL url = getBaseURI().resolve("/api/testBody").toURL();
+
+    // Headers are available before the body is read, and an unread large body is discarded
+    StreamingResponse response = HttpRequests.executeStreaming(HttpRequest.get(url).build(),
+                                                               getHttpRequestsConfig());
+    try {
+      Assert.assertEquals(200, response.getResponseCode());
+      Assert.assertEquals(BODY_SIZE, response.getContentLength());
+      Assert.assertEquals(Integer.toString(BODY_SIZE), response.getHeader("content-length"));
+      byte[] prefix = new byte[10];
+      ByteStreams.readFully(response.getBody(), prefix);
+      Assert.assertArrayEquals(Arrays.copyOf(expected, 10), prefix);
+    } finally {
+      response.close();
+    }
+
+    // The rest of a partially read body, with a small remainder drained on close
+    response = HttpRequests.executeStreaming(HttpRequest.get(url).build(), getHttpRequestsConfig());
+    ByteStreams.skipFully(response.getBody(), BODY_SIZE - 1000);
+    HttpResponse rest = response.toHttpResponse();
+    Assert.assertArrayEquals(Arrays.copyOfRange(expected, BODY_SIZE - 1000, BODY_SIZE), rest.getResponseBody());
+    Assert.assertEquals(Integer.toString(BODY_SIZE), rest.getHeader("content-length"));
+
+    // Chunked body of unknown length
+    response = HttpRequests.executeStreaming(HttpRequest.get(getBaseURI().resolve("/api/testChunkedBody").toURL())
+                                               .build(), getHttpRequestsConfig());
+    Assert.assertEquals(-1L, response.getContentLength());
+    Assert.assertArrayEquals(expected, ByteStreams.toByteArray(response.getBody()));
+    response.getBody().close();
+
+    // Error responses
+    response = HttpRequests.executeStreaming(
+      HttpRequest.get(getBaseURI().resolve("/api/testBadRequestWithErrorMessage").toURL()).build(),
+      getHttpRequestsConfig());
+    Assert.assertEquals(400, response.getResponseCode());
+    Assert.assertEquals("Cool error message", response.toHttpResponse().getResponseBodyAsString());
+
+    response = HttpRequests.executeStreaming(HttpRequest.get(url).build(), getHttpRequestsConfig());
+    response.abort();
+  }
+
+  @Test
+  public void testCloseIdleStream() throws Exception {
+    // Closing a body of unknown length that is still open does not wait for the server to end it
+    StreamingResponse response = HttpRequests.executeStreaming(
+      HttpRequest.get(getBaseURI().resolve("/api/testIdleStream").toURL()).build(), getHttpRequestsConfig());
+    Assert.assertEquals(-1L, response.getContentLength());
+    byte[] event = new byte[IDLE_STREAM_EVENT.length()];
+    ByteStreams.readFully(response.getBody(), event);
+    Assert.assertEquals(IDLE_STREAM_EVENT, new String(event, Charsets.UTF_8));
+
+    long startTime = System.nanoTime();
+    response.close();
+    Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < IDLE_STREAM_MILLIS / 2);
+  }
+
+  @Test
+  public void testMemoryBudget() throws Exception {
+    byte[] expected = createBody(BODY_SIZE);
+    ResponseMemoryBudget budget = ResponseMemoryBudget.builder(4 * BODY_SIZE).setMaxResponseSize(2 * BODY_SIZE)
+      .setMaxWait(0).build();
+    HttpRequestConfig config = getHttpRequestsConfig().withMemoryBudget(budget);
+
+    HttpResponse response = HttpRequests.execute(HttpRequest.get(getBaseURI().resolve("/api/testBody").toURL())
+                                                   .build(), config);
+    Assert.assertArrayEquals(expected, response.getResponseBody());
+    response = HttpRequests.execute(HttpRequest.get(getBaseURI().resolve("/api/testChunkedBody").toURL()).build(),
+                                    config);
+    Assert.assertArrayEquals(expected, response.getResponseBody());
+    Assert.assertEquals(0L, budget.getReservedBytes());
+
+    // Bodies larger than the maximum response size fail before they are read
+    budget = ResponseMemoryBudget.builder(4 * BODY_SIZE).setMaxResponseSize(BODY_SIZE - 1).build();
+    config = getHttpRequestsConfig().withMemoryBudget(budget);
+    for (String path : ImmutableList.of("/api/testBody", "/api/testChunkedBody")) {
+      try {
+        HttpRequests.execute(HttpRequest.get(getBaseURI().resolve(path).toURL()).build(), config);
+        Assert.fail("Expected " + path + " to exceed the maximum response size");
+      } catch (ResponseMemoryException e) {
+        // Expected
+      }
+    }
+    Assert.assertEquals(2L, budget.getRejectedCount());
+    Assert.assertEquals(0L, budget.getReservedBytes());
+  }
+
+  @Test
+  public void testRequestBody() throws Exception {
+    URL url = getBaseURI().resolve("/api/testPost").toURL();
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(4);
+    direct.put("body".getBytes(Charsets.UTF_8)).flip();
+    HttpRequest request = HttpRequest.post(url).addHeader("sdf", "!")
+      .withBody(ByteBuffer.wrap("direct ".getBytes(Charsets.UTF_8)), direct).build();
+    HttpResponse response = HttpRequests.execute(request, getHttpRequestsConfig());
+    Assert.assertEquals("direct body!", response.getResponseBodyAsString());
+
+    // A large body backed by buffers is handed to the transport without copying
+    byte[] content = createBody(BODY_SIZE);
+    ByteBuffer large = ByteBuffer.allocateDirect(BODY_SIZE - 17);
+    large.put(content, 17, large.capacity()).flip();
+    request = HttpRequest.post(getBaseURI().resolve("/api/testEcho").toURL())
+      .withBody(ByteBuffer.wrap(content, 0, 17), large).build();
+    Assert.assertArrayEquals(content, HttpRequests.execute(request, getHttpRequestsConfig()).getResponseBody());
+
+    // A body read from a supplier is buffered, unless it is sent in chunks
+    request = HttpRequest.post(url).addHeader("sdf", "!")
+      .withBody(ByteStreams.newInputStreamSupplier("buffered body".getBytes(Charsets.UTF_8))).build();
+    response = HttpRequests.execute(request, getHttpRequestsConfig());
+    Assert.assertEquals("buffered body!", response.getResponseBodyAsString());
+
+    request = HttpRequest.post(url).addHeader("sdf", "!")
+      .withBody(RequestBody.ofChunked(ByteStreams.newInputStreamSupplier("chunked body".getBytes(Charsets.UTF_8))))
+      .build();
+    response = HttpRequests.execute(request, getHttpRequestsConfig());
+    Assert.assertEquals("chunked body!", response.getResponseBodyAsString());
+  }
+
+  @Test
+  public void testJsonBody() throws Exception {
+    URL url = getBaseURI().resolve("/api/testEcho").toURL();
+    Map<String, List<Integer>> object = ImmutableMap.<String, List<Integer>>of("a", ImmutableList.of(1, 2, 3),
+                                                                               "b", ImmutableList.<Integer>of());
+    Type type = new TypeToken<Map<String, List<Integer>>>() { }.getType();
+
+    HttpRequest request = HttpRequest.post(url).withJsonBody(object, type).build();
+    ObjectResponse<Map<String, List<Integer>>> response =
+      ObjectResponse.fromJsonBody(HttpRequests.execute(request, getHttpRequestsConfig()), type);
+    Assert.assertEquals(object, response.getResponseObject());
+  }
+
+  @Test
+  public void testJsonLinesBody() throws Exception {
+    URL url = getBaseURI().resolve("/api/testEcho").toURL();
+    List<Integer> records = ImmutableList.of(1, 22, 333);
+
+    HttpRequest request = HttpRequest.post(url).withJsonLinesBody(records.iterator(), Integer.class, new Gson())
+      .build();
+    HttpResponse response = HttpRequests.execute(request, getHttpRequestsConfig());
+    Assert.assertEquals("1\n22\n333\n", response.getResponseBodyAsString());
+  }
+
+  @Test
+  public void testMultipartBody() throws Exception {
+    URL url = getBaseURI().resolve("/api/testMultipart").toURL();
+    byte[] content = createBody(BODY_SIZE);
+
+    // Every part has a known length
+    MultipartBody body = MultipartBody.builder()
+      .addFormField("field", "value \u00e9")
+      .addPart("buffer", "buffer.bin", "application/octet-stream", ByteBuffer.wrap(content))
+      .build();
+    HttpResponse response = HttpRequests.execute(HttpRequest.post(url).withBody(body).build(),
+                                                 getHttpRequestsConfig());
+    Assert.assertEquals("field=value \u00e9\nbuffer:buffer.bin=" + BODY_SIZE + "\n",
+                        response.getResponseBodyAsString());
+
+    // A part of unknown length makes the body chunked
+    body = MultipartBody.builder()
+      .addPart("stream", "stream.bin", "application/octet-stream", ByteStreams.newInputStreamSupplier(content))
+      .build();
+    Assert.assertEquals(-1L, body.getContentLength());
+    response = HttpRequests.execute(HttpRequest.post(url).withBody(body).build(), getHttpRequestsConfig());
+    Assert.assertEquals("stream:stream.bin=" + BODY_SIZE + "\n", response.getResponseBodyAsString());
+  }
+
+  @Test
+  public void testEventSource() throws Exception {
+    EVENT_CONNECTIONS.set(0);
+    URL url = getBaseURI().resolve("/api/testEvents").toURL();
+    EventSource eventSource = EventSource.builder(HttpRequest.get(url).build())
+      .setRequestConfig(getHttpRequestsConfig())
+      .setReconnectDelay(10000)
+      .setMaxReconnects(1)
+      .build();
+
+    // Reconnects after the retry time sent by the server, with the last event id, until the server sends 204
+    List<ServerSentEvent> events = ImmutableList.copyOf(eventSource.iterator());
+    Assert.assertEquals(ImmutableList.of(new ServerSentEvent("1", "message", "first"),
+                                         new ServerSentEvent("2", "update", "second\nline"),
+                                         new ServerSentEvent("3", "message", "after 2")), events);
+    Assert.assertEquals(3, EVENT_CONNECTIONS.get());
+
+    // Stops when the handler returns false
+    EVENT_CONNECTIONS.set(0);
+    final List<ServerSentEvent> received = Lists.newArrayList();
+    eventSource.consume(new EventStreamHandler() {
+      @Override
+      public boolean onEvent(ServerSentEvent event) {
+        received.add(event);
+        return false;
+      }
+    });
+    Assert.assertEquals(ImmutableList.of(new ServerSentEvent("1", "message", "first")), received);
+    Assert.assertEquals(1, EVENT_CONNECTIONS.get());
+  }
+
+  @Test
+  public void testEventSourceIdleStream() throws Exception {
+    URL url = getBaseURI().resolve("/api/testIdleStream").toURL();
+    EventSource eventSource = EventSource.builder(HttpRequest.get(url).build())
+      .setRequestConfig(getHttpRequestsConfig())
+      .setMaxReconnects(0)
+      .build();
+
+    // Stopping on an event does not wait for the server to end the stream
+    final List<ServerSentEvent> received = Lists.newArrayList();
+    long startTime = System.nanoTime();
+    eventSource.consume(new EventStreamHandler() {
+      @Override
+      public boolean onEvent(ServerSentEvent event) {
+        received.add(event);
+        return false;
+      }
+    });
+    Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < IDLE_STREAM_MILLIS / 2);
+    Assert.assertEquals(ImmutableList.of(new ServerSentEvent("1", "message", "first")), received);
+
+    // Closing ends the iterator while the stream is idle
+    Iterator<ServerSentEvent> iterator = eventSource.iterator();
+    Assert.assertEquals(new ServerSentEvent("1", "message", "first"), iterator.next());
+    startTime = System.nanoTime();
+    eventSource.close();
+    Assert.assertFalse(iterator.hasNext());
+    Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < IDLE_STREAM_MILLIS / 2);
+  }
+
+  private static byte[] createBody(int size) {
+    byte[] body = new byte[size];
+    for (int i = 0; i < size; i++) {
+      body[i] = (byte) i;
+    }
+    return body;
+  }
+
   private void testPost(String path, Map<String, String> headers, String body,
                         Matcher<Object> expectedResponseCode, Matcher<Object> expectedMessage,
                         Matcher<Object> expectedBody, Matcher<Object> expectedHeaders) throws Exception {
@@ -389,6 +684,98 @@ public abstract class HttpRequestsTestBase {
       responder.sendStatus(HttpResponseStatus.OK);
     }
 
+    @GET
+    @Path("/testBody")
+    public void testBody(org.jboss.netty.handler.codec.http.HttpRequest request,
+                         HttpResponder responder) throws Exception {
+      responder.sendByteArray(HttpResponseStatus.OK, createBody(BODY_SIZE), ImmutableMultimap.<String, String>of());
+    }
+
+    @GET
+    @Path("/testChunkedBody")
+    public void testChunkedBody(org.jboss.netty.handler.codec.http.HttpRequest request,
+                                HttpResponder responder) throws Exception {
+      ByteBuffer body = ByteBuffer.wrap(createBody(BODY_SIZE));
+      ChunkResponder chunkResponder = responder.sendChunkStart(HttpResponseStatus.OK,
+                                                               ImmutableMultimap.<String, String>of());
+      while (body.hasRemaining()) {
+        ByteBuffer chunk = body.slice();
+        chunk.limit(Math.min(chunk.remaining(), 10000));
+        body.position(body.position() + chunk.remaining());
+        chunkResponder.sendChunk(chunk);
+      }
+      chunkResponder.close();
+    }
+
+    @POST
+    @Path("/testEcho")
+    public void testEcho(org.jboss.netty.handler.codec.http.HttpRequest request,
+                         HttpResponder responder) throws Exception {
+      responder.sendContent(HttpResponseStatus.OK, request.getContent(), "application/octet-stream",
+                            ImmutableMultimap.<String, String>of());
+    }
+
+    @GET
+    @Path("/testEvents")
+    public void testEvents(org.jboss.netty.handler.codec.http.HttpRequest request,
+                           HttpResponder responder) throws Exception {
+      int connection = EVENT_CONNECTIONS.incrementAndGet();
+      if (connection > 2) {
+        responder.sendStatus(HttpResponseStatus.NO_CONTENT);
+        return;
+      }
+      ChunkResponder chunkResponder = responder.sendChunkStart(
+        HttpResponseStatus.OK, ImmutableMultimap.of("Content-Type", "text/event-stream"));
+      if (connection == 1) {
+        chunkResponder.sendChunk(Charsets.UTF_8.encode(": comment\nid: 1\ndata: first\n\n"));
+        chunkResponder.sendChunk(Charsets.UTF_8.encode("id: 2\nevent: update\ndata: second\ndata: line\n\n"));
+        chunkResponder.sendChunk(Charsets.UTF_8.encode("retry: 10\n\ndata: incomplete"));
+      } else {
+        chunkResponder.sendChunk(Charsets.UTF_8.encode("id: 3\ndata: after " + request.getHeader("Last-Event-ID")
+                                                         + "\n\n"));
+      }
+      chunkResponder.close();
+    }
+
+    @GET
+    @Path("/testIdleStream")
+    public void testIdleStream(org.jboss.netty.handler.codec.http.HttpRequest request,
+                               HttpResponder responder) throws Exception {
+      final ChunkResponder chunkResponder = responder.sendChunkStart(
+        HttpResponseStatus.OK, ImmutableMultimap.of("Content-Type", "text/event-stream"));
+      chunkResponder.sendChunk(Charsets.UTF_8.encode(IDLE_STREAM_EVENT));
+      IDLE_STREAM_CLOSER.schedule(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            chunkResponder.close();
+          } catch (Exception e) {
+            // The client has gone
+          }
+        }
+      }, IDLE_STREAM_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @POST
+    @Path("/testMultipart")
+    public void testMultipart(org.jboss.netty.handler.codec.http.HttpRequest request,
+                              HttpResponder responder) throws Exception {
+      HttpPostRequestDecoder decoder = new HttpPostRequestDecoder(new DefaultHttpDataFactory(false), request);
+      StringBuilder result = new StringBuilder();
+      for (InterfaceHttpData data : decoder.getBodyHttpDatas()) {
+        if (data instanceof FileUpload) {
+          FileUpload upload = (FileUpload) data;
+          Assert.assertArrayEquals(createBody(BODY_SIZE), upload.get());
+          result.append(upload.getName()).append(':').append(upload.getFilename()).append('=')
+            .append(upload.length()).append('\n');
+        } else {
+          Attribute attribute = (Attribute) data;
+          result.append(attribute.getName()).append('=').append(attribute.getValue()).append('\n');
+        }
+      }
+      responder.sendString(HttpResponseStatus.OK, result.toString());
+    }
+
     @GET
     @Path("/testWrongMethod")
     public void testWrongMethod(org.jboss.netty.handler.codec.http.HttpRequest request,
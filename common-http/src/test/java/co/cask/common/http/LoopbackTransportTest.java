@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test for {@link LoopbackTransport}.
+ */
+public class LoopbackTransportTest {
+
+  private static final LoopbackTransport.Handler ECHO_HANDLER = new LoopbackTransport.Handler() {
+    @Override
+    public void handle(LoopbackTransport.Exchange exchange) throws Exception {
+      HttpHeaders headers = exchange.getRequestHeaders();
+      exchange.addResponseHeader("X-Host", headers.getFirst("Host"))
+        .addResponseHeader("X-Method", exchange.getMethod().name());
+      if (headers.contains("Content-Length")) {
+        exchange.addResponseHeader("X-Length", headers.getFirst("Content-Length"));
+      }
+      exchange.respond(201, exchange.getRequestBody());
+    }
+  };
+
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  private final LoopbackTransport transport = LoopbackTransport.builder()
+    .addHandler("service", 8080, ECHO_HANDLER)
+    .addHandler("service", 8080, "/stream", new LoopbackTransport.Handler() {
+      @Override
+      public void handle(LoopbackTransport.Exchange exchange) throws Exception {
+        InputStream body = new ByteArrayInputStream("streamed".getBytes(Charsets.UTF_8)) {
+          @Override
+          public void close() {
+            closed.set(true);
+          }
+        };
+        exchange.respond(200, body, -1);
+      }
+    })
+    .addHandler("service", 8080, "/fail", new LoopbackTransport.Handler() {
+      @Override
+      public void handle(LoopbackTransport.Exchange exchange) throws Exception {
+        throw new IllegalStateException("failed");
+      }
+    })
+    .addHandler("other", 80, "/api", ECHO_HANDLER)
+    .build();
+
+  private final HttpRequestConfig config = HttpRequestConfig.DEFAULT.withTransport(transport);
+
+  @Test
+  public void testRequests() throws Exception {
+    HttpResponse response = HttpRequests.execute(HttpRequest.post(new URL("http://service:8080/echo"))
+                                                   .withBody("hello").build(), config);
+    Assert.assertEquals(201, response.getResponseCode());
+    Assert.assertEquals("Created", response.getResponseMessage());
+    Assert.assertEquals("hello", response.getResponseBodyAsString());
+    Assert.assertEquals("service:8080", response.getHeader("X-Host"));
+    Assert.assertEquals("5", response.getHeader("X-Length"));
+    Assert.assertEquals("5", response.getHeader("Content-Length"));
+
+    response = HttpRequests.execute(HttpRequest.get(new URL("http://other/api/items")).build(), config);
+    Assert.assertEquals("other", response.getHeader("X-Host"));
+    Assert.assertNull(response.getHeader("X-Length"));
+
+    // HEAD responses have no body, though their headers describe one
+    response = HttpRequests.execute(HttpRequest.head(new URL("http://service:8080/echo"))
+                                      .addHeader("Content-Length", "3").withBody("abc").build(), config);
+    Assert.assertEquals("3", response.getHeader("Content-Length"));
+    Assert.assertEquals(0, response.getResponseBody().length);
+  }
+
+  @Test
+  public void testStreamingBody() throws Exception {
+    StreamingResponse response = HttpRequests.executeStreaming(
+      HttpRequest.get(new URL("http://service:8080/stream")).build(), config);
+    Assert.assertEquals(-1, response.getContentLength());
+    Assert.assertFalse(closed.get());
+    Assert.assertEquals("streamed", new String(ByteStreams.toByteArray(response.getBody()), Charsets.UTF_8));
+    response.close();
+    Assert.assertTrue(closed.get());
+  }
+
+  @Test
+  public void testErrors() throws Exception {
+    HttpResponse response = HttpRequests.execute(HttpRequest.get(new URL("http://service:8080/fail")).build(),
+                                                 config);
+    Assert.assertEquals(500, response.getResponseCode());
+    Assert.assertEquals("failed", response.getResponseBodyAsString());
+
+    response = HttpRequests.execute(HttpRequest.get(new URL("http://other/missing")).build(), config);
+    Assert.assertEquals(404, response.getResponseCode());
+
+    // Prefixes match whole path segments only
+    response = HttpRequests.execute(HttpRequest.get(new URL("http://service:8080/failure")).build(), config);
+    Assert.assertEquals(201, response.getResponseCode());
+    response = HttpRequests.execute(HttpRequest.get(new URL("http://other/apis")).build(), config);
+    Assert.assertEquals(404, response.getResponseCode());
+    response = HttpRequests.execute(HttpRequest.get(new URL("http://other/api/v1")).build(), config);
+    Assert.assertEquals(201, response.getResponseCode());
+
+    try {
+      HttpRequests.execute(HttpRequest.get(new URL("http://service:8081/echo")).build(), config);
+      Assert.fail("Expected ConnectException");
+    } catch (ConnectException e) {
+      // Expected
+    }
+  }
+}
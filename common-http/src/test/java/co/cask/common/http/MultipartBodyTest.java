@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+/**
+ * Test for {@link MultipartBody}.
+ */
+public class MultipartBodyTest {
+
+  @ClassRule
+  public static final TemporaryFolder TMP_FOLDER = new TemporaryFolder();
+
+  @Test
+  public void testEncoding() throws Exception {
+    File file = TMP_FOLDER.newFile("data.txt");
+    Files.write("file", file, Charsets.UTF_8);
+
+    MultipartBody body = MultipartBody.builder()
+      .setBoundary("xyz")
+      .addFormField("a\"b", "value")
+      .addFile("file", file, "text/plain")
+      .addPart("buffer", null, null, ByteBuffer.wrap("buffer".getBytes(Charsets.UTF_8)))
+      .build();
+    Assert.assertEquals("multipart/form-data; boundary=xyz", body.getContentType());
+
+    String expected = "--xyz\r\n"
+      + "Content-Disposition: form-data; name=\"a%22b\"\r\n"
+      + "\r\n"
+      + "value\r\n"
+      + "--xyz\r\n"
+      + "Content-Disposition: form-data; name=\"file\"; filename=\"data.txt\"\r\n"
+      + "Content-Type: text/plain\r\n"
+      + "\r\n"
+      + "file\r\n"
+      + "--xyz\r\n"
+      + "Content-Disposition: form-data; name=\"buffer\"\r\n"
+      + "\r\n"
+      + "buffer\r\n"
+      + "--xyz--\r\n";
+    Assert.assertEquals(expected.length(), body.getContentLength());
+
+    // Written to a stream and to a channel
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    body.writeTo(os);
+    Assert.assertEquals(expected, new String(os.toByteArray(), Charsets.UTF_8));
+
+    os.reset();
+    body.writeTo(Channels.newChannel(os));
+    Assert.assertEquals(expected, new String(os.toByteArray(), Charsets.UTF_8));
+  }
+
+  @Test
+  public void testBoundarySetAfterParts() throws Exception {
+    MultipartBody body = MultipartBody.builder()
+      .addFormField("a", "1")
+      .addFormField("b", "2")
+      .setBoundary("xyz")
+      .build();
+    Assert.assertEquals("multipart/form-data; boundary=xyz", body.getContentType());
+
+    String expected = "--xyz\r\n"
+      + "Content-Disposition: form-data; name=\"a\"\r\n"
+      + "\r\n"
+      + "1\r\n"
+      + "--xyz\r\n"
+      + "Content-Disposition: form-data; name=\"b\"\r\n"
+      + "\r\n"
+      + "2\r\n"
+      + "--xyz--\r\n";
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    body.writeTo(os);
+    Assert.assertEquals(expected, new String(os.toByteArray(), Charsets.UTF_8));
+    Assert.assertEquals(expected.length(), body.getContentLength());
+  }
+
+  @Test
+  public void testRandomBoundary() {
+    String boundary = MultipartBody.builder().build().getBoundary();
+    Assert.assertEquals(32, boundary.length());
+    Assert.assertFalse(boundary.equals(MultipartBody.builder().build().getBoundary()));
+  }
+
+  @Test
+  public void testContentTypeHeader() throws Exception {
+    MultipartBody body = MultipartBody.builder().build();
+    HttpRequest request = HttpRequest.post(new URL("http://localhost/upload"))
+      .addHeader("content-type", "application/octet-stream")
+      .addHeader("X-Key", "value")
+      .withBody(body)
+      .build();
+    Assert.assertEquals(ImmutableList.of(body.getContentType()), request.getHttpHeaders().getAll("Content-Type"));
+    Assert.assertEquals("value", request.getHttpHeaders().getFirst("X-Key"));
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.reflect.TypeToken;
+import com.google.gson.Gson;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Test for {@link PagedIterator}.
+ */
+public class PagedIteratorTest {
+
+  private static final TypeToken<List<Integer>> ITEMS_TYPE = new TypeToken<List<Integer>>() { };
+  private static final String TOKEN_HEADER = "X-Continuation-Token";
+
+  private final AtomicInteger fetches = new AtomicInteger();
+
+  /**
+   * Serves pages of {@code size} numbers from {@code /items?page=n&size=n}, with the next page as the token up to
+   * {@code pages}. Page {@code empty} has no items, and page {@code fail} fails.
+   */
+  private final LoopbackTransport transport = LoopbackTransport.builder()
+    .addHandler("api", 80, new LoopbackTransport.Handler() {
+      @Override
+      public void handle(LoopbackTransport.Exchange exchange) throws Exception {
+        fetches.incrementAndGet();
+        int page = getParameter(exchange, "page", 0);
+        if (page == getParameter(exchange, "fail", -1)) {
+          exchange.respond(500);
+          return;
+        }
+        int size = page == getParameter(exchange, "empty", -1) ? 0 : getParameter(exchange, "size", 0);
+        List<Integer> items = Lists.newArrayList();
+        for (int i = 0; i < size; i++) {
+          items.add(page * 100 + i);
+        }
+        if (page + 1 < getParameter(exchange, "pages", 0)) {
+          exchange.addResponseHeader(TOKEN_HEADER, Integer.toString(page + 1));
+        }
+        exchange.respond(200, new Gson().toJson(items));
+      }
+    })
+    .build();
+
+  @Test
+  public void testIterate() throws Exception {
+    PagedIterator<Integer> iterator = PagedIterator.builder(fetcher("pages=4&size=3&empty=2")).build();
+    // Nothing is fetched before the iterator is used
+    TimeUnit.MILLISECONDS.sleep(50);
+    Assert.assertEquals(0, fetches.get());
+
+    Assert.assertEquals(ImmutableList.of(0, 1, 2, 100, 101, 102, 300, 301, 302), ImmutableList.copyOf(iterator));
+    Assert.assertEquals(4, fetches.get());
+  }
+
+  @Test
+  public void testReadAhead() throws Exception {
+    PagedIterator<Integer> iterator = PagedIterator.builder(fetcher("pages=10&size=2")).setReadAhead(2).build();
+    Assert.assertEquals(0, (int) iterator.next());
+    // The first page is being consumed, two are queued, and one more is fetched and waits for room
+    TimeUnit.MILLISECONDS.sleep(200);
+    Assert.assertEquals(4, fetches.get());
+
+    // Consuming a page makes room for one more
+    Assert.assertEquals(1, (int) iterator.next());
+    Assert.assertEquals(100, (int) iterator.next());
+    TimeUnit.MILLISECONDS.sleep(200);
+    Assert.assertEquals(5, fetches.get());
+
+    // Closing ends the iteration after the current page, and stops fetching
+    iterator.close();
+    Assert.assertEquals(101, (int) iterator.next());
+    Assert.assertFalse(iterator.hasNext());
+    TimeUnit.MILLISECONDS.sleep(200);
+    Assert.assertEquals(5, fetches.get());
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    PagedIterator<Integer> iterator = PagedIterator.builder(fetcher("pages=4&size=2&fail=1")).build();
+    Assert.assertEquals(0, (int) iterator.next());
+    Assert.assertEquals(1, (int) iterator.next());
+    try {
+      iterator.hasNext();
+      Assert.fail("Expected the failure of the second page");
+    } catch (RuntimeException e) {
+      Assert.assertTrue(e.getCause() instanceof IOException);
+    }
+    Assert.assertEquals(2, fetches.get());
+  }
+
+  @Test
+  public void testFetcherIllegalState() throws Exception {
+    PagedIterator<Integer> iterator = PagedIterator.builder(new PagedIterator.PageFetcher<Integer>() {
+      @Override
+      public PagedIterator.Page<Integer> fetch(@Nullable String continuationToken) {
+        if (continuationToken != null) {
+          throw new IllegalStateException("Invalid token " + continuationToken);
+        }
+        return PagedIterator.Page.of(ImmutableList.of(1), "next");
+      }
+    }).build();
+    Assert.assertEquals(1, (int) iterator.next());
+    try {
+      iterator.hasNext();
+      Assert.fail("Expected the failure of the second page");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("Invalid token next", e.getMessage());
+    }
+  }
+
+  private PagedIterator.PageFetcher<Integer> fetcher(final String query) {
+    final HttpRequestConfig config = HttpRequestConfig.DEFAULT.withTransport(transport);
+    return new PagedIterator.PageFetcher<Integer>() {
+      @Override
+      public PagedIterator.Page<Integer> fetch(@Nullable String continuationToken) throws IOException {
+        String page = continuationToken == null ? "0" : continuationToken;
+        HttpResponse response = HttpRequests.execute(
+          HttpRequest.get(new URL("http://api/items?page=" + page + "&" + query)).build(), config);
+        if (response.getResponseCode() != 200) {
+          throw new IOException("Failed to fetch page " + page + ": " + response.getResponseCode());
+        }
+        ObjectResponse<List<Integer>> items = ObjectResponse.fromJsonBody(response, ITEMS_TYPE);
+        return PagedIterator.Page.of(items, response.getHttpHeaders().getFirst(TOKEN_HEADER));
+      }
+    };
+  }
+
+  private static int getParameter(LoopbackTransport.Exchange exchange, String name, int defaultValue) {
+    for (String parameter : exchange.getURL().getQuery().split("&")) {
+      if (parameter.startsWith(name + "=")) {
+        return Integer.parseInt(parameter.substring(name.length() + 1));
+      }
+    }
+    return defaultValue;
+  }
+}
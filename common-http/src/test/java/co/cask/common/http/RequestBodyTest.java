@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.gson.Gson;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Test for {@link RequestBody}.
+ */
+public class RequestBodyTest {
+
+  @ClassRule
+  public static final TemporaryFolder TMP_FOLDER = new TemporaryFolder();
+
+  @Test
+  public void testByteBuffers() throws IOException {
+    ByteBuffer heap = ByteBuffer.wrap("0123456789".getBytes(Charsets.UTF_8));
+    heap.position(2);
+    ByteBuffer direct = ByteBuffer.allocateDirect(6);
+    direct.put("abcdef".getBytes(Charsets.UTF_8)).flip();
+
+    RequestBody body = RequestBody.of(heap, direct);
+    Assert.assertEquals(14L, body.getContentLength());
+
+    // Written to a stream
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    body.writeTo(os);
+    Assert.assertEquals("23456789abcdef", new String(os.toByteArray(), Charsets.UTF_8));
+
+    // Written to a channel with gathering writes, which accepts at most 3 bytes per write
+    os.reset();
+    RecordingChannel channel = new RecordingChannel(os, 3);
+    body.writeTo(channel);
+    Assert.assertEquals("23456789abcdef", new String(os.toByteArray(), Charsets.UTF_8));
+    Assert.assertEquals(5, channel.gatheringWrites);
+
+    // The buffers are not consumed
+    Assert.assertEquals(2, heap.position());
+    Assert.assertEquals(0, direct.position());
+    Assert.assertEquals("23456789abcdef", new String(ByteStreams.toByteArray(body.toInputSupplier()),
+                                                     Charsets.UTF_8));
+
+    // The buffers are handed out as duplicates
+    ByteBuffer[] buffers = body.getBuffers();
+    Assert.assertEquals(2, buffers.length);
+    buffers[0].position(buffers[0].limit());
+    Assert.assertEquals(2, heap.position());
+    Assert.assertNull(RequestBody.of(TMP_FOLDER.newFile()).getBuffers());
+  }
+
+  @Test
+  public void testFile() throws IOException {
+    File file = TMP_FOLDER.newFile();
+    Files.write("file content", file, Charsets.UTF_8);
+
+    RequestBody body = RequestBody.of(file);
+    Assert.assertEquals(file.length(), body.getContentLength());
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    body.writeTo(Channels.newChannel(os));
+    Assert.assertEquals("file content", new String(os.toByteArray(), Charsets.UTF_8));
+
+    // A region of the file
+    body = RequestBody.of(file, 5, 3);
+    Assert.assertEquals(3L, body.getContentLength());
+    os.reset();
+    body.writeTo(Channels.newChannel(os));
+    Assert.assertEquals("con", new String(os.toByteArray(), Charsets.UTF_8));
+    os.reset();
+    body.writeTo(os);
+    Assert.assertEquals("con", new String(os.toByteArray(), Charsets.UTF_8));
+  }
+
+  @Test
+  public void testJsonLinesQueue() throws Exception {
+    final RecordQueue<Integer> queue = new RecordQueue<Integer>(4);
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < 1000; i++) {
+            queue.put(i);
+          }
+          queue.close();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    producer.start();
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    RequestBody.ofJsonLines(queue, Integer.class, new Gson()).writeTo(os);
+    producer.join();
+
+    String[] lines = new String(os.toByteArray(), Charsets.UTF_8).split("\n");
+    Assert.assertEquals(1000, lines.length);
+    for (int i = 0; i < lines.length; i++) {
+      Assert.assertEquals(Integer.toString(i), lines[i]);
+    }
+  }
+
+  @Test
+  public void testJsonLinesQueueAbort() throws Exception {
+    RecordQueue<String> queue = new RecordQueue<String>(1);
+    queue.put("first");
+    try {
+      RequestBody.ofJsonLines(queue, String.class, new Gson()).writeTo(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          throw new IOException("Connection closed");
+        }
+      });
+      Assert.fail("Expected IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+
+    // Producers are not blocked once the body stopped writing
+    try {
+      queue.put("second");
+      Assert.fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * A {@link GatheringByteChannel} that writes at most a given number of bytes per write to a stream.
+   */
+  private static final class RecordingChannel implements GatheringByteChannel {
+
+    private final WritableByteChannel delegate;
+    private final int maxWrite;
+    private int gatheringWrites;
+
+    RecordingChannel(ByteArrayOutputStream os, int maxWrite) {
+      this.delegate = Channels.newChannel(os);
+      this.maxWrite = maxWrite;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+      gatheringWrites++;
+      int written = 0;
+      for (int i = offset; i < offset + length && written < maxWrite; i++) {
+        ByteBuffer src = srcs[i].duplicate();
+        src.limit(src.position() + Math.min(src.remaining(), maxWrite - written));
+        int len = delegate.write(src);
+        srcs[i].position(srcs[i].position() + len);
+        written += len;
+      }
+      return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+      return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      return (int) write(new ByteBuffer[] { src });
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      // No-op
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import co.cask.common.http.exception.ResponseMemoryException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for {@link ResponseMemoryBudget}.
+ */
+public class ResponseMemoryBudgetTest {
+
+  @Test
+  public void testFailFast() throws Exception {
+    ResponseMemoryBudget budget = ResponseMemoryBudget.builder(100).setMaxResponseSize(60).setMaxWait(0).build();
+
+    budget.reserve(60);
+    budget.reserve(40);
+    Assert.assertEquals(100L, budget.getReservedBytes());
+    try {
+      budget.reserve(1);
+      Assert.fail("Expected the budget to be exhausted");
+    } catch (ResponseMemoryException e) {
+      // Expected
+    }
+
+    budget.release(40);
+    budget.reserve(30);
+    Assert.assertEquals(90L, budget.getReservedBytes());
+
+    budget.checkSize(60);
+    try {
+      budget.checkSize(61);
+      Assert.fail("Expected the response to be too large");
+    } catch (ResponseMemoryException e) {
+      // Expected
+    }
+    Assert.assertEquals(2L, budget.getRejectedCount());
+  }
+
+  @Test
+  public void testBlocking() throws Exception {
+    final ResponseMemoryBudget budget = ResponseMemoryBudget.builder(100).setMaxWait(10000).build();
+    budget.reserve(80);
+
+    final CountDownLatch reserved = new CountDownLatch(1);
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          budget.reserve(50);
+          reserved.countDown();
+        } catch (Exception e) {
+          // The latch is not counted down, which fails the test
+        }
+      }
+    };
+    thread.start();
+
+    // The reader waits until enough memory is released
+    while (budget.getWaitingReads() == 0) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    Assert.assertEquals(50L, budget.getWaitingBytes());
+    Assert.assertFalse(reserved.await(100, TimeUnit.MILLISECONDS));
+
+    budget.release(30);
+    Assert.assertTrue(reserved.await(10, TimeUnit.SECONDS));
+    thread.join();
+    Assert.assertEquals(100L, budget.getReservedBytes());
+    Assert.assertEquals(0L, budget.getWaitingBytes());
+  }
+
+  @Test(expected = ResponseMemoryException.class)
+  public void testWaitTimeout() throws Exception {
+    ResponseMemoryBudget budget = ResponseMemoryBudget.builder(100).setMaxWait(50).build();
+    budget.reserve(80);
+    budget.reserve(50);
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Test for {@link ResumableUploader}.
+ */
+public class ResumableUploaderTest {
+
+  @ClassRule
+  public static final TemporaryFolder TMP_FOLDER = new TemporaryFolder();
+
+  private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+  private static final int CHUNK_SIZE = 100 * 1024;
+  private static final byte[] CONTENT = new byte[10 * CHUNK_SIZE + 17];
+
+  private static HttpServer server;
+  private static byte[] received;
+  private static Set<Long> receivedChunks;
+  private static Set<Long> failOnce;
+  private static Set<Long> failAlways;
+  private static Map<Long, Long> acknowledgeOnce;
+  private static Set<Long> keepNoneOnce;
+  private static AtomicInteger requests;
+
+  @BeforeClass
+  public static void init() throws IOException {
+    new Random(0).nextBytes(CONTENT);
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/upload", new UploadHandler());
+    server.start();
+  }
+
+  @AfterClass
+  public static void finish() {
+    server.stop(0);
+  }
+
+  @Before
+  public void reset() {
+    received = new byte[CONTENT.length];
+    receivedChunks = Collections.synchronizedSet(Sets.<Long>newHashSet());
+    failOnce = Collections.synchronizedSet(Sets.<Long>newHashSet());
+    failAlways = Collections.synchronizedSet(Sets.<Long>newHashSet());
+    acknowledgeOnce = Collections.synchronizedMap(Maps.<Long, Long>newHashMap());
+    keepNoneOnce = Collections.synchronizedSet(Sets.<Long>newHashSet());
+    requests = new AtomicInteger();
+  }
+
+  @Test
+  public void testResume() throws Exception {
+    File file = TMP_FOLDER.newFile();
+    Files.write(CONTENT, file);
+    File checkpointFile = new File(TMP_FOLDER.newFolder(), "checkpoint");
+
+    // The chunk at offset 5 * CHUNK_SIZE keeps failing, so the upload stops before it
+    failAlways.add(5L * CHUNK_SIZE);
+    ResumableUploader uploader = ResumableUploader.builder().setChunkSize(CHUNK_SIZE).setMaxRetries(1).build();
+    HttpRequest request = HttpRequest.put(getURL()).build();
+    try {
+      uploader.upload(request, file, UploadCheckpoint.inFile(checkpointFile));
+      Assert.fail("Expected IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+    Assert.assertEquals(5L * CHUNK_SIZE, UploadCheckpoint.inFile(checkpointFile).getOffset());
+    Assert.assertEquals(5, receivedChunks.size());
+
+    // Resumes from the checkpoint
+    failAlways.clear();
+    receivedChunks.clear();
+    Assert.assertEquals(CONTENT.length - 5L * CHUNK_SIZE,
+                        uploader.upload(request, file, UploadCheckpoint.inFile(checkpointFile)));
+    Assert.assertEquals(6, receivedChunks.size());
+    Assert.assertFalse(receivedChunks.contains(0L));
+    Assert.assertEquals(CONTENT.length, UploadCheckpoint.inFile(checkpointFile).getOffset());
+    Assert.assertArrayEquals(CONTENT, received);
+  }
+
+  @Test
+  public void testPartialAcknowledgement() throws Exception {
+    File file = TMP_FOLDER.newFile();
+    Files.write(CONTENT, file);
+
+    // The server keeps half of the third chunk, then reports the fifth chunk lost when the sixth is sent
+    acknowledgeOnce.put(2L * CHUNK_SIZE, 2L * CHUNK_SIZE + CHUNK_SIZE / 2);
+    acknowledgeOnce.put(5L * CHUNK_SIZE, 4L * CHUNK_SIZE);
+    ResumableUploader uploader = ResumableUploader.builder().setChunkSize(CHUNK_SIZE).setMaxRetries(1).build();
+    UploadCheckpoint checkpoint = UploadCheckpoint.inMemory();
+    uploader.upload(HttpRequest.put(getURL()).build(), file, checkpoint);
+    Assert.assertEquals(CONTENT.length, checkpoint.getOffset());
+    Assert.assertArrayEquals(CONTENT, received);
+
+    // The rest of the third chunk is sent once, and the fifth chunk is sent again
+    Assert.assertTrue(receivedChunks.contains(2L * CHUNK_SIZE + CHUNK_SIZE / 2));
+    Assert.assertEquals(11 + 1 + 2, requests.get());
+  }
+
+  @Test
+  public void testNothingKept() throws Exception {
+    File file = TMP_FOLDER.newFile();
+    Files.write(CONTENT, file);
+
+    // A response without a Range keeps nothing: the first chunk is sent again, and later the upload restarts
+    keepNoneOnce.add(0L);
+    keepNoneOnce.add(3L * CHUNK_SIZE);
+    ResumableUploader uploader = ResumableUploader.builder().setChunkSize(CHUNK_SIZE).setMaxRetries(1).build();
+    UploadCheckpoint checkpoint = UploadCheckpoint.inMemory();
+    uploader.upload(HttpRequest.put(getURL()).build(), file, checkpoint);
+    Assert.assertEquals(CONTENT.length, checkpoint.getOffset());
+    Assert.assertArrayEquals(CONTENT, received);
+    Assert.assertEquals(1 + 4 + 11, requests.get());
+  }
+
+  @Test
+  public void testParallel() throws Exception {
+    File file = TMP_FOLDER.newFile();
+    Files.write(CONTENT, file);
+
+    // A failure that a retry recovers from
+    failOnce.add(3L * CHUNK_SIZE);
+    ResumableUploader uploader = ResumableUploader.builder()
+      .setChunkSize(CHUNK_SIZE).setParallelism(4).setMaxRetries(1).build();
+    UploadCheckpoint checkpoint = UploadCheckpoint.inMemory();
+    Assert.assertEquals(CONTENT.length, uploader.upload(HttpRequest.post(getURL()).build(), file, checkpoint));
+    Assert.assertEquals(CONTENT.length, checkpoint.getOffset());
+    Assert.assertEquals(11, receivedChunks.size());
+    Assert.assertArrayEquals(CONTENT, received);
+  }
+
+  private URL getURL() throws IOException {
+    return new URL("http://localhost:" + server.getAddress().getPort() + "/upload");
+  }
+
+  /**
+   * Writes received chunks into {@link #received}, unless the offset of the chunk is set to fail. A chunk at an
+   * offset in {@link #acknowledgeOnce} is acknowledged up to the offset it maps to, and only kept up to there. A
+   * chunk at an offset in {@link #keepNoneOnce} gets a {@code 308} response without a {@code Range} header.
+   */
+  private static final class UploadHandler implements HttpHandler {
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        Matcher matcher = CONTENT_RANGE.matcher(exchange.getRequestHeaders().getFirst("Content-Range"));
+        Assert.assertTrue(matcher.matches());
+        long start = Long.parseLong(matcher.group(1));
+        int length = (int) (Long.parseLong(matcher.group(2)) - start + 1);
+        Assert.assertEquals(CONTENT.length, Long.parseLong(matcher.group(3)));
+
+        byte[] chunk = ByteStreams.toByteArray(exchange.getRequestBody());
+        Assert.assertEquals(length, chunk.length);
+        requests.incrementAndGet();
+        if (failOnce.remove(start) || failAlways.contains(start)) {
+          exchange.sendResponseHeaders(503, -1);
+          return;
+        }
+        Long acknowledged = acknowledgeOnce.remove(start);
+        if (acknowledged != null) {
+          if (acknowledged > start) {
+            System.arraycopy(chunk, 0, received, (int) start, (int) (acknowledged - start));
+          }
+          exchange.getResponseHeaders().add("Range", "bytes=0-" + (acknowledged - 1));
+          exchange.sendResponseHeaders(308, -1);
+          return;
+        }
+        if (keepNoneOnce.remove(start)) {
+          exchange.sendResponseHeaders(308, -1);
+          return;
+        }
+        System.arraycopy(chunk, 0, received, (int) start, length);
+        receivedChunks.add(start);
+        if (start + length == CONTENT.length) {
+          exchange.sendResponseHeaders(200, -1);
+        } else {
+          exchange.getResponseHeaders().add("Range", "bytes=0-" + (start + length - 1));
+          exchange.sendResponseHeaders(308, -1);
+        }
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Test for {@link SegmentedDownloader}.
+ */
+public class SegmentedDownloaderTest {
+
+  @ClassRule
+  public static final TemporaryFolder TMP_FOLDER = new TemporaryFolder();
+
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+  private static final byte[] CONTENT = new byte[3 * 1024 * 1024 + 17];
+  private static final AtomicInteger RANGE_REQUESTS = new AtomicInteger();
+  private static final AtomicInteger FAILURES = new AtomicInteger();
+
+  private static HttpServer server;
+
+  @BeforeClass
+  public static void init() throws IOException {
+    new Random(0).nextBytes(CONTENT);
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/ranged", new ResourceHandler(true));
+    server.createContext("/plain", new ResourceHandler(false));
+    server.start();
+  }
+
+  @AfterClass
+  public static void finish() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testRangedDownload() throws Exception {
+    RANGE_REQUESTS.set(0);
+    // The first range request beyond the start of the resource fails half way
+    FAILURES.set(1);
+
+    File file = TMP_FOLDER.newFile();
+    SegmentedDownloader downloader = SegmentedDownloader.builder()
+      .setSegments(4)
+      .setMinSegmentSize(256 * 1024)
+      .build();
+    Assert.assertEquals(CONTENT.length, downloader.download(HttpRequest.get(getURL("/ranged")).build(), file));
+    Assert.assertArrayEquals(CONTENT, Files.toByteArray(file));
+    Assert.assertEquals(5, RANGE_REQUESTS.get());
+  }
+
+  @Test
+  public void testPlainDownload() throws Exception {
+    RANGE_REQUESTS.set(0);
+
+    // Existing content of the file is replaced
+    File file = TMP_FOLDER.newFile();
+    Files.write(new byte[CONTENT.length + 100], file);
+
+    SegmentedDownloader downloader = SegmentedDownloader.builder().setMinSegmentSize(256 * 1024).build();
+    Assert.assertEquals(CONTENT.length, downloader.download(HttpRequest.get(getURL("/plain")).build(), file));
+    Assert.assertArrayEquals(CONTENT, Files.toByteArray(file));
+    Assert.assertEquals(0, RANGE_REQUESTS.get());
+  }
+
+  private URL getURL(String path) throws IOException {
+    return new URL("http://localhost:" + server.getAddress().getPort() + path);
+  }
+
+  /**
+   * Serves {@link #CONTENT}, optionally with support for byte ranges.
+   */
+  private static final class ResourceHandler implements HttpHandler {
+
+    private final boolean ranged;
+
+    ResourceHandler(boolean ranged) {
+      this.ranged = ranged;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        if (ranged) {
+          exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+          exchange.getResponseHeaders().set("ETag", "\"v1\"");
+        }
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+          exchange.getResponseHeaders().set("Content-Length", Integer.toString(CONTENT.length));
+          exchange.sendResponseHeaders(200, -1);
+          return;
+        }
+
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (!ranged || range == null) {
+          exchange.sendResponseHeaders(200, CONTENT.length);
+          exchange.getResponseBody().write(CONTENT);
+          return;
+        }
+
+        RANGE_REQUESTS.incrementAndGet();
+        Assert.assertEquals("\"v1\"", exchange.getRequestHeaders().getFirst("If-Range"));
+        Matcher matcher = RANGE.matcher(range);
+        Assert.assertTrue(matcher.matches());
+        int start = Integer.parseInt(matcher.group(1));
+        int end = Integer.parseInt(matcher.group(2));
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + CONTENT.length);
+        exchange.sendResponseHeaders(206, end - start + 1);
+
+        OutputStream os = exchange.getResponseBody();
+        if (start > 0 && FAILURES.getAndDecrement() > 0) {
+          os.write(CONTENT, start, (end - start + 1) / 2);
+          os.flush();
+          throw new IOException("Simulated failure");
+        }
+        os.write(CONTENT, start, end - start + 1);
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+/**
+ * Runs the {@link HttpRequests} tests against HTTPS with {@link SocketTransport}.
+ */
+public class SocketTransportHttpsRequestsTest extends HttpsRequestsTest {
+
+  private static SocketTransport transport;
+
+  @BeforeClass
+  public static void init() {
+    transport = SocketTransport.builder().build();
+  }
+
+  @AfterClass
+  public static void finish() {
+    transport.close();
+  }
+
+  @Override
+  protected HttpRequestConfig getHttpRequestsConfig() {
+    return super.getHttpRequestsConfig().withTransport(transport);
+  }
+}
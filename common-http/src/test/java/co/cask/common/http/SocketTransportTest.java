@@ -0,0 +1,273 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.io.InputSupplier;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+/**
+ * Test for {@link SocketTransport}.
+ */
+public class SocketTransportTest {
+
+  @ClassRule
+  public static final TemporaryFolder TMP_FOLDER = new TemporaryFolder();
+
+  private static final Set<Integer> CLIENT_PORTS = Collections.synchronizedSet(Sets.<Integer>newHashSet());
+
+  private static final HttpHandler ECHO_HANDLER = new HttpHandler() {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      CLIENT_PORTS.add(exchange.getRemoteAddress().getPort());
+      byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+      String header = exchange.getRequestHeaders().getFirst("X-Echo");
+      if (header != null) {
+        exchange.getResponseHeaders().add("X-Echo", header);
+      }
+      String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+      if (contentLength != null) {
+        exchange.getResponseHeaders().add("X-Content-Length", contentLength);
+      }
+      // Responds with chunked encoding when asked to
+      boolean chunked = exchange.getRequestURI().getQuery() != null;
+      exchange.sendResponseHeaders(200, chunked ? 0 : (body.length == 0 ? -1 : body.length));
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    }
+  };
+
+  private static HttpServer server;
+  private static SocketTransport transport;
+
+  @BeforeClass
+  public static void init() throws IOException {
+    // Only listens on IPv4, so clients resolving localhost to ::1 first fall back to 127.0.0.1
+    server = startServer(new InetSocketAddress("127.0.0.1", 0));
+    transport = SocketTransport.builder().build();
+  }
+
+  @AfterClass
+  public static void finish() {
+    transport.close();
+    server.stop(0);
+  }
+
+  @Test
+  public void testRequests() throws Exception {
+    URL url = getURL("/echo");
+    HttpResponse response = transport.execute(HttpRequest.post(url).addHeader("X-Echo", "value")
+                                                .withBody("hello").build(), HttpRequestConfig.DEFAULT);
+    Assert.assertEquals(200, response.getResponseCode());
+    Assert.assertEquals("hello", response.getResponseBodyAsString());
+    Assert.assertEquals("value", response.getHeader("X-Echo"));
+
+    // Request body of unknown length, sent with chunked encoding, and a chunked response
+    final byte[] body = new byte[100000];
+    for (int i = 0; i < body.length; i++) {
+      body[i] = (byte) i;
+    }
+    InputSupplier<InputStream> supplier = new InputSupplier<InputStream>() {
+      @Override
+      public InputStream getInput() throws IOException {
+        return new ByteArrayInputStream(body);
+      }
+    };
+    response = transport.execute(HttpRequest.post(getURL("/echo?chunked")).withBody(RequestBody.ofChunked(supplier))
+                                   .build(), HttpRequestConfig.DEFAULT);
+    Assert.assertArrayEquals(body, response.getResponseBody());
+    Assert.assertNull(response.getHeader("X-Content-Length"));
+
+    // A body read from a supplier is buffered and sent with its length, with either transport
+    HttpRequest request = HttpRequest.post(getURL("/echo")).withBody(supplier).build();
+    response = transport.execute(request, HttpRequestConfig.DEFAULT);
+    Assert.assertArrayEquals(body, response.getResponseBody());
+    Assert.assertEquals(Integer.toString(body.length), response.getHeader("X-Content-Length"));
+    response = HttpRequests.execute(request, HttpRequestConfig.DEFAULT);
+    Assert.assertEquals(Integer.toString(body.length), response.getHeader("X-Content-Length"));
+
+    response = transport.execute(HttpRequest.get(url).build(), HttpRequestConfig.DEFAULT);
+    Assert.assertEquals(200, response.getResponseCode());
+    Assert.assertEquals(0, response.getResponseBody().length);
+
+    response = transport.execute(HttpRequest.head(url).build(), HttpRequestConfig.DEFAULT);
+    Assert.assertEquals(200, response.getResponseCode());
+  }
+
+  @Test
+  public void testChannelBodies() throws Exception {
+    // Bodies larger than the connection buffer are written to the socket channel instead of its stream
+    URL url = getURL("/echo");
+    byte[] content = new byte[200000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) i;
+    }
+    ByteBuffer direct = ByteBuffer.allocateDirect(content.length - 1000);
+    direct.put(content, 1000, direct.capacity()).flip();
+    HttpResponse response = transport.execute(HttpRequest.post(url).withBody(ByteBuffer.wrap(content, 0, 1000),
+                                                                             direct).build(),
+                                              HttpRequestConfig.DEFAULT);
+    Assert.assertArrayEquals(content, response.getResponseBody());
+
+    File file = TMP_FOLDER.newFile();
+    Files.write(content, file);
+    response = transport.execute(HttpRequest.post(url).withBody(file).build(), HttpRequestConfig.DEFAULT);
+    Assert.assertArrayEquals(content, response.getResponseBody());
+
+    response = transport.execute(HttpRequest.post(url).withBody(RequestBody.of(file, 100, 150000)).build(),
+                                 HttpRequestConfig.DEFAULT);
+    Assert.assertArrayEquals(Arrays.copyOfRange(content, 100, 150100), response.getResponseBody());
+  }
+
+  @Test
+  public void testConnectionReuse() throws Exception {
+    URL url = getURL("/echo");
+    SocketTransport transport = SocketTransport.builder().build();
+    try {
+      CLIENT_PORTS.clear();
+      for (int i = 0; i < 5; i++) {
+        String body = "request " + i;
+        HttpResponse response = transport.execute(HttpRequest.post(url).withBody(body).build(),
+                                                  HttpRequestConfig.DEFAULT);
+        Assert.assertEquals(body, response.getResponseBodyAsString());
+        Assert.assertEquals(1, transport.getIdleConnections(url, HttpRequestConfig.DEFAULT));
+      }
+      Assert.assertEquals(1, CLIENT_PORTS.size());
+
+      // A response closed before its body is read only gives back its connection if the body is small
+      StreamingResponse response = transport.executeStreaming(HttpRequest.post(url).withBody("body").build(),
+                                                              HttpRequestConfig.DEFAULT);
+      Assert.assertEquals(0, transport.getIdleConnections(url, HttpRequestConfig.DEFAULT));
+      response.close();
+      Assert.assertEquals(1, transport.getIdleConnections(url, HttpRequestConfig.DEFAULT));
+
+      response = transport.executeStreaming(HttpRequest.post(url).withBody("body").build(),
+                                            HttpRequestConfig.DEFAULT);
+      response.abort();
+      Assert.assertEquals(0, transport.getIdleConnections(url, HttpRequestConfig.DEFAULT));
+    } finally {
+      transport.close();
+    }
+  }
+
+  @Test
+  public void testFailingBody() throws Exception {
+    // The server only reads, so the test sees the connection close when the client gives up on it
+    ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    SocketTransport transport = SocketTransport.builder().build();
+    try {
+      RequestBody body = new RequestBody() {
+        @Override
+        public long getContentLength() {
+          return -1L;
+        }
+
+        @Override
+        public void writeTo(OutputStream os) throws IOException {
+          os.write(new byte[100]);
+          throw new IllegalStateException("Records aborted");
+        }
+      };
+      URL url = new URL("http://127.0.0.1:" + serverSocket.getLocalPort() + "/fail");
+      try {
+        transport.execute(HttpRequest.post(url).withBody(body).build(), HttpRequestConfig.DEFAULT);
+        Assert.fail("Expected IllegalStateException");
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+
+      Socket socket = serverSocket.accept();
+      try {
+        socket.setSoTimeout(10000);
+        ByteStreams.toByteArray(socket.getInputStream());
+      } finally {
+        socket.close();
+      }
+    } finally {
+      transport.close();
+      serverSocket.close();
+    }
+  }
+
+  @Test
+  public void testStaleConnection() throws Exception {
+    URL url = getURL("/echo");
+    SocketTransport transport = SocketTransport.builder().build();
+    try {
+      HttpResponse response = transport.execute(HttpRequest.post(url).withBody("first").build(),
+                                                HttpRequestConfig.DEFAULT);
+      Assert.assertEquals("first", response.getResponseBodyAsString());
+
+      // Closes the connection from the server side while it is idle, which the next request has to notice
+      server.stop(0);
+      server = startServer(server.getAddress());
+      response = transport.execute(HttpRequest.get(url).addHeader("X-Echo", "second").build(),
+                                   HttpRequestConfig.DEFAULT);
+      Assert.assertEquals("second", response.getHeader("X-Echo"));
+    } finally {
+      transport.close();
+    }
+  }
+
+  @Test
+  public void testDualStack() throws Exception {
+    // localhost may resolve to ::1 first, which the server does not listen on
+    URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/echo");
+    HttpResponse response = transport.execute(HttpRequest.post(url).withBody("dual").build(),
+                                              HttpRequestConfig.DEFAULT);
+    Assert.assertEquals("dual", response.getResponseBodyAsString(Charsets.UTF_8));
+  }
+
+  private static HttpServer startServer(InetSocketAddress address) throws IOException {
+    HttpServer server = HttpServer.create(address, 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/echo", ECHO_HANDLER);
+    server.start();
+    return server;
+  }
+
+  private static URL getURL(String path) throws IOException {
+    return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for {@link TrafficRecorder} and {@link TrafficReplayer}.
+ */
+public class TrafficReplayerTest {
+
+  @Rule
+  public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void testRecordAndReplay() throws Exception {
+    final List<String> received = Collections.synchronizedList(Lists.<String>newArrayList());
+    LoopbackTransport.Handler handler = new LoopbackTransport.Handler() {
+      @Override
+      public void handle(LoopbackTransport.Exchange exchange) throws Exception {
+        received.add(exchange.getMethod() + " " + exchange.getURL() + " "
+                       + exchange.getRequestHeaders().getFirst("X-Test") + " "
+                       + exchange.getRequestBodyAsString());
+        exchange.respond(exchange.getURL().getPath().equals("/missing") ? 404 : 200);
+      }
+    };
+    LoopbackTransport transport = LoopbackTransport.builder()
+      .addHandler("recorded", 80, handler)
+      .addHandler("replayed", 8080, handler)
+      .build();
+
+    File log = tmpFolder.newFile();
+    TrafficRecorder recorder = TrafficRecorder.builder(log).build();
+    HttpRequestConfig config = HttpRequestConfig.DEFAULT.withTransport(transport).withEventListener(recorder);
+    HttpRequests.execute(HttpRequest.get(new URL("http://recorded/items?page=1")).addHeader("X-Test", "a").build(),
+                         config);
+    HttpRequests.execute(HttpRequest.post(new URL("http://recorded/items")).addHeader("X-Test", "b")
+                           .withBody("body").build(), config);
+    HttpRequests.execute(HttpRequest.get(new URL("http://recorded/missing")).addHeader("X-Test", "c").build(),
+                         config);
+    recorder.close();
+    Assert.assertEquals(3, recorder.getRecorded());
+    Assert.assertEquals(0, recorder.getDropped());
+
+    List<String> expected = ImmutableList.of(
+      "GET http://replayed:8080/items?page=1 a ",
+      "POST http://replayed:8080/items b body",
+      "GET http://replayed:8080/missing c ");
+    received.clear();
+
+    LoadResult result = TrafficReplayer.builder(log)
+      .setTarget(new URL("http://replayed:8080"))
+      .setRateMultiplier(100)
+      .setThreads(1)
+      .setRequestConfig(HttpRequestConfig.DEFAULT.withTransport(transport))
+      .build()
+      .replay();
+
+    Assert.assertEquals(expected, received);
+    Assert.assertEquals(3, result.getRequests());
+    Assert.assertEquals(0, result.getFailures());
+    Assert.assertEquals(1, result.getErrorResponses());
+    Assert.assertEquals(3, result.getLatency().getCount());
+    Assert.assertEquals(3, result.getServiceTime().getCount());
+    // Latency is measured from the time a request was due, so it includes the service time
+    Assert.assertTrue(result.getLatency().getValueAtPercentile(100)
+                        >= result.getServiceTime().getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testOpenLoop() throws Exception {
+    // A server that takes 50ms per request, which a single thread cannot keep up with at the recorded rate
+    LoopbackTransport transport = LoopbackTransport.builder()
+      .addHandler("slow", 80, new LoopbackTransport.Handler() {
+        @Override
+        public void handle(LoopbackTransport.Exchange exchange) throws Exception {
+          Thread.sleep(50);
+          exchange.respond(200);
+        }
+      })
+      .build();
+
+    File log = tmpFolder.newFile();
+    TrafficRecorder recorder = TrafficRecorder.builder(log).build();
+    URL url = new URL("http://slow/");
+    for (int i = 0; i < 5; i++) {
+      recorder.requestStart(HttpRequest.get(url).build(), System.nanoTime());
+    }
+    recorder.close();
+
+    LoadResult result = TrafficReplayer.builder(log)
+      .setThreads(1)
+      .setRequestConfig(HttpRequestConfig.DEFAULT.withTransport(transport))
+      .build()
+      .replay();
+
+    // All requests were due at once, so the last one waited for the four before it
+    Assert.assertEquals(5, result.getRequests());
+    Assert.assertTrue(result.getServiceTime().getValueAtPercentile(100) < 200000);
+    Assert.assertTrue(result.getLatency().getValueAtPercentile(100) >= 250000);
+  }
+
+  @Test
+  public void testWriteFailure() throws Exception {
+    // A target that takes the header of the log, then fails
+    OutputStream target = new OutputStream() {
+      private boolean headerWritten;
+
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        if (headerWritten) {
+          throw new IOException("Target is not writable");
+        }
+        headerWritten = true;
+      }
+    };
+    TrafficRecorder recorder = new TrafficRecorder(target, 16, 1024);
+    HttpRequest request = HttpRequest.get(new URL("http://recorded/items")).build();
+    recorder.requestStart(request, System.nanoTime());
+    TimeUnit.MILLISECONDS.sleep(200);
+
+    // Recording stopped when the write failed, and closing reports the failure
+    recorder.requestStart(request, System.nanoTime());
+    Assert.assertEquals(1, recorder.getRecorded());
+    try {
+      recorder.close();
+      Assert.fail("Expected the write failure");
+    } catch (IOException e) {
+      Assert.assertEquals("Target is not writable", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testRecordedBodies() throws Exception {
+    File log = tmpFolder.newFile();
+    TrafficRecorder recorder = new TrafficRecorder(new FileOutputStream(log), 16, 10);
+    URL url = new URL("http://recorded/items");
+    ByteBuffer direct = ByteBuffer.allocateDirect(6);
+    direct.put("direct".getBytes(Charsets.UTF_8)).flip();
+    File file = tmpFolder.newFile();
+    Files.write("file", file, Charsets.UTF_8);
+
+    // Bodies backed by arrays or buffers are recorded, other bodies and bodies over the maximum size are not
+    recorder.requestStart(HttpRequest.post(url).withBody(ByteBuffer.wrap("xarrayx".getBytes(Charsets.UTF_8), 1, 5)
+                                                           .slice()).build(), System.nanoTime());
+    recorder.requestStart(HttpRequest.post(url).withBody(direct, ByteBuffer.wrap("!".getBytes(Charsets.UTF_8)))
+                            .build(), System.nanoTime());
+    recorder.requestStart(HttpRequest.post(url).withBody(file).build(), System.nanoTime());
+    recorder.requestStart(HttpRequest.post(url).withBody("more than ten bytes").build(), System.nanoTime());
+    recorder.close();
+    Assert.assertEquals(6, direct.remaining());
+
+    List<String> bodies = Lists.newArrayList();
+    DataInputStream in = new DataInputStream(new FileInputStream(log));
+    try {
+      TrafficLog.readHeader(in);
+      for (TrafficLog.Entry entry = TrafficLog.read(in); entry != null; entry = TrafficLog.read(in)) {
+        RequestBody body = entry.getRequest().getRequestBody();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        if (body != null) {
+          body.writeTo(os);
+        }
+        bodies.add(body == null ? null : new String(os.toByteArray(), Charsets.UTF_8));
+      }
+    } finally {
+      in.close();
+    }
+    Assert.assertEquals(Arrays.asList("array", "direct!", null, null), bodies);
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidLog() throws Exception {
+    TrafficReplayer.builder(tmpFolder.newFile()).build().replay();
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.http;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+
+/**
+ * Test for {@link UnixSocketTransport}, which only runs on Java 16 and later.
+ */
+public class UnixSocketTransportTest {
+
+  @ClassRule
+  public static final TemporaryFolder TMP_FOLDER = new TemporaryFolder();
+
+  private static ChannelHttpServer server;
+  private static UnixSocketTransport transport;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    Assume.assumeTrue(UnixSocketTransport.isSupported());
+    File socketFile = new File(TMP_FOLDER.getRoot(), "http.sock");
+    server = ChannelHttpServer.unix(socketFile);
+    transport = UnixSocketTransport.builder(socketFile).build();
+  }
+
+  @AfterClass
+  public static void finish() {
+    if (transport != null) {
+      transport.close();
+      server.close();
+    }
+  }
+
+  @Test
+  public void testRequests() throws Exception {
+    HttpRequest request = HttpRequest.post(new URL("http://sidecar/echo")).withBody("hello").build();
+    HttpResponse response = transport.execute(request, HttpRequestConfig.DEFAULT);
+    Assert.assertEquals(200, response.getResponseCode());
+    Assert.assertEquals("hello", response.getResponseBodyAsString());
+
+    response = transport.execute(HttpRequest.get(new URL("http://sidecar/bytes?size=100000")).build(),
+                                 HttpRequestConfig.DEFAULT);
+    Assert.assertEquals(100000, response.getResponseBody().length);
+
+    response = transport.execute(HttpRequest.get(new URL("http://sidecar/missing")).build(),
+                                 HttpRequestConfig.DEFAULT);
+    Assert.assertEquals(404, response.getResponseCode());
+  }
+
+  @Test
+  public void testConnectionReuse() throws Exception {
+    URL url = new URL("http://sidecar/echo");
+    int connections = server.getConnections();
+    for (int i = 0; i < 10; i++) {
+      String body = "request " + i;
+      Assert.assertEquals(body, transport.execute(HttpRequest.post(url).withBody(body).build(),
+                                                  HttpRequestConfig.DEFAULT).getResponseBodyAsString());
+    }
+    Assert.assertTrue(server.getConnections() - connections <= 1);
+    Assert.assertEquals(1, transport.getIdleConnections(url, HttpRequestConfig.DEFAULT));
+
+    // The server closes the connection when asked to, so it is not kept
+    transport.execute(HttpRequest.get(url).addHeader("Connection", "close").build(), HttpRequestConfig.DEFAULT);
+    Assert.assertEquals(0, transport.getIdleConnections(url, HttpRequestConfig.DEFAULT));
+  }
+
+  @Test
+  public void testReadTimeout() throws Exception {
+    HttpRequestConfig config = new HttpRequestConfig(1000, 200);
+    try {
+      transport.execute(HttpRequest.get(new URL("http://sidecar/sleep?millis=2000")).build(), config);
+      Assert.fail("Expected read to time out");
+    } catch (SocketTimeoutException e) {
+      // Expected
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testNoServer() throws Exception {
+    UnixSocketTransport transport = UnixSocketTransport.builder(new File(TMP_FOLDER.getRoot(), "none.sock")).build();
+    try {
+      transport.execute(HttpRequest.get(new URL("http://sidecar/echo")).build(), HttpRequestConfig.DEFAULT);
+    } finally {
+      transport.close();
+    }
+  }
+}
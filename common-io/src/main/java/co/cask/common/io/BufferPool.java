@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2014 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.common.io;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Pool of byte arrays whose sizes are powers of two between a minimum and a maximum size.
+ *
+ * <p>
+ * {@link #acquire(int)} returns an array from the smallest size class that fits the requested size, reusing
+ * a released array if one is available. At most {@code maxPerClass} arrays are retained per size class;
+ * requests larger than the maximum size are allocated and never retained.
+ * </p>
+ */
+@ThreadSafe
+public final class BufferPool {
+
+  private final int minShift;
+  private final int maxShift;
+  private final int maxPerClass;
+  private final Queue<byte[]>[] pools;
+  private final AtomicInteger[] pooled;
+
+  /**
+   * @param minSize size of the smallest size class; rounded up to a power of two
+   * @param maxSize size of the largest size class; rounded up to a power of two
+   * @param maxPerClass maximum number of arrays to retain per size class
+   */
+  @SuppressWarnings("unchecked")
+  public BufferPool(int minSize, int maxSize, int maxPerClass) {
+    if (minSize <= 0 || maxSize < minSize || maxSize > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid size range [" + minSize + ", " + maxSize + "]");
+    }
+    this.minShift = shiftFor(minSize);
+    this.maxShift = shiftFor(maxSize);
+    this.maxPerClass = maxPerClass;
+
+    int classes = maxShift - minShift + 1;
+    this.pools = (Queue<byte[]>[]) new Queue<?>[classes];
+    this.pooled = new AtomicInteger[classes];
+    for (int i = 0; i < classes; i++) {
+      pools[i] = new ConcurrentLinkedQueue<byte[]>();
+      pooled[i] = new AtomicInteger();
+    }
+  }
+
+  /**
+   * @return size of the largest size class
+   */
+  public int getMaxSize() {
+    return 1 << maxShift;
+  }
+
+  /**
+   * Returns an array of at least the given size. The content of the array is undefined.
+   *
+   * @param size minimum size of the array
+   * @return a pooled or newly allocated array
+   */
+  public byte[] acquire(int size) {
+    int shift = Math.max(minShift, shiftFor(size));
+    if (shift > maxShift) {
+      return new byte[size];
+    }
+    int index = shift - minShift;
+    byte[] buffer = pools[index].poll();
+    if (buffer == null) {
+      return new byte[1 << shift];
+    }
+    pooled[index].decrementAndGet();
+    return buffer;
+  }
+
+  /**
+   * Returns an array acquired from this pool, so that it can be reused. The caller must not use it afterwards.
+   *
+   * @param buffer the array to release
+   */
+  public void release(byte[] buffer) {
+    int length = buffer.length;
+    if (Integer.bitCount(length) != 1) {
+      return;
+    }
+    int shift = Integer.numberOfTrailingZeros(length);
+    if (shift < minShift || shift > maxShift) {
+      return;
+    }
+    int index = shift - minShift;
+    if (pooled[index].incrementAndGet() > maxPerClass) {
+      pooled[index].decrementAndGet();
+      return;
+    }
+    pools[index].offer(buffer);
+  }
+
+  private static int shiftFor(int size) {
+    return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+  }
+}